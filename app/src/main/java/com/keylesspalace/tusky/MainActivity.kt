@@ -57,6 +57,7 @@ import androidx.core.view.forEach
 import androidx.core.view.isVisible
 import androidx.core.view.updateLayoutParams
 import androidx.core.view.updatePadding
+import androidx.lifecycle.Lifecycle
 import androidx.lifecycle.lifecycleScope
 import androidx.viewpager2.widget.MarginPageTransformer
 import com.bumptech.glide.Glide
@@ -72,17 +73,20 @@ import com.google.android.material.tabs.TabLayout.OnTabSelectedListener
 import com.google.android.material.tabs.TabLayoutMediator
 import com.keylesspalace.tusky.appstore.CacheUpdater
 import com.keylesspalace.tusky.appstore.EventHub
+import com.keylesspalace.tusky.appstore.StreamingCacheUpdater
 import com.keylesspalace.tusky.components.account.AccountActivity
 import com.keylesspalace.tusky.components.accountlist.AccountListActivity
 import com.keylesspalace.tusky.components.announcements.AnnouncementsActivity
 import com.keylesspalace.tusky.components.compose.ComposeActivity
 import com.keylesspalace.tusky.components.compose.ComposeActivity.Companion.canHandleMimeType
+import com.keylesspalace.tusky.components.developertools.DeveloperToolsFragment
 import com.keylesspalace.tusky.components.drafts.DraftsActivity
 import com.keylesspalace.tusky.components.login.LoginActivity
 import com.keylesspalace.tusky.components.preference.PreferencesActivity
 import com.keylesspalace.tusky.components.scheduled.ScheduledStatusActivity
 import com.keylesspalace.tusky.components.search.SearchActivity
 import com.keylesspalace.tusky.components.systemnotifications.NotificationService
+import com.keylesspalace.tusky.components.timeline.HomeTimelineGapFiller
 import com.keylesspalace.tusky.components.trending.TrendingActivity
 import com.keylesspalace.tusky.databinding.ActivityMainBinding
 import com.keylesspalace.tusky.db.DraftsAlert
@@ -98,6 +102,7 @@ import com.keylesspalace.tusky.usecase.LogoutUsecase
 import com.keylesspalace.tusky.util.emojify
 import com.keylesspalace.tusky.util.getParcelableExtraCompat
 import com.keylesspalace.tusky.util.hide
+import com.keylesspalace.tusky.util.launchAndRepeatOnLifecycle
 import com.keylesspalace.tusky.util.reduceSwipeSensitivity
 import com.keylesspalace.tusky.util.show
 import com.keylesspalace.tusky.util.startActivityWithSlideInAnimation
@@ -142,6 +147,12 @@ class MainActivity : BottomSheetActivity(), ActionButtonActivity, MenuProvider {
     @Inject
     lateinit var cacheUpdater: CacheUpdater
 
+    @Inject
+    lateinit var streamingCacheUpdater: StreamingCacheUpdater
+
+    @Inject
+    lateinit var homeTimelineGapFiller: HomeTimelineGapFiller
+
     @Inject
     lateinit var logoutUsecase: LogoutUsecase
 
@@ -345,6 +356,14 @@ class MainActivity : BottomSheetActivity(), ActionButtonActivity, MenuProvider {
 
         // "Post failed" dialog should display in this activity
         draftsAlert.observeInContext(this@MainActivity, true)
+
+        // the timelines are kept up to date while Tusky is visible
+        launchAndRepeatOnLifecycle(Lifecycle.State.STARTED) {
+            streamingCacheUpdater.stream(activeAccount)
+        }
+        launchAndRepeatOnLifecycle(Lifecycle.State.STARTED) {
+            homeTimelineGapFiller.fillInBackground(activeAccount)
+        }
     }
 
     override fun onNewIntent(intent: Intent) {
@@ -786,7 +805,7 @@ class MainActivity : BottomSheetActivity(), ActionButtonActivity, MenuProvider {
         return MaterialAlertDialogBuilder(this)
             .setTitle("Developer Tools")
             .setItems(
-                arrayOf("Create \"Load more\" gap")
+                arrayOf("Create \"Load more\" gap", "Statistics and metrics")
             ) { _, which ->
                 Log.d(TAG, "Developer tools: $which")
                 when (which) {
@@ -798,6 +817,7 @@ class MainActivity : BottomSheetActivity(), ActionButtonActivity, MenuProvider {
                             )
                         }
                     }
+                    1 -> DeveloperToolsFragment.show(supportFragmentManager)
                 }
             }
             .show()
@@ -35,6 +35,7 @@ import com.keylesspalace.tusky.settings.SCHEMA_VERSION
 import com.keylesspalace.tusky.util.LocaleManager
 import com.keylesspalace.tusky.util.setAppNightMode
 import com.keylesspalace.tusky.worker.PruneCacheWorker
+import com.keylesspalace.tusky.worker.TimelineSyncWorker
 import dagger.hilt.android.HiltAndroidApp
 import de.c1710.filemojicompat_defaults.DefaultEmojiPackList
 import de.c1710.filemojicompat_ui.helpers.EmojiPackHelper
@@ -118,6 +119,8 @@ class TuskyApplication : Application(), Configuration.Provider {
             ExistingPeriodicWorkPolicy.KEEP,
             pruneCacheWorker
         )
+
+        TimelineSyncWorker.schedule(workManager, preferences.getBoolean(PrefKeys.SYNC_TIMELINES, false))
     }
 
     override val workManagerConfiguration: Configuration
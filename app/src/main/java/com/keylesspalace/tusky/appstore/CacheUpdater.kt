@@ -1,7 +1,9 @@
 package com.keylesspalace.tusky.appstore
 
+import androidx.room.withTransaction
 import com.keylesspalace.tusky.db.AccountManager
 import com.keylesspalace.tusky.db.AppDatabase
+import com.keylesspalace.tusky.db.CacheDatabases
 import com.squareup.moshi.Moshi
 import javax.inject.Inject
 import kotlinx.coroutines.CoroutineScope
@@ -17,34 +19,36 @@ import kotlinx.coroutines.launch
 class CacheUpdater @Inject constructor(
     eventHub: EventHub,
     accountManager: AccountManager,
-    appDatabase: AppDatabase,
+    private val cacheDatabases: CacheDatabases,
     moshi: Moshi
 ) {
 
     private val scope = CoroutineScope(Dispatchers.IO + SupervisorJob())
 
-    private val timelineDao = appDatabase.timelineDao()
-    private val statusDao = appDatabase.timelineStatusDao()
-    private val notificationsDao = appDatabase.notificationsDao()
-
     init {
         scope.launch {
             eventHub.events.collect { event ->
                 val tuskyAccountId = accountManager.activeAccount?.id ?: return@collect
+                val db = cacheDatabases.forAccount(tuskyAccountId)
+                val timelineDao = db.timelineDao()
+                val statusDao = db.timelineStatusDao()
+                val notificationsDao = db.notificationsDao()
                 when (event) {
                     is StatusChangedEvent -> statusDao.update(tuskyAccountId = tuskyAccountId, status = event.status)
                     is UnfollowEvent -> timelineDao.removeStatusesAndReblogsByUser(tuskyAccountId, event.accountId)
-                    is BlockEvent -> removeAllByUser(tuskyAccountId, event.accountId)
-                    is MuteEvent -> removeAllByUser(tuskyAccountId, event.accountId)
+                    is BlockEvent -> removeAllByUser(db, tuskyAccountId, event.accountId)
+                    is MuteEvent -> removeAllByUser(db, tuskyAccountId, event.accountId)
 
                     is DomainMuteEvent -> {
                         timelineDao.deleteAllFromInstance(tuskyAccountId, event.instance)
                         notificationsDao.deleteAllFromInstance(tuskyAccountId, event.instance)
                     }
 
-                    is StatusDeletedEvent -> {
+                    is StatusDeletedEvent -> db.withTransaction {
                         timelineDao.deleteAllWithStatus(tuskyAccountId, event.statusId)
                         notificationsDao.deleteAllWithStatus(tuskyAccountId, event.statusId)
+                        // also removes the status from the search index
+                        statusDao.delete(tuskyAccountId, event.statusId)
                     }
 
                     is PollVoteEvent -> statusDao.setVoted(tuskyAccountId, event.statusId, event.poll)
@@ -54,9 +58,9 @@ class CacheUpdater @Inject constructor(
         }
     }
 
-    private suspend fun removeAllByUser(tuskyAccountId: Long, accountId: String) {
-        timelineDao.removeAllByUser(tuskyAccountId, accountId)
-        notificationsDao.removeAllByUser(tuskyAccountId, accountId)
+    private suspend fun removeAllByUser(db: AppDatabase, tuskyAccountId: Long, accountId: String) {
+        db.timelineDao().removeAllByUser(tuskyAccountId, accountId)
+        db.notificationsDao().removeAllByUser(tuskyAccountId, accountId)
     }
 
     fun stop() {
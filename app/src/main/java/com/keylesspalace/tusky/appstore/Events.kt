@@ -7,6 +7,7 @@ import com.keylesspalace.tusky.entity.Poll
 import com.keylesspalace.tusky.entity.Status
 
 data class StatusChangedEvent(val status: Status) : Event
+data class FollowEvent(val accountId: String) : Event
 data class UnfollowEvent(val accountId: String) : Event
 data class BlockEvent(val accountId: String) : Event
 data class MuteEvent(val accountId: String) : Event
@@ -0,0 +1,240 @@
+/* Copyright 2026 Tusky Contributors
+ *
+ * This file is a part of Tusky.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Tusky is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Tusky; if not,
+ * see <http://www.gnu.org/licenses>. */
+
+package com.keylesspalace.tusky.appstore
+
+import android.util.Log
+import androidx.room.withTransaction
+import com.keylesspalace.tusky.components.notifications.toNotificationEntity
+import com.keylesspalace.tusky.components.systemnotifications.toTypes
+import com.keylesspalace.tusky.components.timeline.LoadMorePlaceholder
+import com.keylesspalace.tusky.components.timeline.toEntity
+import com.keylesspalace.tusky.components.timeline.util.ifExpected
+import com.keylesspalace.tusky.db.AccountManager
+import com.keylesspalace.tusky.db.AppDatabase
+import com.keylesspalace.tusky.db.CacheDatabases
+import com.keylesspalace.tusky.db.CacheIngester
+import com.keylesspalace.tusky.db.entity.AccountEntity
+import com.keylesspalace.tusky.entity.Conversation
+import com.keylesspalace.tusky.entity.Filter
+import com.keylesspalace.tusky.entity.Notification
+import com.keylesspalace.tusky.entity.Status
+import com.keylesspalace.tusky.network.ApiProvider
+import com.keylesspalace.tusky.network.MastodonApi
+import com.keylesspalace.tusky.network.StreamEvent
+import com.keylesspalace.tusky.network.StreamingClient
+import com.squareup.moshi.Moshi
+import com.squareup.moshi.adapter
+import javax.inject.Inject
+import kotlin.math.min
+import kotlinx.coroutines.delay
+import retrofit2.HttpException
+
+/**
+ * Keeps the cached home timeline, notifications and conversations of an account up to date with the streaming API
+ * while the app is in the foreground, so they don't have to be refreshed to show what is new.
+ *
+ * Events are written into the cache through [CacheIngester], the same way the remote mediators write the pages they load.
+ * Whenever the connection is (re)established, whatever happened while there was none is loaded first
+ * and a placeholder is inserted if that was more than a page, just like a refresh of the timelines would.
+ */
+@OptIn(ExperimentalStdlibApi::class)
+class StreamingCacheUpdater @Inject constructor(
+    private val streamingClient: StreamingClient,
+    private val apiProvider: ApiProvider,
+    private val accountManager: AccountManager,
+    private val cacheDatabases: CacheDatabases,
+    moshi: Moshi
+) {
+
+    private val statusAdapter = moshi.adapter<Status>()
+    private val notificationAdapter = moshi.adapter<Notification>()
+    private val conversationAdapter = moshi.adapter<Conversation>()
+
+    /**
+     * Streams the events of [account] into the cache until the calling coroutine is cancelled.
+     * A lost connection is reestablished with exponential backoff.
+     */
+    suspend fun stream(account: AccountEntity) {
+        val api = apiProvider.mastodonApi(account)
+        val db = cacheDatabases.forAccount(account.id)
+        val ingester = CacheIngester(db)
+
+        val streamingUrl = StreamingClient.streamingUrl(
+            account.domain,
+            api.getInstance().getOrNull()?.configuration?.urls?.let { urls -> urls.streaming ?: urls.streamingApi }
+        )
+
+        var failures = 0
+        while (true) {
+            try {
+                streamingClient.events(streamingUrl, account.accessToken, STREAMS).collect { event ->
+                    when (event) {
+                        StreamEvent.Connected -> {
+                            failures = 0
+                            catchUp(account, api, db, ingester)
+                        }
+                        is StreamEvent.Message -> handle(account, db, ingester, event)
+                    }
+                }
+            } catch (e: Exception) {
+                ifExpected(e) {
+                    Log.w(TAG, "Lost the connection to the streaming API", e)
+                }
+            }
+            delay(min(MIN_RECONNECT_DELAY_MILLIS shl min(failures, 10), MAX_RECONNECT_DELAY_MILLIS))
+            failures++
+        }
+    }
+
+    /** Writes a single event of the streaming API into the cache. */
+    internal suspend fun handle(account: AccountEntity, db: AppDatabase, ingester: CacheIngester, event: StreamEvent.Message) {
+        val payload = event.payload ?: return
+        try {
+            when (event.event) {
+                "update" -> if (USER_STREAM in event.stream) {
+                    val status = statusAdapter.fromJson(payload) ?: return
+                    ingester.replaceHomeTimelineRange(account, listOf(status), Filter.Kind.HOME)
+                }
+                "status.update" -> {
+                    val status = statusAdapter.fromJson(payload) ?: return
+                    db.timelineStatusDao().update(account.id, status)
+                }
+                "delete" -> db.withTransaction {
+                    db.timelineDao().deleteAllWithStatus(account.id, payload)
+                    db.notificationsDao().deleteAllWithStatus(account.id, payload)
+                    db.timelineStatusDao().delete(account.id, payload)
+                }
+                "notification" -> {
+                    val notification = notificationAdapter.fromJson(payload) ?: return
+                    if (notification.type !in excludedNotificationTypes(account)) {
+                        ingester.replaceNotificationRange(account, listOf(notification))
+                    }
+                }
+                "conversation" -> {
+                    val conversation = conversationAdapter.fromJson(payload) ?: return
+                    ingester.upsertConversations(account, listOf(conversation))
+                }
+            }
+        } catch (e: Exception) {
+            ifExpected(e) {
+                Log.w(TAG, "Ignoring malformed ${event.event} event", e)
+            }
+        }
+    }
+
+    /**
+     * Loads the statuses and notifications of [account] that are newer than the newest cached ones without streaming,
+     * e.g. to refresh the cache in the background.
+     * @param maxPages how many pages of statuses and of notifications are loaded at most
+     * @return false if loading failed
+     */
+    suspend fun catchUp(account: AccountEntity, maxPages: Int = 1): Boolean {
+        val db = cacheDatabases.forAccount(account.id)
+        return catchUp(account, apiProvider.mastodonApi(account), db, CacheIngester(db), maxPages)
+    }
+
+    /**
+     * Loads the statuses and notifications that are newer than the newest cached ones,
+     * because the events that happened while there was no connection are not sent again.
+     * If there are more than [maxPages] pages of them, the rest is loaded when the placeholder below the loaded ones is clicked.
+     * @return false if loading failed
+     */
+    internal suspend fun catchUp(
+        account: AccountEntity,
+        api: MastodonApi,
+        db: AppDatabase,
+        ingester: CacheIngester,
+        maxPages: Int = 1
+    ): Boolean {
+        try {
+            val timelineDao = db.timelineDao()
+            timelineDao.getTopId(account.id)?.let { topId ->
+                var maxId: String? = null
+                for (page in 1..maxPages) {
+                    val response = api.homeTimelineBody(maxId = maxId, sinceId = topId, limit = CATCH_UP_LIMIT)
+                    val body = response.body()
+                    if (!response.isSuccessful || body == null) {
+                        throw HttpException(response)
+                    }
+                    val result = body.use { ingester.replaceHomeTimelineRange(account, body.source(), statusAdapter, Filter.Kind.HOME) }
+                    if (result.statusCount < CATCH_UP_LIMIT) {
+                        break
+                    }
+                    // the placeholder keeps the gap visible if the next page fails, the next page starts with the status it replaced
+                    val placeholderId = result.oldestId!!
+                    timelineDao.upsertHomeTimelineItem(LoadMorePlaceholder(placeholderId, loading = false).toEntity(account.id))
+                    maxId = timelineDao.getIdAbove(account.id, placeholderId) ?: break
+                }
+            }
+
+            val notificationsDao = db.notificationsDao()
+            notificationsDao.getTopId(account.id)?.let { topId ->
+                var maxId: String? = null
+                for (page in 1..maxPages) {
+                    val response = api.notifications(
+                        maxId = maxId,
+                        sinceId = topId,
+                        limit = CATCH_UP_LIMIT,
+                        excludes = excludedNotificationTypes(account)
+                    )
+                    val notifications = response.body()
+                    if (!response.isSuccessful || notifications == null) {
+                        throw HttpException(response)
+                    }
+                    db.withTransaction {
+                        ingester.replaceNotificationRange(account, notifications)
+                        if (notifications.size == CATCH_UP_LIMIT) {
+                            notificationsDao.insertNotification(
+                                LoadMorePlaceholder(notifications.last().id, loading = false).toNotificationEntity(account.id)
+                            )
+                        }
+                    }
+                    if (notifications.size < CATCH_UP_LIMIT) {
+                        break
+                    }
+                    maxId = notifications[notifications.size - 2].id
+                }
+            }
+            return true
+        } catch (e: Exception) {
+            ifExpected(e) {
+                Log.w(TAG, "Failed to load what happened while the streaming API was disconnected", e)
+            }
+            return false
+        }
+    }
+
+    /** The filter of the notifications tab can be changed while streaming, so it is looked up for every notification. */
+    private fun excludedNotificationTypes(account: AccountEntity): Set<Notification.Type> {
+        val currentAccount = accountManager.accounts.find { candidate -> candidate.id == account.id } ?: account
+        return currentAccount.notificationsFilter.toTypes()
+    }
+
+    companion object {
+        private const val TAG = "StreamingCacheUpdater"
+
+        private const val USER_STREAM = "user"
+
+        /** The user stream includes notifications, subscribing to user:notification as well would receive all of them twice. */
+        private val STREAMS = listOf(USER_STREAM, "direct")
+
+        /** The most notifications servers return at once, a smaller page than requested would hide that there is more */
+        private const val CATCH_UP_LIMIT = 30
+
+        private const val MIN_RECONNECT_DELAY_MILLIS = 1_000L
+        private const val MAX_RECONNECT_DELAY_MILLIS = 5 * 60 * 1_000L
+    }
+}
@@ -7,6 +7,7 @@ import at.connyduck.calladapter.networkresult.fold
 import com.keylesspalace.tusky.appstore.BlockEvent
 import com.keylesspalace.tusky.appstore.DomainMuteEvent
 import com.keylesspalace.tusky.appstore.EventHub
+import com.keylesspalace.tusky.appstore.FollowEvent
 import com.keylesspalace.tusky.appstore.MuteEvent
 import com.keylesspalace.tusky.appstore.ProfileEditedEvent
 import com.keylesspalace.tusky.appstore.UnfollowEvent
@@ -14,6 +15,7 @@ import com.keylesspalace.tusky.db.AccountManager
 import com.keylesspalace.tusky.entity.Account
 import com.keylesspalace.tusky.entity.Relationship
 import com.keylesspalace.tusky.network.MastodonApi
+import com.keylesspalace.tusky.network.RelationshipBatcher
 import com.keylesspalace.tusky.util.Error
 import com.keylesspalace.tusky.util.Loading
 import com.keylesspalace.tusky.util.Resource
@@ -32,6 +34,7 @@ import kotlinx.coroutines.launch
 class AccountViewModel @Inject constructor(
     private val mastodonApi: MastodonApi,
     private val eventHub: EventHub,
+    private val relationshipBatcher: RelationshipBatcher,
     accountManager: AccountManager
 ) : ViewModel() {
 
@@ -102,7 +105,7 @@ class AccountViewModel @Inject constructor(
             _relationshipData.value = Loading()
 
             viewModelScope.launch {
-                mastodonApi.relationships(listOf(accountId))
+                relationshipBatcher.relationships(listOf(accountId), refresh = reload)
                     .fold(
                         { relationships ->
                             _relationshipData.value =
@@ -273,8 +276,10 @@ class AccountViewModel @Inject constructor(
         relationshipCall.fold(
             { relationship ->
                 _relationshipData.value = Success(relationship)
+                relationshipBatcher.update(relationship)
 
                 when (relationshipAction) {
+                    RelationShipAction.FOLLOW -> eventHub.dispatch(FollowEvent(accountId))
                     RelationShipAction.UNFOLLOW -> eventHub.dispatch(UnfollowEvent(accountId))
                     RelationShipAction.BLOCK -> eventHub.dispatch(BlockEvent(accountId))
                     RelationShipAction.MUTE -> eventHub.dispatch(MuteEvent(accountId))
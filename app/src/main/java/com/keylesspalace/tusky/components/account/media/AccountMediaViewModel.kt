@@ -19,9 +19,9 @@ import androidx.lifecycle.ViewModel
 import androidx.lifecycle.viewModelScope
 import androidx.paging.ExperimentalPagingApi
 import androidx.paging.Pager
-import androidx.paging.PagingConfig
 import androidx.paging.cachedIn
 import com.keylesspalace.tusky.db.AccountManager
+import com.keylesspalace.tusky.network.AdaptivePagingPolicy
 import com.keylesspalace.tusky.network.MastodonApi
 import com.keylesspalace.tusky.viewdata.AttachmentViewData
 import dagger.hilt.android.lifecycle.HiltViewModel
@@ -30,7 +30,8 @@ import javax.inject.Inject
 @HiltViewModel
 class AccountMediaViewModel @Inject constructor(
     accountManager: AccountManager,
-    api: MastodonApi
+    api: MastodonApi,
+    pagingPolicy: AdaptivePagingPolicy
 ) : ViewModel() {
 
     lateinit var accountId: String
@@ -43,10 +44,7 @@ class AccountMediaViewModel @Inject constructor(
 
     @OptIn(ExperimentalPagingApi::class)
     val media = Pager(
-        config = PagingConfig(
-            pageSize = LOAD_AT_ONCE,
-            prefetchDistance = LOAD_AT_ONCE * 2
-        ),
+        config = pagingPolicy.config("account media", defaultPageSize = LOAD_AT_ONCE, prefetchPages = 2),
         pagingSourceFactory = {
             AccountMediaPagingSource(
                 viewModel = this
@@ -23,6 +23,7 @@ import at.connyduck.calladapter.networkresult.getOrElse
 import com.keylesspalace.tusky.components.accountlist.AccountListActivity.Type
 import com.keylesspalace.tusky.entity.TimelineAccount
 import com.keylesspalace.tusky.network.MastodonApi
+import com.keylesspalace.tusky.network.RelationshipBatcher
 import com.keylesspalace.tusky.util.HttpHeaderLink
 import retrofit2.HttpException
 import retrofit2.Response
@@ -30,6 +31,7 @@ import retrofit2.Response
 @OptIn(ExperimentalPagingApi::class)
 class AccountListRemoteMediator(
     private val api: MastodonApi,
+    private val relationshipBatcher: RelationshipBatcher,
     private val viewModel: AccountListViewModel,
     private val fetchRelationships: Boolean
 ) : RemoteMediator<String, AccountViewData>() {
@@ -70,7 +72,7 @@ class AccountListRemoteMediator(
         viewModel.nextKey = HttpHeaderLink.findByRelationType(links, "next")?.uri?.getQueryParameter("max_id")
 
         val relationships = if (fetchRelationships) {
-            api.relationships(accounts.map { it.id }).getOrElse { e ->
+            relationshipBatcher.relationships(accounts.map { it.id }).getOrElse { e ->
                 return MediatorResult.Error(e)
             }
         } else {
@@ -22,12 +22,14 @@ import androidx.lifecycle.viewModelScope
 import androidx.paging.ExperimentalPagingApi
 import androidx.paging.InvalidatingPagingSourceFactory
 import androidx.paging.Pager
-import androidx.paging.PagingConfig
 import androidx.paging.cachedIn
 import at.connyduck.calladapter.networkresult.fold
 import at.connyduck.calladapter.networkresult.onFailure
+import at.connyduck.calladapter.networkresult.onSuccess
 import com.keylesspalace.tusky.R
+import com.keylesspalace.tusky.network.AdaptivePagingPolicy
 import com.keylesspalace.tusky.network.MastodonApi
+import com.keylesspalace.tusky.network.RelationshipBatcher
 import dagger.assisted.Assisted
 import dagger.assisted.AssistedFactory
 import dagger.assisted.AssistedInject
@@ -43,6 +45,8 @@ import kotlinx.coroutines.launch
 @HiltViewModel(assistedFactory = AccountListViewModel.Factory::class)
 class AccountListViewModel @AssistedInject constructor(
     private val api: MastodonApi,
+    private val relationshipBatcher: RelationshipBatcher,
+    pagingPolicy: AdaptivePagingPolicy,
     @Assisted("type") val type: AccountListActivity.Type,
     @Assisted("id") val accountId: String?
 ) : ViewModel() {
@@ -53,8 +57,8 @@ class AccountListViewModel @AssistedInject constructor(
 
     @OptIn(ExperimentalPagingApi::class)
     val accountPager = Pager(
-        config = PagingConfig(40),
-        remoteMediator = AccountListRemoteMediator(api, this, fetchRelationships = type == AccountListActivity.Type.MUTES),
+        config = pagingPolicy.config("account list", defaultPageSize = 40),
+        remoteMediator = AccountListRemoteMediator(api, relationshipBatcher, this, fetchRelationships = type == AccountListActivity.Type.MUTES),
         pagingSourceFactory = factory
     ).flow
         .cachedIn(viewModelScope)
@@ -73,7 +77,9 @@ class AccountListViewModel @AssistedInject constructor(
     fun mute(accountId: String, notifications: Boolean) {
         val accountViewData = accounts.find { it.id == accountId } ?: return
         viewModelScope.launch {
-            api.muteAccount(accountId, notifications).onFailure { e ->
+            api.muteAccount(accountId, notifications).onSuccess { relationship ->
+                relationshipBatcher.update(relationship)
+            }.onFailure { e ->
                 sendEvent(
                     SnackbarEvent(
                         message = R.string.mute_failure,
@@ -17,6 +17,7 @@ package com.keylesspalace.tusky.components.conversation
 
 import androidx.room.Embedded
 import androidx.room.Entity
+import androidx.room.Index
 import androidx.room.TypeConverters
 import com.keylesspalace.tusky.db.Converters
 import com.keylesspalace.tusky.entity.Attachment
@@ -26,24 +27,28 @@ import com.keylesspalace.tusky.entity.HashTag
 import com.keylesspalace.tusky.entity.Poll
 import com.keylesspalace.tusky.entity.Status
 import com.keylesspalace.tusky.entity.TimelineAccount
+import com.keylesspalace.tusky.util.toSortKey
 import com.keylesspalace.tusky.viewdata.StatusViewData
 import com.squareup.moshi.JsonClass
 import java.util.Date
 
-@Entity(primaryKeys = ["id", "accountId"])
+@Entity(
+    primaryKeys = ["id", "accountId"],
+    indices = [Index("accountId", "sortKey")]
+)
 @TypeConverters(Converters::class)
 data class ConversationEntity(
     val accountId: Long,
     val id: String,
-    val order: Int,
     val accounts: List<ConversationAccountEntity>,
     val unread: Boolean,
-    @Embedded(prefix = "s_") val lastStatus: ConversationStatusEntity
+    @Embedded(prefix = "s_") val lastStatus: ConversationStatusEntity,
+    // conversations are sorted by their last status like the server does, this is its id in a form that can be sorted by an index
+    val sortKey: String = lastStatus.id.toSortKey()
 ) {
     fun toViewData(): ConversationViewData {
         return ConversationViewData(
             id = id,
-            order = order,
             accounts = accounts,
             unread = unread,
             lastStatus = lastStatus.toViewData()
@@ -181,14 +186,12 @@ fun Status.toEntity(expanded: Boolean, contentShowing: Boolean, contentCollapsed
 
 fun Conversation.toEntity(
     accountId: Long,
-    order: Int,
     expanded: Boolean,
     contentShowing: Boolean,
     contentCollapsed: Boolean
 ) = ConversationEntity(
     accountId = accountId,
     id = id,
-    order = order,
     accounts = accounts.map { it.toEntity() },
     unread = unread,
     lastStatus = lastStatus!!.toEntity(
@@ -20,7 +20,6 @@ import com.keylesspalace.tusky.viewdata.StatusViewData
 
 data class ConversationViewData(
     val id: String,
-    val order: Int,
     val accounts: List<ConversationAccountEntity>,
     val unread: Boolean,
     val lastStatus: StatusViewData.Concrete
@@ -38,7 +37,6 @@ data class ConversationViewData(
         return ConversationEntity(
             accountId = accountId,
             id = id,
-            order = order,
             accounts = accounts,
             unread = unread,
             lastStatus = lastStatus.toConversationStatusEntity(
@@ -4,23 +4,28 @@ import androidx.paging.ExperimentalPagingApi
 import androidx.paging.LoadType
 import androidx.paging.PagingState
 import androidx.paging.RemoteMediator
-import androidx.room.withTransaction
 import com.keylesspalace.tusky.db.AppDatabase
+import com.keylesspalace.tusky.db.CacheIngester
+import com.keylesspalace.tusky.db.entity.AccountEntity
 import com.keylesspalace.tusky.network.MastodonApi
 import com.keylesspalace.tusky.util.HttpHeaderLink
+import com.keylesspalace.tusky.util.toSortKey
 import retrofit2.HttpException
 
 @OptIn(ExperimentalPagingApi::class)
 class ConversationsRemoteMediator(
     private val api: MastodonApi,
     private val db: AppDatabase,
-    private val viewModel: ConversationsViewModel
+    private val viewModel: ConversationsViewModel,
+    private val ingester: CacheIngester = CacheIngester(db)
 ) : RemoteMediator<Int, ConversationEntity>() {
 
-    private var nextKey: String? = null
-
-    private var order: Int = 0
-
+    /**
+     * Conversations stay cached across refreshes and are merged by their id.
+     * A refresh replaces the newest page of conversations, so conversations that were deleted on the server disappear from it.
+     * The server sorts conversations by their last status, so if more conversations got new messages than fit on that page,
+     * the rest of them are loaded down to the newest cached one. Older conversations are appended below the oldest cached one.
+     */
     override suspend fun load(
         loadType: LoadType,
         state: PagingState<Int, ConversationEntity>
@@ -34,53 +39,73 @@ class ConversationsRemoteMediator(
             return MediatorResult.Success(endOfPaginationReached = true)
         }
 
-        if (loadType == LoadType.REFRESH) {
-            nextKey = null
-            order = 0
-        }
+        val dao = db.conversationDao()
+        val pageSize = state.config.pageSize
 
         try {
-            val conversationsResponse = api.getConversations(
-                maxId = nextKey,
-                limit = state.config.pageSize
-            )
+            if (loadType == LoadType.APPEND) {
+                val oldestLastStatusId = dao.getOldestLastStatusId(activeAccount.id)
+                    ?: return MediatorResult.Success(endOfPaginationReached = true)
+                val page = loadPage(activeAccount, maxId = oldestLastStatusId, sinceId = null, limit = pageSize)
+                return MediatorResult.Success(endOfPaginationReached = page.nextMaxId == null)
+            }
 
-            val conversations = conversationsResponse.body()
-            if (!conversationsResponse.isSuccessful || conversations == null) {
-                return MediatorResult.Error(HttpException(conversationsResponse))
+            val newestLastStatusId = dao.getNewestLastStatusId(activeAccount.id)
+            val firstPage = loadPage(activeAccount, maxId = null, sinceId = null, limit = pageSize, replace = true)
+            if (newestLastStatusId == null || firstPage.nextMaxId == null) {
+                return MediatorResult.Success(endOfPaginationReached = firstPage.nextMaxId == null)
             }
 
-            db.withTransaction {
-                if (loadType == LoadType.REFRESH) {
-                    db.conversationDao().deleteForAccount(activeAccount.id)
-                }
+            // the first page ends above the conversations that were cached before, load the rest of the newer ones
+            val oldestSortKey = firstPage.oldestSortKey
+            var maxId = firstPage.nextMaxId.takeIf { oldestSortKey != null && oldestSortKey > newestLastStatusId.toSortKey() }
+            while (maxId != null) {
+                maxId = loadPage(activeAccount, maxId = maxId, sinceId = newestLastStatusId, limit = pageSize).nextMaxId
+            }
+            return MediatorResult.Success(endOfPaginationReached = false)
+        } catch (e: Exception) {
+            return MediatorResult.Error(e)
+        }
+    }
 
-                val linkHeader = conversationsResponse.headers()["Link"]
-                val links = HttpHeaderLink.parse(linkHeader)
-                nextKey = HttpHeaderLink.findByRelationType(links, "next")?.uri?.getQueryParameter("max_id")
+    private class Page(
+        /** The max_id of the next page, or null if this was the last one */
+        val nextMaxId: String?,
+        /** The sort key of the oldest conversation on the page, or null if the page was empty */
+        val oldestSortKey: String?
+    )
 
-                db.conversationDao().insert(
-                    conversations
-                        .filterNot { it.lastStatus == null }
-                        .map { conversation ->
+    /**
+     * Loads a page of conversations and writes the ones that are new or changed into the cache.
+     * @param replace true to replace the cached conversations in the range of the page, only valid for the newest page
+     */
+    private suspend fun loadPage(account: AccountEntity, maxId: String?, sinceId: String?, limit: Int, replace: Boolean = false): Page {
+        val conversationsResponse = api.getConversations(
+            maxId = maxId,
+            sinceId = sinceId,
+            limit = limit
+        )
 
-                            val expanded = activeAccount.alwaysOpenSpoiler
-                            val contentShowing = activeAccount.alwaysShowSensitiveMedia || !conversation.lastStatus!!.sensitive
-                            val contentCollapsed = true
+        val conversations = conversationsResponse.body()
+        if (!conversationsResponse.isSuccessful || conversations == null) {
+            throw HttpException(conversationsResponse)
+        }
 
-                            conversation.toEntity(
-                                accountId = activeAccount.id,
-                                order = order++,
-                                expanded = expanded,
-                                contentShowing = contentShowing,
-                                contentCollapsed = contentCollapsed
-                            )
-                        }
-                )
-            }
-            return MediatorResult.Success(endOfPaginationReached = nextKey == null)
-        } catch (e: Exception) {
-            return MediatorResult.Error(e)
+        val linkHeader = conversationsResponse.headers()["Link"]
+        val links = HttpHeaderLink.parse(linkHeader)
+        val nextMaxId = HttpHeaderLink.findByRelationType(links, "next")?.uri?.getQueryParameter("max_id")
+            // a page that is not full is the last one, whether the server sends a next link for it or not
+            ?.takeIf { conversations.size == limit }
+
+        if (replace) {
+            ingester.replaceNewestConversations(account, conversations, isLastPage = nextMaxId == null)
+        } else {
+            ingester.upsertConversations(account, conversations)
         }
+
+        return Page(
+            nextMaxId = nextMaxId,
+            oldestSortKey = conversations.mapNotNull { conversation -> conversation.lastStatus?.id?.toSortKey() }.minOrNull()
+        )
     }
 }
@@ -25,7 +25,7 @@ import androidx.paging.cachedIn
 import androidx.paging.map
 import at.connyduck.calladapter.networkresult.fold
 import com.keylesspalace.tusky.db.AccountManager
-import com.keylesspalace.tusky.db.AppDatabase
+import com.keylesspalace.tusky.db.CacheDatabases
 import com.keylesspalace.tusky.network.MastodonApi
 import com.keylesspalace.tusky.usecase.TimelineCases
 import dagger.hilt.android.lifecycle.HiltViewModel
@@ -36,7 +36,7 @@ import kotlinx.coroutines.launch
 @HiltViewModel
 class ConversationsViewModel @Inject constructor(
     private val timelineCases: TimelineCases,
-    private val database: AppDatabase,
+    cacheDatabases: CacheDatabases,
     private val api: MastodonApi,
     accountManager: AccountManager
 ) : ViewModel() {
@@ -44,6 +44,8 @@ class ConversationsViewModel @Inject constructor(
     val activeAccountFlow = accountManager.activeAccount(viewModelScope)
     private val accountId: Long = activeAccountFlow.value!!.id
 
+    private val database = cacheDatabases.forAccount(accountId)
+
     @OptIn(ExperimentalPagingApi::class)
     val conversationFlow = Pager(
         config = PagingConfig(
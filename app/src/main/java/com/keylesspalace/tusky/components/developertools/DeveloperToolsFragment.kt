@@ -0,0 +1,232 @@
+/* Copyright 2026 Tusky Contributors
+ *
+ * This file is a part of Tusky.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Tusky is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Tusky; if not,
+ * see <http://www.gnu.org/licenses>. */
+
+package com.keylesspalace.tusky.components.developertools
+
+import android.app.Dialog
+import android.content.Intent
+import android.os.Bundle
+import android.util.Log
+import androidx.core.content.FileProvider
+import androidx.core.os.bundleOf
+import androidx.fragment.app.DialogFragment
+import androidx.fragment.app.FragmentManager
+import androidx.lifecycle.lifecycleScope
+import com.google.android.material.dialog.MaterialAlertDialogBuilder
+import com.keylesspalace.tusky.BuildConfig
+import com.keylesspalace.tusky.network.NetworkMetrics
+import com.keylesspalace.tusky.usecase.DeveloperToolsUseCase
+import dagger.hilt.android.AndroidEntryPoint
+import java.io.File
+import javax.inject.Inject
+import kotlinx.coroutines.launch
+
+/**
+ * Shows the statistics and metrics Tusky collects about its database and network usage.
+ * Only reachable from the "Developer tools" entry of debug builds, so the texts are not translated.
+ */
+@AndroidEntryPoint
+class DeveloperToolsFragment : DialogFragment() {
+
+    @Inject
+    lateinit var developerToolsUseCase: DeveloperToolsUseCase
+
+    override fun onCreateDialog(savedInstanceState: Bundle?): Dialog {
+        return when (Page.entries[requireArguments().getInt(ARG_PAGE)]) {
+            Page.MENU -> createMenuDialog()
+            Page.QUERY_STATS -> createQueryStatsDialog()
+            Page.REVALIDATION_STATS -> createRevalidationStatsDialog()
+            Page.PAGING_DECISIONS -> createPagingDecisionsDialog()
+            Page.NETWORK_METRICS -> createNetworkMetricsDialog()
+        }
+    }
+
+    private fun createMenuDialog(): Dialog {
+        val queryTracingEnabled = developerToolsUseCase.queryTracingEnabled
+        return MaterialAlertDialogBuilder(requireContext())
+            .setTitle("Statistics and metrics")
+            .setItems(
+                arrayOf(
+                    if (queryTracingEnabled) "Stop query tracing" else "Start query tracing",
+                    "Show query statistics",
+                    "Show revalidation statistics",
+                    "Show paging decisions",
+                    "Show network metrics"
+                )
+            ) { _, which ->
+                when (which) {
+                    0 -> {
+                        Log.d(TAG, "Query tracing enabled: ${!queryTracingEnabled}")
+                        developerToolsUseCase.queryTracingEnabled = !queryTracingEnabled
+                    }
+                    1 -> showPage(parentFragmentManager, Page.QUERY_STATS)
+                    2 -> showPage(parentFragmentManager, Page.REVALIDATION_STATS)
+                    3 -> showPage(parentFragmentManager, Page.PAGING_DECISIONS)
+                    4 -> showPage(parentFragmentManager, Page.NETWORK_METRICS)
+                }
+            }
+            .create()
+    }
+
+    private fun createQueryStatsDialog(): Dialog {
+        val stats = developerToolsUseCase.queryStats()
+        val message = if (stats.isEmpty()) {
+            "No statements have been traced yet."
+        } else {
+            stats.take(MAX_ENTRIES_SHOWN).joinToString(separator = "\n\n") { query ->
+                val warning = if (query.hotPathFullTableScan) "⚠ FULL TABLE SCAN IN HOT PATH\n" else ""
+                "$warning${query.executions}× total ${query.totalMillis} ms, max ${query.maxMillis} ms, " +
+                    "${query.rows} rows, write lock ${query.writeLockMillis} ms\n${query.sql}"
+            }
+        }
+        return MaterialAlertDialogBuilder(requireContext())
+            .setTitle("Query statistics")
+            .setMessage(message)
+            .setPositiveButton("Export as JSON") { _, _ ->
+                shareJson { developerToolsUseCase.exportQueryStats() }
+            }
+            .setNeutralButton("Reset") { _, _ ->
+                developerToolsUseCase.resetQueryStats()
+            }
+            .setNegativeButton(android.R.string.cancel, null)
+            .create()
+    }
+
+    private fun createRevalidationStatsDialog(): Dialog {
+        val stats = developerToolsUseCase.revalidationStats()
+        val message = if (stats.isEmpty()) {
+            "No stored responses have been requested yet."
+        } else {
+            stats.joinToString(separator = "\n\n") { endpoint ->
+                "${endpoint.hits} hits, ${endpoint.notModified} not modified, ${endpoint.misses} misses, " +
+                    "${endpoint.bytesSaved / 1024} KiB saved\n${endpoint.path}"
+            }
+        }
+        return MaterialAlertDialogBuilder(requireContext())
+            .setTitle("Revalidation statistics")
+            .setMessage(message)
+            .setNeutralButton("Reset") { _, _ ->
+                developerToolsUseCase.resetRevalidationStats()
+            }
+            .setNegativeButton(android.R.string.cancel, null)
+            .create()
+    }
+
+    private fun createPagingDecisionsDialog(): Dialog {
+        val decisions = developerToolsUseCase.pagingDecisions()
+        val message = if (decisions.isEmpty()) {
+            "No lists have been created yet."
+        } else {
+            decisions.joinToString(separator = "\n\n") { decision ->
+                val measurements = if (decision.firstByteMillis == null) {
+                    "nothing measured yet"
+                } else {
+                    "first byte ${decision.firstByteMillis} ms, ${decision.bytesPerSecond?.div(1024)} KiB/s, " +
+                        "${decision.bytesPerItem} bytes per item, scrolling ${"%.1f".format(decision.itemsPerSecond)} items/s"
+                }
+                "${decision.name}: page ${decision.pageSize}, prefetch ${decision.prefetchDistance}, " +
+                    "initial ${decision.initialLoadSize}\n$measurements"
+            }
+        }
+        return MaterialAlertDialogBuilder(requireContext())
+            .setTitle("Paging decisions")
+            .setMessage(message)
+            .setNegativeButton(android.R.string.cancel, null)
+            .create()
+    }
+
+    private fun createNetworkMetricsDialog(): Dialog {
+        val instances = developerToolsUseCase.instanceMetrics()
+        val message = if (instances.isEmpty()) {
+            "No requests have been made yet."
+        } else {
+            val buckets = NetworkMetrics.LATENCY_BUCKETS_MILLIS.joinToString(separator = " / ", postfix = " / more ms")
+            val instanceLines = instances.joinToString(separator = "\n\n") { instance ->
+                "${instance.instance}: ${instance.calls} calls, ${instance.failures} failed, " +
+                    "${instance.totalMillis / instance.calls} ms average, " +
+                    "${instance.bytesSent / 1024} KiB sent, ${instance.bytesReceived / 1024} KiB received\n" +
+                    "first byte ${instance.firstByteHistogram.joinToString(separator = " / ")}\n" +
+                    "total ${instance.totalHistogram.joinToString(separator = " / ")}"
+            }
+            val endpointLines = developerToolsUseCase.endpointMetrics().take(MAX_ENTRIES_SHOWN).joinToString(separator = "\n\n") { endpoint ->
+                val averageConnect = if (endpoint.connections == 0) {
+                    "reused connection"
+                } else {
+                    "dns ${endpoint.dnsMillis / endpoint.connections} ms, connect ${endpoint.connectMillis / endpoint.connections} ms, " +
+                        "tls ${endpoint.tlsMillis / endpoint.connections} ms per connection"
+                }
+                "${endpoint.calls}× total ${endpoint.totalMillis} ms, max ${endpoint.maxMillis} ms, " +
+                    "first byte ${endpoint.firstByteMillis / endpoint.calls} ms average, $averageConnect, " +
+                    "${endpoint.cacheHits} cache hits, ${endpoint.conditionalCacheHits} revalidated, ${endpoint.localResponses} local, " +
+                    "${endpoint.bytesReceived / 1024} KiB received\n${endpoint.instance}${endpoint.endpoint}"
+            }
+            "Histogram buckets: $buckets\n\n$instanceLines\n\n$endpointLines"
+        }
+        return MaterialAlertDialogBuilder(requireContext())
+            .setTitle("Network metrics")
+            .setMessage(message)
+            .setPositiveButton("Export as JSON") { _, _ ->
+                shareJson { developerToolsUseCase.exportNetworkMetrics() }
+            }
+            .setNeutralButton("Reset") { _, _ ->
+                developerToolsUseCase.resetNetworkMetrics()
+            }
+            .setNegativeButton(android.R.string.cancel, null)
+            .create()
+    }
+
+    /**
+     * Shares the file [export] writes with another app.
+     * Runs in the scope of the activity, because this dialog is dismissed as soon as its button is clicked.
+     */
+    private fun shareJson(export: suspend () -> File) {
+        val activity = requireActivity()
+        activity.lifecycleScope.launch {
+            val uri = FileProvider.getUriForFile(
+                activity,
+                BuildConfig.APPLICATION_ID + ".fileprovider",
+                export()
+            )
+            val sendIntent = Intent(Intent.ACTION_SEND)
+                .setType("application/json")
+                .putExtra(Intent.EXTRA_STREAM, uri)
+                .addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION)
+            activity.startActivity(Intent.createChooser(sendIntent, null))
+        }
+    }
+
+    private enum class Page {
+        MENU,
+        QUERY_STATS,
+        REVALIDATION_STATS,
+        PAGING_DECISIONS,
+        NETWORK_METRICS
+    }
+
+    companion object {
+        private const val TAG = "DeveloperToolsFragment"
+        private const val ARG_PAGE = "page"
+        private const val MAX_ENTRIES_SHOWN = 30
+
+        /** Shows the menu of all statistics and metrics. */
+        fun show(fragmentManager: FragmentManager) = showPage(fragmentManager, Page.MENU)
+
+        private fun showPage(fragmentManager: FragmentManager, page: Page) {
+            DeveloperToolsFragment().apply {
+                arguments = bundleOf(ARG_PAGE to page.ordinal)
+            }.show(fragmentManager, TAG)
+        }
+    }
+}
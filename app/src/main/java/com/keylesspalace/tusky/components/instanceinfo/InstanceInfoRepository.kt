@@ -25,8 +25,9 @@ import at.connyduck.calladapter.networkresult.onSuccess
 import at.connyduck.calladapter.networkresult.recoverCatching
 import com.keylesspalace.tusky.db.AccountManager
 import com.keylesspalace.tusky.db.AppDatabase
-import com.keylesspalace.tusky.db.entity.EmojisEntity
+import com.keylesspalace.tusky.db.CacheDatabases
 import com.keylesspalace.tusky.db.entity.InstanceInfoEntity
+import com.keylesspalace.tusky.db.entity.toEmoji
 import com.keylesspalace.tusky.di.ApplicationScope
 import com.keylesspalace.tusky.entity.Emoji
 import com.keylesspalace.tusky.entity.Instance
@@ -43,6 +44,7 @@ import kotlinx.coroutines.withContext
 class InstanceInfoRepository @Inject constructor(
     private val api: MastodonApi,
     db: AppDatabase,
+    private val cacheDatabases: CacheDatabases,
     private val accountManager: AccountManager,
     @ApplicationScope
     private val externalScope: CoroutineScope
@@ -53,7 +55,8 @@ class InstanceInfoRepository @Inject constructor(
 
     fun precache() {
         // We are avoiding some duplicate work but we are not trying too hard.
-        // We might request it multiple times in parallel which is not a big problem.
+        // We might request it multiple times in parallel which is not a big problem,
+        // parallel requests share one network call, see SingleFlightInterceptor.
         // We might also get the results in random order or write them twice but it's also
         // not a problem.
         // We are just trying to avoid 2 things:
@@ -79,11 +82,13 @@ class InstanceInfoRepository @Inject constructor(
      * Never throws, returns empty list in case of error.
      */
     suspend fun getEmojis(): List<Emoji> = withContext(Dispatchers.IO) {
+        val tuskyAccountId = accountManager.activeAccount!!.id
+        val emojiDao = cacheDatabases.forAccount(tuskyAccountId).customEmojiDao()
         api.getCustomEmojis()
-            .onSuccess { emojiList -> dao.upsert(EmojisEntity(instanceName, emojiList)) }
+            .onSuccess { emojiList -> emojiDao.replaceInstanceEmojis(tuskyAccountId, emojiList) }
             .getOrElse { throwable ->
                 Log.w(TAG, "failed to load custom emojis, falling back to cache", throwable)
-                dao.getEmojiInfo(instanceName)?.emojiList.orEmpty()
+                emojiDao.getInstanceEmojis(tuskyAccountId).map { emoji -> emoji.toEmoji() }
             }
     }
 
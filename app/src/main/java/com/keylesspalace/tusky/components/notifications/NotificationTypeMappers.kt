@@ -18,10 +18,13 @@ package com.keylesspalace.tusky.components.notifications
 import com.keylesspalace.tusky.components.timeline.LoadMorePlaceholder
 import com.keylesspalace.tusky.components.timeline.toAccount
 import com.keylesspalace.tusky.components.timeline.toStatus
+import com.keylesspalace.tusky.db.entity.CustomEmojis
 import com.keylesspalace.tusky.db.entity.NotificationDataEntity
 import com.keylesspalace.tusky.db.entity.NotificationEntity
 import com.keylesspalace.tusky.db.entity.NotificationReportEntity
+import com.keylesspalace.tusky.db.entity.StatusLocalState
 import com.keylesspalace.tusky.db.entity.TimelineAccountEntity
+import com.keylesspalace.tusky.db.entity.accountDomain
 import com.keylesspalace.tusky.entity.Filter
 import com.keylesspalace.tusky.entity.Notification
 import com.keylesspalace.tusky.entity.Report
@@ -55,7 +58,10 @@ fun Notification.toEntity(
     reportId = report?.id,
     event = event,
     moderationWarning = moderationWarning,
-    loading = false
+    loading = false,
+    statusAuthorId = status?.actionableStatus?.account?.id,
+    accountDomain = accountDomain(account.username),
+    statusAuthorDomain = status?.actionableStatus?.account?.username?.let(::accountDomain)
 )
 
 fun Notification.toViewData(
@@ -89,8 +95,14 @@ fun Report.toEntity(
     targetAccountId = targetAccount.id
 )
 
+/**
+ * @param emojis custom emojis that contain at least all emojis of this notification, see [NotificationDataEntity.emojis]
+ * @param viewState the state the user chose to show the status with, if it differs from the cached one, see [com.keylesspalace.tusky.db.StatusViewStates]
+ */
 fun NotificationDataEntity.toViewData(
-    translation: TranslationViewData? = null
+    emojis: CustomEmojis,
+    translation: TranslationViewData? = null,
+    viewState: StatusLocalState? = null
 ): NotificationViewData {
     if (type == null || account == null) {
         return NotificationViewData.LoadMore(id = id, isLoading = loading)
@@ -99,20 +111,20 @@ fun NotificationDataEntity.toViewData(
     return NotificationViewData.Concrete(
         id = id,
         type = type,
-        account = account.toAccount(),
+        account = account.toAccount(emojis),
         statusViewData = if (status != null && statusAccount != null) {
             StatusViewData.Concrete(
-                status = status.toStatus(statusAccount),
-                isExpanded = this.status.expanded,
-                isShowingContent = this.status.contentShowing,
-                isCollapsed = this.status.contentCollapsed,
+                status = status.toStatus(statusAccount, emojis),
+                isExpanded = viewState?.expanded ?: this.status.expanded,
+                isShowingContent = viewState?.contentShowing ?: this.status.contentShowing,
+                isCollapsed = viewState?.contentCollapsed ?: this.status.contentCollapsed,
                 translation = translation
             )
         } else {
             null
         },
         report = if (report != null && reportTargetAccount != null) {
-            report.toReport(reportTargetAccount)
+            report.toReport(reportTargetAccount, emojis)
         } else {
             null
         },
@@ -122,11 +134,12 @@ fun NotificationDataEntity.toViewData(
 }
 
 fun NotificationReportEntity.toReport(
-    account: TimelineAccountEntity
+    account: TimelineAccountEntity,
+    emojis: CustomEmojis
 ) = Report(
     id = serverId,
     category = category,
     statusIds = statusIds,
     createdAt = createdAt,
-    targetAccount = account.toAccount()
+    targetAccount = account.toAccount(emojis)
 )
@@ -23,13 +23,13 @@ import androidx.paging.RemoteMediator
 import androidx.room.withTransaction
 import com.keylesspalace.tusky.components.systemnotifications.toTypes
 import com.keylesspalace.tusky.components.timeline.LoadMorePlaceholder
-import com.keylesspalace.tusky.components.timeline.toEntity
 import com.keylesspalace.tusky.components.timeline.util.ifExpected
 import com.keylesspalace.tusky.db.AccountManager
 import com.keylesspalace.tusky.db.AppDatabase
+import com.keylesspalace.tusky.db.CacheIngester
 import com.keylesspalace.tusky.db.entity.AccountEntity
 import com.keylesspalace.tusky.db.entity.NotificationDataEntity
-import com.keylesspalace.tusky.db.entity.TimelineStatusEntity
+import com.keylesspalace.tusky.db.entity.toLocalState
 import com.keylesspalace.tusky.entity.Notification
 import com.keylesspalace.tusky.network.MastodonApi
 import com.keylesspalace.tusky.util.isLessThan
@@ -40,18 +40,17 @@ class NotificationsRemoteMediator(
     private val viewModel: NotificationsViewModel,
     private val accountManager: AccountManager,
     private val api: MastodonApi,
-    private val db: AppDatabase
-) : RemoteMediator<Int, NotificationDataEntity>() {
+    private val db: AppDatabase,
+    private val ingester: CacheIngester = CacheIngester(db)
+) : RemoteMediator<String, NotificationDataEntity>() {
 
     private var initialRefresh = false
 
     private val notificationsDao = db.notificationsDao()
-    private val accountDao = db.timelineAccountDao()
-    private val statusDao = db.timelineStatusDao()
 
     override suspend fun load(
         loadType: LoadType,
-        state: PagingState<Int, NotificationDataEntity>
+        state: PagingState<String, NotificationDataEntity>
     ): MediatorResult {
         val activeAccount = viewModel.activeAccountFlow.value
         if (activeAccount == null) {
@@ -133,63 +132,25 @@ class NotificationsRemoteMediator(
     }
 
     /**
-     * Deletes all notifications in a given range and inserts new notifications.
-     * This is necessary so notifications that have been deleted on the server are cleaned up.
-     * Should be run in a transaction as it executes multiple db updates
+     * Replaces all notifications in a given range with new notifications,
+     * keeping the local state of statuses that are currently displayed.
      * @param notifications the new notifications
-     * @return the number of old notifications that have been cleared from the database
+     * @return the number of notifications that were cached in the range before
      */
     private suspend fun replaceNotificationRange(
         notifications: List<Notification>,
-        state: PagingState<Int, NotificationDataEntity>,
+        state: PagingState<String, NotificationDataEntity>,
         activeAccount: AccountEntity
     ): Int {
-        val overlappedNotifications = if (notifications.isNotEmpty()) {
-            notificationsDao.deleteRange(activeAccount.id, notifications.last().id, notifications.first().id)
-        } else {
-            0
-        }
-
-        for (notification in notifications) {
-            accountDao.insert(notification.account.toEntity(activeAccount.id))
-            notification.report?.let { report ->
-                accountDao.insert(report.targetAccount.toEntity(activeAccount.id))
-                notificationsDao.insertReport(report.toEntity(activeAccount.id))
-            }
-
-            // check if we already have one of the newly loaded statuses cached locally
-            // in case we do, copy the local state (expanded, contentShowing, contentCollapsed) over so it doesn't get lost
-            var oldStatus: TimelineStatusEntity? = null
-            for (page in state.pages) {
-                oldStatus = page.data.find { s ->
-                    s.id == notification.id
-                }?.status
-                if (oldStatus != null) break
-            }
-
-            notification.status?.let { status ->
-                val expanded = oldStatus?.expanded ?: activeAccount.alwaysOpenSpoiler
-                val contentShowing = oldStatus?.contentShowing ?: (activeAccount.alwaysShowSensitiveMedia || !status.sensitive)
-                val contentCollapsed = oldStatus?.contentCollapsed ?: true
-
-                val statusToInsert = status.reblog ?: status
-                accountDao.insert(statusToInsert.account.toEntity(activeAccount.id))
-                statusDao.insert(
-                    statusToInsert.toEntity(
-                        tuskyAccountId = activeAccount.id,
-                        expanded = expanded,
-                        contentShowing = contentShowing,
-                        contentCollapsed = contentCollapsed
-                    )
-                )
-            }
-
-            notificationsDao.insertNotification(
-                notification.toEntity(
-                    activeAccount.id
-                )
-            )
-        }
+        val localState = state.pages
+            .flatMap { page -> page.data.mapNotNull { notificationData -> notificationData.status } }
+            .associate { status -> status.serverId to status.toLocalState() }
+
+        val overlappedNotifications = ingester.replaceNotificationRange(
+            account = activeAccount,
+            notifications = notifications,
+            localState = localState
+        ).overlapped
         notifications.firstOrNull()?.let { notification ->
             saveNewestNotificationId(notification)
         }
@@ -21,7 +21,6 @@ import androidx.lifecycle.ViewModel
 import androidx.lifecycle.viewModelScope
 import androidx.paging.ExperimentalPagingApi
 import androidx.paging.Pager
-import androidx.paging.PagingConfig
 import androidx.paging.cachedIn
 import androidx.paging.filter
 import androidx.paging.map
@@ -37,15 +36,18 @@ import com.keylesspalace.tusky.components.preference.PreferencesFragment.Reading
 import com.keylesspalace.tusky.components.systemnotifications.NotificationChannelData
 import com.keylesspalace.tusky.components.systemnotifications.toTypes
 import com.keylesspalace.tusky.components.timeline.LoadMorePlaceholder
-import com.keylesspalace.tusky.components.timeline.toEntity
+import com.keylesspalace.tusky.components.timeline.util.ViewDataCache
 import com.keylesspalace.tusky.components.timeline.util.ifExpected
 import com.keylesspalace.tusky.components.timeline.viewmodel.TimelineViewModel
 import com.keylesspalace.tusky.db.AccountManager
-import com.keylesspalace.tusky.db.AppDatabase
+import com.keylesspalace.tusky.db.CacheDatabases
+import com.keylesspalace.tusky.db.StatusViewStates
 import com.keylesspalace.tusky.db.entity.NotificationPolicyEntity
+import com.keylesspalace.tusky.db.toViewState
 import com.keylesspalace.tusky.entity.Filter
 import com.keylesspalace.tusky.entity.Notification
 import com.keylesspalace.tusky.entity.Status
+import com.keylesspalace.tusky.network.AdaptivePagingPolicy
 import com.keylesspalace.tusky.network.FilterModel
 import com.keylesspalace.tusky.network.MastodonApi
 import com.keylesspalace.tusky.settings.PrefKeys
@@ -79,13 +81,17 @@ class NotificationsViewModel @Inject constructor(
     private val accountManager: AccountManager,
     private val preferences: SharedPreferences,
     private val filterModel: FilterModel,
-    private val db: AppDatabase,
-    private val notificationPolicyUsecase: NotificationPolicyUsecase
+    cacheDatabases: CacheDatabases,
+    private val notificationPolicyUsecase: NotificationPolicyUsecase,
+    private val statusViewStates: StatusViewStates,
+    private val pagingPolicy: AdaptivePagingPolicy
 ) : ViewModel() {
 
     val activeAccountFlow = accountManager.activeAccount(viewModelScope)
     private val accountId: Long = activeAccountFlow.value!!.id
 
+    private val db = cacheDatabases.forAccount(accountId)
+
     private val refreshTrigger = MutableStateFlow(0L)
 
     val excludes: StateFlow<Set<NotificationChannelData>> = activeAccountFlow
@@ -95,6 +101,9 @@ class NotificationsViewModel @Inject constructor(
     /** Map from notification id to translation. */
     private val translations = MutableStateFlow(mapOf<String, TranslationViewData>())
 
+    /** So a changed view state or translation only maps the notification it belongs to again */
+    private val viewDataCache = ViewDataCache<NotificationViewData>()
+
     private var remoteMediator = NotificationsRemoteMediator(this, accountManager, api, db)
 
     private var readingOrder: ReadingOrder =
@@ -103,19 +112,25 @@ class NotificationsViewModel @Inject constructor(
     @OptIn(ExperimentalPagingApi::class, ExperimentalCoroutinesApi::class)
     val notifications = refreshTrigger.flatMapLatest {
         Pager(
-            config = PagingConfig(
-                pageSize = LOAD_AT_ONCE
-            ),
+            config = pagingPolicy.config("notifications", defaultPageSize = LOAD_AT_ONCE),
             remoteMediator = remoteMediator,
             pagingSourceFactory = {
                 db.notificationsDao().getNotifications(accountId)
             }
         ).flow
             .cachedIn(viewModelScope)
-            .combine(translations) { pagingData, translations ->
+            .combine(translations.combine(statusViewStates.states(accountId), ::Pair)) { pagingData, (translations, viewStates) ->
                 pagingData.map { notification ->
-                    val translation = translations[notification.status?.serverId]
-                    notification.toViewData(translation = translation)
+                    val statusId = notification.status?.serverId
+                    val translation = translations[statusId]
+                    val viewState = viewStates[statusId]
+                    viewDataCache.getOrPut(notification.id, notification, translation, viewState) {
+                        notification.toViewData(
+                            emojis = notification.emojis,
+                            translation = translation,
+                            viewState = viewState
+                        )
+                    }
                 }.filter { notificationViewData ->
                     shouldFilterStatus(notificationViewData)?.action != Filter.Action.HIDE
                 }
@@ -246,24 +261,15 @@ class NotificationsViewModel @Inject constructor(
     }
 
     fun changeExpanded(expanded: Boolean, status: StatusViewData.Concrete) {
-        viewModelScope.launch {
-            db.timelineStatusDao()
-                .setExpanded(accountId, status.id, expanded)
-        }
+        statusViewStates.set(accountId, status.toViewState(status.id).copy(expanded = expanded))
     }
 
     fun changeContentShowing(isShowing: Boolean, status: StatusViewData.Concrete) {
-        viewModelScope.launch {
-            db.timelineStatusDao()
-                .setContentShowing(accountId, status.id, isShowing)
-        }
+        statusViewStates.set(accountId, status.toViewState(status.id).copy(contentShowing = isShowing))
     }
 
     fun changeContentCollapsed(isCollapsed: Boolean, status: StatusViewData.Concrete) {
-        viewModelScope.launch {
-            db.timelineStatusDao()
-                .setContentCollapsed(accountId, status.id, isCollapsed)
-        }
+        statusViewStates.set(accountId, status.toViewState(status.id).copy(contentCollapsed = isCollapsed))
     }
 
     fun remove(notificationId: String) {
@@ -348,47 +354,13 @@ class NotificationsViewModel @Inject constructor(
 
                 val account = activeAccountFlow.value ?: return@launch
 
-                val statusDao = db.timelineStatusDao()
-                val accountDao = db.timelineAccountDao()
-
                 db.withTransaction {
                     notificationsDao.delete(accountId, placeholderId)
 
-                    val overlappedNotifications = if (notifications.isNotEmpty()) {
-                        notificationsDao.deleteRange(
-                            accountId,
-                            notifications.last().id,
-                            notifications.first().id
-                        )
-                    } else {
-                        0
-                    }
-
-                    for (notification in notifications) {
-                        accountDao.insert(notification.account.toEntity(accountId))
-                        notification.report?.let { report ->
-                            accountDao.insert(report.targetAccount.toEntity(accountId))
-                            notificationsDao.insertReport(report.toEntity(accountId))
-                        }
-                        notification.status?.let { status ->
-                            val statusToInsert = status.reblog ?: status
-                            accountDao.insert(statusToInsert.account.toEntity(accountId))
-
-                            statusDao.insert(
-                                statusToInsert.toEntity(
-                                    tuskyAccountId = accountId,
-                                    expanded = account.alwaysOpenSpoiler,
-                                    contentShowing = account.alwaysShowSensitiveMedia || !status.sensitive,
-                                    contentCollapsed = true
-                                )
-                            )
-                        }
-                        notificationsDao.insertNotification(
-                            notification.toEntity(
-                                accountId
-                            )
-                        )
-                    }
+                    val overlappedNotifications = ingester.replaceNotificationRange(
+                        account = account,
+                        notifications = notifications
+                    ).overlapped
 
                     /* In case we loaded a whole page and there was no overlap with existing notifications,
                        we insert a placeholder because there might be even more unknown notifications */
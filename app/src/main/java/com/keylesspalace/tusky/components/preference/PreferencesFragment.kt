@@ -20,6 +20,7 @@ import android.os.Bundle
 import androidx.annotation.DrawableRes
 import androidx.lifecycle.lifecycleScope
 import androidx.preference.Preference
+import androidx.work.WorkManager
 import com.keylesspalace.tusky.R
 import com.keylesspalace.tusky.components.systemnotifications.NotificationChannelData
 import com.keylesspalace.tusky.db.AccountManager
@@ -34,6 +35,7 @@ import com.keylesspalace.tusky.settings.sliderPreference
 import com.keylesspalace.tusky.settings.switchPreference
 import com.keylesspalace.tusky.util.LocaleManager
 import com.keylesspalace.tusky.util.icon
+import com.keylesspalace.tusky.worker.TimelineSyncWorker
 import dagger.hilt.android.AndroidEntryPoint
 import de.c1710.filemojicompat_ui.views.picker.preference.EmojiPickerPreference
 import javax.inject.Inject
@@ -295,6 +297,31 @@ class PreferencesFragment : BasePreferencesFragment() {
                     summaryProvider = ProxyPreferencesFragment.SummaryProvider
                 }
             }
+
+            preferenceCategory(R.string.pref_title_storage_settings) {
+                switchPreference {
+                    setDefaultValue(false)
+                    key = PrefKeys.PER_ACCOUNT_DATABASES
+                    setTitle(R.string.pref_title_per_account_databases)
+                    setSummary(R.string.pref_summary_per_account_databases)
+                }
+                switchPreference {
+                    setDefaultValue(false)
+                    key = PrefKeys.FILL_TIMELINE_GAPS
+                    setTitle(R.string.pref_title_fill_timeline_gaps)
+                    setSummary(R.string.pref_summary_fill_timeline_gaps)
+                }
+                switchPreference {
+                    setDefaultValue(false)
+                    key = PrefKeys.SYNC_TIMELINES
+                    setTitle(R.string.pref_title_sync_timelines)
+                    setSummary(R.string.pref_summary_sync_timelines)
+                    setOnPreferenceChangeListener { _, value ->
+                        TimelineSyncWorker.schedule(WorkManager.getInstance(requireContext()), value == true)
+                        true
+                    }
+                }
+            }
         }
     }
 
@@ -30,6 +30,7 @@ import com.keylesspalace.tusky.components.report.model.StatusViewState
 import com.keylesspalace.tusky.entity.Relationship
 import com.keylesspalace.tusky.entity.Status
 import com.keylesspalace.tusky.network.MastodonApi
+import com.keylesspalace.tusky.network.RelationshipBatcher
 import com.keylesspalace.tusky.util.Error
 import com.keylesspalace.tusky.util.Loading
 import com.keylesspalace.tusky.util.Resource
@@ -51,7 +52,8 @@ import kotlinx.coroutines.launch
 @OptIn(ExperimentalCoroutinesApi::class)
 class ReportViewModel @Inject constructor(
     private val mastodonApi: MastodonApi,
-    private val eventHub: EventHub
+    private val eventHub: EventHub,
+    private val relationshipBatcher: RelationshipBatcher
 ) : ViewModel() {
 
     private val navigationMutable = MutableStateFlow(null as Screen?)
@@ -136,7 +138,7 @@ class ReportViewModel @Inject constructor(
         muteStateMutable.value = Loading()
         blockStateMutable.value = Loading()
         viewModelScope.launch {
-            mastodonApi.relationships(ids).fold(
+            relationshipBatcher.relationships(ids).fold(
                 { data ->
                     updateRelationship(data.getOrNull(0))
                 },
@@ -166,6 +168,7 @@ class ReportViewModel @Inject constructor(
                 mastodonApi.muteAccount(accountId)
             }.fold(
                 { relationship ->
+                    relationshipBatcher.update(relationship)
                     val muting = relationship.muting
                     muteStateMutable.value = Success(muting)
                     if (muting) {
@@ -189,6 +192,7 @@ class ReportViewModel @Inject constructor(
             } else {
                 mastodonApi.blockAccount(accountId)
             }.fold({ relationship ->
+                relationshipBatcher.update(relationship)
                 val blocking = relationship.blocking
                 blockStateMutable.value = Success(blocking)
                 if (blocking) {
@@ -19,20 +19,22 @@ import android.util.Log
 import androidx.lifecycle.ViewModel
 import androidx.lifecycle.viewModelScope
 import androidx.paging.Pager
-import androidx.paging.PagingConfig
 import androidx.paging.cachedIn
 import at.connyduck.calladapter.networkresult.NetworkResult
-import at.connyduck.calladapter.networkresult.fold
 import at.connyduck.calladapter.networkresult.map
 import at.connyduck.calladapter.networkresult.onFailure
 import com.keylesspalace.tusky.components.instanceinfo.InstanceInfoRepository
 import com.keylesspalace.tusky.components.search.adapter.SearchPagingSourceFactory
+import com.keylesspalace.tusky.components.timeline.toStatus
 import com.keylesspalace.tusky.db.AccountManager
+import com.keylesspalace.tusky.db.CacheDatabases
 import com.keylesspalace.tusky.db.entity.AccountEntity
 import com.keylesspalace.tusky.entity.DeletedStatus
 import com.keylesspalace.tusky.entity.Filter
 import com.keylesspalace.tusky.entity.Status
+import com.keylesspalace.tusky.network.AdaptivePagingPolicy
 import com.keylesspalace.tusky.network.MastodonApi
+import com.keylesspalace.tusky.usecase.ActionQueuedException
 import com.keylesspalace.tusky.usecase.TimelineCases
 import com.keylesspalace.tusky.util.toViewData
 import com.keylesspalace.tusky.viewdata.StatusViewData
@@ -49,6 +51,8 @@ class SearchViewModel @Inject constructor(
     private val timelineCases: TimelineCases,
     private val accountManager: AccountManager,
     private val instanceInfoRepository: InstanceInfoRepository,
+    private val cacheDatabases: CacheDatabases,
+    pagingPolicy: AdaptivePagingPolicy
 ) : ViewModel() {
 
     init {
@@ -67,19 +71,26 @@ class SearchViewModel @Inject constructor(
 
     private val loadedStatuses: MutableList<StatusViewData.Concrete> = mutableListOf()
 
-    private val statusesPagingSourceFactory =
-        SearchPagingSourceFactory(mastodonApi, SearchType.Status, loadedStatuses) {
-            it.statuses.map { status ->
-                status.toViewData(
-                    isShowingContent = status.shouldShowContent(alwaysShowSensitiveMedia, Filter.Kind.PUBLIC),
-                    isExpanded = alwaysOpenSpoiler,
-                    isCollapsed = true,
-                    filter = status.getApplicableFilter(Filter.Kind.PUBLIC),
-                )
-            }.apply {
-                loadedStatuses.addAll(this)
-            }
+    /** how many statuses of the current search have been loaded from the server, statuses also found in the cache included */
+    private var loadedServerStatusCount = 0
+
+    private val statusesPagingSourceFactory = SearchPagingSourceFactory(
+        mastodonApi = mastodonApi,
+        searchType = SearchType.Status,
+        initialItems = loadedStatuses,
+        initialKey = { loadedServerStatusCount },
+        cachedItems = ::searchCachedStatuses
+    ) {
+        loadedServerStatusCount += it.statuses.size
+        val loadedIds = loadedStatuses.mapTo(HashSet()) { statusViewData -> statusViewData.id }
+        it.statuses.filterNot { status ->
+            status.id in loadedIds
+        }.map { status ->
+            status.toSearchViewData()
+        }.apply {
+            loadedStatuses.addAll(this)
         }
+    }
     private val accountsPagingSourceFactory =
         SearchPagingSourceFactory(mastodonApi, SearchType.Account) {
             it.accounts
@@ -90,34 +101,26 @@ class SearchViewModel @Inject constructor(
         }
 
     val statusesFlow = Pager(
-        config = PagingConfig(
-            pageSize = DEFAULT_LOAD_SIZE,
-            initialLoadSize = DEFAULT_LOAD_SIZE
-        ),
+        config = pagingPolicy.config("search statuses", defaultPageSize = DEFAULT_LOAD_SIZE, initialLoadPages = 1),
         pagingSourceFactory = statusesPagingSourceFactory
     ).flow
         .cachedIn(viewModelScope)
 
     val accountsFlow = Pager(
-        config = PagingConfig(
-            pageSize = DEFAULT_LOAD_SIZE,
-            initialLoadSize = DEFAULT_LOAD_SIZE
-        ),
+        config = pagingPolicy.config("search accounts", defaultPageSize = DEFAULT_LOAD_SIZE, initialLoadPages = 1),
         pagingSourceFactory = accountsPagingSourceFactory
     ).flow
         .cachedIn(viewModelScope)
 
     val hashtagsFlow = Pager(
-        config = PagingConfig(
-            pageSize = DEFAULT_LOAD_SIZE,
-            initialLoadSize = DEFAULT_LOAD_SIZE
-        ),
+        config = pagingPolicy.config("search hashtags", defaultPageSize = DEFAULT_LOAD_SIZE, initialLoadPages = 1),
         pagingSourceFactory = hashtagsPagingSourceFactory
     ).flow
         .cachedIn(viewModelScope)
 
     fun search(query: String) {
         loadedStatuses.clear()
+        loadedServerStatusCount = 0
         statusesPagingSourceFactory.newSearch(query)
         accountsPagingSourceFactory.newSearch(query)
         hashtagsPagingSourceFactory.newSearch(query)
@@ -135,24 +138,58 @@ class SearchViewModel @Inject constructor(
 
     fun clearStatusCache() {
         loadedStatuses.clear()
+        loadedServerStatusCount = 0
+    }
+
+    /**
+     * Searches the statuses cached for the home timeline and notifications, which works instantly and offline.
+     * Server results are appended to these results by the paging source, without the statuses found here.
+     */
+    private suspend fun searchCachedStatuses(query: String): List<StatusViewData.Concrete> {
+        val tuskyAccountId = activeAccount?.id ?: return emptyList()
+        val db = cacheDatabases.forAccount(tuskyAccountId)
+        val results = db.timelineStatusDao().search(tuskyAccountId, query, DEFAULT_LOAD_SIZE)
+        if (results.isEmpty()) {
+            return emptyList()
+        }
+        val emojis = db.customEmojiDao().getCustomEmojis(
+            tuskyAccountId = tuskyAccountId,
+            accounts = results.map { (_, author) -> author },
+            statuses = results.map { (status, _) -> status }
+        )
+        return results.map { (status, author) ->
+            status.toStatus(author, emojis).toSearchViewData()
+        }.apply {
+            loadedStatuses.addAll(this)
+        }
     }
 
+    private fun Status.toSearchViewData(): StatusViewData.Concrete = toViewData(
+        isShowingContent = shouldShowContent(alwaysShowSensitiveMedia, Filter.Kind.PUBLIC),
+        isExpanded = alwaysOpenSpoiler,
+        isCollapsed = true,
+        filter = getApplicableFilter(Filter.Kind.PUBLIC),
+    )
+
     fun expandedChange(statusViewData: StatusViewData.Concrete, expanded: Boolean) {
         updateStatusViewData(statusViewData.copy(isExpanded = expanded))
     }
 
     fun reblog(statusViewData: StatusViewData.Concrete, reblog: Boolean, visibility: Status.Visibility = Status.Visibility.PUBLIC) {
+        updateStatus(
+            statusViewData.status.copy(
+                reblogged = reblog,
+                reblog = statusViewData.status.reblog?.copy(reblogged = reblog)
+            )
+        )
         viewModelScope.launch {
-            timelineCases.reblog(statusViewData.id, reblog, visibility).fold({
-                updateStatus(
-                    statusViewData.status.copy(
-                        reblogged = reblog,
-                        reblog = statusViewData.status.reblog?.copy(reblogged = reblog)
-                    )
-                )
-            }, { t ->
+            timelineCases.reblog(statusViewData.id, reblog, visibility).onFailure { t ->
                 Log.d(TAG, "Failed to reblog status ${statusViewData.id}", t)
-            })
+                // a queued reblog is sent later, a rejected one is taken back
+                if (t !is ActionQueuedException) {
+                    updateStatus(statusViewData.status)
+                }
+            }
         }
     }
 
@@ -27,6 +27,8 @@ class SearchPagingSource<T : Any>(
     private val searchType: SearchType,
     private val searchRequest: String,
     private val initialItems: List<T>?,
+    private val initialKey: Int,
+    private val cachedItems: (suspend (String) -> List<T>)?,
     private val parser: (SearchResult) -> List<T>
 ) : PagingSource<Int, T>() {
 
@@ -47,10 +49,22 @@ class SearchPagingSource<T : Any>(
             return LoadResult.Page(
                 data = initialItems.toList(),
                 prevKey = null,
-                nextKey = initialItems.size
+                nextKey = initialKey
             )
         }
 
+        if (params.key == null && cachedItems != null) {
+            // results from the local cache are shown right away, even offline, results from the server are appended as the next pages
+            val cached = cachedItems.invoke(searchRequest)
+            if (cached.isNotEmpty()) {
+                return LoadResult.Page(
+                    data = cached,
+                    prevKey = null,
+                    nextKey = 0
+                )
+            }
+        }
+
         val currentKey = params.key ?: 0
 
         try {
@@ -65,10 +79,17 @@ class SearchPagingSource<T : Any>(
 
             val res = parser(data)
 
-            val nextKey = if (res.isEmpty()) {
+            // the parser may drop results, e.g. those already found in the cache, so the offset is based on what the server returned
+            val resultCount = when (searchType) {
+                SearchType.Status -> data.statuses.size
+                SearchType.Account -> data.accounts.size
+                SearchType.Hashtag -> data.hashtags.size
+            }
+
+            val nextKey = if (resultCount == 0) {
                 null
             } else {
-                currentKey + res.size
+                currentKey + resultCount
             }
 
             return LoadResult.Page(
@@ -23,6 +23,8 @@ class SearchPagingSourceFactory<T : Any>(
     private val mastodonApi: MastodonApi,
     private val searchType: SearchType,
     private val initialItems: List<T>? = null,
+    private val initialKey: () -> Int = { initialItems?.size ?: 0 },
+    private val cachedItems: (suspend (String) -> List<T>)? = null,
     private val parser: (SearchResult) -> List<T>
 ) : () -> SearchPagingSource<T> {
 
@@ -36,6 +38,8 @@ class SearchPagingSourceFactory<T : Any>(
             searchType = searchType,
             searchRequest = searchRequest,
             initialItems = initialItems,
+            initialKey = initialKey(),
+            cachedItems = cachedItems,
             parser = parser
         ).also { source ->
             currentSource = source
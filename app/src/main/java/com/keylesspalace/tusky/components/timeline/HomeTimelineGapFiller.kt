@@ -0,0 +1,172 @@
+/* Copyright 2026 Tusky Contributors
+ *
+ * This file is a part of Tusky.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Tusky is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Tusky; if not,
+ * see <http://www.gnu.org/licenses>. */
+
+package com.keylesspalace.tusky.components.timeline
+
+import android.content.Context
+import android.content.SharedPreferences
+import android.util.Log
+import androidx.room.withTransaction
+import com.keylesspalace.tusky.components.timeline.util.ifExpected
+import com.keylesspalace.tusky.db.AppDatabase
+import com.keylesspalace.tusky.db.CacheDatabases
+import com.keylesspalace.tusky.db.CacheIngester
+import com.keylesspalace.tusky.db.entity.AccountEntity
+import com.keylesspalace.tusky.entity.Filter
+import com.keylesspalace.tusky.entity.Status
+import com.keylesspalace.tusky.network.ApiProvider
+import com.keylesspalace.tusky.network.MastodonApi
+import com.keylesspalace.tusky.settings.PrefKeys
+import com.keylesspalace.tusky.util.toSortKey
+import com.keylesspalace.tusky.worker.GapFillWorker
+import com.squareup.moshi.Moshi
+import com.squareup.moshi.adapter
+import dagger.hilt.android.qualifiers.ApplicationContext
+import javax.inject.Inject
+import kotlinx.coroutines.NonCancellable
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import kotlinx.coroutines.withContext
+import retrofit2.HttpException
+
+/**
+ * Loads the statuses behind the "Load more" placeholders of the cached home timeline in the background,
+ * so they are filled before the user scrolls to them.
+ *
+ * Only runs if enabled in the preferences, and then through [GapFillWorker] while connected to an unmetered network.
+ * Several gaps are filled at the same time, each page by page from its newest end, and written into the cache
+ * through [CacheIngester] the same way "Load more" does.
+ * A placeholder is marked as loading while it is filled, so it is not loaded a second time when the user clicks it.
+ */
+@OptIn(ExperimentalStdlibApi::class)
+class HomeTimelineGapFiller @Inject constructor(
+    @ApplicationContext private val context: Context,
+    private val apiProvider: ApiProvider,
+    private val cacheDatabases: CacheDatabases,
+    private val preferences: SharedPreferences,
+    moshi: Moshi
+) {
+
+    private val statusAdapter = moshi.adapter<Status>()
+
+    val enabled: Boolean
+        get() = preferences.getBoolean(PrefKeys.FILL_TIMELINE_GAPS, false)
+
+    /** Schedules filling the gaps of [account] whenever its home timeline has some, until the calling coroutine is cancelled. */
+    suspend fun fillInBackground(account: AccountEntity) {
+        cacheDatabases.forAccount(account.id).timelineDao().hasIdlePlaceholders(account.id).collect { hasGaps ->
+            if (hasGaps && enabled) {
+                GapFillWorker.schedule(context, account.id)
+            }
+        }
+    }
+
+    /**
+     * Fills the gaps in the home timeline of [account], at most [MAX_PARALLEL_GAPS] at a time
+     * and at most [MAX_PAGES_PER_GAP] pages per gap, the rest of a bigger gap stays a placeholder.
+     * @return false if loading failed and should be tried again later
+     */
+    suspend fun fill(account: AccountEntity): Boolean {
+        val api = apiProvider.mastodonApi(account)
+        val db = cacheDatabases.forAccount(account.id)
+        val ingester = CacheIngester(db)
+        val semaphore = Semaphore(MAX_PARALLEL_GAPS)
+
+        val placeholderIds = db.timelineDao().getIdlePlaceholderIds(account.id)
+        Log.d(TAG, "Filling ${placeholderIds.size} gaps")
+        return coroutineScope {
+            placeholderIds.map { placeholderId ->
+                async {
+                    semaphore.withPermit { fillGap(account, api, db, ingester, placeholderId) }
+                }
+            }.awaitAll()
+        }.all { filled -> filled }
+    }
+
+    private suspend fun fillGap(
+        account: AccountEntity,
+        api: MastodonApi,
+        db: AppDatabase,
+        ingester: CacheIngester,
+        firstPlaceholderId: String
+    ): Boolean {
+        val timelineDao = db.timelineDao()
+        var placeholderId = firstPlaceholderId
+        repeat(MAX_PAGES_PER_GAP) {
+            val range = db.withTransaction {
+                if (timelineDao.claimPlaceholder(account.id, placeholderId) == 0) {
+                    null
+                } else {
+                    timelineDao.getIdAbove(account.id, placeholderId) to timelineDao.getIdBelow(account.id, placeholderId)
+                }
+            }
+            if (range == null) {
+                // the user is loading it or it is gone
+                return true
+            }
+            val (idAbove, idBelow) = range
+
+            val result = try {
+                val response = api.homeTimelineBody(maxId = idAbove, sinceId = idBelow, limit = PAGE_SIZE)
+                val body = response.body()
+                if (!response.isSuccessful || body == null) {
+                    throw HttpException(response)
+                }
+                body.use { ingester.replaceHomeTimelineRange(account, body.source(), statusAdapter, Filter.Kind.HOME) }
+            } catch (e: Exception) {
+                withContext(NonCancellable) {
+                    timelineDao.releasePlaceholder(account.id, placeholderId)
+                }
+                ifExpected(e) {
+                    Log.w(TAG, "Failed to fill the gap at $placeholderId", e)
+                }
+                return false
+            }
+
+            val oldestId = result.oldestId
+            // the page starts with the status the placeholder stands in for, it does not mean that the gap is closed
+            val replacedPlaceholder = oldestId != null && oldestId.toSortKey() <= placeholderId.toSortKey()
+            val overlapped = result.overlapped - if (replacedPlaceholder) 1 else 0
+            val moreMissing = overlapped == 0 && result.statusCount == PAGE_SIZE
+            db.withTransaction {
+                timelineDao.deletePlaceholder(account.id, placeholderId)
+                if (moreMissing) {
+                    timelineDao.upsertHomeTimelineItem(LoadMorePlaceholder(oldestId!!, loading = false).toEntity(account.id))
+                }
+            }
+            if (!moreMissing) {
+                return true
+            }
+            placeholderId = oldestId!!
+        }
+        return true
+    }
+
+    companion object {
+        private const val TAG = "HomeTimelineGapFiller"
+
+        /** how many gaps are filled at the same time */
+        const val MAX_PARALLEL_GAPS = 3
+
+        /** how many pages of a gap are loaded at most, an even bigger gap is better filled by refreshing */
+        const val MAX_PAGES_PER_GAP = 10
+
+        /** the most statuses the server returns at once */
+        private const val PAGE_SIZE = 40
+    }
+}
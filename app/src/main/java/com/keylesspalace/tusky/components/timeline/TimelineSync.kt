@@ -0,0 +1,129 @@
+/* Copyright 2026 Tusky Contributors
+ *
+ * This file is a part of Tusky.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Tusky is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Tusky; if not,
+ * see <http://www.gnu.org/licenses>. */
+
+package com.keylesspalace.tusky.components.timeline
+
+import android.content.Context
+import android.content.SharedPreferences
+import android.util.Log
+import androidx.core.content.edit
+import com.bumptech.glide.Glide
+import com.keylesspalace.tusky.appstore.StreamingCacheUpdater
+import com.keylesspalace.tusky.db.CacheDatabases
+import com.keylesspalace.tusky.db.entity.AccountEntity
+import com.keylesspalace.tusky.worker.TimelineSyncWorker
+import dagger.hilt.android.qualifiers.ApplicationContext
+import java.util.concurrent.ExecutionException
+import javax.inject.Inject
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.withContext
+
+/**
+ * Brings the cached home timeline and notifications up to date in the background through [TimelineSyncWorker],
+ * so the app shows what is new as soon as it is opened instead of after the first refresh returns.
+ *
+ * New statuses and notifications are loaded the same way the streaming API catches up after a lost connection,
+ * see [StreamingCacheUpdater.catchUp]. Afterwards the avatars and attachment previews of the newest items of the home timeline
+ * are downloaded into the disk cache of Glide, so showing them does not need the network either.
+ * Attachment previews are only downloaded if the timeline would show them right away.
+ *
+ * When the home timeline is opened shortly after a sync, it is shown from the cache without refreshing it first,
+ * see [syncedRecently].
+ */
+class TimelineSync(
+    private val streamingCacheUpdater: StreamingCacheUpdater,
+    private val cacheDatabases: CacheDatabases,
+    private val preferences: SharedPreferences,
+    private val clock: () -> Long = System::currentTimeMillis,
+    private val downloadImage: (url: String) -> Unit
+) {
+
+    @Inject
+    constructor(
+        @ApplicationContext context: Context,
+        streamingCacheUpdater: StreamingCacheUpdater,
+        cacheDatabases: CacheDatabases,
+        preferences: SharedPreferences
+    ) : this(
+        streamingCacheUpdater,
+        cacheDatabases,
+        preferences,
+        downloadImage = { url ->
+            val target = Glide.with(context).downloadOnly().load(url).submit()
+            try {
+                target.get()
+            } finally {
+                Glide.with(context).clear(target)
+            }
+        }
+    )
+
+    suspend fun sync(account: AccountEntity) {
+        val startedAt = clock()
+        if (streamingCacheUpdater.catchUp(account, maxPages = MAX_PAGES)) {
+            preferences.edit { putLong(syncedAtKey(account.id), startedAt) }
+        }
+
+        val urls = imageUrls(account)
+        withContext(Dispatchers.IO) {
+            for (url in urls) {
+                ensureActive()
+                try {
+                    downloadImage(url)
+                } catch (e: ExecutionException) {
+                    Log.d(TAG, "Failed to download $url", e)
+                }
+            }
+        }
+        Log.d(TAG, "Synced account ${account.id} and downloaded ${urls.size} images")
+    }
+
+    /** Whether the cached timelines of the account with [accountId] were synced successfully in the last [RECENT_SYNC_MILLIS]. */
+    fun syncedRecently(accountId: Long): Boolean {
+        val syncedAt = preferences.getLong(syncedAtKey(accountId), 0)
+        return clock() - syncedAt in 0 until RECENT_SYNC_MILLIS
+    }
+
+    /** The images of the newest [PRELOAD_ITEMS] items of the home timeline of [account] that are shown without clicking anything. */
+    internal suspend fun imageUrls(account: AccountEntity): List<String> {
+        val items = cacheDatabases.forAccount(account.id).timelineDao().getNewestHomeTimelineItems(account.id, PRELOAD_ITEMS)
+        return items.flatMap { item ->
+            buildList {
+                item.account?.avatar?.let(::add)
+                item.reblogAccount?.avatar?.let(::add)
+                val status = item.status
+                if (status != null && account.mediaPreviewEnabled && (!status.sensitive || account.alwaysShowSensitiveMedia)) {
+                    status.attachments.mapNotNullTo(this) { attachment -> attachment.previewUrl }
+                }
+            }
+        }.filter { url -> url.isNotBlank() }.distinct()
+    }
+
+    companion object {
+        private const val TAG = "TimelineSync"
+
+        /** About as many items as the first screens of the home timeline show */
+        private const val PRELOAD_ITEMS = 40
+
+        /** How many pages of new statuses and notifications are loaded at most, the rest is left behind a placeholder */
+        private const val MAX_PAGES = 10
+
+        /** How long a synced home timeline is shown without refreshing it first */
+        private const val RECENT_SYNC_MILLIS = 15 * 60 * 1000L
+
+        private fun syncedAtKey(accountId: Long) = "timelineSyncedAt_$accountId"
+    }
+}
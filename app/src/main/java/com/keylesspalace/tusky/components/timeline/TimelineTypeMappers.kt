@@ -15,10 +15,13 @@
 
 package com.keylesspalace.tusky.components.timeline
 
+import com.keylesspalace.tusky.db.entity.CustomEmojis
 import com.keylesspalace.tusky.db.entity.HomeTimelineData
 import com.keylesspalace.tusky.db.entity.HomeTimelineEntity
+import com.keylesspalace.tusky.db.entity.StatusLocalState
 import com.keylesspalace.tusky.db.entity.TimelineAccountEntity
 import com.keylesspalace.tusky.db.entity.TimelineStatusEntity
+import com.keylesspalace.tusky.db.entity.toSearchText
 import com.keylesspalace.tusky.entity.Status
 import com.keylesspalace.tusky.entity.TimelineAccount
 import com.keylesspalace.tusky.viewdata.StatusViewData
@@ -39,13 +42,16 @@ fun TimelineAccount.toEntity(tuskyAccountId: Long): TimelineAccountEntity {
         displayName = name,
         url = url,
         avatar = avatar,
-        emojis = emojis,
+        emojiShortcodes = emojis.map { emoji -> emoji.shortcode },
         note = note,
         bot = bot
     )
 }
 
-fun TimelineAccountEntity.toAccount(): TimelineAccount {
+/**
+ * @param emojis custom emojis that contain at least all emojis of this account
+ */
+fun TimelineAccountEntity.toAccount(emojis: CustomEmojis): TimelineAccount {
     return TimelineAccount(
         id = serverId,
         localUsername = localUsername,
@@ -55,7 +61,7 @@ fun TimelineAccountEntity.toAccount(): TimelineAccount {
         url = url,
         avatar = avatar,
         bot = bot,
-        emojis = emojis
+        emojis = emojis.of(this)
     )
 }
 
@@ -84,7 +90,7 @@ fun Status.toEntity(
     content = actionableStatus.content,
     createdAt = actionableStatus.createdAt.time,
     editedAt = actionableStatus.editedAt?.time,
-    emojis = actionableStatus.emojis,
+    emojiShortcodes = actionableStatus.emojis.map { emoji -> emoji.shortcode },
     reblogsCount = actionableStatus.reblogsCount,
     favouritesCount = actionableStatus.favouritesCount,
     reblogged = actionableStatus.reblogged,
@@ -106,22 +112,28 @@ fun Status.toEntity(
     card = actionableStatus.card,
     repliesCount = actionableStatus.repliesCount,
     language = actionableStatus.language,
-    filtered = actionableStatus.filtered.orEmpty()
+    filtered = actionableStatus.filtered.orEmpty(),
+    searchText = actionableStatus.toSearchText()
 )
 
+/**
+ * @param account the author of this status
+ * @param emojis custom emojis that contain at least all emojis of this status and its author
+ */
 fun TimelineStatusEntity.toStatus(
     account: TimelineAccountEntity,
+    emojis: CustomEmojis,
 ) = Status(
     id = serverId,
     url = url,
-    account = account.toAccount(),
+    account = account.toAccount(emojis),
     inReplyToId = inReplyToId,
     inReplyToAccountId = inReplyToAccountId,
     reblog = null,
     content = content,
     createdAt = Date(createdAt),
     editedAt = editedAt?.let { Date(it) },
-    emojis = emojis,
+    emojis = emojis.of(this, account),
     reblogsCount = reblogsCount,
     favouritesCount = favouritesCount,
     reblogged = reblogged,
@@ -143,21 +155,27 @@ fun TimelineStatusEntity.toStatus(
     filtered = filtered,
 )
 
+/**
+ * @param emojis custom emojis that contain at least all emojis of this item, see [HomeTimelineData.emojis]
+ * @param viewState the state the user chose to show the status with, if it differs from the cached one, see [com.keylesspalace.tusky.db.StatusViewStates]
+ */
 fun HomeTimelineData.toViewData(
+    emojis: CustomEmojis,
     isDetailed: Boolean = false,
     translation: TranslationViewData? = null,
+    viewState: StatusLocalState? = null,
 ): StatusViewData {
     if (this.account == null || this.status == null) {
         return StatusViewData.LoadMore(this.id, loading)
     }
 
-    val originalStatus = status.toStatus(account)
+    val originalStatus = status.toStatus(account, emojis)
     val status = if (reblogAccount != null) {
         Status(
             id = id,
             // no url for reblogs
             url = null,
-            account = reblogAccount.toAccount(),
+            account = reblogAccount.toAccount(emojis),
             inReplyToId = status.inReplyToId,
             inReplyToAccountId = status.inReplyToAccountId,
             reblog = originalStatus,
@@ -192,11 +210,11 @@ fun HomeTimelineData.toViewData(
 
     return StatusViewData.Concrete(
         status = status,
-        isExpanded = this.status.expanded,
-        isShowingContent = this.status.contentShowing,
-        isCollapsed = this.status.contentCollapsed,
+        isExpanded = viewState?.expanded ?: this.status.expanded,
+        isShowingContent = viewState?.contentShowing ?: this.status.contentShowing,
+        isCollapsed = viewState?.contentCollapsed ?: this.status.contentCollapsed,
         isDetailed = isDetailed,
-        repliedToAccount = repliedToAccount?.toAccount(),
+        repliedToAccount = repliedToAccount?.toAccount(emojis),
         translation = translation,
     )
 }
@@ -0,0 +1,50 @@
+/* Copyright 2026 Tusky Contributors
+ *
+ * This file is a part of Tusky.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Tusky is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Tusky; if not,
+ * see <http://www.gnu.org/licenses>. */
+
+package com.keylesspalace.tusky.components.timeline.util
+
+import android.util.LruCache
+
+/**
+ * Remembers the view data the items of a paged timeline were mapped to.
+ * When the timeline is mapped again because the view state or translation of one status changed,
+ * all other items get the view data they had before, so only the changed status is mapped and bound again.
+ *
+ * Items are compared by identity: the items of a page that was loaded again are new objects and always mapped again.
+ */
+class ViewDataCache<T : Any>(maxSize: Int = DEFAULT_MAX_SIZE) {
+
+    private class Entry<T>(val item: Any, val inputs: List<Any?>, val viewData: T)
+
+    private val entries = LruCache<String, Entry<T>>(maxSize)
+
+    /**
+     * Returns the view data [item] was mapped to before with the same [inputs], or maps it with [map].
+     * @param key identifies the item within the timeline
+     */
+    fun getOrPut(key: String, item: Any, vararg inputs: Any?, map: () -> T): T {
+        val inputList = inputs.asList()
+        val cached = entries.get(key)
+        if (cached != null && cached.item === item && cached.inputs == inputList) {
+            return cached.viewData
+        }
+        return map().also { viewData -> entries.put(key, Entry(item, inputList, viewData)) }
+    }
+
+    companion object {
+        /** A few pages more than a timeline usually has loaded */
+        private const val DEFAULT_MAX_SIZE = 500
+    }
+}
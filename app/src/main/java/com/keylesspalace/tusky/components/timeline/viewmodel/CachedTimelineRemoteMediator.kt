@@ -20,35 +20,53 @@ import androidx.paging.ExperimentalPagingApi
 import androidx.paging.LoadType
 import androidx.paging.PagingState
 import androidx.paging.RemoteMediator
-import androidx.room.withTransaction
-import com.keylesspalace.tusky.components.timeline.LoadMorePlaceholder
-import com.keylesspalace.tusky.components.timeline.toEntity
+import com.keylesspalace.tusky.components.timeline.TimelineSync
 import com.keylesspalace.tusky.components.timeline.util.ifExpected
 import com.keylesspalace.tusky.db.AppDatabase
+import com.keylesspalace.tusky.db.CacheIngester
+import com.keylesspalace.tusky.db.StreamedIngestResult
 import com.keylesspalace.tusky.db.entity.AccountEntity
 import com.keylesspalace.tusky.db.entity.HomeTimelineData
-import com.keylesspalace.tusky.db.entity.HomeTimelineEntity
-import com.keylesspalace.tusky.db.entity.TimelineStatusEntity
+import com.keylesspalace.tusky.db.entity.toLocalState
 import com.keylesspalace.tusky.entity.Status
 import com.keylesspalace.tusky.network.MastodonApi
+import com.squareup.moshi.JsonAdapter
+import okhttp3.ResponseBody
 import retrofit2.HttpException
+import retrofit2.Response
 
+/**
+ * Loads the home timeline into the cache.
+ * The pages are read from the response one status at a time and written in batches by [CacheIngester],
+ * so a page is never held in memory completely.
+ */
 @OptIn(ExperimentalPagingApi::class)
 class CachedTimelineRemoteMediator(
     private val viewModel: CachedTimelineViewModel,
     private val api: MastodonApi,
     private val db: AppDatabase,
-) : RemoteMediator<Int, HomeTimelineData>() {
+    private val statusAdapter: JsonAdapter<Status>,
+    private val ingester: CacheIngester = CacheIngester(db),
+    /** Whether the home timeline of an account was brought up to date in the background a moment ago, see [TimelineSync] */
+    private val syncedRecently: (accountId: Long) -> Boolean = { false }
+) : RemoteMediator<String, HomeTimelineData>() {
 
     private var initialRefresh = false
 
     private val timelineDao = db.timelineDao()
-    private val statusDao = db.timelineStatusDao()
-    private val accountDao = db.timelineAccountDao()
+
+    override suspend fun initialize(): InitializeAction {
+        val activeAccount = viewModel.activeAccountFlow.value
+        return if (activeAccount != null && syncedRecently(activeAccount.id)) {
+            InitializeAction.SKIP_INITIAL_REFRESH
+        } else {
+            InitializeAction.LAUNCH_INITIAL_REFRESH
+        }
+    }
 
     override suspend fun load(
         loadType: LoadType,
-        state: PagingState<Int, HomeTimelineData>
+        state: PagingState<String, HomeTimelineData>
     ): MediatorResult {
         val activeAccount = viewModel.activeAccountFlow.value
         if (activeAccount == null) {
@@ -67,19 +85,13 @@ class CachedTimelineRemoteMediator(
             if (!initialRefresh && loadType == LoadType.REFRESH) {
                 val topId = timelineDao.getTopId(activeAccount.id)
                 topId?.let { cachedTopId ->
-                    val statusResponse = api.homeTimeline(
+                    val statusResponse = api.homeTimelineBody(
                         maxId = cachedTopId,
                         // so already existing placeholders don't get accidentally overwritten
                         sinceId = topPlaceholderId,
                         limit = state.config.pageSize
                     )
-
-                    val statuses = statusResponse.body()
-                    if (statusResponse.isSuccessful && statuses != null) {
-                        db.withTransaction {
-                            replaceStatusRange(statuses, state, activeAccount)
-                        }
-                    }
+                    replaceStatusRange(statusResponse, state, activeAccount)
                 }
                 initialRefresh = true
                 dbEmpty = topId == null
@@ -87,37 +99,27 @@ class CachedTimelineRemoteMediator(
 
             val statusResponse = when (loadType) {
                 LoadType.REFRESH -> {
-                    api.homeTimeline(sinceId = topPlaceholderId, limit = state.config.pageSize)
+                    api.homeTimelineBody(sinceId = topPlaceholderId, limit = state.config.pageSize)
                 }
                 LoadType.PREPEND -> {
                     return MediatorResult.Success(endOfPaginationReached = true)
                 }
                 LoadType.APPEND -> {
                     val maxId = state.pages.findLast { it.data.isNotEmpty() }?.data?.lastOrNull()?.status?.serverId
-                    api.homeTimeline(maxId = maxId, limit = state.config.pageSize)
+                    api.homeTimelineBody(maxId = maxId, limit = state.config.pageSize)
                 }
             }
 
-            val statuses = statusResponse.body()
-            if (!statusResponse.isSuccessful || statuses == null) {
-                return MediatorResult.Error(HttpException(statusResponse))
-            }
-
-            db.withTransaction {
-                val overlappedStatuses = replaceStatusRange(statuses, state, activeAccount)
-
+            val result = replaceStatusRange(statusResponse, state, activeAccount) { statusCount, overlapped ->
                 /* In case we loaded a whole page and there was no overlap with existing statuses,
-                   we insert a placeholder because there might be even more unknown statuses */
-                if (loadType == LoadType.REFRESH && overlappedStatuses == 0 && statuses.size == state.config.pageSize && !dbEmpty) {
-                    /* This overrides the last of the newly loaded statuses with a placeholder
-                       to guarantee the placeholder has an id that exists on the server as not all
-                       servers handle client generated ids as expected */
-                    timelineDao.insertHomeTimelineItem(
-                        LoadMorePlaceholder(statuses.last().id, loading = false).toEntity(activeAccount.id)
-                    )
-                }
-            }
-            return MediatorResult.Success(endOfPaginationReached = statuses.isEmpty())
+                   we insert a placeholder because there might be even more unknown statuses.
+                   This overrides the last of the newly loaded statuses with a placeholder
+                   to guarantee the placeholder has an id that exists on the server as not all
+                   servers handle client generated ids as expected */
+                loadType == LoadType.REFRESH && overlapped == 0 && statusCount == state.config.pageSize && !dbEmpty
+            } ?: return MediatorResult.Error(HttpException(statusResponse))
+
+            return MediatorResult.Success(endOfPaginationReached = result.statusCount == 0)
         } catch (e: Exception) {
             return ifExpected(e) {
                 Log.w(TAG, "Failed to load timeline", e)
@@ -127,65 +129,36 @@ class CachedTimelineRemoteMediator(
     }
 
     /**
-     * Deletes all statuses in a given range and inserts new statuses.
-     * This is necessary so statuses that have been deleted on the server are cleaned up.
-     * Should be run in a transaction as it executes multiple db updates
-     * @param statuses the new statuses
-     * @return the number of old statuses that have been cleared from the database
+     * Replaces all statuses in the range covered by the page in [statusResponse] with the statuses of the page,
+     * keeping the local state of statuses that are currently displayed.
+     * @param insertPlaceholder see [CacheIngester.replaceHomeTimelineRange]
+     * @return what was written, null when the server responded with an error
      */
     private suspend fun replaceStatusRange(
-        statuses: List<Status>,
-        state: PagingState<Int, HomeTimelineData>,
-        activeAccount: AccountEntity
-    ): Int {
-        val overlappedStatuses = if (statuses.isNotEmpty()) {
-            timelineDao.deleteRange(activeAccount.id, statuses.last().id, statuses.first().id)
-        } else {
-            0
+        statusResponse: Response<ResponseBody>,
+        state: PagingState<String, HomeTimelineData>,
+        activeAccount: AccountEntity,
+        insertPlaceholder: (statusCount: Int, overlapped: Int) -> Boolean = { _, _ -> false }
+    ): StreamedIngestResult? {
+        val body = statusResponse.body()
+        if (!statusResponse.isSuccessful || body == null) {
+            return null
         }
 
-        for (status in statuses) {
-            accountDao.insert(status.account.toEntity(activeAccount.id))
-            status.reblog?.account?.toEntity(activeAccount.id)?.let { rebloggedAccount ->
-                accountDao.insert(rebloggedAccount)
-            }
-
-            // check if we already have one of the newly loaded statuses cached locally
-            // in case we do, copy the local state (expanded, contentShowing, contentCollapsed) over so it doesn't get lost
-            var oldStatus: TimelineStatusEntity? = null
-            for (page in state.pages) {
-                oldStatus = page.data.find { s ->
-                    s.status?.serverId == status.actionableId
-                }?.status
-                if (oldStatus != null) break
-            }
-
-            val expanded = oldStatus?.expanded ?: activeAccount.alwaysOpenSpoiler
-            val contentShowing = oldStatus?.contentShowing ?: status.shouldShowContent(activeAccount.alwaysShowSensitiveMedia, viewModel.kind.toFilterKind())
-            val contentCollapsed = oldStatus?.contentCollapsed != false
-
-            statusDao.insert(
-                status.actionableStatus.toEntity(
-                    tuskyAccountId = activeAccount.id,
-                    expanded = expanded,
-                    contentShowing = contentShowing,
-                    contentCollapsed = contentCollapsed
-                )
-            )
-            timelineDao.insertHomeTimelineItem(
-                HomeTimelineEntity(
-                    tuskyAccountId = activeAccount.id,
-                    id = status.id,
-                    statusId = status.actionableId,
-                    reblogAccountId = if (status.reblog != null) {
-                        status.account.id
-                    } else {
-                        null
-                    }
-                )
+        val localState = state.pages
+            .flatMap { page -> page.data.mapNotNull { timelineData -> timelineData.status } }
+            .associate { status -> status.serverId to status.toLocalState() }
+
+        return body.use {
+            ingester.replaceHomeTimelineRange(
+                account = activeAccount,
+                body = body.source(),
+                statusAdapter = statusAdapter,
+                filterKind = viewModel.kind.toFilterKind(),
+                localState = localState,
+                insertPlaceholder = insertPlaceholder
             )
         }
-        return overlappedStatuses
     }
 
     companion object {
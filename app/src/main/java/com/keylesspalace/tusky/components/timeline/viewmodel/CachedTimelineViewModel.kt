@@ -20,7 +20,6 @@ import android.util.Log
 import androidx.lifecycle.viewModelScope
 import androidx.paging.ExperimentalPagingApi
 import androidx.paging.Pager
-import androidx.paging.PagingConfig
 import androidx.paging.PagingSource
 import androidx.paging.cachedIn
 import androidx.paging.filter
@@ -33,19 +32,26 @@ import com.keylesspalace.tusky.appstore.EventHub
 import com.keylesspalace.tusky.components.preference.PreferencesFragment.ReadingOrder.NEWEST_FIRST
 import com.keylesspalace.tusky.components.preference.PreferencesFragment.ReadingOrder.OLDEST_FIRST
 import com.keylesspalace.tusky.components.timeline.LoadMorePlaceholder
+import com.keylesspalace.tusky.components.timeline.TimelineSync
 import com.keylesspalace.tusky.components.timeline.toEntity
 import com.keylesspalace.tusky.components.timeline.toViewData
+import com.keylesspalace.tusky.components.timeline.util.ViewDataCache
 import com.keylesspalace.tusky.components.timeline.util.ifExpected
 import com.keylesspalace.tusky.db.AccountManager
-import com.keylesspalace.tusky.db.AppDatabase
+import com.keylesspalace.tusky.db.CacheDatabases
+import com.keylesspalace.tusky.db.StatusViewStates
 import com.keylesspalace.tusky.db.entity.HomeTimelineData
-import com.keylesspalace.tusky.db.entity.HomeTimelineEntity
+import com.keylesspalace.tusky.db.toViewState
 import com.keylesspalace.tusky.entity.Filter
+import com.keylesspalace.tusky.entity.Status
+import com.keylesspalace.tusky.network.AdaptivePagingPolicy
 import com.keylesspalace.tusky.network.FilterModel
 import com.keylesspalace.tusky.network.MastodonApi
 import com.keylesspalace.tusky.usecase.TimelineCases
 import com.keylesspalace.tusky.viewdata.StatusViewData
 import com.keylesspalace.tusky.viewdata.TranslationViewData
+import com.squareup.moshi.Moshi
+import com.squareup.moshi.adapter
 import dagger.hilt.android.lifecycle.HiltViewModel
 import javax.inject.Inject
 import kotlinx.coroutines.Dispatchers
@@ -66,7 +72,11 @@ class CachedTimelineViewModel @Inject constructor(
     accountManager: AccountManager,
     sharedPreferences: SharedPreferences,
     filterModel: FilterModel,
-    private val db: AppDatabase
+    cacheDatabases: CacheDatabases,
+    private val statusViewStates: StatusViewStates,
+    pagingPolicy: AdaptivePagingPolicy,
+    moshi: Moshi,
+    timelineSync: TimelineSync
 ) : TimelineViewModel(
     timelineCases,
     eventHub,
@@ -75,37 +85,52 @@ class CachedTimelineViewModel @Inject constructor(
     filterModel
 ) {
 
-    private var currentPagingSource: PagingSource<Int, HomeTimelineData>? = null
+    private val db = cacheDatabases.forAccount(accountId)
+
+    private var currentPagingSource: PagingSource<String, HomeTimelineData>? = null
 
     /** Map from status id to translation. */
     private val translations = MutableStateFlow(mapOf<String, TranslationViewData>())
 
-    @OptIn(ExperimentalPagingApi::class)
+    /** So a changed view state or translation only maps the status it belongs to again */
+    private val viewDataCache = ViewDataCache<StatusViewData>()
+
+    @OptIn(ExperimentalPagingApi::class, ExperimentalStdlibApi::class)
     override val statuses = Pager(
-        config = PagingConfig(
-            pageSize = LOAD_AT_ONCE
+        config = pagingPolicy.config("home timeline", defaultPageSize = LOAD_AT_ONCE),
+        remoteMediator = CachedTimelineRemoteMediator(
+            viewModel = this,
+            api = api,
+            db = db,
+            statusAdapter = moshi.adapter<Status>(),
+            syncedRecently = timelineSync::syncedRecently
         ),
-        remoteMediator = CachedTimelineRemoteMediator(this, api, db),
         pagingSourceFactory = {
             db.timelineDao().getHomeTimeline(accountId).also { newPagingSource ->
                 this.currentPagingSource = newPagingSource
             }
         }
     ).flow
-        // Apply cachedIn() early to be able to combine with translation flow.
+        // Apply cachedIn() early to be able to combine with translation and view state flows.
         // This will not cache ViewData's but practically we don't need this.
         // If you notice that this flow is used in more than once place consider
         // adding another cachedIn() for the overall result.
         .cachedIn(viewModelScope)
-        .combine(translations) { pagingData, translations ->
+        .combine(translations.combine(statusViewStates.states(accountId), ::Pair)) { pagingData, (translations, viewStates) ->
             pagingData.map { timelineData ->
-                val translation = translations[timelineData.status?.serverId]
-                val viewData = timelineData.toViewData(
-                    isDetailed = false,
-                    translation = translation
-                )
-                viewData.filter = shouldFilterStatus(viewData)
-                viewData
+                val statusId = timelineData.status?.serverId
+                val translation = translations[statusId]
+                val viewState = viewStates[statusId]
+                viewDataCache.getOrPut(timelineData.id, timelineData, translation, viewState) {
+                    val viewData = timelineData.toViewData(
+                        emojis = timelineData.emojis,
+                        isDetailed = false,
+                        translation = translation,
+                        viewState = viewState
+                    )
+                    viewData.filter = shouldFilterStatus(viewData)
+                    viewData
+                }
             }.filter { statusViewData ->
                 statusViewData.filter?.action != Filter.Action.HIDE
             }
@@ -113,24 +138,15 @@ class CachedTimelineViewModel @Inject constructor(
         .flowOn(Dispatchers.Default)
 
     override fun changeExpanded(expanded: Boolean, status: StatusViewData.Concrete) {
-        viewModelScope.launch {
-            db.timelineStatusDao()
-                .setExpanded(accountId, status.actionableId, expanded)
-        }
+        statusViewStates.set(accountId, status.toViewState(status.actionableId).copy(expanded = expanded))
     }
 
     override fun changeContentShowing(isShowing: Boolean, status: StatusViewData.Concrete) {
-        viewModelScope.launch {
-            db.timelineStatusDao()
-                .setContentShowing(accountId, status.actionableId, isShowing)
-        }
+        statusViewStates.set(accountId, status.toViewState(status.actionableId).copy(contentShowing = isShowing))
     }
 
     override fun changeContentCollapsed(isCollapsed: Boolean, status: StatusViewData.Concrete) {
-        viewModelScope.launch {
-            db.timelineStatusDao()
-                .setContentCollapsed(accountId, status.actionableId, isCollapsed)
-        }
+        statusViewStates.set(accountId, status.toViewState(status.actionableId).copy(contentCollapsed = isCollapsed))
     }
 
     override fun clearWarning(status: StatusViewData.Concrete) {
@@ -147,10 +163,8 @@ class CachedTimelineViewModel @Inject constructor(
         viewModelScope.launch {
             try {
                 val timelineDao = db.timelineDao()
-                val statusDao = db.timelineStatusDao()
-                val accountDao = db.timelineAccountDao()
 
-                timelineDao.insertHomeTimelineItem(
+                timelineDao.upsertHomeTimelineItem(
                     LoadMorePlaceholder(placeholderId, loading = true).toEntity(tuskyAccountId = accountId)
                 )
 
@@ -189,43 +203,11 @@ class CachedTimelineViewModel @Inject constructor(
                 db.withTransaction {
                     timelineDao.deleteHomeTimelineItem(accountId, placeholderId)
 
-                    val overlappedStatuses = if (statuses.isNotEmpty()) {
-                        timelineDao.deleteRange(
-                            accountId,
-                            statuses.last().id,
-                            statuses.first().id
-                        )
-                    } else {
-                        0
-                    }
-
-                    for (status in statuses) {
-                        accountDao.insert(status.account.toEntity(accountId))
-                        status.reblog?.account?.toEntity(accountId)
-                            ?.let { rebloggedAccount ->
-                                accountDao.insert(rebloggedAccount)
-                            }
-                        statusDao.insert(
-                            status.actionableStatus.toEntity(
-                                tuskyAccountId = accountId,
-                                expanded = account.alwaysOpenSpoiler,
-                                contentShowing = status.shouldShowContent(account.alwaysShowSensitiveMedia, kind.toFilterKind()),
-                                contentCollapsed = true,
-                            )
-                        )
-                        timelineDao.insertHomeTimelineItem(
-                            HomeTimelineEntity(
-                                tuskyAccountId = accountId,
-                                id = status.id,
-                                statusId = status.actionableId,
-                                reblogAccountId = if (status.reblog != null) {
-                                    status.account.id
-                                } else {
-                                    null
-                                }
-                            )
-                        )
-                    }
+                    val overlappedStatuses = ingester.replaceHomeTimelineRange(
+                        account = account,
+                        statuses = statuses,
+                        filterKind = kind.toFilterKind()
+                    ).overlapped
 
                     /* In case we loaded a whole page and there was no overlap with existing statuses,
                        we insert a placeholder because there might be even more unknown statuses */
@@ -237,7 +219,7 @@ class CachedTimelineViewModel @Inject constructor(
                             OLDEST_FIRST -> statuses.first().id
                             NEWEST_FIRST -> statuses.last().id
                         }
-                        timelineDao.insertHomeTimelineItem(
+                        timelineDao.upsertHomeTimelineItem(
                             LoadMorePlaceholder(
                                 idToConvert,
                                 loading = false
@@ -257,7 +239,7 @@ class CachedTimelineViewModel @Inject constructor(
         Log.w(TAG, "failed loading statuses", e)
         val activeAccount = accountManager.activeAccount!!
         db.timelineDao()
-            .insertHomeTimelineItem(LoadMorePlaceholder(placeholderId, loading = false).toEntity(activeAccount.id))
+            .upsertHomeTimelineItem(LoadMorePlaceholder(placeholderId, loading = false).toEntity(activeAccount.id))
     }
 
     override fun fullReload() {
@@ -20,7 +20,6 @@ import android.util.Log
 import androidx.lifecycle.viewModelScope
 import androidx.paging.ExperimentalPagingApi
 import androidx.paging.Pager
-import androidx.paging.PagingConfig
 import androidx.paging.cachedIn
 import androidx.paging.filter
 import at.connyduck.calladapter.networkresult.NetworkResult
@@ -41,6 +40,7 @@ import com.keylesspalace.tusky.db.AccountManager
 import com.keylesspalace.tusky.entity.Filter
 import com.keylesspalace.tusky.entity.Poll
 import com.keylesspalace.tusky.entity.Status
+import com.keylesspalace.tusky.network.AdaptivePagingPolicy
 import com.keylesspalace.tusky.network.FilterModel
 import com.keylesspalace.tusky.network.MastodonApi
 import com.keylesspalace.tusky.usecase.TimelineCases
@@ -71,7 +71,8 @@ class NetworkTimelineViewModel @Inject constructor(
     eventHub: EventHub,
     accountManager: AccountManager,
     sharedPreferences: SharedPreferences,
-    filterModel: FilterModel
+    filterModel: FilterModel,
+    pagingPolicy: AdaptivePagingPolicy
 ) : TimelineViewModel(
     timelineCases,
     eventHub,
@@ -88,9 +89,7 @@ class NetworkTimelineViewModel @Inject constructor(
 
     @OptIn(ExperimentalPagingApi::class)
     override val statuses = Pager(
-        config = PagingConfig(
-            pageSize = LOAD_AT_ONCE
-        ),
+        config = pagingPolicy.config("network timeline", defaultPageSize = LOAD_AT_ONCE),
         pagingSourceFactory = {
             NetworkTimelinePagingSource(
                 viewModel = this
@@ -33,7 +33,7 @@ import com.keylesspalace.tusky.appstore.StatusDeletedEvent
 import com.keylesspalace.tusky.components.timeline.toStatus
 import com.keylesspalace.tusky.components.timeline.util.ifExpected
 import com.keylesspalace.tusky.db.AccountManager
-import com.keylesspalace.tusky.db.AppDatabase
+import com.keylesspalace.tusky.db.CacheDatabases
 import com.keylesspalace.tusky.entity.Filter
 import com.keylesspalace.tusky.entity.Status
 import com.keylesspalace.tusky.network.FilterModel
@@ -61,13 +61,15 @@ class ViewThreadViewModel @Inject constructor(
     private val api: MastodonApi,
     private val filterModel: FilterModel,
     private val timelineCases: TimelineCases,
-    private val db: AppDatabase,
+    cacheDatabases: CacheDatabases,
     eventHub: EventHub,
     accountManager: AccountManager,
 ) : ViewModel() {
 
     private val activeAccount = accountManager.activeAccount!!
 
+    private val db = cacheDatabases.forAccount(activeAccount.id)
+
     private val _uiState = MutableStateFlow(ThreadUiState.Loading as ThreadUiState)
     val uiState: Flow<ThreadUiState> = _uiState.asStateFlow()
 
@@ -109,11 +111,19 @@ class ViewThreadViewModel @Inject constructor(
 
             var detailedStatus = if (statusAndAccount != null) {
                 Log.d(TAG, "Loaded status from local timeline")
+                val viewState = db.statusViewStateDao().getViewState(activeAccount.id, id)
                 StatusViewData.Concrete(
-                    status = statusAndAccount.first.toStatus(statusAndAccount.second),
-                    isExpanded = statusAndAccount.first.expanded,
-                    isShowingContent = statusAndAccount.first.contentShowing,
-                    isCollapsed = statusAndAccount.first.contentCollapsed,
+                    status = statusAndAccount.first.toStatus(
+                        account = statusAndAccount.second,
+                        emojis = db.customEmojiDao().getCustomEmojis(
+                            tuskyAccountId = activeAccount.id,
+                            accounts = listOf(statusAndAccount.second),
+                            statuses = listOf(statusAndAccount.first)
+                        )
+                    ),
+                    isExpanded = viewState?.expanded ?: statusAndAccount.first.expanded,
+                    isShowingContent = viewState?.contentShowing ?: statusAndAccount.first.contentShowing,
+                    isCollapsed = viewState?.contentCollapsed ?: statusAndAccount.first.contentCollapsed,
                     isDetailed = true,
                     // NOTE repliedToAccount is null here: this avoids showing "in reply to" over every post
                     translation = null
@@ -19,6 +19,7 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.room.AutoMigration;
 import androidx.room.Database;
+import androidx.room.DatabaseConfiguration;
 import androidx.room.DeleteColumn;
 import androidx.room.RoomDatabase;
 import androidx.room.migration.AutoMigrationSpec;
@@ -28,24 +29,33 @@ import androidx.sqlite.db.SupportSQLiteDatabase;
 import com.keylesspalace.tusky.TabDataKt;
 import com.keylesspalace.tusky.components.conversation.ConversationEntity;
 import com.keylesspalace.tusky.db.dao.AccountDao;
+import com.keylesspalace.tusky.db.dao.CustomEmojiDao;
 import com.keylesspalace.tusky.db.dao.DraftDao;
 import com.keylesspalace.tusky.db.dao.InstanceDao;
 import com.keylesspalace.tusky.db.dao.NotificationPolicyDao;
 import com.keylesspalace.tusky.db.dao.NotificationsDao;
+import com.keylesspalace.tusky.db.dao.OutboxDao;
+import com.keylesspalace.tusky.db.dao.StatusViewStateDao;
 import com.keylesspalace.tusky.db.dao.TimelineAccountDao;
 import com.keylesspalace.tusky.db.dao.TimelineDao;
 import com.keylesspalace.tusky.db.dao.TimelineStatusDao;
 import com.keylesspalace.tusky.db.entity.AccountEntity;
+import com.keylesspalace.tusky.db.entity.CustomEmojiEntity;
 import com.keylesspalace.tusky.db.entity.DraftEntity;
 import com.keylesspalace.tusky.db.entity.HomeTimelineEntity;
+import com.keylesspalace.tusky.db.entity.HomeTimelineRowEntity;
 import com.keylesspalace.tusky.db.entity.InstanceEntity;
 import com.keylesspalace.tusky.db.entity.NotificationEntity;
 import com.keylesspalace.tusky.db.entity.NotificationPolicyEntity;
 import com.keylesspalace.tusky.db.entity.NotificationReportEntity;
+import com.keylesspalace.tusky.db.entity.OutboxActionEntity;
+import com.keylesspalace.tusky.db.entity.StatusSearchEntity;
+import com.keylesspalace.tusky.db.entity.StatusViewStateEntity;
 import com.keylesspalace.tusky.db.entity.TimelineAccountEntity;
 import com.keylesspalace.tusky.db.entity.TimelineStatusEntity;
 
 import java.io.File;
+import java.util.List;
 
 /**
  * DB version & declare DAO
@@ -61,11 +71,16 @@ import java.io.File;
         NotificationEntity.class,
         NotificationReportEntity.class,
         HomeTimelineEntity.class,
-        NotificationPolicyEntity.class
+        HomeTimelineRowEntity.class,
+        NotificationPolicyEntity.class,
+        CustomEmojiEntity.class,
+        StatusSearchEntity.class,
+        StatusViewStateEntity.class,
+        OutboxActionEntity.class
     },
     // Note: Starting with version 54, database versions in Tusky are always even.
     // This is to reserve odd version numbers for use by forks.
-    version = 70,
+    version = 88,
     autoMigrations = {
         @AutoMigration(from = 48, to = 49),
         @AutoMigration(from = 49, to = 50, spec = AppDatabase.MIGRATION_49_50.class),
@@ -90,6 +105,26 @@ public abstract class AppDatabase extends RoomDatabase {
     @NonNull public abstract TimelineStatusDao timelineStatusDao();
     @NonNull public abstract TimelineAccountDao timelineAccountDao();
     @NonNull public abstract NotificationPolicyDao notificationPolicyDao();
+    @NonNull public abstract CustomEmojiDao customEmojiDao();
+    @NonNull public abstract StatusViewStateDao statusViewStateDao();
+    @NonNull public abstract OutboxDao outboxDao();
+
+    /**
+     * Registers {@link HomeTimelineReadModel} before the callbacks of the builder, so its triggers exist
+     * in every new database no matter how it was built and before any callback writes to it.
+     * {@link StalePlaceholders} is registered the same way, so no database keeps placeholders that never stop loading.
+     */
+    @Override
+    public void init(@NonNull DatabaseConfiguration configuration) {
+        List<Callback> callbacks = configuration.callbacks;
+        if (callbacks != null && !callbacks.contains(HomeTimelineReadModel.INSTANCE)) {
+            callbacks.add(0, HomeTimelineReadModel.INSTANCE);
+        }
+        if (callbacks != null && !callbacks.contains(StalePlaceholders.INSTANCE)) {
+            callbacks.add(1, StalePlaceholders.INSTANCE);
+        }
+        super.init(configuration);
+    }
 
     public static final Migration MIGRATION_2_3 = new Migration(2, 3) {
         @Override
@@ -860,4 +895,382 @@ public abstract class AppDatabase extends RoomDatabase {
     @DeleteColumn(tableName = "AccountEntity", columnName = "notificationsSignUps")
     @DeleteColumn(tableName = "AccountEntity", columnName = "notificationsReports")
     static class MIGRATION_66_68 implements AutoMigrationSpec { }
+
+    /**
+     * Adds the indexed sortKey column to HomeTimelineEntity and NotificationEntity.
+     * The padding must match the one in StringUtils.toSortKey.
+     */
+    public static final Migration MIGRATION_70_72 = new Migration(70, 72) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            for (String table : new String[] { "HomeTimelineEntity", "NotificationEntity" }) {
+                database.execSQL("ALTER TABLE `" + table + "` ADD COLUMN `sortKey` TEXT NOT NULL DEFAULT ''");
+                database.execSQL("UPDATE `" + table + "` SET `sortKey` = CASE WHEN LENGTH(`id`) >= 32 THEN `id` " +
+                    "ELSE SUBSTR('00000000000000000000000000000000' || `id`, -32) END");
+                database.execSQL("CREATE INDEX IF NOT EXISTS `index_" + table + "_tuskyAccountId_sortKey` ON `" + table + "` (`tuskyAccountId`, `sortKey`)");
+            }
+        }
+    };
+
+    /**
+     * Changes the columns of TimelineStatusEntity that hold nested objects from JSON text to blobs.
+     * Existing values are copied as they are, StatusBlobConverters still reads JSON.
+     */
+    public static final Migration MIGRATION_72_74 = new Migration(72, 74) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("""
+                CREATE TABLE IF NOT EXISTS `TimelineStatusEntity_new` (
+                `serverId` TEXT NOT NULL,
+                `url` TEXT,
+                `tuskyAccountId` INTEGER NOT NULL,
+                `authorServerId` TEXT NOT NULL,
+                `inReplyToId` TEXT,
+                `inReplyToAccountId` TEXT,
+                `content` TEXT NOT NULL,
+                `createdAt` INTEGER NOT NULL,
+                `editedAt` INTEGER,
+                `emojis` BLOB NOT NULL,
+                `reblogsCount` INTEGER NOT NULL,
+                `favouritesCount` INTEGER NOT NULL,
+                `repliesCount` INTEGER NOT NULL,
+                `reblogged` INTEGER NOT NULL,
+                `bookmarked` INTEGER NOT NULL,
+                `favourited` INTEGER NOT NULL,
+                `sensitive` INTEGER NOT NULL,
+                `spoilerText` TEXT NOT NULL,
+                `visibility` INTEGER NOT NULL,
+                `attachments` BLOB NOT NULL,
+                `mentions` BLOB NOT NULL,
+                `tags` BLOB NOT NULL,
+                `application` BLOB,
+                `poll` BLOB,
+                `muted` INTEGER NOT NULL,
+                `expanded` INTEGER NOT NULL,
+                `contentCollapsed` INTEGER NOT NULL,
+                `contentShowing` INTEGER NOT NULL,
+                `pinned` INTEGER NOT NULL,
+                `card` BLOB,
+                `language` TEXT,
+                `filtered` BLOB NOT NULL,
+                PRIMARY KEY(`serverId`, `tuskyAccountId`),
+                FOREIGN KEY(`authorServerId`, `tuskyAccountId`) REFERENCES `TimelineAccountEntity`(`serverId`, `tuskyAccountId`) ON UPDATE NO ACTION ON DELETE NO ACTION
+                )"""
+            );
+            database.execSQL("INSERT INTO `TimelineStatusEntity_new` SELECT `serverId`, `url`, `tuskyAccountId`, `authorServerId`, `inReplyToId`, `inReplyToAccountId`, `content`, `createdAt`, `editedAt`, CAST(`emojis` AS BLOB), `reblogsCount`, `favouritesCount`, `repliesCount`, `reblogged`, `bookmarked`, `favourited`, `sensitive`, `spoilerText`, `visibility`, CAST(`attachments` AS BLOB), CAST(`mentions` AS BLOB), CAST(`tags` AS BLOB), CAST(`application` AS BLOB), CAST(`poll` AS BLOB), `muted`, `expanded`, `contentCollapsed`, `contentShowing`, `pinned`, CAST(`card` AS BLOB), `language`, CAST(`filtered` AS BLOB) FROM `TimelineStatusEntity`");
+            database.execSQL("DROP TABLE `TimelineStatusEntity`");
+            database.execSQL("ALTER TABLE `TimelineStatusEntity_new` RENAME TO `TimelineStatusEntity`");
+            database.execSQL(
+                "CREATE INDEX IF NOT EXISTS `index_TimelineStatusEntity_authorServerId_tuskyAccountId` ON `TimelineStatusEntity` (`authorServerId`, `tuskyAccountId`)"
+            );
+        }
+    };
+
+    /**
+     * Adds the CustomEmojiEntity table. Cached statuses and accounts now reference their emojis by shortcode.
+     * The cached timelines are cleared because the emojis stored in them can't be moved to the new table with SQL.
+     * The custom emojis of instances are dropped from InstanceEntity, they are loaded again the next time they are needed.
+     */
+    public static final Migration MIGRATION_74_76 = new Migration(74, 76) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("""
+                CREATE TABLE IF NOT EXISTS `CustomEmojiEntity` (
+                `tuskyAccountId` INTEGER NOT NULL,
+                `domain` TEXT NOT NULL,
+                `shortcode` TEXT NOT NULL,
+                `url` TEXT NOT NULL,
+                `staticUrl` TEXT NOT NULL,
+                `visibleInPicker` INTEGER NOT NULL,
+                `category` TEXT,
+                PRIMARY KEY(`tuskyAccountId`, `domain`, `shortcode`)
+                )"""
+            );
+
+            // the order here is important - foreign key constraints must not be violated
+            database.execSQL("DELETE FROM `NotificationEntity`");
+            database.execSQL("DELETE FROM `NotificationReportEntity`");
+            database.execSQL("DELETE FROM `HomeTimelineEntity`");
+            database.execSQL("DELETE FROM `TimelineStatusEntity`");
+            database.execSQL("DROP TABLE `TimelineAccountEntity`");
+            database.execSQL("""
+                CREATE TABLE IF NOT EXISTS `TimelineAccountEntity` (
+                `serverId` TEXT NOT NULL,
+                `tuskyAccountId` INTEGER NOT NULL,
+                `localUsername` TEXT NOT NULL,
+                `username` TEXT NOT NULL,
+                `displayName` TEXT NOT NULL,
+                `url` TEXT NOT NULL,
+                `avatar` TEXT NOT NULL,
+                `note` TEXT NOT NULL DEFAULT '',
+                `emojis` BLOB NOT NULL,
+                `bot` INTEGER NOT NULL,
+                PRIMARY KEY(`serverId`, `tuskyAccountId`)
+                )"""
+            );
+
+            database.execSQL("""
+                CREATE TABLE IF NOT EXISTS `InstanceEntity_new` (
+                `instance` TEXT NOT NULL,
+                `maximumTootCharacters` INTEGER,
+                `maxPollOptions` INTEGER,
+                `maxPollOptionLength` INTEGER,
+                `minPollDuration` INTEGER,
+                `maxPollDuration` INTEGER,
+                `charactersReservedPerUrl` INTEGER,
+                `version` TEXT,
+                `videoSizeLimit` INTEGER,
+                `imageSizeLimit` INTEGER,
+                `imageMatrixLimit` INTEGER,
+                `maxMediaAttachments` INTEGER,
+                `maxFields` INTEGER,
+                `maxFieldNameLength` INTEGER,
+                `maxFieldValueLength` INTEGER,
+                `translationEnabled` INTEGER,
+                `mastodonApiVersion` INTEGER,
+                `filterV2Supported` INTEGER NOT NULL DEFAULT false,
+                PRIMARY KEY(`instance`)
+                )"""
+            );
+            database.execSQL("""
+                INSERT INTO `InstanceEntity_new` SELECT `instance`, `maximumTootCharacters`, `maxPollOptions`,
+                `maxPollOptionLength`, `minPollDuration`, `maxPollDuration`, `charactersReservedPerUrl`, `version`,
+                `videoSizeLimit`, `imageSizeLimit`, `imageMatrixLimit`, `maxMediaAttachments`, `maxFields`,
+                `maxFieldNameLength`, `maxFieldValueLength`, `translationEnabled`, `mastodonApiVersion`, `filterV2Supported`
+                FROM `InstanceEntity`"""
+            );
+            database.execSQL("DROP TABLE `InstanceEntity`");
+            database.execSQL("ALTER TABLE `InstanceEntity_new` RENAME TO `InstanceEntity`");
+        }
+    };
+
+    /**
+     * Adds the searchText column to TimelineStatusEntity and the full text index StatusSearchEntity over it.
+     * The triggers are the ones Room creates for a new database to keep the index in sync with its content table.
+     * Already cached statuses have no search text, they become searchable once they are loaded again.
+     */
+    public static final Migration MIGRATION_76_78 = new Migration(76, 78) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `TimelineStatusEntity` ADD COLUMN `searchText` TEXT NOT NULL DEFAULT ''");
+            database.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `StatusSearchEntity` USING FTS4(`searchText` TEXT NOT NULL, tokenize=unicode61, content=`TimelineStatusEntity`)");
+            database.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_StatusSearchEntity_BEFORE_UPDATE BEFORE UPDATE ON `TimelineStatusEntity` BEGIN DELETE FROM `StatusSearchEntity` WHERE `docid`=OLD.`rowid`; END");
+            database.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_StatusSearchEntity_BEFORE_DELETE BEFORE DELETE ON `TimelineStatusEntity` BEGIN DELETE FROM `StatusSearchEntity` WHERE `docid`=OLD.`rowid`; END");
+            database.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_StatusSearchEntity_AFTER_UPDATE AFTER UPDATE ON `TimelineStatusEntity` BEGIN INSERT INTO `StatusSearchEntity`(`docid`, `searchText`) VALUES (NEW.`rowid`, NEW.`searchText`); END");
+            database.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_StatusSearchEntity_AFTER_INSERT AFTER INSERT ON `TimelineStatusEntity` BEGIN INSERT INTO `StatusSearchEntity`(`docid`, `searchText`) VALUES (NEW.`rowid`, NEW.`searchText`); END");
+        }
+    };
+
+    public static final Migration MIGRATION_78_80 = new Migration(78, 80) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            // the author of a status and the domains of the involved accounts are copied to the home timeline and notifications
+            // so blocks, mutes and domain mutes can delete them using indices
+            database.execSQL("ALTER TABLE `HomeTimelineEntity` ADD COLUMN `authorId` TEXT");
+            database.execSQL("ALTER TABLE `HomeTimelineEntity` ADD COLUMN `authorDomain` TEXT");
+            database.execSQL("ALTER TABLE `NotificationEntity` ADD COLUMN `statusAuthorId` TEXT");
+            database.execSQL("ALTER TABLE `NotificationEntity` ADD COLUMN `accountDomain` TEXT");
+            database.execSQL("ALTER TABLE `NotificationEntity` ADD COLUMN `statusAuthorDomain` TEXT");
+
+            database.execSQL("""
+                UPDATE `HomeTimelineEntity` SET `authorId` = (
+                SELECT s.`authorServerId` FROM `TimelineStatusEntity` s
+                WHERE s.`serverId` = `HomeTimelineEntity`.`statusId` AND s.`tuskyAccountId` = `HomeTimelineEntity`.`tuskyAccountId`
+                )"""
+            );
+            database.execSQL("UPDATE `HomeTimelineEntity` SET `authorDomain` = " + accountDomainOf("`HomeTimelineEntity`.`authorId`", "`HomeTimelineEntity`.`tuskyAccountId`"));
+            database.execSQL("""
+                UPDATE `NotificationEntity` SET `statusAuthorId` = (
+                SELECT s.`authorServerId` FROM `TimelineStatusEntity` s
+                WHERE s.`serverId` = `NotificationEntity`.`statusId` AND s.`tuskyAccountId` = `NotificationEntity`.`tuskyAccountId`
+                )"""
+            );
+            database.execSQL("UPDATE `NotificationEntity` SET `accountDomain` = " + accountDomainOf("`NotificationEntity`.`accountId`", "`NotificationEntity`.`tuskyAccountId`"));
+            database.execSQL("UPDATE `NotificationEntity` SET `statusAuthorDomain` = " + accountDomainOf("`NotificationEntity`.`statusAuthorId`", "`NotificationEntity`.`tuskyAccountId`"));
+
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_HomeTimelineEntity_tuskyAccountId_authorId` ON `HomeTimelineEntity` (`tuskyAccountId`, `authorId`)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_HomeTimelineEntity_tuskyAccountId_authorDomain` ON `HomeTimelineEntity` (`tuskyAccountId`, `authorDomain`)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_NotificationEntity_tuskyAccountId_statusAuthorId` ON `NotificationEntity` (`tuskyAccountId`, `statusAuthorId`)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_NotificationEntity_tuskyAccountId_accountDomain` ON `NotificationEntity` (`tuskyAccountId`, `accountDomain`)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_NotificationEntity_tuskyAccountId_statusAuthorDomain` ON `NotificationEntity` (`tuskyAccountId`, `statusAuthorDomain`)");
+        }
+
+        /** Subquery for the domain of a cached account in lower case, like TimelineAccountEntityKt.accountDomain */
+        private String accountDomainOf(String accountIdColumn, String tuskyAccountIdColumn) {
+            return "(SELECT CASE WHEN INSTR(a.`username`, '@') > 0 THEN LOWER(SUBSTR(a.`username`, INSTR(a.`username`, '@') + 1)) ELSE '' END"
+                + " FROM `TimelineAccountEntity` a WHERE a.`serverId` = " + accountIdColumn + " AND a.`tuskyAccountId` = " + tuskyAccountIdColumn + ")";
+        }
+    };
+
+    /**
+     * Adds HomeTimelineRowEntity, the home timeline with everything needed to display it in one table,
+     * and the triggers that keep it in sync. The rows of the already cached items are built once.
+     */
+    public static final Migration MIGRATION_80_82 = new Migration(80, 82) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("""
+                CREATE TABLE IF NOT EXISTS `HomeTimelineRowEntity` (
+                `tuskyAccountId` INTEGER NOT NULL,
+                `id` TEXT NOT NULL,
+                `sortKey` TEXT NOT NULL,
+                `loading` INTEGER NOT NULL,
+                `s_serverId` TEXT,
+                `s_url` TEXT,
+                `s_tuskyAccountId` INTEGER,
+                `s_authorServerId` TEXT,
+                `s_inReplyToId` TEXT,
+                `s_inReplyToAccountId` TEXT,
+                `s_content` TEXT,
+                `s_createdAt` INTEGER,
+                `s_editedAt` INTEGER,
+                `s_emojis` BLOB,
+                `s_reblogsCount` INTEGER,
+                `s_favouritesCount` INTEGER,
+                `s_repliesCount` INTEGER,
+                `s_reblogged` INTEGER,
+                `s_bookmarked` INTEGER,
+                `s_favourited` INTEGER,
+                `s_sensitive` INTEGER,
+                `s_spoilerText` TEXT,
+                `s_visibility` INTEGER,
+                `s_attachments` BLOB,
+                `s_mentions` BLOB,
+                `s_tags` BLOB,
+                `s_application` BLOB,
+                `s_poll` BLOB,
+                `s_muted` INTEGER,
+                `s_expanded` INTEGER,
+                `s_contentCollapsed` INTEGER,
+                `s_contentShowing` INTEGER,
+                `s_pinned` INTEGER,
+                `s_card` BLOB,
+                `s_language` TEXT,
+                `s_filtered` BLOB,
+                `s_searchText` TEXT DEFAULT '',
+                `a_serverId` TEXT,
+                `a_tuskyAccountId` INTEGER,
+                `a_localUsername` TEXT,
+                `a_username` TEXT,
+                `a_displayName` TEXT,
+                `a_url` TEXT,
+                `a_avatar` TEXT,
+                `a_note` TEXT DEFAULT '',
+                `a_emojis` BLOB,
+                `a_bot` INTEGER,
+                `rb_serverId` TEXT,
+                `rb_tuskyAccountId` INTEGER,
+                `rb_localUsername` TEXT,
+                `rb_username` TEXT,
+                `rb_displayName` TEXT,
+                `rb_url` TEXT,
+                `rb_avatar` TEXT,
+                `rb_note` TEXT DEFAULT '',
+                `rb_emojis` BLOB,
+                `rb_bot` INTEGER,
+                `replied_serverId` TEXT,
+                `replied_tuskyAccountId` INTEGER,
+                `replied_localUsername` TEXT,
+                `replied_username` TEXT,
+                `replied_displayName` TEXT,
+                `replied_url` TEXT,
+                `replied_avatar` TEXT,
+                `replied_note` TEXT DEFAULT '',
+                `replied_emojis` BLOB,
+                `replied_bot` INTEGER,
+                PRIMARY KEY(`tuskyAccountId`, `id`)
+                )"""
+            );
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_HomeTimelineRowEntity_tuskyAccountId_sortKey` ON `HomeTimelineRowEntity` (`tuskyAccountId`, `sortKey`)");
+            // the triggers look up the statuses that reply to an account when the account changes
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_TimelineStatusEntity_inReplyToAccountId_tuskyAccountId` ON `TimelineStatusEntity` (`inReplyToAccountId`, `tuskyAccountId`)");
+
+            HomeTimelineReadModel.createTriggers(database);
+            HomeTimelineReadModel.rebuild(database);
+        }
+    };
+
+    public static final Migration MIGRATION_82_84 = new Migration(82, 84) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            // the state statuses are shown with moves out of TimelineStatusEntity once the user changes it,
+            // the state they had so far stays in TimelineStatusEntity as the one they are first shown with
+            database.execSQL("""
+                CREATE TABLE IF NOT EXISTS `StatusViewStateEntity` (
+                `tuskyAccountId` INTEGER NOT NULL,
+                `serverId` TEXT NOT NULL,
+                `expanded` INTEGER NOT NULL,
+                `contentShowing` INTEGER NOT NULL,
+                `contentCollapsed` INTEGER NOT NULL,
+                PRIMARY KEY(`tuskyAccountId`, `serverId`)
+                )"""
+            );
+        }
+    };
+    public static final Migration MIGRATION_84_86 = new Migration(84, 86) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            // ConversationEntity is sorted by the id of its last status instead of the order conversations were loaded in,
+            // so conversations can be merged into the cache instead of replacing it on every refresh.
+            // It is just a cache table, so it is recreated and filled again by the next refresh.
+            database.execSQL("DROP TABLE `ConversationEntity`");
+            database.execSQL("""
+                CREATE TABLE IF NOT EXISTS `ConversationEntity` (
+                `accountId` INTEGER NOT NULL,
+                `id` TEXT NOT NULL,
+                `accounts` TEXT NOT NULL,
+                `unread` INTEGER NOT NULL,
+                `s_id` TEXT NOT NULL,
+                `s_url` TEXT,
+                `s_inReplyToId` TEXT,
+                `s_inReplyToAccountId` TEXT,
+                `s_account` TEXT NOT NULL,
+                `s_content` TEXT NOT NULL,
+                `s_createdAt` INTEGER NOT NULL,
+                `s_editedAt` INTEGER,
+                `s_emojis` TEXT NOT NULL,
+                `s_favouritesCount` INTEGER NOT NULL,
+                `s_repliesCount` INTEGER NOT NULL,
+                `s_favourited` INTEGER NOT NULL,
+                `s_bookmarked` INTEGER NOT NULL,
+                `s_sensitive` INTEGER NOT NULL,
+                `s_spoilerText` TEXT NOT NULL,
+                `s_attachments` TEXT NOT NULL,
+                `s_mentions` TEXT NOT NULL,
+                `s_tags` TEXT,
+                `s_showingHiddenContent` INTEGER NOT NULL,
+                `s_expanded` INTEGER NOT NULL,
+                `s_collapsed` INTEGER NOT NULL,
+                `s_muted` INTEGER NOT NULL,
+                `s_poll` TEXT,
+                `s_language` TEXT,
+                `sortKey` TEXT NOT NULL,
+                PRIMARY KEY(`id`, `accountId`)
+                )"""
+            );
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_ConversationEntity_accountId_sortKey` ON `ConversationEntity` (`accountId`, `sortKey`)");
+        }
+    };
+
+    public static final Migration MIGRATION_86_88 = new Migration(86, 88) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            // favourites, reblogs, bookmarks and poll votes that wait for the network
+            database.execSQL("""
+                CREATE TABLE IF NOT EXISTS `OutboxActionEntity` (
+                `tuskyAccountId` INTEGER NOT NULL,
+                `statusId` TEXT NOT NULL,
+                `type` TEXT NOT NULL,
+                `value` INTEGER NOT NULL,
+                `serverValue` INTEGER NOT NULL,
+                `visibility` INTEGER NOT NULL,
+                `pollId` TEXT,
+                `choices` TEXT,
+                `previousPoll` TEXT,
+                `createdAt` INTEGER NOT NULL,
+                PRIMARY KEY(`tuskyAccountId`, `statusId`, `type`)
+                )"""
+            );
+        }
+    };
 }
@@ -0,0 +1,63 @@
+/* Copyright 2026 Tusky Contributors
+ *
+ * This file is a part of Tusky.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Tusky is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Tusky; if not,
+ * see <http://www.gnu.org/licenses>. */
+
+package com.keylesspalace.tusky.db
+
+import androidx.sqlite.db.SupportSQLiteDatabase
+import androidx.sqlite.db.SupportSQLiteOpenHelper
+
+/**
+ * Creates new databases with incremental auto vacuum, so [DatabaseCleaner.reclaimSpace] can return free pages
+ * to the file system step by step without ever having to VACUUM them.
+ * Auto vacuum can only be switched on before the first table of a database is created,
+ * so it is set when a database is configured, before Room creates or migrates its tables.
+ * For databases that already have tables the setting has no effect.
+ */
+class AutoVacuumOpenHelperFactory(
+    private val delegate: SupportSQLiteOpenHelper.Factory
+) : SupportSQLiteOpenHelper.Factory {
+
+    override fun create(configuration: SupportSQLiteOpenHelper.Configuration): SupportSQLiteOpenHelper {
+        return delegate.create(
+            SupportSQLiteOpenHelper.Configuration(
+                context = configuration.context,
+                name = configuration.name,
+                callback = AutoVacuumCallback(configuration.callback),
+                useNoBackupDirectory = configuration.useNoBackupDirectory,
+                allowDataLossOnRecovery = configuration.allowDataLossOnRecovery
+            )
+        )
+    }
+}
+
+private class AutoVacuumCallback(
+    private val delegate: SupportSQLiteOpenHelper.Callback
+) : SupportSQLiteOpenHelper.Callback(delegate.version) {
+
+    override fun onConfigure(db: SupportSQLiteDatabase) {
+        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL")
+        delegate.onConfigure(db)
+    }
+
+    override fun onCreate(db: SupportSQLiteDatabase) = delegate.onCreate(db)
+
+    override fun onUpgrade(db: SupportSQLiteDatabase, oldVersion: Int, newVersion: Int) = delegate.onUpgrade(db, oldVersion, newVersion)
+
+    override fun onDowngrade(db: SupportSQLiteDatabase, oldVersion: Int, newVersion: Int) = delegate.onDowngrade(db, oldVersion, newVersion)
+
+    override fun onOpen(db: SupportSQLiteDatabase) = delegate.onOpen(db)
+
+    override fun onCorruption(db: SupportSQLiteDatabase) = delegate.onCorruption(db)
+}
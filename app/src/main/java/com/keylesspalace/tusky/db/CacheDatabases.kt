@@ -0,0 +1,182 @@
+/* Copyright 2026 Tusky Contributors
+ *
+ * This file is a part of Tusky.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Tusky is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Tusky; if not,
+ * see <http://www.gnu.org/licenses>. */
+
+package com.keylesspalace.tusky.db
+
+import android.content.Context
+import android.database.Cursor
+import androidx.room.RoomDatabase
+import androidx.sqlite.db.SupportSQLiteDatabase
+import androidx.sqlite.db.SupportSQLiteStatement
+
+/**
+ * Provides the database the cache of a Tusky account is stored in:
+ * its home timeline, notifications, conversations, notification policy and the statuses, accounts and custom emojis they need.
+ *
+ * By default the caches of all accounts are stored in the main database, separated by their tuskyAccountId column.
+ * When [perAccount] is set, every account gets a database file of its own instead.
+ * Writing the cache of one account then never has to wait for writes to another account or to the main database,
+ * and the cache of an account can be removed by deleting its file.
+ * Accounts, drafts and instance info always stay in the main database.
+ *
+ * @param mainDatabase the database accounts, drafts and instance info are stored in
+ * @param perAccount whether every account has its own database file, see [com.keylesspalace.tusky.settings.PrefKeys.PER_ACCOUNT_DATABASES].
+ * Only read when the app starts because open databases can't be switched.
+ * @param databaseBuilder creates the builder for a database file with the given name
+ */
+class CacheDatabases(
+    private val context: Context,
+    val mainDatabase: AppDatabase,
+    val perAccount: Boolean,
+    private val databaseBuilder: (name: String) -> RoomDatabase.Builder<AppDatabase>
+) {
+    private val accountDatabases = HashMap<Long, AppDatabase>()
+
+    /** Returns the database the cache of the Tusky account with id [tuskyAccountId] is stored in. */
+    fun forAccount(tuskyAccountId: Long): AppDatabase {
+        if (!perAccount) {
+            return mainDatabase
+        }
+        return synchronized(accountDatabases) {
+            accountDatabases.getOrPut(tuskyAccountId) {
+                databaseBuilder(databaseName(tuskyAccountId))
+                    .addCallback(MoveCacheCallback(tuskyAccountId))
+                    .build()
+            }
+        }
+    }
+
+    /** Returns the main database and all database files of accounts that are currently open. */
+    fun openDatabases(): List<AppDatabase> = synchronized(accountDatabases) {
+        listOf(mainDatabase) + accountDatabases.values
+    }
+
+    /**
+     * Deletes the database file of the Tusky account with id [tuskyAccountId].
+     *
+     * Must only be called once nothing uses the database of the account anymore, e.g. after it has been removed from the
+     * [AccountManager] on logout. An open database is closed before its files are deleted,
+     * both under the lock [forAccount] uses, so the file can't be opened again in between.
+     * [forAccount] creates a new file for the account from then on.
+     * @return true if the account had a database file
+     */
+    fun delete(tuskyAccountId: Long): Boolean = synchronized(accountDatabases) {
+        accountDatabases.remove(tuskyAccountId)?.close()
+        context.deleteDatabase(databaseName(tuskyAccountId))
+    }
+
+    /**
+     * Deletes the database files of accounts that are not in [tuskyAccountIds] anymore,
+     * or of all accounts if [perAccount] is not set, e.g. because it was unset after they have been created.
+     * @return how many files were deleted
+     */
+    fun deleteUnused(tuskyAccountIds: Collection<Long>): Int {
+        return context.databaseList()
+            .filter { name -> name.startsWith(DATABASE_NAME_PREFIX) }
+            // skips the journal files that belong to a database
+            .mapNotNull { name -> name.removePrefix(DATABASE_NAME_PREFIX).toLongOrNull() }
+            .filter { tuskyAccountId -> !perAccount || tuskyAccountId !in tuskyAccountIds }
+            .count { tuskyAccountId -> delete(tuskyAccountId) }
+    }
+
+    /**
+     * Moves the cache of an account from the main database into its database file when the file is created,
+     * so enabling [perAccount] does not lose the cache.
+     * The rows are copied in the transaction that creates the file and removed from the main database once it has been committed.
+     */
+    private inner class MoveCacheCallback(private val tuskyAccountId: Long) : RoomDatabase.Callback() {
+        private var created = false
+
+        override fun onCreate(db: SupportSQLiteDatabase) {
+            val mainDatabase = mainDatabase.openHelper.writableDatabase
+            for ((table, accountColumn) in CACHE_TABLES) {
+                val columns = db.query("PRAGMA table_info(`$table`)").use { cursor ->
+                    val nameIndex = cursor.getColumnIndexOrThrow("name")
+                    buildList {
+                        while (cursor.moveToNext()) {
+                            add("`${cursor.getString(nameIndex)}`")
+                        }
+                    }
+                }
+                val insert = db.compileStatement(
+                    "INSERT INTO `$table` (${columns.joinToString()}) VALUES (${columns.joinToString { "?" }})"
+                )
+                mainDatabase.query(
+                    "SELECT ${columns.joinToString()} FROM `$table` WHERE `$accountColumn` = ?",
+                    arrayOf(tuskyAccountId)
+                ).use { cursor ->
+                    while (cursor.moveToNext()) {
+                        insert.bindRow(cursor)
+                        insert.executeInsert()
+                    }
+                }
+            }
+            created = true
+        }
+
+        override fun onOpen(db: SupportSQLiteDatabase) {
+            if (!created) {
+                return
+            }
+            created = false
+            val mainDatabase = mainDatabase.openHelper.writableDatabase
+            mainDatabase.beginTransaction()
+            try {
+                for ((table, accountColumn) in CACHE_TABLES) {
+                    mainDatabase.execSQL("DELETE FROM `$table` WHERE `$accountColumn` = ?", arrayOf(tuskyAccountId))
+                }
+                mainDatabase.setTransactionSuccessful()
+            } finally {
+                mainDatabase.endTransaction()
+            }
+        }
+
+        private fun SupportSQLiteStatement.bindRow(cursor: Cursor) {
+            clearBindings()
+            for (column in 0 until cursor.columnCount) {
+                val index = column + 1
+                when (cursor.getType(column)) {
+                    Cursor.FIELD_TYPE_NULL -> bindNull(index)
+                    Cursor.FIELD_TYPE_INTEGER -> bindLong(index, cursor.getLong(column))
+                    Cursor.FIELD_TYPE_FLOAT -> bindDouble(index, cursor.getDouble(column))
+                    Cursor.FIELD_TYPE_BLOB -> bindBlob(index, cursor.getBlob(column))
+                    else -> bindString(index, cursor.getString(column))
+                }
+            }
+        }
+    }
+
+    companion object {
+        private const val DATABASE_NAME_PREFIX = "tuskyDB_account_"
+
+        /**
+         * The tables that make up the cache of an account and the column they store the id of the Tusky account in.
+         * HomeTimelineRowEntity is not copied, its rows are built by the triggers of [HomeTimelineReadModel] while the other tables are.
+         */
+        private val CACHE_TABLES = listOf(
+            "TimelineAccountEntity" to "tuskyAccountId",
+            "TimelineStatusEntity" to "tuskyAccountId",
+            "StatusViewStateEntity" to "tuskyAccountId",
+            "HomeTimelineEntity" to "tuskyAccountId",
+            "NotificationReportEntity" to "tuskyAccountId",
+            "NotificationEntity" to "tuskyAccountId",
+            "CustomEmojiEntity" to "tuskyAccountId",
+            "ConversationEntity" to "accountId",
+            "NotificationPolicyEntity" to "tuskyAccountId"
+        )
+
+        private fun databaseName(tuskyAccountId: Long) = DATABASE_NAME_PREFIX + tuskyAccountId
+    }
+}
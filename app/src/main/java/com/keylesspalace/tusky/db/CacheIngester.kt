@@ -0,0 +1,490 @@
+/* Copyright 2026 Tusky Contributors
+ *
+ * This file is a part of Tusky.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Tusky is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Tusky; if not,
+ * see <http://www.gnu.org/licenses>. */
+
+package com.keylesspalace.tusky.db
+
+import android.util.Log
+import androidx.room.withTransaction
+import com.keylesspalace.tusky.components.conversation.toEntity
+import com.keylesspalace.tusky.components.notifications.toEntity
+import com.keylesspalace.tusky.components.timeline.LoadMorePlaceholder
+import com.keylesspalace.tusky.components.timeline.toEntity
+import com.keylesspalace.tusky.db.entity.AccountEntity
+import com.keylesspalace.tusky.db.entity.CustomEmojiEntity
+import com.keylesspalace.tusky.db.entity.HomeTimelineEntity
+import com.keylesspalace.tusky.db.entity.NotificationEntity
+import com.keylesspalace.tusky.db.entity.NotificationReportEntity
+import com.keylesspalace.tusky.db.entity.StatusLocalState
+import com.keylesspalace.tusky.db.entity.TimelineAccountEntity
+import com.keylesspalace.tusky.db.entity.TimelineStatusEntity
+import com.keylesspalace.tusky.db.entity.accountDomain
+import com.keylesspalace.tusky.db.entity.emojiDomain
+import com.keylesspalace.tusky.db.entity.toEntity
+import com.keylesspalace.tusky.db.entity.toLocalState
+import com.keylesspalace.tusky.entity.Conversation
+import com.keylesspalace.tusky.entity.Filter
+import com.keylesspalace.tusky.entity.Notification
+import com.keylesspalace.tusky.entity.Status
+import com.keylesspalace.tusky.entity.TimelineAccount
+import com.keylesspalace.tusky.util.toSortKey
+import com.squareup.moshi.JsonAdapter
+import com.squareup.moshi.JsonReader
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.NonCancellable
+import kotlinx.coroutines.withContext
+import okio.BufferedSource
+
+/**
+ * Writes pages of statuses, notifications and conversations loaded from the server or received from the streaming API into the cache.
+ * All rows of a page are written with one bulk upsert per table in a single transaction,
+ * accounts and custom emojis that appear multiple times in a page are only written once.
+ *
+ * Rows that are already cached exactly as loaded are not written at all, so refreshing a page that hasn't changed
+ * doesn't rewrite rows, touch indices, fire triggers or invalidate observers.
+ * Changed rows are updated in place instead of being deleted and inserted again like with REPLACE.
+ */
+class CacheIngester(
+    private val db: AppDatabase
+) {
+    /**
+     * Replaces the home timeline items in the range covered by [statuses] with [statuses].
+     * Cached items in the range that are not part of [statuses] are deleted,
+     * this is necessary so statuses that have been deleted on the server are cleaned up.
+     * @param statuses the new statuses, ordered from newest to oldest
+     * @param localState local state of statuses currently displayed, keyed by status id.
+     * Takes precedence over the local state stored in the database.
+     */
+    suspend fun replaceHomeTimelineRange(
+        account: AccountEntity,
+        statuses: List<Status>,
+        filterKind: Filter.Kind,
+        localState: Map<String, StatusLocalState> = emptyMap()
+    ): IngestResult = db.withTransaction {
+        replaceHomeTimelineBatch(account, statuses, newerId = null, filterKind, localState).also { result ->
+            Log.d(TAG, "Wrote ${result.rowsWritten} rows for a home timeline page of ${statuses.size} statuses")
+        }
+    }
+
+    /**
+     * Like [replaceHomeTimelineRange], but reads the statuses one at a time from [body],
+     * a JSON array of statuses like the home timeline endpoint returns, instead of parsing the whole page first.
+     * The statuses are written in batches of [batchSize], each in its own transaction,
+     * so neither the whole page nor the connection it is transferred over is held on to while the cache is written.
+     * The page is read on the IO dispatcher, [body] blocks while the rest of it is still being transferred.
+     *
+     * When reading the page fails halfway, the statuses that have been written so far stay in the cache
+     * and the oldest of them is replaced with a placeholder, so the rest can be loaded later.
+     * @param localState local state of statuses currently displayed, keyed by status id.
+     * Takes precedence over the local state stored in the database.
+     * @param insertPlaceholder decides from the number of statuses of the whole page and how many of them were already cached
+     * whether the oldest status of the page is replaced with a placeholder, because there might be more statuses below it.
+     * The placeholder is written in the same transaction as the last batch, so the page is never visible without it.
+     */
+    suspend fun replaceHomeTimelineRange(
+        account: AccountEntity,
+        body: BufferedSource,
+        statusAdapter: JsonAdapter<Status>,
+        filterKind: Filter.Kind,
+        localState: Map<String, StatusLocalState> = emptyMap(),
+        batchSize: Int = STREAMING_BATCH_SIZE,
+        insertPlaceholder: (statusCount: Int, overlapped: Int) -> Boolean = { _, _ -> false }
+    ): StreamedIngestResult = withContext(Dispatchers.IO) {
+        var statusCount = 0
+        var oldestId: String? = null
+        var overlapped = 0
+        var rowsWritten = 0
+
+        val batch = ArrayList<Status>(batchSize)
+        suspend fun writeBatch(isLast: Boolean) {
+            if (batch.isNotEmpty()) {
+                val result = db.withTransaction {
+                    replaceHomeTimelineBatch(account, batch, newerId = oldestId, filterKind, localState).also { result ->
+                        if (isLast && insertPlaceholder(statusCount + batch.size, overlapped + result.overlapped)) {
+                            db.timelineDao().upsertHomeTimelineItem(LoadMorePlaceholder(batch.last().id, loading = false).toEntity(account.id))
+                        }
+                    }
+                }
+                statusCount += batch.size
+                oldestId = batch.last().id
+                overlapped += result.overlapped
+                rowsWritten += result.rowsWritten
+                batch.clear()
+            }
+        }
+
+        try {
+            JsonReader.of(body).use { reader ->
+                reader.beginArray()
+                while (reader.hasNext()) {
+                    if (batch.size == batchSize) {
+                        // a full batch is only written once it is known not to be the last one
+                        writeBatch(isLast = false)
+                    }
+                    statusAdapter.fromJson(reader)?.let(batch::add)
+                }
+                reader.endArray()
+            }
+            writeBatch(isLast = true)
+        } catch (e: Exception) {
+            oldestId?.let { id ->
+                withContext(NonCancellable) {
+                    db.timelineDao().upsertHomeTimelineItem(LoadMorePlaceholder(id, loading = false).toEntity(account.id))
+                }
+            }
+            throw e
+        }
+
+        Log.d(TAG, "Wrote $rowsWritten rows for a streamed home timeline page of $statusCount statuses")
+        StreamedIngestResult(statusCount = statusCount, oldestId = oldestId, overlapped = overlapped, rowsWritten = rowsWritten)
+    }
+
+    /**
+     * Replaces the home timeline items from the oldest of [statuses] up to, but not including, [newerId] with [statuses].
+     * Without [newerId], the range ends with the newest of [statuses].
+     * Must be called in a transaction.
+     */
+    private suspend fun replaceHomeTimelineBatch(
+        account: AccountEntity,
+        statuses: List<Status>,
+        newerId: String?,
+        filterKind: Filter.Kind,
+        localState: Map<String, StatusLocalState>
+    ): IngestResult {
+        val timelineDao = db.timelineDao()
+        val cachedItems = if (statuses.isNotEmpty()) {
+            timelineDao.getRange(account.id, statuses.last().id, newerId ?: statuses.first().id)
+                .filterNot { item -> item.id == newerId }
+        } else {
+            emptyList()
+        }
+
+        var rowsWritten = insertStatuses(account, statuses, filterKind, localState)
+
+        val items = statuses.map { status ->
+            HomeTimelineEntity(
+                tuskyAccountId = account.id,
+                id = status.id,
+                statusId = status.actionableId,
+                reblogAccountId = if (status.reblog != null) {
+                    status.account.id
+                } else {
+                    null
+                },
+                authorId = status.actionableStatus.account.id,
+                authorDomain = accountDomain(status.actionableStatus.account.username)
+            )
+        }
+        rowsWritten += replaceRange(
+            cached = cachedItems,
+            rows = items,
+            key = HomeTimelineEntity::id,
+            delete = { ids -> timelineDao.deleteHomeTimelineItems(account.id, ids) },
+            upsert = timelineDao::upsertHomeTimelineItems
+        )
+
+        return IngestResult(overlapped = cachedItems.size, rowsWritten = rowsWritten)
+    }
+
+    /**
+     * Replaces the notifications in the range covered by [notifications] with [notifications].
+     * Cached notifications in the range that are not part of [notifications] are deleted,
+     * this is necessary so notifications that have been deleted on the server are cleaned up.
+     * @param notifications the new notifications, ordered from newest to oldest
+     * @param localState local state of statuses currently displayed, keyed by status id.
+     * Takes precedence over the local state stored in the database.
+     */
+    suspend fun replaceNotificationRange(
+        account: AccountEntity,
+        notifications: List<Notification>,
+        localState: Map<String, StatusLocalState> = emptyMap()
+    ): IngestResult = db.withTransaction {
+        val notificationsDao = db.notificationsDao()
+
+        val cachedNotifications = if (notifications.isNotEmpty()) {
+            notificationsDao.getRange(account.id, notifications.last().id, notifications.first().id)
+        } else {
+            emptyList()
+        }
+
+        val reports = notifications.mapNotNull { notification -> notification.report }
+
+        var rowsWritten = insertAccounts(
+            account.id,
+            notifications.map { notification -> notification.account } + reports.map { report -> report.targetAccount }
+        )
+        rowsWritten += upsertChanged(
+            rows = reports.map { report -> report.toEntity(account.id) }.distinctBy(NotificationReportEntity::serverId),
+            key = NotificationReportEntity::serverId,
+            cached = { ids -> notificationsDao.getReports(account.id, ids) },
+            upsert = notificationsDao::upsertReports
+        )
+
+        rowsWritten += insertStatuses(
+            account,
+            notifications.mapNotNull { notification -> notification.status },
+            Filter.Kind.NOTIFICATIONS,
+            localState
+        )
+
+        rowsWritten += replaceRange(
+            cached = cachedNotifications,
+            rows = notifications.map { notification -> notification.toEntity(account.id) },
+            key = NotificationEntity::id,
+            delete = { ids -> notificationsDao.deleteNotifications(account.id, ids) },
+            upsert = notificationsDao::upsertNotifications
+        )
+
+        Log.d(TAG, "Wrote $rowsWritten rows for a page of ${notifications.size} notifications")
+        IngestResult(overlapped = cachedNotifications.size, rowsWritten = rowsWritten)
+    }
+
+    /**
+     * Merges [conversations] into the cached conversations by their id.
+     * The state the last status of a conversation is shown with is kept as long as it is still the last status.
+     * @return the number of rows that were written
+     */
+    suspend fun upsertConversations(
+        account: AccountEntity,
+        conversations: List<Conversation>
+    ): Int = db.withTransaction {
+        val dao = db.conversationDao()
+        val cached = dao.getConversations(account.id, conversations.map { conversation -> conversation.id })
+            .associateBy { conversation -> conversation.id }
+
+        val changed = conversations
+            .filterNot { it.lastStatus == null }
+            .map { conversation ->
+                val cachedStatus = cached[conversation.id]?.lastStatus?.takeIf { status -> status.id == conversation.lastStatus!!.id }
+
+                val expanded = cachedStatus?.expanded ?: account.alwaysOpenSpoiler
+                val contentShowing = cachedStatus?.showingHiddenContent
+                    ?: (account.alwaysShowSensitiveMedia || !conversation.lastStatus!!.sensitive)
+                val contentCollapsed = cachedStatus?.collapsed ?: true
+
+                conversation.toEntity(
+                    accountId = account.id,
+                    expanded = expanded,
+                    contentShowing = contentShowing,
+                    contentCollapsed = contentCollapsed
+                )
+            }
+            .filter { conversation -> conversation != cached[conversation.id] }
+
+        if (changed.isNotEmpty()) {
+            dao.upsert(changed)
+        }
+        changed.size
+    }
+
+    /**
+     * Replaces the cached conversations in the range [conversations], the newest page of conversations, covers.
+     * The page is merged like in [upsertConversations], and cached conversations in its range that are not on it anymore
+     * were deleted on the server and are deleted as well.
+     * If [isLastPage] is true, the page covers all conversations of the account.
+     * @return the number of rows that were written
+     */
+    suspend fun replaceNewestConversations(
+        account: AccountEntity,
+        conversations: List<Conversation>,
+        isLastPage: Boolean
+    ): Int = db.withTransaction {
+        val shown = conversations.filterNot { conversation -> conversation.lastStatus == null }
+        val oldestSortKey = if (isLastPage) {
+            ""
+        } else {
+            shown.minOfOrNull { conversation -> conversation.lastStatus!!.id.toSortKey() }
+                ?: return@withTransaction upsertConversations(account, conversations)
+        }
+        val deleted = db.conversationDao().deleteNewerThan(
+            accountId = account.id,
+            sortKey = oldestSortKey,
+            keepIds = shown.map { conversation -> conversation.id }
+        )
+        deleted + upsertConversations(account, conversations)
+    }
+
+    /**
+     * Inserts the actionable statuses of [statuses] and all accounts they reference.
+     * The local state of statuses that are already cached is carried over.
+     * @return the number of rows that were written
+     */
+    private suspend fun insertStatuses(
+        account: AccountEntity,
+        statuses: List<Status>,
+        filterKind: Filter.Kind,
+        localState: Map<String, StatusLocalState>
+    ): Int {
+        if (statuses.isEmpty()) {
+            return 0
+        }
+
+        val accountsWritten = insertAccounts(
+            account.id,
+            statuses.flatMap { status -> listOfNotNull(status.account, status.reblog?.account) }
+        )
+        val emojisWritten = insertEmojis(
+            account.id,
+            statuses.flatMap { status ->
+                val actionableStatus = status.actionableStatus
+                val domain = emojiDomain(actionableStatus.account.username)
+                actionableStatus.emojis.map { emoji -> emoji.toEntity(account.id, domain) }
+            }
+        )
+
+        val statusDao = db.timelineStatusDao()
+        // the cached statuses are needed for their local state anyway, so they are only loaded once
+        val cachedStatuses = statuses.map { status -> status.actionableId }.distinct()
+            .chunked(MAX_KEYS_PER_QUERY)
+            .flatMap { statusIds -> statusDao.getStatuses(account.id, statusIds) }
+            .associateBy(TimelineStatusEntity::serverId)
+
+        val statusesWritten = upsertChanged(
+            rows = statuses.map { status ->
+                val oldState = localState[status.actionableId] ?: cachedStatuses[status.actionableId]?.toLocalState()
+                status.actionableStatus.toEntity(
+                    tuskyAccountId = account.id,
+                    expanded = oldState?.expanded ?: account.alwaysOpenSpoiler,
+                    contentShowing = oldState?.contentShowing ?: status.shouldShowContent(account.alwaysShowSensitiveMedia, filterKind),
+                    contentCollapsed = oldState?.contentCollapsed ?: true
+                )
+            }.distinctBy(TimelineStatusEntity::serverId),
+            key = TimelineStatusEntity::serverId,
+            cached = { statusIds -> statusIds.mapNotNull(cachedStatuses::get) },
+            upsert = statusDao::upsertAll
+        )
+        return accountsWritten + emojisWritten + statusesWritten
+    }
+
+    /** @return the number of rows that were written */
+    private suspend fun insertAccounts(tuskyAccountId: Long, accounts: List<TimelineAccount>): Int {
+        if (accounts.isEmpty()) {
+            return 0
+        }
+        val distinctAccounts = accounts.distinctBy(TimelineAccount::id)
+        val emojisWritten = insertEmojis(
+            tuskyAccountId,
+            distinctAccounts.flatMap { account ->
+                val domain = emojiDomain(account.username)
+                account.emojis.map { emoji -> emoji.toEntity(tuskyAccountId, domain) }
+            }
+        )
+        val accountDao = db.timelineAccountDao()
+        return emojisWritten + upsertChanged(
+            rows = distinctAccounts.map { account -> account.toEntity(tuskyAccountId) },
+            key = TimelineAccountEntity::serverId,
+            cached = { accountIds -> accountDao.getAccounts(tuskyAccountId, accountIds) },
+            upsert = accountDao::upsertAll
+        )
+    }
+
+    /** @return the number of rows that were written */
+    private suspend fun insertEmojis(tuskyAccountId: Long, emojis: List<CustomEmojiEntity>): Int {
+        val emojiDao = db.customEmojiDao()
+        return upsertChanged(
+            rows = emojis.distinctBy { emoji -> emoji.domain to emoji.shortcode },
+            key = { emoji -> emoji.domain to emoji.shortcode },
+            // looked up per domain, so only the shortcodes of a domain are bound and no other combinations are loaded
+            cached = { keys ->
+                keys.groupBy(keySelector = { (domain, _) -> domain }, valueTransform = { (_, shortcode) -> shortcode })
+                    .flatMap { (domain, shortcodes) -> emojiDao.getEmojisOfDomain(tuskyAccountId, domain, shortcodes) }
+            },
+            upsert = emojiDao::upsert
+        )
+    }
+
+    /**
+     * Inserts or updates those of [rows] that are not cached exactly like this already.
+     * @param cached loads the cached versions of the rows with the given keys
+     * @return the number of rows that were written
+     */
+    private suspend fun <T, K> upsertChanged(
+        rows: List<T>,
+        key: (T) -> K,
+        cached: suspend (List<K>) -> List<T>,
+        upsert: suspend (List<T>) -> Unit
+    ): Int {
+        if (rows.isEmpty()) {
+            return 0
+        }
+        val cachedRows = rows.map(key).chunked(MAX_KEYS_PER_QUERY)
+            .flatMap { keys -> cached(keys) }
+            .associateBy(key)
+        val changedRows = rows.filter { row -> cachedRows[key(row)] != row }
+        if (changedRows.isNotEmpty()) {
+            upsert(changedRows)
+        }
+        return changedRows.size
+    }
+
+    /**
+     * Makes the [cached] rows of a range of a timeline match [rows]:
+     * cached rows that are missing from [rows] are deleted, new and changed rows are written and unchanged rows are left alone.
+     * @return the number of rows that were written or deleted
+     */
+    private suspend fun <T> replaceRange(
+        cached: List<T>,
+        rows: List<T>,
+        key: (T) -> String,
+        delete: suspend (List<String>) -> Int,
+        upsert: suspend (List<T>) -> Unit
+    ): Int {
+        val keys = rows.mapTo(HashSet(), key)
+        val deleted = cached.map(key)
+            .filterNot { cachedKey -> cachedKey in keys }
+            .chunked(MAX_KEYS_PER_QUERY)
+            .sumOf { staleKeys -> delete(staleKeys) }
+        val cachedByKey = cached.associateBy(key)
+        return deleted + upsertChanged(
+            rows = rows,
+            key = key,
+            cached = { rowKeys -> rowKeys.mapNotNull { rowKey -> cachedByKey[rowKey] } },
+            upsert = upsert
+        )
+    }
+
+    companion object {
+        private const val TAG = "CacheIngester"
+
+        /** How many statuses of a streamed page are kept in memory and written at once */
+        const val STREAMING_BATCH_SIZE = 40
+
+        /** Stays well below the maximum number of variables SQLite allows in a statement */
+        private const val MAX_KEYS_PER_QUERY = 500
+    }
+}
+
+/**
+ * The outcome of writing a page into the cache.
+ * @param overlapped how many items of the timeline were cached in the range the page covers before it was written
+ * @param rowsWritten how many rows of all tables were inserted, updated or deleted, rows that were already cached unchanged are not counted
+ */
+data class IngestResult(
+    val overlapped: Int,
+    val rowsWritten: Int
+)
+
+/**
+ * The outcome of writing a page that was read from the response it was transferred in.
+ * @param statusCount how many statuses the page had
+ * @param oldestId the id of the oldest status of the page, null when the page was empty
+ * @param overlapped how many items of the timeline were cached in the range the page covers before it was written
+ * @param rowsWritten how many rows of all tables were inserted, updated or deleted, rows that were already cached unchanged are not counted
+ */
+data class StreamedIngestResult(
+    val statusCount: Int,
+    val oldestId: String?,
+    val overlapped: Int,
+    val rowsWritten: Int
+)
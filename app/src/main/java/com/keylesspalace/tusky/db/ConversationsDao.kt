@@ -20,22 +20,44 @@ import androidx.room.Dao
 import androidx.room.Insert
 import androidx.room.OnConflictStrategy
 import androidx.room.Query
+import androidx.room.Upsert
 import com.keylesspalace.tusky.components.conversation.ConversationEntity
 
 @Dao
 interface ConversationsDao {
-    @Insert(onConflict = OnConflictStrategy.REPLACE)
-    suspend fun insert(conversations: List<ConversationEntity>)
-
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     suspend fun insert(conversation: ConversationEntity)
 
     @Query("DELETE FROM ConversationEntity WHERE id = :id AND accountId = :accountId")
     suspend fun delete(id: String, accountId: Long)
 
-    @Query("SELECT * FROM ConversationEntity WHERE accountId = :accountId ORDER BY `order` ASC")
+    @Upsert
+    suspend fun upsert(conversations: List<ConversationEntity>)
+
+    @Query("UPDATE ConversationEntity SET s_favourited = :favourited WHERE accountId = :accountId AND s_id = :statusId")
+    suspend fun setFavourited(accountId: Long, statusId: String, favourited: Boolean)
+
+    @Query("UPDATE ConversationEntity SET s_bookmarked = :bookmarked WHERE accountId = :accountId AND s_id = :statusId")
+    suspend fun setBookmarked(accountId: Long, statusId: String, bookmarked: Boolean)
+
+    @Query("SELECT * FROM ConversationEntity WHERE accountId = :accountId ORDER BY sortKey DESC")
     fun conversationsForAccount(accountId: Long): PagingSource<Int, ConversationEntity>
 
+    @Query("SELECT * FROM ConversationEntity WHERE accountId = :accountId AND id IN (:ids)")
+    suspend fun getConversations(accountId: Long, ids: List<String>): List<ConversationEntity>
+
+    /** Returns the id of the newest last status of all cached conversations, or null if there are none. */
+    @Query("SELECT s_id FROM ConversationEntity WHERE accountId = :accountId ORDER BY sortKey DESC LIMIT 1")
+    suspend fun getNewestLastStatusId(accountId: Long): String?
+
+    /** Returns the id of the oldest last status of all cached conversations, or null if there are none. */
+    @Query("SELECT s_id FROM ConversationEntity WHERE accountId = :accountId ORDER BY sortKey ASC LIMIT 1")
+    suspend fun getOldestLastStatusId(accountId: Long): String?
+
+    /** Deletes the conversations of an account with a sort key of at least [sortKey] that are not in [keepIds]. */
+    @Query("DELETE FROM ConversationEntity WHERE accountId = :accountId AND sortKey >= :sortKey AND id NOT IN (:keepIds)")
+    suspend fun deleteNewerThan(accountId: Long, sortKey: String, keepIds: List<String>): Int
+
     @Query("DELETE FROM ConversationEntity WHERE accountId = :accountId")
     suspend fun deleteForAccount(accountId: Long)
 }
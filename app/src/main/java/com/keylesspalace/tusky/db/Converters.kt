@@ -222,6 +222,16 @@ class Converters @Inject constructor(
         return listJson?.let { moshi.adapter<List<String>?>().fromJson(it) }
     }
 
+    @TypeConverter
+    fun intListToJson(list: List<Int>?): String? {
+        return list?.let { moshi.adapter<List<Int>>().toJson(it) }
+    }
+
+    @TypeConverter
+    fun jsonToIntList(listJson: String?): List<Int>? {
+        return listJson?.let { moshi.adapter<List<Int>>().fromJson(it) }
+    }
+
     @TypeConverter
     fun applicationToJson(application: Status.Application?): String {
         return moshi.adapter<Status.Application?>().toJson(application)
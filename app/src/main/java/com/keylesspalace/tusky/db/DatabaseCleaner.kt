@@ -16,21 +16,56 @@
 package com.keylesspalace.tusky.db
 
 import androidx.room.withTransaction
+import androidx.sqlite.db.SupportSQLiteDatabase
 import com.keylesspalace.tusky.components.conversation.ConversationEntity
+import com.keylesspalace.tusky.db.entity.CustomEmojiEntity
 import com.keylesspalace.tusky.db.entity.HomeTimelineEntity
 import com.keylesspalace.tusky.db.entity.NotificationEntity
 import com.keylesspalace.tusky.db.entity.NotificationPolicyEntity
 import com.keylesspalace.tusky.db.entity.NotificationReportEntity
+import com.keylesspalace.tusky.db.entity.REBUILD_STATUS_SEARCH_INDEX
+import com.keylesspalace.tusky.db.entity.StatusSearchEntity
 import com.keylesspalace.tusky.db.entity.TimelineAccountEntity
 import com.keylesspalace.tusky.db.entity.TimelineStatusEntity
 import javax.inject.Inject
+import kotlin.time.TimeSource
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
 
 class DatabaseCleaner @Inject constructor(
-    private val db: AppDatabase
+    private val cacheDatabases: CacheDatabases
 ) {
     /**
-     * Cleans the [HomeTimelineEntity], [TimelineStatusEntity], [TimelineAccountEntity], [NotificationEntity] and [NotificationReportEntity] tables from old entries.
+     * Trims the cache of one account to about [byteBudget] bytes.
+     * When the cache is bigger, the same share of the oldest home timeline items and notifications is deleted
+     * so that the remaining cache fits into the budget, see [cleanupOldData].
+     * @param tuskyAccountId id of the account for which to clean tables
+     * @param byteBudget how many bytes the cache of the account may take up, see [CleanupReport.bytesBefore]
+     */
+    suspend fun cleanupOldData(tuskyAccountId: Long, byteBudget: Long): CleanupReport {
+        val db = cacheDatabases.forAccount(tuskyAccountId)
+        val timelineCount = db.timelineDao().getHomeTimelineItemCount(tuskyAccountId)
+        val notificationCount = db.notificationsDao().getNotificationCount(tuskyAccountId)
+        val cacheSize = estimateCacheSize(db, tuskyAccountId, timelineCount, notificationCount)
+        val keepShare = if (cacheSize > byteBudget) {
+            byteBudget.toDouble() / cacheSize
+        } else {
+            1.0
+        }
+        return cleanup(
+            db = db,
+            tuskyAccountId = tuskyAccountId,
+            timelineLimit = (timelineCount * keepShare).toInt(),
+            notificationLimit = (notificationCount * keepShare).toInt(),
+            bytesBefore = cacheSize
+        )
+    }
+
+    /**
+     * Cleans the [HomeTimelineEntity], [TimelineStatusEntity], [TimelineAccountEntity], [NotificationEntity], [NotificationReportEntity]
+     * and [CustomEmojiEntity] tables from old entries.
      * Should be regularly run to prevent the database from growing too big.
+     * Rows are deleted in chunks of [CHUNK_SIZE], each in its own short transaction, so other writers are never blocked for long.
      * @param tuskyAccountId id of the account for which to clean tables
      * @param timelineLimit how many timeline items to keep
      * @param notificationLimit how many notifications to keep
@@ -39,33 +74,219 @@ class DatabaseCleaner @Inject constructor(
         tuskyAccountId: Long,
         timelineLimit: Int,
         notificationLimit: Int
-    ) {
-        db.withTransaction {
-            // the order here is important - foreign key constraints must not be violated
-            db.notificationsDao().cleanupNotifications(tuskyAccountId, notificationLimit)
-            db.notificationsDao().cleanupReports(tuskyAccountId)
-            db.timelineDao().cleanupHomeTimeline(tuskyAccountId, timelineLimit)
-            db.timelineStatusDao().cleanupStatuses(tuskyAccountId)
-            db.timelineAccountDao().cleanupAccounts(tuskyAccountId)
+    ): CleanupReport {
+        val db = cacheDatabases.forAccount(tuskyAccountId)
+        val timelineCount = db.timelineDao().getHomeTimelineItemCount(tuskyAccountId)
+        val notificationCount = db.notificationsDao().getNotificationCount(tuskyAccountId)
+        return cleanup(
+            db = db,
+            tuskyAccountId = tuskyAccountId,
+            timelineLimit = timelineLimit,
+            notificationLimit = notificationLimit,
+            bytesBefore = estimateCacheSize(db, tuskyAccountId, timelineCount, notificationCount)
+        )
+    }
+
+    private suspend fun cleanup(
+        db: AppDatabase,
+        tuskyAccountId: Long,
+        timelineLimit: Int,
+        notificationLimit: Int,
+        bytesBefore: Long
+    ): CleanupReport {
+        val timelineDao = db.timelineDao()
+        val notificationsDao = db.notificationsDao()
+        val statusDao = db.timelineStatusDao()
+        val accountDao = db.timelineAccountDao()
+
+        // the order here is important - foreign key constraints must not be violated
+        val phases = listOf(
+            phase("HomeTimelineEntity") {
+                deleteOldest(timelineDao.getHomeTimelineItemCount(tuskyAccountId) - timelineLimit) { count ->
+                    timelineDao.deleteOldest(tuskyAccountId, count)
+                }
+            },
+            phase("NotificationEntity") {
+                deleteOldest(notificationsDao.getNotificationCount(tuskyAccountId) - notificationLimit) { count ->
+                    notificationsDao.deleteOldest(tuskyAccountId, count)
+                }
+            },
+            phase("NotificationReportEntity") {
+                notificationsDao.cleanupReports(tuskyAccountId)
+            },
+            phase("TimelineStatusEntity") {
+                deleteUnreferenced(
+                    getChunkEnd = { afterRowId -> statusDao.getChunkEnd(tuskyAccountId, afterRowId, CHUNK_SIZE) },
+                    delete = { afterRowId, upToRowId -> statusDao.cleanupStatuses(tuskyAccountId, afterRowId, upToRowId) }
+                )
+            },
+            phase("StatusViewStateEntity") {
+                db.statusViewStateDao().cleanupViewStates(tuskyAccountId)
+            },
+            phase("TimelineAccountEntity") {
+                deleteUnreferenced(
+                    getChunkEnd = { afterRowId -> accountDao.getChunkEnd(tuskyAccountId, afterRowId, CHUNK_SIZE) },
+                    delete = { afterRowId, upToRowId -> accountDao.cleanupAccounts(tuskyAccountId, afterRowId, upToRowId) }
+                )
+            },
+            phase("CustomEmojiEntity") {
+                db.customEmojiDao().cleanupEmojis(tuskyAccountId)
+            }
+        )
+
+        return CleanupReport(
+            phases = phases,
+            bytesBefore = bytesBefore,
+            bytesAfter = estimateCacheSize(
+                db,
+                tuskyAccountId,
+                timelineDao.getHomeTimelineItemCount(tuskyAccountId),
+                notificationsDao.getNotificationCount(tuskyAccountId)
+            )
+        )
+    }
+
+    private suspend fun phase(table: String, cleanup: suspend () -> Int): CleanupReport.Phase {
+        val start = TimeSource.Monotonic.markNow()
+        val rowsDeleted = cleanup()
+        return CleanupReport.Phase(table, rowsDeleted, start.elapsedNow().inWholeMilliseconds)
+    }
+
+    /** Deletes [count] rows in chunks by calling [deleteChunk] with the size of each chunk. */
+    private suspend fun deleteOldest(count: Int, deleteChunk: suspend (Int) -> Int): Int {
+        var deleted = 0
+        while (deleted < count) {
+            val deletedInChunk = deleteChunk(minOf(CHUNK_SIZE, count - deleted))
+            if (deletedInChunk == 0) {
+                break
+            }
+            deleted += deletedInChunk
+        }
+        return deleted
+    }
+
+    /** Walks through a table in chunks of rowids and calls [delete] for each, so every row is checked exactly once. */
+    private suspend fun deleteUnreferenced(
+        getChunkEnd: suspend (afterRowId: Long) -> Long?,
+        delete: suspend (afterRowId: Long, upToRowId: Long) -> Int
+    ): Int {
+        var deleted = 0
+        var afterRowId = 0L
+        while (true) {
+            val upToRowId = getChunkEnd(afterRowId) ?: break
+            deleted += delete(afterRowId, upToRowId)
+            afterRowId = upToRowId
+        }
+        return deleted
+    }
+
+    /**
+     * Estimates how many bytes the cache of one account takes up.
+     * The estimate is based on the size of the variable length columns of cached statuses and accounts
+     * and a fixed size for each home timeline item and notification.
+     */
+    private suspend fun estimateCacheSize(db: AppDatabase, tuskyAccountId: Long, timelineCount: Int, notificationCount: Int): Long {
+        return db.timelineStatusDao().getCacheSize(tuskyAccountId) +
+            db.timelineAccountDao().getCacheSize(tuskyAccountId) +
+            db.timelineDao().getReadModelCacheSize(tuskyAccountId) +
+            (timelineCount + notificationCount) * ITEM_SIZE
+    }
+
+    /**
+     * Returns unused pages of the main database file and the open database files of accounts to the file system.
+     * Must not be called in a transaction.
+     * New databases are created with incremental auto vacuum, see [AutoVacuumOpenHelperFactory].
+     * A database created before that is switched to it, which requires a full VACUUM once.
+     * VACUUM locks the database until it is done and can renumber the rowids [StatusSearchEntity] refers to,
+     * so it is only run by [com.keylesspalace.tusky.worker.PruneCacheWorker] while the device is idle and the index is rebuilt afterwards.
+     * @return by how many bytes the database files shrank
+     */
+    suspend fun reclaimSpace(): Long = withContext(Dispatchers.IO) {
+        cacheDatabases.openDatabases().sumOf { db -> reclaimSpace(db.openHelper.writableDatabase) }
+    }
+
+    private fun reclaimSpace(database: SupportSQLiteDatabase): Long {
+        val pageSize = database.pragma("page_size")
+        val pagesBefore = database.pragma("page_count")
+        if (database.pragma("auto_vacuum") != AUTO_VACUUM_INCREMENTAL) {
+            database.execSQL("PRAGMA auto_vacuum = INCREMENTAL")
+            database.execSQL("VACUUM")
+            database.execSQL(REBUILD_STATUS_SEARCH_INDEX)
+        } else {
+            database.query("PRAGMA incremental_vacuum").use { cursor ->
+                while (cursor.moveToNext()) {
+                    // every step frees one page
+                }
+            }
         }
+        return (pagesBefore - database.pragma("page_count")) * pageSize
+    }
+
+    private fun SupportSQLiteDatabase.pragma(name: String): Long = query("PRAGMA $name").use { cursor ->
+        cursor.moveToFirst()
+        cursor.getLong(0)
     }
 
     /**
-     * Deletes everything from the [HomeTimelineEntity], [TimelineStatusEntity], [TimelineAccountEntity], [NotificationEntity],
-     * [NotificationReportEntity],  [ConversationEntity] and [NotificationPolicyEntity] tables for one user.
+     * Deletes everything from the [HomeTimelineEntity], [TimelineStatusEntity], [StatusViewStateEntity], [TimelineAccountEntity], [NotificationEntity],
+     * [NotificationReportEntity], [CustomEmojiEntity], [ConversationEntity] and [NotificationPolicyEntity] tables for one user.
      * Intended to be used when a user logs out.
+     * When the account has a database file of its own, see [CacheDatabases], the file is deleted.
+     * The main database is cleaned in any case, it can still contain the cache from before the file was created.
      * @param tuskyAccountId id of the account for which to clean tables
      */
     suspend fun cleanupEverything(tuskyAccountId: Long) {
+        withContext(Dispatchers.IO) {
+            cacheDatabases.delete(tuskyAccountId)
+        }
+        val db = cacheDatabases.mainDatabase
         db.withTransaction {
             // the order here is important - foreign key constraints must not be violated
             db.notificationsDao().removeAllNotifications(tuskyAccountId)
             db.notificationsDao().removeAllReports(tuskyAccountId)
             db.timelineDao().removeAllHomeTimelineItems(tuskyAccountId)
             db.timelineStatusDao().removeAllStatuses(tuskyAccountId)
+            db.statusViewStateDao().removeAllViewStates(tuskyAccountId)
             db.timelineAccountDao().removeAllAccounts(tuskyAccountId)
+            db.customEmojiDao().removeAllEmojis(tuskyAccountId)
             db.conversationDao().deleteForAccount(tuskyAccountId)
             db.notificationPolicyDao().deleteForAccount(tuskyAccountId)
         }
     }
+
+    companion object {
+        /** How many rows are deleted in one transaction */
+        private const val CHUNK_SIZE = 500
+
+        /** Estimated size of a home timeline item or notification: ids, sort key and their index entries */
+        private const val ITEM_SIZE = 150L
+
+        private const val AUTO_VACUUM_INCREMENTAL = 2L
+    }
+}
+
+/**
+ * What [DatabaseCleaner.cleanupOldData] did, for logging.
+ * @param bytesBefore estimated size of the cache before cleaning it,
+ * based on the size of the variable length columns of cached statuses and accounts, including their copies in HomeTimelineRowEntity,
+ * and a fixed size for each home timeline item and notification
+ * @param bytesAfter estimated size of the cache after cleaning it
+ */
+data class CleanupReport(
+    val phases: List<Phase>,
+    val bytesBefore: Long,
+    val bytesAfter: Long
+) {
+    val rowsDeleted: Int
+        get() = phases.sumOf { phase -> phase.rowsDeleted }
+
+    val bytesFreed: Long
+        get() = bytesBefore - bytesAfter
+
+    /** Cleaning of one table */
+    data class Phase(
+        val table: String,
+        val rowsDeleted: Int,
+        val durationMillis: Long
+    )
 }
@@ -0,0 +1,155 @@
+/* Copyright 2026 Tusky Contributors
+ *
+ * This file is a part of Tusky.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Tusky is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Tusky; if not,
+ * see <http://www.gnu.org/licenses>. */
+
+package com.keylesspalace.tusky.db
+
+import androidx.room.RoomDatabase
+import androidx.sqlite.db.SupportSQLiteDatabase
+import com.keylesspalace.tusky.db.entity.HomeTimelineRowEntity
+
+/**
+ * Keeps [HomeTimelineRowEntity] in sync with the tables it is built from.
+ *
+ * Every write to HomeTimelineEntity, TimelineStatusEntity or TimelineAccountEntity fires a trigger
+ * that rebuilds the rows of the home timeline items it affects from the same four-way join the home timeline was read with before.
+ * Doing this in triggers instead of in the DAOs means no writer can forget it,
+ * e.g. [com.keylesspalace.tusky.db.dao.TimelineStatusDao.update] or the methods that flip a single flag of a status.
+ *
+ * A row is rebuilt by deleting it and inserting it again instead of with INSERT OR REPLACE,
+ * because a trigger takes over the conflict resolution of the statement that fired it, which would turn the REPLACE into e.g. an IGNORE.
+ *
+ * UPDATE triggers only fire when a column the rows are built from changes,
+ * e.g. not for the author columns HomeTimelineEntity has for deleting the items of blocked users.
+ *
+ * The triggers are created for new databases by this callback, which [AppDatabase.init] registers with every database
+ * so no builder can leave it out, and for existing ones by [AppDatabase.MIGRATION_80_82].
+ */
+object HomeTimelineReadModel : RoomDatabase.Callback() {
+
+    override fun onCreate(db: SupportSQLiteDatabase) {
+        createTriggers(db)
+    }
+
+    @JvmStatic
+    fun createTriggers(db: SupportSQLiteDatabase) {
+        db.execSQL(
+            trigger("HomeTimelineEntity", "INSERT", statements = refresh(tuskyAccountId = "NEW.`tuskyAccountId`", ids = "NEW.`id`"))
+        )
+        db.execSQL(
+            trigger(
+                "HomeTimelineEntity",
+                "UPDATE",
+                columns = HOME_TIMELINE_COLUMNS,
+                statements = delete(tuskyAccountId = "OLD.`tuskyAccountId`", ids = "OLD.`id`") +
+                    refresh(tuskyAccountId = "NEW.`tuskyAccountId`", ids = "NEW.`id`")
+            )
+        )
+        db.execSQL(
+            trigger("HomeTimelineEntity", "DELETE", statements = delete(tuskyAccountId = "OLD.`tuskyAccountId`", ids = "OLD.`id`"))
+        )
+
+        for ((event, row) in listOf("INSERT" to "NEW", "UPDATE" to "NEW", "DELETE" to "OLD")) {
+            db.execSQL(
+                trigger(
+                    "TimelineStatusEntity",
+                    event,
+                    columns = STATUS_COLUMNS.takeIf { event == "UPDATE" },
+                    statements = refresh(tuskyAccountId = "$row.`tuskyAccountId`", ids = itemsOfStatus(row))
+                )
+            )
+            db.execSQL(
+                trigger(
+                    "TimelineAccountEntity",
+                    event,
+                    columns = ACCOUNT_COLUMNS.takeIf { event == "UPDATE" },
+                    statements = refresh(tuskyAccountId = "$row.`tuskyAccountId`", ids = itemsOfAccount(row))
+                )
+            )
+        }
+    }
+
+    /** Builds the rows of all items of the home timeline, for databases that already had items before the table existed. */
+    @JvmStatic
+    fun rebuild(db: SupportSQLiteDatabase) {
+        db.execSQL("DELETE FROM `HomeTimelineRowEntity`")
+        db.execSQL("INSERT INTO `HomeTimelineRowEntity` ($ROW_COLUMNS) $HOME_TIMELINE_JOIN")
+    }
+
+    /** @param columns the columns an UPDATE trigger fires for, null to fire for all of them */
+    private fun trigger(table: String, event: String, columns: List<String>? = null, statements: String): String {
+        val of = columns?.joinToString(prefix = " OF ") { column -> "`$column`" }.orEmpty()
+        return "CREATE TRIGGER IF NOT EXISTS `${triggerName(table, event)}` AFTER $event$of ON `$table` BEGIN $statements END"
+    }
+
+    private fun triggerName(table: String, event: String) = "home_timeline_row_${table}_AFTER_$event"
+
+    private fun delete(tuskyAccountId: String, ids: String): String {
+        return "DELETE FROM `HomeTimelineRowEntity` WHERE `tuskyAccountId` = $tuskyAccountId AND `id` IN ($ids);"
+    }
+
+    private fun refresh(tuskyAccountId: String, ids: String): String {
+        return delete(tuskyAccountId, ids) +
+            "INSERT INTO `HomeTimelineRowEntity` ($ROW_COLUMNS) $HOME_TIMELINE_JOIN " +
+            "WHERE h.`tuskyAccountId` = $tuskyAccountId AND h.`id` IN ($ids);"
+    }
+
+    /** The ids of the items that show the status [row]. */
+    private fun itemsOfStatus(row: String) =
+        "SELECT `id` FROM `HomeTimelineEntity` WHERE `statusId` = $row.`serverId` AND `tuskyAccountId` = $row.`tuskyAccountId`"
+
+    /** The ids of the items that show the account [row] as author, reblogger or as the account a status replies to. */
+    private fun itemsOfAccount(row: String) = """
+        SELECT `id` FROM `HomeTimelineEntity` WHERE `reblogAccountId` = $row.`serverId` AND `tuskyAccountId` = $row.`tuskyAccountId`
+        UNION SELECT `id` FROM `HomeTimelineEntity` WHERE `tuskyAccountId` = $row.`tuskyAccountId` AND `statusId` IN (
+            SELECT `serverId` FROM `TimelineStatusEntity` WHERE `authorServerId` = $row.`serverId` AND `tuskyAccountId` = $row.`tuskyAccountId`
+            UNION SELECT `serverId` FROM `TimelineStatusEntity` WHERE `inReplyToAccountId` = $row.`serverId` AND `tuskyAccountId` = $row.`tuskyAccountId`
+        )"""
+
+    /** The columns of HomeTimelineEntity the rows are built from: the ones they copy and the ones they are joined by */
+    private val HOME_TIMELINE_COLUMNS = listOf("tuskyAccountId", "id", "sortKey", "loading", "statusId", "reblogAccountId")
+
+    private val STATUS_COLUMNS = listOf(
+        "serverId", "url", "tuskyAccountId", "authorServerId", "inReplyToId", "inReplyToAccountId", "content", "createdAt",
+        "editedAt", "emojis", "reblogsCount", "favouritesCount", "repliesCount", "reblogged", "bookmarked", "favourited",
+        "sensitive", "spoilerText", "visibility", "attachments", "mentions", "tags", "application", "poll", "muted",
+        "expanded", "contentCollapsed", "contentShowing", "pinned", "card", "language", "filtered", "searchText"
+    )
+
+    private val ACCOUNT_COLUMNS = listOf(
+        "serverId", "tuskyAccountId", "localUsername", "username", "displayName", "url", "avatar", "note", "emojis", "bot"
+    )
+
+    private val ROW_COLUMNS = (
+        listOf("tuskyAccountId", "id", "sortKey", "loading") +
+            STATUS_COLUMNS.map { column -> "s_$column" } +
+            ACCOUNT_COLUMNS.map { column -> "a_$column" } +
+            ACCOUNT_COLUMNS.map { column -> "rb_$column" } +
+            ACCOUNT_COLUMNS.map { column -> "replied_$column" }
+        ).joinToString { column -> "`$column`" }
+
+    /** Selects the columns of [HomeTimelineRowEntity] for the items of the home timeline, to be restricted with a WHERE clause on h. */
+    internal val HOME_TIMELINE_JOIN = "SELECT " + (
+        listOf("h.`tuskyAccountId`", "h.`id`", "h.`sortKey`", "h.`loading`") +
+            STATUS_COLUMNS.map { column -> "s.`$column`" } +
+            ACCOUNT_COLUMNS.map { column -> "a.`$column`" } +
+            ACCOUNT_COLUMNS.map { column -> "rb.`$column`" } +
+            ACCOUNT_COLUMNS.map { column -> "replied.`$column`" }
+        ).joinToString() + """
+        FROM `HomeTimelineEntity` h
+        LEFT JOIN `TimelineStatusEntity` s ON (h.`statusId` = s.`serverId` AND s.`tuskyAccountId` = h.`tuskyAccountId`)
+        LEFT JOIN `TimelineAccountEntity` a ON (s.`authorServerId` = a.`serverId` AND a.`tuskyAccountId` = h.`tuskyAccountId`)
+        LEFT JOIN `TimelineAccountEntity` rb ON (h.`reblogAccountId` = rb.`serverId` AND rb.`tuskyAccountId` = h.`tuskyAccountId`)
+        LEFT JOIN `TimelineAccountEntity` replied ON (s.`inReplyToAccountId` = replied.`serverId` AND replied.`tuskyAccountId` = h.`tuskyAccountId`)"""
+}
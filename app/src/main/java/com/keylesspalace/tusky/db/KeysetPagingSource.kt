@@ -0,0 +1,133 @@
+/* Copyright 2026 Tusky Contributors
+ *
+ * This file is a part of Tusky.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Tusky is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Tusky; if not,
+ * see <http://www.gnu.org/licenses>. */
+
+package com.keylesspalace.tusky.db
+
+import androidx.paging.PagingSource
+import androidx.paging.PagingState
+import androidx.room.InvalidationTracker
+import androidx.room.RoomDatabase
+import androidx.room.withTransaction
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Pages through a timeline cached in the database by the sort key of its items, newest first.
+ *
+ * Unlike the LIMIT/OFFSET paging Room generates, every page is loaded with a seek in the index over the sort key
+ * ("items older than X", "items newer than Y"), so loading a page takes the same time no matter how far the user has scrolled.
+ * Keys are sort keys: a page is appended below the sort key of the last loaded item and prepended above the first.
+ *
+ * After an invalidation the new source loads the items around the one the user was looking at,
+ * half of the page above it and half below, so the scroll position is kept.
+ * All reads of a page, including the ones of [onPageLoaded], run in one transaction, so they see the same state of the cache.
+ *
+ * @param tables the tables the items are read from, the source is invalidated when any of them changes
+ */
+abstract class KeysetPagingSource<Value : Any>(
+    private val db: RoomDatabase,
+    vararg tables: String
+) : PagingSource<String, Value>() {
+
+    private val observer = object : InvalidationTracker.Observer(tables) {
+        override fun onInvalidated(tables: Set<String>) {
+            invalidate()
+        }
+    }
+
+    private val observerRegistered = AtomicBoolean(false)
+
+    init {
+        registerInvalidatedCallback {
+            db.invalidationTracker.removeObserver(observer)
+        }
+    }
+
+    /** Returns the sort key of [item]. */
+    protected abstract fun sortKeyOf(item: Value): String
+
+    /** Returns the sort key of the newest item, or null if there are none. */
+    protected abstract suspend fun topSortKey(): String?
+
+    /** Loads at most [limit] items with a sort key lower than [sortKey], or lower or equal if [inclusive], newest first. */
+    protected abstract suspend fun loadOlder(sortKey: String, inclusive: Boolean, limit: Int): List<Value>
+
+    /** Loads at most [limit] items with a sort key higher than [sortKey], oldest first. */
+    protected abstract suspend fun loadNewer(sortKey: String, limit: Int): List<Value>
+
+    /**
+     * Called with the items of every page before it is returned, to load what they need for the whole page at once.
+     * Runs in the transaction the page was loaded in.
+     */
+    protected open suspend fun onPageLoaded(items: List<Value>) {}
+
+    override suspend fun load(params: LoadParams<String>): LoadResult<String, Value> {
+        if (observerRegistered.compareAndSet(false, true)) {
+            db.invalidationTracker.addObserver(observer)
+        }
+
+        val page = db.withTransaction {
+            loadPage(params).also { page -> onPageLoaded(page.data) }
+        }
+
+        return if (invalid) LoadResult.Invalid() else page
+    }
+
+    private suspend fun loadPage(params: LoadParams<String>): LoadResult.Page<String, Value> {
+        return when (params) {
+            is LoadParams.Refresh -> refresh(params.key, params.loadSize)
+            is LoadParams.Append -> {
+                val items = loadOlder(params.key, inclusive = false, limit = params.loadSize)
+                LoadResult.Page(
+                    data = items,
+                    prevKey = null,
+                    nextKey = if (items.size < params.loadSize) null else sortKeyOf(items.last())
+                )
+            }
+            is LoadParams.Prepend -> {
+                val items = loadNewer(params.key, params.loadSize).asReversed()
+                LoadResult.Page(
+                    data = items,
+                    prevKey = if (items.size < params.loadSize) null else sortKeyOf(items.first()),
+                    nextKey = null
+                )
+            }
+        }
+    }
+
+    private suspend fun refresh(key: String?, loadSize: Int): LoadResult.Page<String, Value> {
+        // without a key the user is at the top of the timeline, so there is nothing newer to load
+        val anchorSortKey = key ?: topSortKey() ?: return LoadResult.Page(
+            data = emptyList(),
+            prevKey = null,
+            nextKey = null
+        )
+        val newerSize = if (key == null) 0 else loadSize / 2
+        val newer = if (newerSize == 0) emptyList() else loadNewer(anchorSortKey, newerSize).asReversed()
+        val olderSize = loadSize - newer.size
+        val older = loadOlder(anchorSortKey, inclusive = true, limit = olderSize)
+        val items = newer + older
+        return LoadResult.Page(
+            data = items,
+            prevKey = if (key == null || newer.size < newerSize || items.isEmpty()) null else sortKeyOf(items.first()),
+            nextKey = if (older.size < olderSize || items.isEmpty()) null else sortKeyOf(items.last())
+        )
+    }
+
+    override fun getRefreshKey(state: PagingState<String, Value>): String? {
+        return state.anchorPosition
+            ?.let { anchorPosition -> state.closestItemToPosition(anchorPosition) }
+            ?.let(::sortKeyOf)
+    }
+}
@@ -0,0 +1,173 @@
+/* Copyright 2026 Tusky Contributors
+ *
+ * This file is a part of Tusky.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Tusky is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Tusky; if not,
+ * see <http://www.gnu.org/licenses>. */
+
+package com.keylesspalace.tusky.db
+
+import android.util.Log
+import com.squareup.moshi.JsonClass
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Collects statistics about the statements that run against the databases of the app,
+ * grouped by their sql so every DAO query gets its own entry.
+ * Statements are recorded by [TracingOpenHelperFactory] while [enabled] is set.
+ *
+ * The first time a statement is recorded, its plan is captured with EXPLAIN QUERY PLAN
+ * so full table scans show up without having to run the query by hand.
+ */
+@Singleton
+class QueryTracer @Inject constructor() {
+
+    @Volatile
+    var enabled: Boolean = false
+
+    private val statements = HashMap<String, StatementTrace>()
+
+    /** Returns a snapshot of the statistics of all recorded statements, slowest in total first. */
+    fun stats(): List<QueryStats> = synchronized(statements) {
+        statements.values.map { trace -> trace.toStats() }
+    }.sortedByDescending { stats -> stats.totalMillis }
+
+    /** Forgets all recorded statements, including their query plans. */
+    fun reset() = synchronized(statements) {
+        statements.clear()
+    }
+
+    /** Whether the plan of [sql] still has to be captured, which is true exactly once per statement. */
+    internal fun needsQueryPlan(sql: String): Boolean = synchronized(statements) {
+        val key = normalize(sql)
+        if (key in statements) {
+            false
+        } else {
+            statements[key] = StatementTrace(key)
+            true
+        }
+    }
+
+    internal fun recordQueryPlan(sql: String, queryPlan: List<String>) {
+        val fullTableScan = queryPlan.any(::isFullTableScan)
+        synchronized(statements) {
+            val trace = statements.getOrPut(normalize(sql)) { StatementTrace(normalize(sql)) }
+            trace.queryPlan = queryPlan
+            trace.fullTableScan = fullTableScan
+        }
+    }
+
+    /**
+     * Records one execution of [sql].
+     * @param nanos how long it took to execute the statement and read its result
+     * @param rows how many rows were returned or changed
+     */
+    internal fun recordExecution(sql: String, nanos: Long, rows: Int) {
+        val hotFullScan = synchronized(statements) {
+            val trace = statements.getOrPut(normalize(sql)) { StatementTrace(normalize(sql)) }
+            trace.executions++
+            trace.totalNanos += nanos
+            trace.maxNanos = maxOf(trace.maxNanos, nanos)
+            trace.rows += rows
+            trace.latencyHistogram[bucketOf(nanos)]++
+            trace.fullTableScan && trace.executions == HOT_PATH_EXECUTIONS
+        }
+        if (hotFullScan) {
+            Log.w(TAG, "Full table scan in a hot path, ran $HOT_PATH_EXECUTIONS times: $sql")
+        }
+    }
+
+    /** Records that the write lock was held for [nanos] because of a write by [sql]. */
+    internal fun recordWriteLock(sql: String, nanos: Long) = synchronized(statements) {
+        val trace = statements.getOrPut(normalize(sql)) { StatementTrace(normalize(sql)) }
+        trace.writeLockNanos += nanos
+    }
+
+    private class StatementTrace(val sql: String) {
+        var executions = 0
+        var totalNanos = 0L
+        var maxNanos = 0L
+        var rows = 0L
+        var writeLockNanos = 0L
+        val latencyHistogram = IntArray(LATENCY_BUCKETS_MILLIS.size + 1)
+        var queryPlan: List<String>? = null
+        var fullTableScan = false
+
+        fun toStats() = QueryStats(
+            sql = sql,
+            executions = executions,
+            totalMillis = totalNanos / NANOS_PER_MILLI,
+            maxMillis = maxNanos / NANOS_PER_MILLI,
+            rows = rows,
+            writeLockMillis = writeLockNanos / NANOS_PER_MILLI,
+            latencyHistogram = latencyHistogram.toList(),
+            queryPlan = queryPlan,
+            fullTableScan = fullTableScan,
+            hotPathFullTableScan = fullTableScan && executions >= HOT_PATH_EXECUTIONS
+        )
+    }
+
+    companion object {
+        private const val TAG = "QueryTracer"
+
+        private const val NANOS_PER_MILLI = 1_000_000L
+
+        /** The upper bounds of the buckets of [QueryStats.latencyHistogram], the last bucket holds everything slower. */
+        val LATENCY_BUCKETS_MILLIS = listOf(1L, 4L, 16L, 64L, 256L)
+
+        /** How often a statement has to run until a full table scan in it counts as being in a hot path. */
+        const val HOT_PATH_EXECUTIONS = 20
+
+        private val PARAMETER_LIST = Regex("""\?(\s*,\s*\?)+""")
+
+        /** Collapses lists of parameters, so queries that only differ in the number of ids they look for share an entry. */
+        internal fun normalize(sql: String): String = sql.trim().replace(PARAMETER_LIST, "?, …")
+
+        private fun bucketOf(nanos: Long): Int {
+            val bucket = LATENCY_BUCKETS_MILLIS.indexOfFirst { bound -> nanos < bound * NANOS_PER_MILLI }
+            return if (bucket == -1) LATENCY_BUCKETS_MILLIS.size else bucket
+        }
+
+        /**
+         * Whether a line of the output of EXPLAIN QUERY PLAN reads a whole table.
+         * Scans of an index, e.g. to satisfy an ORDER BY, of a full text index, of subqueries and of constant rows are fine.
+         */
+        internal fun isFullTableScan(queryPlanLine: String): Boolean {
+            return queryPlanLine.startsWith("SCAN ") &&
+                !queryPlanLine.contains(" USING ") &&
+                !queryPlanLine.contains("VIRTUAL TABLE") &&
+                !queryPlanLine.contains("CONSTANT ROW") &&
+                !queryPlanLine.contains("SUBQUERY", ignoreCase = true)
+        }
+    }
+}
+
+/**
+ * Statistics of one statement recorded by [QueryTracer].
+ * @param latencyHistogram how many executions fell into each of [QueryTracer.LATENCY_BUCKETS_MILLIS]
+ * @param writeLockMillis how long the write lock was held by transactions this statement wrote in
+ * @param queryPlan the output of EXPLAIN QUERY PLAN, or null if it could not be captured
+ * @param hotPathFullTableScan whether the statement scans a whole table and ran at least [QueryTracer.HOT_PATH_EXECUTIONS] times
+ */
+@JsonClass(generateAdapter = true)
+data class QueryStats(
+    val sql: String,
+    val executions: Int,
+    val totalMillis: Long,
+    val maxMillis: Long,
+    val rows: Long,
+    val writeLockMillis: Long,
+    val latencyHistogram: List<Int>,
+    val queryPlan: List<String>?,
+    val fullTableScan: Boolean,
+    val hotPathFullTableScan: Boolean
+)
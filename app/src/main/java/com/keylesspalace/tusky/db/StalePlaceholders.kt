@@ -0,0 +1,37 @@
+/* Copyright 2026 Tusky Contributors
+ *
+ * This file is a part of Tusky.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Tusky is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Tusky; if not,
+ * see <http://www.gnu.org/licenses>. */
+
+package com.keylesspalace.tusky.db
+
+import androidx.room.RoomDatabase
+import androidx.sqlite.db.SupportSQLiteDatabase
+
+/**
+ * Releases the "Load more" placeholders that are still marked as loading when a database is opened.
+ *
+ * A placeholder is marked as loading in the database while a click or [com.keylesspalace.tusky.components.timeline.HomeTimelineGapFiller]
+ * loads it, and released afterwards. If the process dies in between, nothing would release it anymore:
+ * it would show a progress indicator forever and the gap filler would skip it.
+ * A database is opened once per process before anything loads a placeholder, so every placeholder still loading then is stale.
+ *
+ * Registered with every database by [AppDatabase.init].
+ */
+object StalePlaceholders : RoomDatabase.Callback() {
+
+    override fun onOpen(db: SupportSQLiteDatabase) {
+        db.execSQL("UPDATE HomeTimelineEntity SET loading = 0 WHERE statusId IS NULL AND loading = 1")
+        db.execSQL("UPDATE NotificationEntity SET loading = 0 WHERE type IS NULL AND loading = 1")
+    }
+}
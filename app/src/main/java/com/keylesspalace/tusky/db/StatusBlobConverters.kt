@@ -0,0 +1,490 @@
+/* Copyright 2026 Tusky Contributors
+ *
+ * This file is a part of Tusky.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Tusky is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Tusky; if not,
+ * see <http://www.gnu.org/licenses>. */
+
+package com.keylesspalace.tusky.db
+
+import androidx.room.ProvidedTypeConverter
+import androidx.room.TypeConverter
+import com.keylesspalace.tusky.entity.Attachment
+import com.keylesspalace.tusky.entity.Filter
+import com.keylesspalace.tusky.entity.FilterKeyword
+import com.keylesspalace.tusky.entity.FilterResult
+import com.keylesspalace.tusky.entity.HashTag
+import com.keylesspalace.tusky.entity.Poll
+import com.keylesspalace.tusky.entity.PollOption
+import com.keylesspalace.tusky.entity.PreviewCard
+import com.keylesspalace.tusky.entity.PreviewCardAuthor
+import com.keylesspalace.tusky.entity.Status
+import com.keylesspalace.tusky.entity.TimelineAccount
+import com.squareup.moshi.Moshi
+import com.squareup.moshi.adapter
+import java.io.ByteArrayOutputStream
+import java.util.Date
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Converters for the columns of [com.keylesspalace.tusky.db.entity.TimelineStatusEntity]
+ * and [com.keylesspalace.tusky.db.entity.TimelineAccountEntity] that hold lists or nested objects.
+ * They are read for every row of every timeline page, so instead of JSON they use a compact binary format.
+ *
+ * Every blob starts with a version byte. Rows written before the binary format existed contain JSON,
+ * which never starts with a version byte, and are still read correctly.
+ * Changes to the format must introduce a new version and keep the readers for the old ones.
+ */
+@OptIn(ExperimentalStdlibApi::class)
+@ProvidedTypeConverter
+@Singleton
+class StatusBlobConverters @Inject constructor(
+    private val moshi: Moshi
+) {
+
+    @TypeConverter
+    fun shortcodeListToBlob(shortcodes: List<String>): ByteArray = encode {
+        writeList(shortcodes) { shortcode -> writeString(shortcode) }
+    }
+
+    @TypeConverter
+    fun blobToShortcodeList(blob: ByteArray?): List<String> = decode(
+        blob,
+        binary = { readList { readString() } },
+        json = { json -> moshi.adapter<List<String>?>().fromJson(json) }
+    ).orEmpty()
+
+    @TypeConverter
+    fun attachmentListToBlob(attachments: List<Attachment>): ByteArray = encode {
+        writeList(attachments) { attachment -> writeAttachment(attachment) }
+    }
+
+    @TypeConverter
+    fun blobToAttachmentList(blob: ByteArray?): List<Attachment> = decode(
+        blob,
+        binary = { readList { readAttachment() } },
+        json = { json -> moshi.adapter<List<Attachment>?>().fromJson(json) }
+    ).orEmpty()
+
+    @TypeConverter
+    fun mentionListToBlob(mentions: List<Status.Mention>): ByteArray = encode {
+        writeList(mentions) { mention ->
+            writeString(mention.id)
+            writeString(mention.url)
+            writeString(mention.username)
+            writeString(mention.localUsername)
+        }
+    }
+
+    @TypeConverter
+    fun blobToMentionList(blob: ByteArray?): List<Status.Mention> = decode(
+        blob,
+        binary = {
+            readList {
+                Status.Mention(
+                    id = readString(),
+                    url = readString(),
+                    username = readString(),
+                    localUsername = readString()
+                )
+            }
+        },
+        json = { json -> moshi.adapter<List<Status.Mention>?>().fromJson(json) }
+    ).orEmpty()
+
+    @TypeConverter
+    fun tagListToBlob(tags: List<HashTag>): ByteArray = encode {
+        writeList(tags) { tag ->
+            writeString(tag.name)
+            writeString(tag.url)
+            writeNullable(tag.following) { following -> writeBoolean(following) }
+        }
+    }
+
+    @TypeConverter
+    fun blobToTagList(blob: ByteArray?): List<HashTag> = decode(
+        blob,
+        binary = {
+            readList {
+                HashTag(
+                    name = readString(),
+                    url = readString(),
+                    following = readNullable { readBoolean() }
+                )
+            }
+        },
+        json = { json -> moshi.adapter<List<HashTag>?>().fromJson(json) }
+    ).orEmpty()
+
+    @TypeConverter
+    fun applicationToBlob(application: Status.Application?): ByteArray? = application?.let {
+        encode {
+            writeString(application.name)
+            writeNullableString(application.website)
+        }
+    }
+
+    @TypeConverter
+    fun blobToApplication(blob: ByteArray?): Status.Application? = decode(
+        blob,
+        binary = {
+            Status.Application(
+                name = readString(),
+                website = readNullableString()
+            )
+        },
+        json = { json -> moshi.adapter<Status.Application?>().fromJson(json) }
+    )
+
+    @TypeConverter
+    fun pollToBlob(poll: Poll?): ByteArray? = poll?.let {
+        encode { writePoll(poll) }
+    }
+
+    @TypeConverter
+    fun blobToPoll(blob: ByteArray?): Poll? = decode(
+        blob,
+        binary = { readPoll() },
+        json = { json -> moshi.adapter<Poll?>().fromJson(json) }
+    )
+
+    @TypeConverter
+    fun cardToBlob(card: PreviewCard?): ByteArray? = card?.let {
+        encode { writeCard(card) }
+    }
+
+    @TypeConverter
+    fun blobToCard(blob: ByteArray?): PreviewCard? = decode(
+        blob,
+        binary = { readCard() },
+        json = { json -> moshi.adapter<PreviewCard?>().fromJson(json) }
+    )
+
+    @TypeConverter
+    fun filterResultListToBlob(filterResults: List<FilterResult>): ByteArray = encode {
+        writeList(filterResults) { filterResult -> writeFilter(filterResult.filter) }
+    }
+
+    @TypeConverter
+    fun blobToFilterResultList(blob: ByteArray?): List<FilterResult> = decode(
+        blob,
+        binary = { readList { FilterResult(readFilter()) } },
+        json = { json -> moshi.adapter<List<FilterResult>?>().fromJson(json) }
+    ).orEmpty()
+
+    private inline fun encode(write: BlobWriter.() -> Unit): ByteArray {
+        val writer = BlobWriter()
+        writer.writeByte(FORMAT_VERSION_1)
+        writer.write()
+        return writer.toByteArray()
+    }
+
+    private inline fun <T> decode(
+        blob: ByteArray?,
+        binary: BlobReader.() -> T,
+        json: (String) -> T?
+    ): T? {
+        return when {
+            blob == null || blob.isEmpty() -> null
+            blob[0] == FORMAT_VERSION_1 -> BlobReader(blob, 1).binary()
+            else -> json(blob.decodeToString())
+        }
+    }
+
+    private fun BlobWriter.writeAttachment(attachment: Attachment) {
+        writeString(attachment.id)
+        writeString(attachment.url)
+        writeNullableString(attachment.previewUrl)
+        writeNullableString(attachment.remoteUrl)
+        writeNullable(attachment.meta) { meta ->
+            writeNullable(meta.focus) { focus ->
+                writeNullable(focus.x) { x -> writeFloat(x) }
+                writeNullable(focus.y) { y -> writeFloat(y) }
+            }
+            writeNullable(meta.duration) { duration -> writeFloat(duration) }
+            writeNullable(meta.original) { size -> writeSize(size) }
+            writeNullable(meta.small) { size -> writeSize(size) }
+        }
+        writeString(attachment.type.name)
+        writeNullableString(attachment.description)
+        writeNullableString(attachment.blurhash)
+    }
+
+    private fun BlobReader.readAttachment() = Attachment(
+        id = readString(),
+        url = readString(),
+        previewUrl = readNullableString(),
+        remoteUrl = readNullableString(),
+        meta = readNullable {
+            Attachment.MetaData(
+                focus = readNullable {
+                    Attachment.Focus(
+                        x = readNullable { readFloat() },
+                        y = readNullable { readFloat() }
+                    )
+                },
+                duration = readNullable { readFloat() },
+                original = readNullable { readSize() },
+                small = readNullable { readSize() }
+            )
+        },
+        type = readString().let { type ->
+            Attachment.Type.entries.firstOrNull { it.name == type } ?: Attachment.Type.UNKNOWN
+        },
+        description = readNullableString(),
+        blurhash = readNullableString()
+    )
+
+    private fun BlobWriter.writeSize(size: Attachment.Size) {
+        writeVarInt(size.width)
+        writeVarInt(size.height)
+        writeDouble(size.aspect)
+    }
+
+    private fun BlobReader.readSize() = Attachment.Size(
+        width = readVarInt(),
+        height = readVarInt(),
+        aspect = readDouble()
+    )
+
+    private fun BlobWriter.writePoll(poll: Poll) {
+        writeString(poll.id)
+        writeNullableDate(poll.expiresAt)
+        writeBoolean(poll.expired)
+        writeBoolean(poll.multiple)
+        writeVarInt(poll.votesCount)
+        writeNullable(poll.votersCount) { votersCount -> writeVarInt(votersCount) }
+        writeList(poll.options) { option ->
+            writeString(option.title)
+            writeNullable(option.votesCount) { votesCount -> writeVarInt(votesCount) }
+        }
+        writeBoolean(poll.voted)
+        writeList(poll.ownVotes) { vote -> writeVarInt(vote) }
+    }
+
+    private fun BlobReader.readPoll() = Poll(
+        id = readString(),
+        expiresAt = readNullableDate(),
+        expired = readBoolean(),
+        multiple = readBoolean(),
+        votesCount = readVarInt(),
+        votersCount = readNullable { readVarInt() },
+        options = readList {
+            PollOption(
+                title = readString(),
+                votesCount = readNullable { readVarInt() }
+            )
+        },
+        voted = readBoolean(),
+        ownVotes = readList { readVarInt() }
+    )
+
+    private fun BlobWriter.writeCard(card: PreviewCard) {
+        writeString(card.url)
+        writeString(card.title)
+        writeString(card.description)
+        writeList(card.authors) { author ->
+            writeString(author.name)
+            writeString(author.url)
+            // accounts of card authors are rare and have lots of fields, they are not worth a binary format of their own
+            writeNullableString(author.account?.let { account -> moshi.adapter<TimelineAccount>().toJson(account) })
+        }
+        writeNullableString(card.authorName)
+        writeNullableString(card.providerName)
+        writeNullableDate(card.publishedAt)
+        writeNullableString(card.image)
+        writeString(card.type)
+        writeVarInt(card.width)
+        writeVarInt(card.height)
+        writeNullableString(card.blurhash)
+        writeNullableString(card.embedUrl)
+    }
+
+    private fun BlobReader.readCard() = PreviewCard(
+        url = readString(),
+        title = readString(),
+        description = readString(),
+        authors = readList {
+            PreviewCardAuthor(
+                name = readString(),
+                url = readString(),
+                account = readNullableString()?.let { account -> moshi.adapter<TimelineAccount>().fromJson(account) }
+            )
+        },
+        authorName = readNullableString(),
+        providerName = readNullableString(),
+        publishedAt = readNullableDate(),
+        image = readNullableString(),
+        type = readString(),
+        width = readVarInt(),
+        height = readVarInt(),
+        blurhash = readNullableString(),
+        embedUrl = readNullableString()
+    )
+
+    private fun BlobWriter.writeFilter(filter: Filter) {
+        writeString(filter.id)
+        writeString(filter.title)
+        writeList(filter.context) { kind -> writeString(kind.kind) }
+        writeNullableDate(filter.expiresAt)
+        writeString(filter.action.action)
+        writeList(filter.keywords) { keyword ->
+            writeString(keyword.id)
+            writeString(keyword.keyword)
+            writeBoolean(keyword.wholeWord)
+        }
+    }
+
+    private fun BlobReader.readFilter() = Filter(
+        id = readString(),
+        title = readString(),
+        context = readList { Filter.Kind.from(readString()) },
+        expiresAt = readNullableDate(),
+        action = Filter.Action.from(readString()),
+        keywords = readList {
+            FilterKeyword(
+                id = readString(),
+                keyword = readString(),
+                wholeWord = readBoolean()
+            )
+        }
+    )
+
+    private companion object {
+        /** First byte of all blobs in the first version of the binary format. JSON never starts with it. */
+        const val FORMAT_VERSION_1: Byte = 1
+    }
+}
+
+/** Writes primitive values in the binary format used by [StatusBlobConverters]. */
+private class BlobWriter {
+    private val out = ByteArrayOutputStream(128)
+
+    fun writeByte(value: Byte) {
+        out.write(value.toInt())
+    }
+
+    fun writeBoolean(value: Boolean) {
+        out.write(if (value) 1 else 0)
+    }
+
+    /** Writes a non-negative int in as few bytes as possible, 7 bits per byte. */
+    fun writeVarInt(value: Int) {
+        var remaining = value
+        while (remaining and 0x7F.inv() != 0) {
+            out.write((remaining and 0x7F) or 0x80)
+            remaining = remaining ushr 7
+        }
+        out.write(remaining)
+    }
+
+    fun writeVarLong(value: Long) {
+        var remaining = value
+        while (remaining and 0x7FL.inv() != 0L) {
+            out.write(((remaining and 0x7F) or 0x80).toInt())
+            remaining = remaining ushr 7
+        }
+        out.write(remaining.toInt())
+    }
+
+    fun writeFloat(value: Float) {
+        val bits = value.toRawBits()
+        for (shift in 24 downTo 0 step 8) {
+            out.write(bits ushr shift)
+        }
+    }
+
+    fun writeDouble(value: Double) {
+        val bits = value.toRawBits()
+        for (shift in 56 downTo 0 step 8) {
+            out.write((bits ushr shift).toInt())
+        }
+    }
+
+    fun writeString(value: String) {
+        val bytes = value.encodeToByteArray()
+        writeVarInt(bytes.size)
+        out.write(bytes)
+    }
+
+    fun writeNullableString(value: String?) = writeNullable(value) { writeString(it) }
+
+    fun writeNullableDate(value: Date?) = writeNullable(value) { writeVarLong(it.time) }
+
+    inline fun <T : Any> writeNullable(value: T?, write: BlobWriter.(T) -> Unit) {
+        writeBoolean(value != null)
+        if (value != null) {
+            write(value)
+        }
+    }
+
+    inline fun <T> writeList(list: List<T>, write: BlobWriter.(T) -> Unit) {
+        writeVarInt(list.size)
+        list.forEach { item -> write(item) }
+    }
+
+    fun toByteArray(): ByteArray = out.toByteArray()
+}
+
+/** Reads primitive values written by [BlobWriter], starting at [position]. */
+private class BlobReader(
+    private val blob: ByteArray,
+    private var position: Int
+) {
+    private fun readByte(): Int = blob[position++].toInt() and 0xFF
+
+    fun readBoolean(): Boolean = readByte() != 0
+
+    fun readVarInt(): Int = readVarLong().toInt()
+
+    fun readVarLong(): Long {
+        var result = 0L
+        var shift = 0
+        do {
+            val byte = readByte()
+            result = result or ((byte and 0x7F).toLong() shl shift)
+            shift += 7
+        } while (byte and 0x80 != 0)
+        return result
+    }
+
+    fun readFloat(): Float {
+        var bits = 0
+        repeat(4) {
+            bits = (bits shl 8) or readByte()
+        }
+        return Float.fromBits(bits)
+    }
+
+    fun readDouble(): Double {
+        var bits = 0L
+        repeat(8) {
+            bits = (bits shl 8) or readByte().toLong()
+        }
+        return Double.fromBits(bits)
+    }
+
+    fun readString(): String {
+        val length = readVarInt()
+        val string = blob.decodeToString(position, position + length)
+        position += length
+        return string
+    }
+
+    fun readNullableString(): String? = readNullable { readString() }
+
+    fun readNullableDate(): Date? = readNullable { Date(readVarLong()) }
+
+    inline fun <T> readNullable(read: BlobReader.() -> T): T? = if (readBoolean()) read() else null
+
+    inline fun <T> readList(read: BlobReader.() -> T): List<T> = List(readVarInt()) { read() }
+}
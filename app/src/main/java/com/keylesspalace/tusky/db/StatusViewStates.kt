@@ -0,0 +1,224 @@
+/* Copyright 2026 Tusky Contributors
+ *
+ * This file is a part of Tusky.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Tusky is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Tusky; if not,
+ * see <http://www.gnu.org/licenses>. */
+
+package com.keylesspalace.tusky.db
+
+import android.util.Log
+import androidx.annotation.VisibleForTesting
+import com.keylesspalace.tusky.db.dao.StatusViewStateDao
+import com.keylesspalace.tusky.db.entity.StatusLocalState
+import com.keylesspalace.tusky.db.entity.toLocalState
+import com.keylesspalace.tusky.db.entity.toViewStateEntity
+import com.keylesspalace.tusky.di.ApplicationScope
+import com.keylesspalace.tusky.viewdata.StatusViewData
+import javax.inject.Inject
+import javax.inject.Singleton
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.channels.onFailure
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.distinctUntilChanged
+import kotlinx.coroutines.flow.mapNotNull
+import kotlinx.coroutines.flow.update
+import kotlinx.coroutines.launch
+
+/**
+ * The view states the user chose for cached statuses, see [com.keylesspalace.tusky.db.entity.StatusViewStateEntity].
+ *
+ * The states of an account are read from the database once and then kept in memory, shared by all timelines of the account.
+ * A change is applied in memory right away and written to the database in the background, so it survives the process being killed.
+ * Changes are written one after the other in the order they were made, so an older change never overwrites a newer one.
+ * Timelines merge [states] into their statuses when mapping them to view data: since no table they are read from is written,
+ * a change does not invalidate and reload the whole timeline, only the status it belongs to is mapped and bound again,
+ * see [com.keylesspalace.tusky.components.timeline.util.ViewDataCache].
+ */
+@Singleton
+class StatusViewStates @Inject constructor(
+    private val cacheDatabases: CacheDatabases,
+    @ApplicationScope
+    private val externalScope: CoroutineScope
+) {
+    private val accounts = HashMap<Long, AccountViewStates>()
+
+    /** Map from status id to the state the user chose for it, emits once the stored states have been read. */
+    fun states(tuskyAccountId: Long): Flow<Map<String, StatusLocalState>> = forAccount(tuskyAccountId).states
+
+    fun set(tuskyAccountId: Long, state: StatusLocalState) {
+        forAccount(tuskyAccountId).set(state)
+    }
+
+    /**
+     * Reads the stored states of [tuskyAccountId] again once all changes made so far have been written,
+     * so states of statuses that have been removed from the cache are dropped from memory as well.
+     * Does nothing when the states of the account have not been read yet.
+     */
+    suspend fun reload(tuskyAccountId: Long) {
+        val accountViewStates = synchronized(accounts) { accounts[tuskyAccountId] } ?: return
+        accountViewStates.reload()
+    }
+
+    /** Forgets the states of [tuskyAccountId], e.g. when the account is logged out. Changes that have not been written yet are dropped. */
+    fun remove(tuskyAccountId: Long) {
+        synchronized(accounts) { accounts.remove(tuskyAccountId) }?.close()
+    }
+
+    /** Waits until all changes made so far have been written to the database. */
+    @VisibleForTesting
+    internal suspend fun awaitWrites(tuskyAccountId: Long) {
+        val accountViewStates = synchronized(accounts) { accounts[tuskyAccountId] } ?: return
+        val written = CompletableDeferred<Unit>()
+        if (accountViewStates.commands.trySend(Command.Await(written)).isSuccess) {
+            written.await()
+        }
+    }
+
+    private fun forAccount(tuskyAccountId: Long): AccountViewStates = synchronized(accounts) {
+        accounts.getOrPut(tuskyAccountId) { AccountViewStates(tuskyAccountId) }
+    }
+
+    private sealed interface Command {
+        /** Lets whoever waits for this command continue, whether it succeeded or not */
+        fun complete() = Unit
+
+        class Write(val state: StatusLocalState) : Command
+
+        class Reload(val done: CompletableDeferred<Unit>) : Command {
+            override fun complete() {
+                done.complete(Unit)
+            }
+        }
+
+        class Await(val done: CompletableDeferred<Unit>) : Command {
+            override fun complete() {
+                done.complete(Unit)
+            }
+        }
+    }
+
+    /**
+     * @param stored the states in the database, null until they have been read
+     * @param unwritten the changes that have not been written to the database yet, they win over the stored ones
+     */
+    private data class ViewStates(
+        val stored: Map<String, StatusLocalState>?,
+        val unwritten: Map<String, StatusLocalState>
+    )
+
+    private inner class AccountViewStates(private val tuskyAccountId: Long) {
+        private val viewStates = MutableStateFlow(ViewStates(stored = null, unwritten = emptyMap()))
+
+        // writing a change doesn't change the merged states, so only changes made by the user are emitted
+        val states: Flow<Map<String, StatusLocalState>> = viewStates
+            .mapNotNull { (stored, unwritten) -> stored?.plus(unwritten) }
+            .distinctUntilChanged()
+
+        /** Processed one at a time by [writer], in the order they were sent */
+        val commands = Channel<Command>(Channel.UNLIMITED)
+
+        private val writer = externalScope.launch {
+            try {
+                val dao = cacheDatabases.forAccount(tuskyAccountId).statusViewStateDao()
+                val stored = try {
+                    readStored(dao)
+                } catch (e: CancellationException) {
+                    throw e
+                } catch (e: Exception) {
+                    Log.w(TAG, "Failed to read the view states of account $tuskyAccountId", e)
+                    emptyMap()
+                }
+                viewStates.update { states -> states.copy(stored = stored) }
+
+                for (command in commands) {
+                    try {
+                        process(dao, command)
+                    } catch (e: CancellationException) {
+                        throw e
+                    } catch (e: Exception) {
+                        // the change stays in memory, the next changes are still written
+                        Log.w(TAG, "Failed to process a ${command::class.simpleName} command for account $tuskyAccountId", e)
+                    } finally {
+                        command.complete()
+                    }
+                }
+            } finally {
+                // nothing waits forever for commands that are dropped when the states are removed
+                while (true) {
+                    val command = commands.tryReceive().getOrNull() ?: break
+                    command.complete()
+                }
+            }
+        }
+
+        fun set(state: StatusLocalState) {
+            viewStates.update { states -> states.copy(unwritten = states.unwritten + (state.serverId to state)) }
+            commands.trySend(Command.Write(state)).onFailure {
+                // the states have been removed, e.g. because the account was logged out
+                Log.w(TAG, "Dropped the view state of status ${state.serverId} for account $tuskyAccountId")
+            }
+        }
+
+        suspend fun reload() {
+            val done = CompletableDeferred<Unit>()
+            if (commands.trySend(Command.Reload(done)).isSuccess) {
+                done.await()
+            }
+        }
+
+        fun close() {
+            commands.close()
+            writer.cancel()
+        }
+
+        private suspend fun process(dao: StatusViewStateDao, command: Command) {
+            when (command) {
+                is Command.Write -> {
+                    val state = command.state
+                    dao.upsert(state.toViewStateEntity(tuskyAccountId))
+                    viewStates.update { states ->
+                        ViewStates(
+                            stored = states.stored.orEmpty() + (state.serverId to state),
+                            // a newer change of the same status is still waiting to be written
+                            unwritten = if (states.unwritten[state.serverId] == state) states.unwritten - state.serverId else states.unwritten
+                        )
+                    }
+                }
+                is Command.Reload -> {
+                    val reloaded = readStored(dao)
+                    viewStates.update { states -> states.copy(stored = reloaded) }
+                }
+                is Command.Await -> Unit
+            }
+        }
+
+        private suspend fun readStored(dao: StatusViewStateDao): Map<String, StatusLocalState> {
+            return dao.getViewStates(tuskyAccountId).associate { viewState -> viewState.serverId to viewState.toLocalState() }
+        }
+    }
+
+    companion object {
+        private const val TAG = "StatusViewStates"
+    }
+}
+
+/** The state this status is shown with, as the view state of the cached status with id [statusId]. */
+fun StatusViewData.Concrete.toViewState(statusId: String) = StatusLocalState(
+    serverId = statusId,
+    expanded = isExpanded,
+    contentShowing = isShowingContent,
+    contentCollapsed = isCollapsed
+)
@@ -0,0 +1,230 @@
+/* Copyright 2026 Tusky Contributors
+ *
+ * This file is a part of Tusky.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Tusky is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Tusky; if not,
+ * see <http://www.gnu.org/licenses>. */
+
+package com.keylesspalace.tusky.db
+
+import android.database.Cursor
+import android.database.CursorWrapper
+import android.database.SQLException
+import android.os.CancellationSignal
+import android.util.Log
+import androidx.sqlite.db.SupportSQLiteDatabase
+import androidx.sqlite.db.SupportSQLiteOpenHelper
+import androidx.sqlite.db.SupportSQLiteQuery
+import androidx.sqlite.db.SupportSQLiteStatement
+
+/**
+ * Wraps the databases created by [delegate] so every statement that runs against them is recorded by [tracer]:
+ * how long it took including reading its result, how many rows it returned or changed,
+ * and how long the write lock was held by the transactions it wrote in.
+ * Nothing is recorded while [QueryTracer.enabled] is not set.
+ */
+class TracingOpenHelperFactory(
+    private val delegate: SupportSQLiteOpenHelper.Factory,
+    private val tracer: QueryTracer
+) : SupportSQLiteOpenHelper.Factory {
+
+    override fun create(configuration: SupportSQLiteOpenHelper.Configuration): SupportSQLiteOpenHelper {
+        return TracingOpenHelper(delegate.create(configuration), tracer)
+    }
+}
+
+private class TracingOpenHelper(
+    private val delegate: SupportSQLiteOpenHelper,
+    private val tracer: QueryTracer
+) : SupportSQLiteOpenHelper by delegate {
+
+    @Volatile
+    private var database: TracingDatabase? = null
+
+    override val writableDatabase: SupportSQLiteDatabase
+        get() = wrap(delegate.writableDatabase)
+
+    override val readableDatabase: SupportSQLiteDatabase
+        get() = wrap(delegate.readableDatabase)
+
+    private fun wrap(db: SupportSQLiteDatabase): SupportSQLiteDatabase {
+        val current = database
+        if (current != null && current.delegate === db) {
+            return current
+        }
+        return TracingDatabase(db, tracer).also { database = it }
+    }
+}
+
+private class TracingDatabase(
+    val delegate: SupportSQLiteDatabase,
+    private val tracer: QueryTracer
+) : SupportSQLiteDatabase by delegate {
+
+    /** The writes of the transaction that is open on this thread, and when the first of them acquired the write lock. */
+    private class TransactionTrace(val lockStart: Long) {
+        val writes = LinkedHashSet<String>()
+    }
+
+    private val transaction = ThreadLocal<TransactionTrace>()
+
+    override fun query(query: String): Cursor = traceQuery(query) {
+        delegate.query(query)
+    }
+
+    override fun query(query: String, bindArgs: Array<out Any?>): Cursor = traceQuery(query) {
+        delegate.query(query, bindArgs)
+    }
+
+    override fun query(query: SupportSQLiteQuery): Cursor = traceQuery(query.sql) {
+        delegate.query(query)
+    }
+
+    override fun query(query: SupportSQLiteQuery, cancellationSignal: CancellationSignal?): Cursor = traceQuery(query.sql) {
+        delegate.query(query, cancellationSignal)
+    }
+
+    override fun execSQL(sql: String) = traceWrite(sql, rows = { 0 }) {
+        delegate.execSQL(sql)
+    }
+
+    override fun execSQL(sql: String, bindArgs: Array<out Any?>) = traceWrite(sql, rows = { 0 }) {
+        delegate.execSQL(sql, bindArgs)
+    }
+
+    override fun compileStatement(sql: String): SupportSQLiteStatement {
+        return TracingStatement(sql, delegate.compileStatement(sql))
+    }
+
+    override fun endTransaction() {
+        delegate.endTransaction()
+        if (delegate.inTransaction()) {
+            return
+        }
+        // the outermost transaction has ended and released the write lock
+        val trace = transaction.get() ?: return
+        transaction.remove()
+        val lockNanos = System.nanoTime() - trace.lockStart
+        for (sql in trace.writes) {
+            tracer.recordWriteLock(sql, lockNanos)
+        }
+    }
+
+    private inline fun traceQuery(sql: String, query: () -> Cursor): Cursor {
+        if (!tracer.enabled) {
+            return query()
+        }
+        explainOnce(sql)
+        val start = System.nanoTime()
+        return TracingCursor(sql, start, query())
+    }
+
+    private inline fun <T> traceWrite(sql: String, rows: (T) -> Int, write: () -> T): T {
+        if (!tracer.enabled) {
+            return write()
+        }
+        explainOnce(sql)
+        val start = System.nanoTime()
+        val result = write()
+        val end = System.nanoTime()
+        tracer.recordExecution(sql, end - start, rows(result))
+        if (delegate.inTransaction()) {
+            val trace = transaction.get() ?: TransactionTrace(lockStart = start).also { transaction.set(it) }
+            trace.writes.add(sql)
+        } else {
+            tracer.recordWriteLock(sql, end - start)
+        }
+        return result
+    }
+
+    private inline fun <T> traceRead(sql: String, read: () -> T): T {
+        if (!tracer.enabled) {
+            return read()
+        }
+        explainOnce(sql)
+        val start = System.nanoTime()
+        val result = read()
+        tracer.recordExecution(sql, System.nanoTime() - start, rows = 1)
+        return result
+    }
+
+    private fun explainOnce(sql: String) {
+        if (!isExplainable(sql) || !tracer.needsQueryPlan(sql)) {
+            return
+        }
+        try {
+            val queryPlan = delegate.query("EXPLAIN QUERY PLAN $sql").use { cursor ->
+                val detailIndex = cursor.getColumnIndexOrThrow("detail")
+                buildList {
+                    while (cursor.moveToNext()) {
+                        add(cursor.getString(detailIndex))
+                    }
+                }
+            }
+            tracer.recordQueryPlan(sql, queryPlan)
+        } catch (e: SQLException) {
+            Log.w(TAG, "could not capture the query plan of $sql", e)
+        }
+    }
+
+    /** Records the query when the cursor is closed, so reading the rows is included. */
+    private inner class TracingCursor(
+        private val sql: String,
+        private val start: Long,
+        cursor: Cursor
+    ) : CursorWrapper(cursor) {
+        override fun close() {
+            if (!isClosed) {
+                val rows = count
+                tracer.recordExecution(sql, System.nanoTime() - start, rows)
+            }
+            super.close()
+        }
+    }
+
+    private inner class TracingStatement(
+        private val sql: String,
+        private val statement: SupportSQLiteStatement
+    ) : SupportSQLiteStatement by statement {
+
+        override fun execute() = traceWrite(sql, rows = { 0 }) {
+            statement.execute()
+        }
+
+        override fun executeUpdateDelete(): Int = traceWrite(sql, rows = { changed -> changed }) {
+            statement.executeUpdateDelete()
+        }
+
+        override fun executeInsert(): Long = traceWrite(sql, rows = { rowId -> if (rowId == -1L) 0 else 1 }) {
+            statement.executeInsert()
+        }
+
+        override fun simpleQueryForLong(): Long = traceRead(sql) {
+            statement.simpleQueryForLong()
+        }
+
+        override fun simpleQueryForString(): String? = traceRead(sql) {
+            statement.simpleQueryForString()
+        }
+    }
+
+    companion object {
+        private const val TAG = "TracingOpenHelper"
+
+        private val EXPLAINABLE_STATEMENTS = listOf("SELECT", "INSERT", "UPDATE", "DELETE", "REPLACE", "WITH")
+
+        /** Whether [sql] reads or writes rows, other statements like PRAGMA or CREATE have no query plan worth capturing. */
+        fun isExplainable(sql: String): Boolean {
+            val statement = sql.trimStart()
+            return EXPLAINABLE_STATEMENTS.any { keyword -> statement.startsWith(keyword, ignoreCase = true) }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/* Copyright 2026 Tusky Contributors
+ *
+ * This file is a part of Tusky.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Tusky is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Tusky; if not,
+ * see <http://www.gnu.org/licenses>. */
+
+package com.keylesspalace.tusky.db.dao
+
+import androidx.room.Dao
+import androidx.room.Query
+import androidx.room.Transaction
+import androidx.room.Upsert
+import com.keylesspalace.tusky.db.entity.CustomEmojiEntity
+import com.keylesspalace.tusky.db.entity.CustomEmojis
+import com.keylesspalace.tusky.db.entity.INSTANCE_EMOJI_DOMAIN
+import com.keylesspalace.tusky.db.entity.TimelineAccountEntity
+import com.keylesspalace.tusky.db.entity.TimelineStatusEntity
+import com.keylesspalace.tusky.db.entity.emojiDomain
+import com.keylesspalace.tusky.db.entity.toEntity
+import com.keylesspalace.tusky.entity.Emoji
+
+@Dao
+abstract class CustomEmojiDao {
+
+    @Upsert
+    abstract suspend fun upsert(emojis: List<CustomEmojiEntity>)
+
+    /**
+     * Loads the custom emojis needed to display [accounts] and [statuses], e.g. of a whole page of a timeline.
+     * The emojis are looked up per domain, so only the shortcodes used on a domain are bound for it.
+     * The authors of [statuses] must be part of [accounts].
+     */
+    suspend fun getCustomEmojis(
+        tuskyAccountId: Long,
+        accounts: List<TimelineAccountEntity?>,
+        statuses: List<TimelineStatusEntity?>
+    ): CustomEmojis {
+        val accountsById = accounts.filterNotNull().associateBy(TimelineAccountEntity::serverId)
+        val shortcodesByDomain = HashMap<String, MutableSet<String>>()
+        for (account in accountsById.values) {
+            shortcodesByDomain.getOrPut(account.emojiDomain, ::HashSet).addAll(account.emojiShortcodes)
+        }
+        for (status in statuses) {
+            val author = status?.authorServerId?.let(accountsById::get) ?: continue
+            shortcodesByDomain.getOrPut(author.emojiDomain, ::HashSet).addAll(status.emojiShortcodes)
+        }
+
+        val emojis = shortcodesByDomain.flatMap { (domain, shortcodes) ->
+            shortcodes.chunked(MAX_SHORTCODES_PER_QUERY).flatMap { chunk -> getEmojisOfDomain(tuskyAccountId, domain, chunk) }
+        }
+        return if (emojis.isEmpty()) CustomEmojis.EMPTY else CustomEmojis(emojis)
+    }
+
+    @Query("SELECT * FROM CustomEmojiEntity WHERE tuskyAccountId = :tuskyAccountId AND domain = :domain AND shortcode IN (:shortcodes)")
+    internal abstract suspend fun getEmojisOfDomain(tuskyAccountId: Long, domain: String, shortcodes: List<String>): List<CustomEmojiEntity>
+
+    /** Returns the custom emojis of the instance of the Tusky account with id [tuskyAccountId] */
+    @Query("SELECT * FROM CustomEmojiEntity WHERE tuskyAccountId = :tuskyAccountId AND domain = '$INSTANCE_EMOJI_DOMAIN'")
+    abstract suspend fun getInstanceEmojis(tuskyAccountId: Long): List<CustomEmojiEntity>
+
+    @Query("DELETE FROM CustomEmojiEntity WHERE tuskyAccountId = :tuskyAccountId AND domain = '$INSTANCE_EMOJI_DOMAIN'")
+    internal abstract suspend fun deleteInstanceEmojis(tuskyAccountId: Long)
+
+    /** Replaces the custom emojis of the instance of the Tusky account with id [tuskyAccountId] with [emojis] */
+    @Transaction
+    open suspend fun replaceInstanceEmojis(tuskyAccountId: Long, emojis: List<Emoji>) {
+        deleteInstanceEmojis(tuskyAccountId)
+        upsert(emojis.map { emoji -> emoji.toEntity(tuskyAccountId, domain = INSTANCE_EMOJI_DOMAIN) })
+    }
+
+    @Query("DELETE FROM CustomEmojiEntity WHERE tuskyAccountId = :tuskyAccountId")
+    abstract suspend fun removeAllEmojis(tuskyAccountId: Long)
+
+    /**
+     * Cleans the CustomEmojiEntity table from emojis of domains no cached account is from anymore.
+     * Emojis of the instance of the Tusky account are always kept.
+     * @param tuskyAccountId id of the user account for which to clean custom emojis
+     */
+    @Query(
+        """DELETE FROM CustomEmojiEntity WHERE tuskyAccountId = :tuskyAccountId
+        AND domain != '$INSTANCE_EMOJI_DOMAIN'
+        AND domain NOT IN
+        (SELECT CASE WHEN INSTR(username, '@') > 0 THEN LOWER(SUBSTR(username, INSTR(username, '@') + 1)) ELSE '' END
+        FROM TimelineAccountEntity WHERE tuskyAccountId = :tuskyAccountId)"""
+    )
+    abstract suspend fun cleanupEmojis(tuskyAccountId: Long): Int
+
+    companion object {
+        /** Stays well below the maximum number of variables SQLite allows in a statement */
+        private const val MAX_SHORTCODES_PER_QUERY = 500
+    }
+}
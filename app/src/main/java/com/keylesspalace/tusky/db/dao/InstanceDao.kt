@@ -19,7 +19,6 @@ import androidx.room.Dao
 import androidx.room.Query
 import androidx.room.RewriteQueriesToDropUnusedColumns
 import androidx.room.Upsert
-import com.keylesspalace.tusky.db.entity.EmojisEntity
 import com.keylesspalace.tusky.db.entity.InstanceEntity
 import com.keylesspalace.tusky.db.entity.InstanceInfoEntity
 
@@ -29,17 +28,10 @@ interface InstanceDao {
     @Upsert(entity = InstanceEntity::class)
     suspend fun upsert(instance: InstanceInfoEntity)
 
-    @Upsert(entity = InstanceEntity::class)
-    suspend fun upsert(emojis: EmojisEntity)
-
     @RewriteQueriesToDropUnusedColumns
     @Query("SELECT * FROM InstanceEntity WHERE instance = :instance LIMIT 1")
     suspend fun getInstanceInfo(instance: String): InstanceInfoEntity?
 
-    @RewriteQueriesToDropUnusedColumns
-    @Query("SELECT * FROM InstanceEntity WHERE instance = :instance LIMIT 1")
-    suspend fun getEmojiInfo(instance: String): EmojisEntity?
-
     @Query("UPDATE InstanceEntity SET filterV2Supported = :filterV2Support WHERE instance = :instance")
     suspend fun setFilterV2Support(instance: String, filterV2Support: Boolean)
 
@@ -20,12 +20,17 @@ import androidx.room.Dao
 import androidx.room.Insert
 import androidx.room.OnConflictStrategy.Companion.REPLACE
 import androidx.room.Query
+import androidx.room.Transaction
+import androidx.room.Upsert
+import com.keylesspalace.tusky.db.AppDatabase
+import com.keylesspalace.tusky.db.KeysetPagingSource
 import com.keylesspalace.tusky.db.entity.NotificationDataEntity
 import com.keylesspalace.tusky.db.entity.NotificationEntity
 import com.keylesspalace.tusky.db.entity.NotificationReportEntity
+import com.keylesspalace.tusky.util.toSortKey
 
 @Dao
-abstract class NotificationsDao {
+abstract class NotificationsDao(private val db: AppDatabase) {
 
     @Insert(onConflict = REPLACE)
     abstract suspend fun insertNotification(notificationEntity: NotificationEntity): Long
@@ -33,56 +38,103 @@ abstract class NotificationsDao {
     @Insert(onConflict = REPLACE)
     abstract suspend fun insertReport(notificationReportDataEntity: NotificationReportEntity): Long
 
+    @Upsert
+    abstract suspend fun upsertNotifications(notificationEntities: List<NotificationEntity>)
+
+    @Upsert
+    abstract suspend fun upsertReports(notificationReportEntities: List<NotificationReportEntity>)
+
+    @Query("SELECT * FROM NotificationReportEntity WHERE tuskyAccountId = :tuskyAccountId AND serverId IN (:reportIds)")
+    abstract suspend fun getReports(tuskyAccountId: Long, reportIds: List<String>): List<NotificationReportEntity>
+
+    /**
+     * Returns the notifications of the Tusky account with id [tuskyAccountId], newest first.
+     * Pages are loaded by sort key, see [KeysetPagingSource].
+     * The custom emojis of the notifications are loaded once per page, see [NotificationDataEntity.emojis].
+     */
+    fun getNotifications(tuskyAccountId: Long): PagingSource<String, NotificationDataEntity> =
+        object : KeysetPagingSource<NotificationDataEntity>(
+            db,
+            "NotificationEntity",
+            "TimelineAccountEntity",
+            "TimelineStatusEntity",
+            "NotificationReportEntity",
+            "CustomEmojiEntity"
+        ) {
+            override fun sortKeyOf(item: NotificationDataEntity) = item.id.toSortKey()
+
+            override suspend fun topSortKey() = getTopId(tuskyAccountId)?.toSortKey()
+
+            override suspend fun loadOlder(sortKey: String, inclusive: Boolean, limit: Int) = if (inclusive) {
+                getNotificationsAtOrBelow(tuskyAccountId, sortKey, limit)
+            } else {
+                getNotificationsBelow(tuskyAccountId, sortKey, limit)
+            }
+
+            override suspend fun loadNewer(sortKey: String, limit: Int) =
+                getNotificationsAbove(tuskyAccountId, sortKey, limit)
+
+            override suspend fun onPageLoaded(items: List<NotificationDataEntity>) {
+                val emojis = db.customEmojiDao().getCustomEmojis(
+                    tuskyAccountId = tuskyAccountId,
+                    accounts = items.flatMap { item -> listOf(item.account, item.statusAccount, item.reportTargetAccount) },
+                    statuses = items.map(NotificationDataEntity::status)
+                )
+                items.forEach { item -> item.emojis = emojis }
+            }
+        }
+
     @Query(
-        """
-SELECT n.tuskyAccountId, n.type, n.id, n.loading, n.event, n.moderationWarning,
-a.serverId as 'a_serverId', a.tuskyAccountId as 'a_tuskyAccountId',
-a.localUsername as 'a_localUsername', a.username as 'a_username',
-a.displayName as 'a_displayName', a.url as 'a_url', a.avatar as 'a_avatar',
-a.note as 'a_note', a.emojis as 'a_emojis', a.bot as 'a_bot',
-s.serverId as 's_serverId', s.url as 's_url', s.tuskyAccountId as 's_tuskyAccountId',
-s.authorServerId as 's_authorServerId', s.inReplyToId as 's_inReplyToId', s.inReplyToAccountId as 's_inReplyToAccountId',
-s.content as 's_content', s.createdAt as 's_createdAt', s.editedAt as 's_editedAt', s.emojis as 's_emojis', s.reblogsCount as 's_reblogsCount',
-s.favouritesCount as 's_favouritesCount', s.repliesCount as 's_repliesCount', s.reblogged as 's_reblogged', s.favourited as 's_favourited',
-s.bookmarked as 's_bookmarked', s.sensitive as 's_sensitive', s.spoilerText as 's_spoilerText', s.visibility as 's_visibility',
-s.mentions as 's_mentions', s.tags as 's_tags', s.application as 's_application', s.content as 's_content', s.attachments as 's_attachments', s.poll as 's_poll',
-s.card as 's_card', s.muted as 's_muted', s.expanded as 's_expanded', s.contentShowing as 's_contentShowing', s.contentCollapsed as 's_contentCollapsed',
-s.pinned as 's_pinned', s.language as 's_language', s.filtered as 's_filtered',
-sa.serverId as 'sa_serverId', sa.tuskyAccountId as 'sa_tuskyAccountId',
-sa.localUsername as 'sa_localUsername', sa.username as 'sa_username',
-sa.displayName as 'sa_displayName', sa.url as 'sa_url', sa.avatar as 'sa_avatar',
-sa.note as 'sa_note', sa.emojis as 'sa_emojis', sa.bot as 'sa_bot',
-r.serverId as 'r_serverId', r.tuskyAccountId as 'r_tuskyAccountId',
-r.category as 'r_category', r.statusIds as 'r_statusIds',
-r.createdAt as 'r_createdAt', r.targetAccountId as 'r_targetAccountId',
-ra.serverId as 'ra_serverId', ra.tuskyAccountId as 'ra_tuskyAccountId',
-ra.localUsername as 'ra_localUsername', ra.username as 'ra_username',
-ra.displayName as 'ra_displayName', ra.url as 'ra_url', ra.avatar as 'ra_avatar',
-ra.note as 'ra_note', ra.emojis as 'ra_emojis', ra.bot as 'ra_bot'
-FROM NotificationEntity n
-LEFT JOIN TimelineAccountEntity a ON (n.tuskyAccountId = a.tuskyAccountId AND n.accountId = a.serverId)
-LEFT JOIN TimelineStatusEntity s ON (n.tuskyAccountId = s.tuskyAccountId AND n.statusId = s.serverId)
-LEFT JOIN TimelineAccountEntity sa ON (n.tuskyAccountId = sa.tuskyAccountId AND s.authorServerId = sa.serverId)
-LEFT JOIN NotificationReportEntity r ON (n.tuskyAccountId = r.tuskyAccountId AND n.reportId = r.serverId)
-LEFT JOIN TimelineAccountEntity ra ON (n.tuskyAccountId = ra.tuskyAccountId AND r.targetAccountId = ra.serverId)
-WHERE n.tuskyAccountId = :tuskyAccountId
-ORDER BY LENGTH(n.id) DESC, n.id DESC"""
+        NOTIFICATIONS_QUERY +
+            "AND n.sortKey < :sortKey ORDER BY n.sortKey DESC LIMIT :limit"
     )
-    abstract fun getNotifications(tuskyAccountId: Long): PagingSource<Int, NotificationDataEntity>
+    internal abstract suspend fun getNotificationsBelow(tuskyAccountId: Long, sortKey: String, limit: Int): List<NotificationDataEntity>
+
+    @Query(
+        NOTIFICATIONS_QUERY +
+            "AND n.sortKey <= :sortKey ORDER BY n.sortKey DESC LIMIT :limit"
+    )
+    internal abstract suspend fun getNotificationsAtOrBelow(tuskyAccountId: Long, sortKey: String, limit: Int): List<NotificationDataEntity>
+
+    /** Returns the notifications above [sortKey], oldest first */
+    @Query(
+        NOTIFICATIONS_QUERY +
+            "AND n.sortKey > :sortKey ORDER BY n.sortKey ASC LIMIT :limit"
+    )
+    internal abstract suspend fun getNotificationsAbove(tuskyAccountId: Long, sortKey: String, limit: Int): List<NotificationDataEntity>
 
     @Query(
         """DELETE FROM NotificationEntity WHERE tuskyAccountId = :tuskyAccountId AND id = :notificationId"""
     )
     abstract suspend fun delete(tuskyAccountId: Long, notificationId: String): Int
 
+    /**
+     * Deletes all notifications with ids between [minId] and [maxId] (both inclusive).
+     * @return the number of deleted notifications
+     */
+    suspend fun deleteRange(tuskyAccountId: Long, minId: String, maxId: String): Int {
+        return deleteSortKeyRange(tuskyAccountId, minId.toSortKey(), maxId.toSortKey())
+    }
+
     @Query(
-        """DELETE FROM NotificationEntity WHERE tuskyAccountId = :tuskyAccountId AND
-        (LENGTH(id) < LENGTH(:maxId) OR LENGTH(id) == LENGTH(:maxId) AND id <= :maxId)
-AND
-(LENGTH(id) > LENGTH(:minId) OR LENGTH(id) == LENGTH(:minId) AND id >= :minId)
-    """
+        """DELETE FROM NotificationEntity WHERE tuskyAccountId = :tuskyAccountId
+AND sortKey BETWEEN :minSortKey AND :maxSortKey"""
     )
-    abstract suspend fun deleteRange(tuskyAccountId: Long, minId: String, maxId: String): Int
+    internal abstract suspend fun deleteSortKeyRange(tuskyAccountId: Long, minSortKey: String, maxSortKey: String): Int
+
+    /** Returns all notifications with ids between [minId] and [maxId] (both inclusive). */
+    suspend fun getRange(tuskyAccountId: Long, minId: String, maxId: String): List<NotificationEntity> {
+        return getSortKeyRange(tuskyAccountId, minId.toSortKey(), maxId.toSortKey())
+    }
+
+    @Query(
+        """SELECT * FROM NotificationEntity WHERE tuskyAccountId = :tuskyAccountId
+AND sortKey BETWEEN :minSortKey AND :maxSortKey"""
+    )
+    internal abstract suspend fun getSortKeyRange(tuskyAccountId: Long, minSortKey: String, maxSortKey: String): List<NotificationEntity>
+
+    @Query("DELETE FROM NotificationEntity WHERE tuskyAccountId = :tuskyAccountId AND id IN (:ids)")
+    abstract suspend fun deleteNotifications(tuskyAccountId: Long, ids: List<String>): Int
 
     @Query(
         """DELETE FROM NotificationEntity WHERE tuskyAccountId = :tuskyAccountId"""
@@ -106,32 +158,48 @@ AND
     /**
      * Remove all notifications from user with id [userId] unless they are admin notifications.
      */
+    @Transaction
+    open suspend fun removeAllByUser(tuskyAccountId: Long, userId: String) {
+        deleteByAccount(tuskyAccountId, userId)
+        deleteByStatusAuthor(tuskyAccountId, userId)
+    }
+
     @Query(
-        """DELETE FROM NotificationEntity WHERE tuskyAccountId = :tuskyAccountId AND
-            (accountId = :userId OR
-            statusId IN (SELECT serverId FROM TimelineStatusEntity WHERE tuskyAccountId = :tuskyAccountId AND authorServerId = :userId)
-            )
+        """DELETE FROM NotificationEntity WHERE accountId = :accountId AND tuskyAccountId = :tuskyAccountId
             AND type != "admin.sign_up" AND type != "admin.report"
         """
     )
-    abstract suspend fun removeAllByUser(tuskyAccountId: Long, userId: String)
+    internal abstract suspend fun deleteByAccount(tuskyAccountId: Long, accountId: String): Int
 
     @Query(
-        """DELETE FROM NotificationEntity
-            WHERE tuskyAccountId = :tuskyAccountId AND statusId IN (
-            SELECT serverId FROM TimelineStatusEntity WHERE tuskyAccountId = :tuskyAccountId AND authorServerId in
-            ( SELECT serverId FROM TimelineAccountEntity WHERE username LIKE '%@' || :instanceDomain
-            AND tuskyAccountId = :tuskyAccountId)
-            OR accountId IN ( SELECT serverId FROM TimelineAccountEntity WHERE username LIKE '%@' || :instanceDomain
-            AND tuskyAccountId = :tuskyAccountId)
-            )"""
+        """DELETE FROM NotificationEntity WHERE tuskyAccountId = :tuskyAccountId AND statusAuthorId = :statusAuthorId
+            AND type != "admin.sign_up" AND type != "admin.report"
+        """
     )
-    abstract suspend fun deleteAllFromInstance(tuskyAccountId: Long, instanceDomain: String)
+    internal abstract suspend fun deleteByStatusAuthor(tuskyAccountId: Long, statusAuthorId: String): Int
 
-    @Query("SELECT id FROM NotificationEntity WHERE tuskyAccountId = :accountId ORDER BY LENGTH(id) DESC, id DESC LIMIT 1")
+    /**
+     * Deletes all notifications from accounts of [instanceDomain] or about statuses of authors from [instanceDomain]
+     * (e.g. because the domain was muted).
+     * Compared in lower case like [com.keylesspalace.tusky.db.entity.accountDomain].
+     */
+    @Transaction
+    open suspend fun deleteAllFromInstance(tuskyAccountId: Long, instanceDomain: String) {
+        val domain = instanceDomain.lowercase()
+        deleteByAccountDomain(tuskyAccountId, domain)
+        deleteByStatusAuthorDomain(tuskyAccountId, domain)
+    }
+
+    @Query("DELETE FROM NotificationEntity WHERE tuskyAccountId = :tuskyAccountId AND accountDomain = :domain")
+    internal abstract suspend fun deleteByAccountDomain(tuskyAccountId: Long, domain: String): Int
+
+    @Query("DELETE FROM NotificationEntity WHERE tuskyAccountId = :tuskyAccountId AND statusAuthorDomain = :domain")
+    internal abstract suspend fun deleteByStatusAuthorDomain(tuskyAccountId: Long, domain: String): Int
+
+    @Query("SELECT id FROM NotificationEntity WHERE tuskyAccountId = :accountId ORDER BY sortKey DESC LIMIT 1")
     abstract suspend fun getTopId(accountId: Long): String?
 
-    @Query("SELECT id FROM NotificationEntity WHERE tuskyAccountId = :accountId AND type IS NULL ORDER BY LENGTH(id) DESC, id DESC LIMIT 1")
+    @Query("SELECT id FROM NotificationEntity WHERE tuskyAccountId = :accountId AND type IS NULL ORDER BY sortKey DESC LIMIT 1")
     abstract suspend fun getTopPlaceholderId(accountId: Long): String?
 
     /**
@@ -140,36 +208,95 @@ AND
      * @param limit how many timeline items to keep
      */
     @Query(
-        """DELETE FROM NotificationEntity WHERE tuskyAccountId = :tuskyAccountId AND id NOT IN
-        (SELECT id FROM NotificationEntity WHERE tuskyAccountId = :tuskyAccountId ORDER BY LENGTH(id) DESC, id DESC LIMIT :limit)
+        """DELETE FROM NotificationEntity WHERE tuskyAccountId = :tuskyAccountId AND sortKey <=
+        (SELECT sortKey FROM NotificationEntity WHERE tuskyAccountId = :tuskyAccountId ORDER BY sortKey DESC LIMIT 1 OFFSET :limit)
     """
     )
     internal abstract suspend fun cleanupNotifications(tuskyAccountId: Long, limit: Int)
 
+    /**
+     * Deletes the [count] oldest notifications.
+     * @return the number of deleted notifications
+     */
+    @Query(
+        """DELETE FROM NotificationEntity WHERE rowid IN
+        (SELECT rowid FROM NotificationEntity WHERE tuskyAccountId = :tuskyAccountId ORDER BY sortKey ASC LIMIT :count)"""
+    )
+    internal abstract suspend fun deleteOldest(tuskyAccountId: Long, count: Int): Int
+
+    @Query("SELECT COUNT(*) FROM NotificationEntity WHERE tuskyAccountId = :tuskyAccountId")
+    abstract suspend fun getNotificationCount(tuskyAccountId: Long): Int
+
     /**
      * Cleans the NotificationReportEntity table from unreferenced entries.
+     * The reference check uses the reportId index of NotificationEntity.
      * @param tuskyAccountId id of the account for which to clean the table
+     * @return the number of deleted reports
      */
     @Query(
         """DELETE FROM NotificationReportEntity WHERE tuskyAccountId = :tuskyAccountId
-        AND serverId NOT IN
-        (SELECT reportId FROM NotificationEntity WHERE tuskyAccountId = :tuskyAccountId and reportId IS NOT NULL)"""
+        AND NOT EXISTS
+        (SELECT 1 FROM NotificationEntity n WHERE n.reportId = NotificationReportEntity.serverId AND n.tuskyAccountId = :tuskyAccountId)"""
     )
-    internal abstract suspend fun cleanupReports(tuskyAccountId: Long)
+    internal abstract suspend fun cleanupReports(tuskyAccountId: Long): Int
 
     /**
      * Returns the id directly above [id], or null if [id] is the id of the top item
      */
+    suspend fun getIdAbove(tuskyAccountId: Long, id: String): String? {
+        return getIdAboveSortKey(tuskyAccountId, id.toSortKey())
+    }
+
     @Query(
-        "SELECT id FROM NotificationEntity WHERE tuskyAccountId = :tuskyAccountId AND (LENGTH(:id) < LENGTH(id) OR (LENGTH(:id) = LENGTH(id) AND :id < id)) ORDER BY LENGTH(id) ASC, id ASC LIMIT 1"
+        "SELECT id FROM NotificationEntity WHERE tuskyAccountId = :tuskyAccountId AND sortKey > :sortKey ORDER BY sortKey ASC LIMIT 1"
     )
-    abstract suspend fun getIdAbove(tuskyAccountId: Long, id: String): String?
+    internal abstract suspend fun getIdAboveSortKey(tuskyAccountId: Long, sortKey: String): String?
 
     /**
      * Returns the ID directly below [id], or null if [id] is the ID of the bottom item
      */
+    suspend fun getIdBelow(tuskyAccountId: Long, id: String): String? {
+        return getIdBelowSortKey(tuskyAccountId, id.toSortKey())
+    }
+
     @Query(
-        "SELECT id FROM NotificationEntity WHERE tuskyAccountId = :tuskyAccountId AND (LENGTH(:id) > LENGTH(id) OR (LENGTH(:id) = LENGTH(id) AND :id > id)) ORDER BY LENGTH(id) DESC, id DESC LIMIT 1"
+        "SELECT id FROM NotificationEntity WHERE tuskyAccountId = :tuskyAccountId AND sortKey < :sortKey ORDER BY sortKey DESC LIMIT 1"
     )
-    abstract suspend fun getIdBelow(tuskyAccountId: Long, id: String): String?
+    internal abstract suspend fun getIdBelowSortKey(tuskyAccountId: Long, sortKey: String): String?
 }
+
+/** The notifications with everything needed to display them, needs a condition on the sort key appended */
+internal const val NOTIFICATIONS_QUERY = """
+SELECT n.tuskyAccountId, n.type, n.id, n.loading, n.event, n.moderationWarning,
+a.serverId as 'a_serverId', a.tuskyAccountId as 'a_tuskyAccountId',
+a.localUsername as 'a_localUsername', a.username as 'a_username',
+a.displayName as 'a_displayName', a.url as 'a_url', a.avatar as 'a_avatar',
+a.note as 'a_note', a.emojis as 'a_emojis', a.bot as 'a_bot',
+s.serverId as 's_serverId', s.url as 's_url', s.tuskyAccountId as 's_tuskyAccountId',
+s.authorServerId as 's_authorServerId', s.inReplyToId as 's_inReplyToId', s.inReplyToAccountId as 's_inReplyToAccountId',
+s.content as 's_content', s.createdAt as 's_createdAt', s.editedAt as 's_editedAt', s.emojis as 's_emojis', s.reblogsCount as 's_reblogsCount',
+s.favouritesCount as 's_favouritesCount', s.repliesCount as 's_repliesCount', s.reblogged as 's_reblogged', s.favourited as 's_favourited',
+s.bookmarked as 's_bookmarked', s.sensitive as 's_sensitive', s.spoilerText as 's_spoilerText', s.visibility as 's_visibility',
+s.mentions as 's_mentions', s.tags as 's_tags', s.application as 's_application', s.content as 's_content', s.attachments as 's_attachments', s.poll as 's_poll',
+s.card as 's_card', s.muted as 's_muted', s.expanded as 's_expanded', s.contentShowing as 's_contentShowing', s.contentCollapsed as 's_contentCollapsed',
+s.pinned as 's_pinned', s.language as 's_language', s.filtered as 's_filtered',
+s.searchText as 's_searchText',
+sa.serverId as 'sa_serverId', sa.tuskyAccountId as 'sa_tuskyAccountId',
+sa.localUsername as 'sa_localUsername', sa.username as 'sa_username',
+sa.displayName as 'sa_displayName', sa.url as 'sa_url', sa.avatar as 'sa_avatar',
+sa.note as 'sa_note', sa.emojis as 'sa_emojis', sa.bot as 'sa_bot',
+r.serverId as 'r_serverId', r.tuskyAccountId as 'r_tuskyAccountId',
+r.category as 'r_category', r.statusIds as 'r_statusIds',
+r.createdAt as 'r_createdAt', r.targetAccountId as 'r_targetAccountId',
+ra.serverId as 'ra_serverId', ra.tuskyAccountId as 'ra_tuskyAccountId',
+ra.localUsername as 'ra_localUsername', ra.username as 'ra_username',
+ra.displayName as 'ra_displayName', ra.url as 'ra_url', ra.avatar as 'ra_avatar',
+ra.note as 'ra_note', ra.emojis as 'ra_emojis', ra.bot as 'ra_bot'
+FROM NotificationEntity n
+LEFT JOIN TimelineAccountEntity a ON (n.tuskyAccountId = a.tuskyAccountId AND n.accountId = a.serverId)
+LEFT JOIN TimelineStatusEntity s ON (n.tuskyAccountId = s.tuskyAccountId AND n.statusId = s.serverId)
+LEFT JOIN TimelineAccountEntity sa ON (n.tuskyAccountId = sa.tuskyAccountId AND s.authorServerId = sa.serverId)
+LEFT JOIN NotificationReportEntity r ON (n.tuskyAccountId = r.tuskyAccountId AND n.reportId = r.serverId)
+LEFT JOIN TimelineAccountEntity ra ON (n.tuskyAccountId = ra.tuskyAccountId AND r.targetAccountId = ra.serverId)
+WHERE n.tuskyAccountId = :tuskyAccountId
+"""
@@ -0,0 +1,45 @@
+/* Copyright 2026 Tusky Contributors
+ *
+ * This file is a part of Tusky.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Tusky is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Tusky; if not,
+ * see <http://www.gnu.org/licenses>. */
+
+package com.keylesspalace.tusky.db.dao
+
+import androidx.room.Dao
+import androidx.room.Query
+import androidx.room.Upsert
+import com.keylesspalace.tusky.db.entity.OutboxActionEntity
+
+@Dao
+interface OutboxDao {
+    @Query("SELECT * FROM OutboxActionEntity ORDER BY createdAt")
+    suspend fun getAll(): List<OutboxActionEntity>
+
+    @Query(
+        """SELECT * FROM OutboxActionEntity
+        WHERE tuskyAccountId = :tuskyAccountId AND statusId = :statusId AND type = :type"""
+    )
+    suspend fun get(tuskyAccountId: Long, statusId: String, type: OutboxActionEntity.Type): OutboxActionEntity?
+
+    @Upsert
+    suspend fun upsert(action: OutboxActionEntity)
+
+    @Query(
+        """DELETE FROM OutboxActionEntity
+        WHERE tuskyAccountId = :tuskyAccountId AND statusId = :statusId AND type = :type"""
+    )
+    suspend fun delete(tuskyAccountId: Long, statusId: String, type: OutboxActionEntity.Type)
+
+    @Query("DELETE FROM OutboxActionEntity WHERE tuskyAccountId NOT IN (:tuskyAccountIds)")
+    suspend fun deleteAllExcept(tuskyAccountIds: List<Long>): Int
+}
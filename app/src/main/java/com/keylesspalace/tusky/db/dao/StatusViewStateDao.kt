@@ -0,0 +1,46 @@
+/* Copyright 2026 Tusky Contributors
+ *
+ * This file is a part of Tusky.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Tusky is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Tusky; if not,
+ * see <http://www.gnu.org/licenses>. */
+
+package com.keylesspalace.tusky.db.dao
+
+import androidx.room.Dao
+import androidx.room.Query
+import androidx.room.Upsert
+import com.keylesspalace.tusky.db.entity.StatusViewStateEntity
+
+@Dao
+interface StatusViewStateDao {
+    @Query("SELECT * FROM StatusViewStateEntity WHERE tuskyAccountId = :tuskyAccountId")
+    suspend fun getViewStates(tuskyAccountId: Long): List<StatusViewStateEntity>
+
+    @Query("SELECT * FROM StatusViewStateEntity WHERE tuskyAccountId = :tuskyAccountId AND serverId = :serverId")
+    suspend fun getViewState(tuskyAccountId: Long, serverId: String): StatusViewStateEntity?
+
+    @Upsert
+    suspend fun upsert(viewState: StatusViewStateEntity)
+
+    /**
+     * Removes the view states of statuses that are no longer cached.
+     * @return the number of deleted view states
+     */
+    @Query(
+        """DELETE FROM StatusViewStateEntity WHERE tuskyAccountId = :tuskyAccountId AND NOT EXISTS
+        (SELECT 1 FROM TimelineStatusEntity s WHERE s.serverId = StatusViewStateEntity.serverId AND s.tuskyAccountId = :tuskyAccountId)"""
+    )
+    suspend fun cleanupViewStates(tuskyAccountId: Long): Int
+
+    @Query("DELETE FROM StatusViewStateEntity WHERE tuskyAccountId = :tuskyAccountId")
+    suspend fun removeAllViewStates(tuskyAccountId: Long)
+}
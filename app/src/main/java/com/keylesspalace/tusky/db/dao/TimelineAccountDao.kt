@@ -16,16 +16,18 @@
 package com.keylesspalace.tusky.db.dao
 
 import androidx.room.Dao
-import androidx.room.Insert
-import androidx.room.OnConflictStrategy.Companion.REPLACE
 import androidx.room.Query
+import androidx.room.Upsert
 import com.keylesspalace.tusky.db.entity.TimelineAccountEntity
 
 @Dao
 abstract class TimelineAccountDao {
 
-    @Insert(onConflict = REPLACE)
-    abstract suspend fun insert(timelineAccountEntity: TimelineAccountEntity): Long
+    @Upsert
+    abstract suspend fun upsert(timelineAccountEntity: TimelineAccountEntity)
+
+    @Upsert
+    abstract suspend fun upsertAll(timelineAccountEntities: List<TimelineAccountEntity>)
 
     @Query(
         """SELECT * FROM TimelineAccountEntity a
@@ -34,23 +36,56 @@ abstract class TimelineAccountDao {
     )
     internal abstract suspend fun getAccount(tuskyAccountId: Long, accountId: String): TimelineAccountEntity?
 
+    @Query(
+        """SELECT * FROM TimelineAccountEntity a
+           WHERE a.serverId IN (:accountIds)
+           AND a.tuskyAccountId = :tuskyAccountId"""
+    )
+    internal abstract suspend fun getAccounts(tuskyAccountId: Long, accountIds: List<String>): List<TimelineAccountEntity>
+
     @Query("DELETE FROM TimelineAccountEntity WHERE tuskyAccountId = :tuskyAccountId")
     abstract suspend fun removeAllAccounts(tuskyAccountId: Long)
 
     /**
-     * Cleans the TimelineAccountEntity table from accounts that are no longer referenced by either TimelineStatusEntity, HomeTimelineEntity or NotificationEntity
+     * Returns the rowid that ends a chunk of [count] accounts with a rowid above [afterRowId], or null when there are no such accounts.
+     * Used to clean the table in small chunks, see [cleanupAccounts].
+     */
+    @Query(
+        """SELECT MAX(rowid) FROM
+        (SELECT rowid FROM TimelineAccountEntity WHERE tuskyAccountId = :tuskyAccountId AND rowid > :afterRowId ORDER BY rowid LIMIT :count)"""
+    )
+    internal abstract suspend fun getChunkEnd(tuskyAccountId: Long, afterRowId: Long, count: Int): Long?
+
+    /**
+     * Cleans the TimelineAccountEntity table from accounts with a rowid in the range ]afterRowId, upToRowId]
+     * that are no longer referenced by either TimelineStatusEntity, HomeTimelineEntity, NotificationEntity or NotificationReportEntity.
+     * All reference checks use indices of the referencing tables.
      * @param tuskyAccountId id of the user account for which to clean timeline accounts
+     * @return the number of deleted accounts
+     */
+    @Query(
+        """DELETE FROM TimelineAccountEntity WHERE rowid IN
+        (SELECT a.rowid FROM TimelineAccountEntity a
+        WHERE a.tuskyAccountId = :tuskyAccountId AND a.rowid > :afterRowId AND a.rowid <= :upToRowId
+        AND NOT EXISTS
+        (SELECT 1 FROM TimelineStatusEntity s WHERE s.authorServerId = a.serverId AND s.tuskyAccountId = :tuskyAccountId)
+        AND NOT EXISTS
+        (SELECT 1 FROM HomeTimelineEntity h WHERE h.reblogAccountId = a.serverId AND h.tuskyAccountId = :tuskyAccountId)
+        AND NOT EXISTS
+        (SELECT 1 FROM NotificationEntity n WHERE n.accountId = a.serverId AND n.tuskyAccountId = :tuskyAccountId)
+        AND NOT EXISTS
+        (SELECT 1 FROM NotificationReportEntity r WHERE r.targetAccountId = a.serverId AND r.tuskyAccountId = :tuskyAccountId))"""
+    )
+    internal abstract suspend fun cleanupAccounts(tuskyAccountId: Long, afterRowId: Long, upToRowId: Long): Int
+
+    /**
+     * Estimates how many bytes the cached accounts of the account with id [tuskyAccountId] take up,
+     * based on the size of their variable length columns.
      */
     @Query(
-        """DELETE FROM TimelineAccountEntity WHERE tuskyAccountId = :tuskyAccountId
-        AND serverId NOT IN
-        (SELECT authorServerId FROM TimelineStatusEntity WHERE tuskyAccountId = :tuskyAccountId)
-        AND serverId NOT IN
-        (SELECT reblogAccountId FROM HomeTimelineEntity WHERE tuskyAccountId = :tuskyAccountId AND reblogAccountId IS NOT NULL)
-        AND serverId NOT IN
-        (SELECT accountId FROM NotificationEntity WHERE tuskyAccountId = :tuskyAccountId AND accountId IS NOT NULL)
-        AND serverId NOT IN
-        (SELECT targetAccountId FROM NotificationReportEntity WHERE tuskyAccountId = :tuskyAccountId AND targetAccountId IS NOT NULL)"""
+        """SELECT IFNULL(SUM(LENGTH(serverId) + LENGTH(localUsername) + LENGTH(username) + LENGTH(displayName) + LENGTH(url)
+        + LENGTH(avatar) + LENGTH(note) + LENGTH(emojis)), 0)
+        FROM TimelineAccountEntity WHERE tuskyAccountId = :tuskyAccountId"""
     )
-    abstract suspend fun cleanupAccounts(tuskyAccountId: Long)
+    abstract suspend fun getCacheSize(tuskyAccountId: Long): Long
 }
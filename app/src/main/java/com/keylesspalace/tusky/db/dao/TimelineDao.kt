@@ -17,83 +17,142 @@ package com.keylesspalace.tusky.db.dao
 
 import androidx.paging.PagingSource
 import androidx.room.Dao
-import androidx.room.Insert
-import androidx.room.OnConflictStrategy.Companion.REPLACE
 import androidx.room.Query
+import androidx.room.Transaction
+import androidx.room.Upsert
+import com.keylesspalace.tusky.db.AppDatabase
+import com.keylesspalace.tusky.db.KeysetPagingSource
 import com.keylesspalace.tusky.db.entity.HomeTimelineData
 import com.keylesspalace.tusky.db.entity.HomeTimelineEntity
+import com.keylesspalace.tusky.db.entity.HomeTimelineRowEntity
+import com.keylesspalace.tusky.util.toSortKey
+import kotlinx.coroutines.flow.Flow
 
 @Dao
-abstract class TimelineDao {
-
-    @Insert(onConflict = REPLACE)
-    abstract suspend fun insertHomeTimelineItem(item: HomeTimelineEntity): Long
-
-    @Query(
-        """
-SELECT h.id, s.serverId, s.url, s.tuskyAccountId,
-s.authorServerId, s.inReplyToId, s.inReplyToAccountId, s.createdAt, s.editedAt,
-s.emojis, s.reblogsCount, s.favouritesCount, s.repliesCount, s.reblogged, s.favourited, s.bookmarked, s.sensitive,
-s.spoilerText, s.visibility, s.mentions, s.tags, s.application,
-s.content, s.attachments, s.poll, s.card, s.muted, s.expanded, s.contentShowing, s.contentCollapsed, s.pinned, s.language, s.filtered,
-a.serverId as 'a_serverId', a.tuskyAccountId as 'a_tuskyAccountId',
-a.localUsername as 'a_localUsername', a.username as 'a_username',
-a.displayName as 'a_displayName', a.url as 'a_url', a.avatar as 'a_avatar',
-a.note as 'a_note', a.emojis as 'a_emojis', a.bot as 'a_bot',
-rb.serverId as 'rb_serverId', rb.tuskyAccountId 'rb_tuskyAccountId',
-rb.localUsername as 'rb_localUsername', rb.username as 'rb_username',
-rb.displayName as 'rb_displayName', rb.url as 'rb_url', rb.avatar as 'rb_avatar',
-rb.note as 'rb_note', rb.emojis as 'rb_emojis', rb.bot as 'rb_bot',
-replied.serverId as 'replied_serverId', replied.tuskyAccountId 'replied_tuskyAccountId',
-replied.localUsername as 'replied_localUsername', replied.username as 'replied_username',
-replied.displayName as 'replied_displayName', replied.url as 'replied_url', replied.avatar as 'replied_avatar',
-replied.note as 'replied_note', replied.emojis as 'replied_emojis', replied.bot as 'replied_bot',
-h.loading
-FROM HomeTimelineEntity h
-LEFT JOIN TimelineStatusEntity s ON (h.statusId = s.serverId AND s.tuskyAccountId = :tuskyAccountId)
-LEFT JOIN TimelineAccountEntity a ON (s.authorServerId = a.serverId AND a.tuskyAccountId = :tuskyAccountId)
-LEFT JOIN TimelineAccountEntity rb ON (h.reblogAccountId = rb.serverId AND rb.tuskyAccountId = :tuskyAccountId)
-LEFT JOIN TimelineAccountEntity replied ON (s.inReplyToAccountId = replied.serverId AND replied.tuskyAccountId = :tuskyAccountId)
-WHERE h.tuskyAccountId = :tuskyAccountId
-ORDER BY LENGTH(h.id) DESC, h.id DESC"""
-    )
-    abstract fun getHomeTimeline(tuskyAccountId: Long): PagingSource<Int, HomeTimelineData>
-
-    @Query(
-        """DELETE FROM HomeTimelineEntity WHERE tuskyAccountId = :tuskyAccountId AND
-        (LENGTH(id) < LENGTH(:maxId) OR LENGTH(id) == LENGTH(:maxId) AND id <= :maxId)
-AND
-(LENGTH(id) > LENGTH(:minId) OR LENGTH(id) == LENGTH(:minId) AND id >= :minId)
-    """
+abstract class TimelineDao(private val db: AppDatabase) {
+
+    /** Inserts an item or updates it in place, e.g. when a status is turned into a placeholder */
+    @Upsert
+    abstract suspend fun upsertHomeTimelineItem(item: HomeTimelineEntity)
+
+    @Upsert
+    abstract suspend fun upsertHomeTimelineItems(items: List<HomeTimelineEntity>)
+
+    /**
+     * Returns the home timeline of the Tusky account with id [tuskyAccountId], newest first.
+     * Pages are loaded by sort key, see [KeysetPagingSource], from [HomeTimelineRowEntity] so no joins are needed.
+     * The custom emojis of the items are loaded once per page, see [HomeTimelineData.emojis].
+     */
+    fun getHomeTimeline(tuskyAccountId: Long): PagingSource<String, HomeTimelineData> =
+        object : KeysetPagingSource<HomeTimelineData>(db, "HomeTimelineRowEntity", "CustomEmojiEntity") {
+            override fun sortKeyOf(item: HomeTimelineData) = item.id.toSortKey()
+
+            override suspend fun topSortKey() = getTopId(tuskyAccountId)?.toSortKey()
+
+            override suspend fun loadOlder(sortKey: String, inclusive: Boolean, limit: Int) = if (inclusive) {
+                getHomeTimelineAtOrBelow(tuskyAccountId, sortKey, limit)
+            } else {
+                getHomeTimelineBelow(tuskyAccountId, sortKey, limit)
+            }.map(HomeTimelineRowEntity::toHomeTimelineData)
+
+            override suspend fun loadNewer(sortKey: String, limit: Int) =
+                getHomeTimelineAbove(tuskyAccountId, sortKey, limit).map(HomeTimelineRowEntity::toHomeTimelineData)
+
+            override suspend fun onPageLoaded(items: List<HomeTimelineData>) {
+                val emojis = db.customEmojiDao().getCustomEmojis(
+                    tuskyAccountId = tuskyAccountId,
+                    accounts = items.flatMap { item -> listOf(item.account, item.reblogAccount, item.repliedToAccount) },
+                    statuses = items.map(HomeTimelineData::status)
+                )
+                items.forEach { item -> item.emojis = emojis }
+            }
+        }
+
+    @Query(
+        """SELECT * FROM HomeTimelineRowEntity WHERE tuskyAccountId = :tuskyAccountId
+AND sortKey < :sortKey ORDER BY sortKey DESC LIMIT :limit"""
+    )
+    internal abstract suspend fun getHomeTimelineBelow(tuskyAccountId: Long, sortKey: String, limit: Int): List<HomeTimelineRowEntity>
+
+    @Query(
+        """SELECT * FROM HomeTimelineRowEntity WHERE tuskyAccountId = :tuskyAccountId
+AND sortKey <= :sortKey ORDER BY sortKey DESC LIMIT :limit"""
     )
-    abstract suspend fun deleteRange(tuskyAccountId: Long, minId: String, maxId: String): Int
+    internal abstract suspend fun getHomeTimelineAtOrBelow(tuskyAccountId: Long, sortKey: String, limit: Int): List<HomeTimelineRowEntity>
+
+    /** Returns the items above [sortKey], oldest first */
+    @Query(
+        """SELECT * FROM HomeTimelineRowEntity WHERE tuskyAccountId = :tuskyAccountId
+AND sortKey > :sortKey ORDER BY sortKey ASC LIMIT :limit"""
+    )
+    internal abstract suspend fun getHomeTimelineAbove(tuskyAccountId: Long, sortKey: String, limit: Int): List<HomeTimelineRowEntity>
+
+    /** Returns the newest [limit] items of the home timeline, e.g. to download their images ahead of time. */
+    suspend fun getNewestHomeTimelineItems(tuskyAccountId: Long, limit: Int): List<HomeTimelineData> =
+        getNewestHomeTimelineRows(tuskyAccountId, limit).map(HomeTimelineRowEntity::toHomeTimelineData)
+
+    @Query("SELECT * FROM HomeTimelineRowEntity WHERE tuskyAccountId = :tuskyAccountId ORDER BY sortKey DESC LIMIT :limit")
+    internal abstract suspend fun getNewestHomeTimelineRows(tuskyAccountId: Long, limit: Int): List<HomeTimelineRowEntity>
 
     /**
-     * Remove all home timeline items that are statuses or reblogs by the user with id [userId], including reblogs from other people.
-     * (e.g. because user was blocked)
+     * Deletes all home timeline items with ids between [minId] and [maxId] (both inclusive).
+     * @return the number of deleted home timeline items
      */
+    suspend fun deleteRange(tuskyAccountId: Long, minId: String, maxId: String): Int {
+        return deleteSortKeyRange(tuskyAccountId, minId.toSortKey(), maxId.toSortKey())
+    }
+
+    @Query(
+        """DELETE FROM HomeTimelineEntity WHERE tuskyAccountId = :tuskyAccountId
+AND sortKey BETWEEN :minSortKey AND :maxSortKey"""
+    )
+    internal abstract suspend fun deleteSortKeyRange(tuskyAccountId: Long, minSortKey: String, maxSortKey: String): Int
+
+    /** Returns all home timeline items with ids between [minId] and [maxId] (both inclusive). */
+    suspend fun getRange(tuskyAccountId: Long, minId: String, maxId: String): List<HomeTimelineEntity> {
+        return getSortKeyRange(tuskyAccountId, minId.toSortKey(), maxId.toSortKey())
+    }
+
     @Query(
-        """DELETE FROM HomeTimelineEntity WHERE tuskyAccountId = :tuskyAccountId AND
-            (statusId IN
-            (SELECT serverId FROM TimelineStatusEntity WHERE tuskyAccountId = :tuskyAccountId AND authorServerId == :userId)
-            OR reblogAccountId == :userId)
-        """
+        """SELECT * FROM HomeTimelineEntity WHERE tuskyAccountId = :tuskyAccountId
+AND sortKey BETWEEN :minSortKey AND :maxSortKey"""
     )
-    abstract suspend fun removeAllByUser(tuskyAccountId: Long, userId: String)
+    internal abstract suspend fun getSortKeyRange(tuskyAccountId: Long, minSortKey: String, maxSortKey: String): List<HomeTimelineEntity>
+
+    @Query("DELETE FROM HomeTimelineEntity WHERE tuskyAccountId = :tuskyAccountId AND id IN (:ids)")
+    abstract suspend fun deleteHomeTimelineItems(tuskyAccountId: Long, ids: List<String>): Int
+
+    /**
+     * Remove all home timeline items that are statuses or reblogs by the user with id [userId], including reblogs from other people.
+     * (e.g. because user was blocked)
+     */
+    @Transaction
+    open suspend fun removeAllByUser(tuskyAccountId: Long, userId: String) {
+        deleteByAuthor(tuskyAccountId, userId)
+        deleteReblogsBy(tuskyAccountId, userId)
+    }
 
     /**
      * Remove all home timeline items that are statuses or reblogs by the user with id [userId], but not reblogs from other users.
      * (e.g. because user was unfollowed)
      */
+    @Transaction
+    open suspend fun removeStatusesAndReblogsByUser(tuskyAccountId: Long, userId: String) {
+        deleteStatusesByAuthor(tuskyAccountId, userId)
+        deleteReblogsBy(tuskyAccountId, userId)
+    }
+
+    @Query("DELETE FROM HomeTimelineEntity WHERE tuskyAccountId = :tuskyAccountId AND authorId = :authorId")
+    internal abstract suspend fun deleteByAuthor(tuskyAccountId: Long, authorId: String): Int
+
+    /** Deletes the statuses of the author with id [authorId] but keeps reblogs of them by other users */
     @Query(
-        """DELETE FROM HomeTimelineEntity WHERE tuskyAccountId = :tuskyAccountId AND
-            ((statusId IN
-            (SELECT serverId FROM TimelineStatusEntity WHERE tuskyAccountId = :tuskyAccountId AND authorServerId == :userId)
-            AND reblogAccountId IS NULL)
-            OR reblogAccountId == :userId)
-        """
+        "DELETE FROM HomeTimelineEntity WHERE tuskyAccountId = :tuskyAccountId AND authorId = :authorId AND reblogAccountId IS NULL"
     )
-    abstract suspend fun removeStatusesAndReblogsByUser(tuskyAccountId: Long, userId: String)
+    internal abstract suspend fun deleteStatusesByAuthor(tuskyAccountId: Long, authorId: String): Int
+
+    @Query("DELETE FROM HomeTimelineEntity WHERE reblogAccountId = :reblogAccountId AND tuskyAccountId = :tuskyAccountId")
+    internal abstract suspend fun deleteReblogsBy(tuskyAccountId: Long, reblogAccountId: String): Int
 
     @Query("DELETE FROM HomeTimelineEntity WHERE tuskyAccountId = :tuskyAccountId")
     abstract suspend fun removeAllHomeTimelineItems(tuskyAccountId: Long)
@@ -117,58 +176,127 @@ AND
      * @param limit how many timeline items to keep
      */
     @Query(
-        """DELETE FROM HomeTimelineEntity WHERE tuskyAccountId = :tuskyAccountId AND id NOT IN
-        (SELECT id FROM HomeTimelineEntity WHERE tuskyAccountId = :tuskyAccountId ORDER BY LENGTH(id) DESC, id DESC LIMIT :limit)
+        """DELETE FROM HomeTimelineEntity WHERE tuskyAccountId = :tuskyAccountId AND sortKey <=
+        (SELECT sortKey FROM HomeTimelineEntity WHERE tuskyAccountId = :tuskyAccountId ORDER BY sortKey DESC LIMIT 1 OFFSET :limit)
     """
     )
     internal abstract suspend fun cleanupHomeTimeline(tuskyAccountId: Long, limit: Int)
 
+    /**
+     * Deletes the [count] oldest items of the home timeline.
+     * @return the number of deleted items
+     */
     @Query(
-        """DELETE FROM HomeTimelineEntity
-WHERE tuskyAccountId = :tuskyAccountId AND statusId IN (
-SELECT serverId FROM TimelineStatusEntity WHERE tuskyAccountId = :tuskyAccountId AND authorServerId in
-( SELECT serverId FROM TimelineAccountEntity WHERE username LIKE '%@' || :instanceDomain
-AND tuskyAccountId = :tuskyAccountId
-))"""
+        """DELETE FROM HomeTimelineEntity WHERE rowid IN
+        (SELECT rowid FROM HomeTimelineEntity WHERE tuskyAccountId = :tuskyAccountId ORDER BY sortKey ASC LIMIT :count)"""
     )
-    abstract suspend fun deleteAllFromInstance(tuskyAccountId: Long, instanceDomain: String)
+    internal abstract suspend fun deleteOldest(tuskyAccountId: Long, count: Int): Int
+
+    /**
+     * Deletes all home timeline items with statuses by authors from [instanceDomain] (e.g. because the domain was muted).
+     * Compared in lower case like [com.keylesspalace.tusky.db.entity.accountDomain].
+     * @return the number of deleted items
+     */
+    suspend fun deleteAllFromInstance(tuskyAccountId: Long, instanceDomain: String): Int {
+        return deleteByAuthorDomain(tuskyAccountId, instanceDomain.lowercase())
+    }
+
+    @Query("DELETE FROM HomeTimelineEntity WHERE tuskyAccountId = :tuskyAccountId AND authorDomain = :authorDomain")
+    internal abstract suspend fun deleteByAuthorDomain(tuskyAccountId: Long, authorDomain: String): Int
 
     @Query(
-        "SELECT id FROM HomeTimelineEntity WHERE tuskyAccountId = :tuskyAccountId ORDER BY LENGTH(id) DESC, id DESC LIMIT 1"
+        "SELECT id FROM HomeTimelineEntity WHERE tuskyAccountId = :tuskyAccountId ORDER BY sortKey DESC LIMIT 1"
     )
     abstract suspend fun getTopId(tuskyAccountId: Long): String?
 
     @Query(
-        "SELECT id FROM HomeTimelineEntity WHERE tuskyAccountId = :tuskyAccountId AND statusId IS NULL ORDER BY LENGTH(id) DESC, id DESC LIMIT 1"
+        "SELECT id FROM HomeTimelineEntity WHERE tuskyAccountId = :tuskyAccountId AND statusId IS NULL ORDER BY sortKey DESC LIMIT 1"
     )
     abstract suspend fun getTopPlaceholderId(tuskyAccountId: Long): String?
 
+    /** Returns the ids of the placeholders of the home timeline that are not being loaded, newest first. */
+    @Query(
+        """SELECT id FROM HomeTimelineEntity WHERE tuskyAccountId = :tuskyAccountId AND statusId IS NULL AND loading = 0
+        ORDER BY sortKey DESC"""
+    )
+    abstract suspend fun getIdlePlaceholderIds(tuskyAccountId: Long): List<String>
+
+    @Query(
+        "SELECT EXISTS(SELECT 1 FROM HomeTimelineEntity WHERE tuskyAccountId = :tuskyAccountId AND statusId IS NULL AND loading = 0)"
+    )
+    abstract fun hasIdlePlaceholders(tuskyAccountId: Long): Flow<Boolean>
+
+    /**
+     * Marks the placeholder with id [id] as loading, unless it is being loaded already or is not a placeholder anymore.
+     * @return 1 if the placeholder has been marked, 0 otherwise
+     */
+    @Query(
+        """UPDATE HomeTimelineEntity SET loading = 1
+        WHERE tuskyAccountId = :tuskyAccountId AND id = :id AND statusId IS NULL AND loading = 0"""
+    )
+    abstract suspend fun claimPlaceholder(tuskyAccountId: Long, id: String): Int
+
+    @Query(
+        """UPDATE HomeTimelineEntity SET loading = 0
+        WHERE tuskyAccountId = :tuskyAccountId AND id = :id AND statusId IS NULL"""
+    )
+    abstract suspend fun releasePlaceholder(tuskyAccountId: Long, id: String)
+
+    /** Deletes the item with id [id] if it is still a placeholder and has not been replaced with a status. */
+    @Query("DELETE FROM HomeTimelineEntity WHERE tuskyAccountId = :tuskyAccountId AND id = :id AND statusId IS NULL")
+    abstract suspend fun deletePlaceholder(tuskyAccountId: Long, id: String)
+
     /**
      * Returns the id directly above [id], or null if [id] is the id of the top item
      */
+    suspend fun getIdAbove(tuskyAccountId: Long, id: String): String? {
+        return getIdAboveSortKey(tuskyAccountId, id.toSortKey())
+    }
+
     @Query(
-        "SELECT id FROM HomeTimelineEntity WHERE tuskyAccountId = :tuskyAccountId AND (LENGTH(:id) < LENGTH(id) OR (LENGTH(:id) = LENGTH(id) AND :id < id)) ORDER BY LENGTH(id) ASC, id ASC LIMIT 1"
+        "SELECT id FROM HomeTimelineEntity WHERE tuskyAccountId = :tuskyAccountId AND sortKey > :sortKey ORDER BY sortKey ASC LIMIT 1"
     )
-    abstract suspend fun getIdAbove(tuskyAccountId: Long, id: String): String?
+    internal abstract suspend fun getIdAboveSortKey(tuskyAccountId: Long, sortKey: String): String?
 
     /**
      * Returns the ID directly below [id], or null if [id] is the ID of the bottom item
      */
+    suspend fun getIdBelow(tuskyAccountId: Long, id: String): String? {
+        return getIdBelowSortKey(tuskyAccountId, id.toSortKey())
+    }
+
     @Query(
-        "SELECT id FROM HomeTimelineEntity WHERE tuskyAccountId = :tuskyAccountId AND (LENGTH(:id) > LENGTH(id) OR (LENGTH(:id) = LENGTH(id) AND :id > id)) ORDER BY LENGTH(id) DESC, id DESC LIMIT 1"
+        "SELECT id FROM HomeTimelineEntity WHERE tuskyAccountId = :tuskyAccountId AND sortKey < :sortKey ORDER BY sortKey DESC LIMIT 1"
     )
-    abstract suspend fun getIdBelow(tuskyAccountId: Long, id: String): String?
+    internal abstract suspend fun getIdBelowSortKey(tuskyAccountId: Long, sortKey: String): String?
 
     @Query("SELECT COUNT(*) FROM HomeTimelineEntity WHERE tuskyAccountId = :tuskyAccountId")
     abstract suspend fun getHomeTimelineItemCount(tuskyAccountId: Long): Int
 
+    /**
+     * Estimates how many bytes the copies of statuses and accounts in [HomeTimelineRowEntity]
+     * of the account with id [tuskyAccountId] take up, based on the size of their biggest variable length columns.
+     */
+    @Query(
+        """SELECT IFNULL(SUM(IFNULL(LENGTH(s_content) + LENGTH(s_spoilerText) + LENGTH(s_searchText) + LENGTH(s_emojis)
+        + LENGTH(s_attachments) + LENGTH(s_mentions) + LENGTH(s_tags) + LENGTH(s_filtered), 0)
+        + IFNULL(LENGTH(s_poll), 0) + IFNULL(LENGTH(s_card), 0)
+        + IFNULL(LENGTH(a_displayName) + LENGTH(a_avatar) + LENGTH(a_note) + LENGTH(a_emojis), 0)
+        + IFNULL(LENGTH(rb_displayName) + LENGTH(rb_avatar) + LENGTH(rb_note) + LENGTH(rb_emojis), 0)
+        + IFNULL(LENGTH(replied_displayName) + LENGTH(replied_avatar) + LENGTH(replied_note) + LENGTH(replied_emojis), 0)), 0)
+        FROM HomeTimelineRowEntity WHERE tuskyAccountId = :tuskyAccountId"""
+    )
+    abstract suspend fun getReadModelCacheSize(tuskyAccountId: Long): Long
+
     /** Developer tools: Find N most recent status IDs */
     @Query(
-        "SELECT id FROM HomeTimelineEntity WHERE tuskyAccountId = :tuskyAccountId ORDER BY LENGTH(id) DESC, id DESC LIMIT :count"
+        "SELECT id FROM HomeTimelineEntity WHERE tuskyAccountId = :tuskyAccountId ORDER BY sortKey DESC LIMIT :count"
     )
     abstract suspend fun getMostRecentNHomeTimelineIds(tuskyAccountId: Long, count: Int): List<String>
 
     /** Developer tools: Convert a home timeline item to a placeholder */
-    @Query("UPDATE HomeTimelineEntity SET statusId = NULL, reblogAccountId = NULL WHERE id = :serverId")
+    @Query(
+        "UPDATE HomeTimelineEntity SET statusId = NULL, reblogAccountId = NULL, authorId = NULL, authorDomain = NULL WHERE id = :serverId"
+    )
     abstract suspend fun convertHomeTimelineItemToPlaceholder(serverId: String)
 }
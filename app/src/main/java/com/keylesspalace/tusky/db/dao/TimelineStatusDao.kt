@@ -16,17 +16,21 @@
 package com.keylesspalace.tusky.db.dao
 
 import androidx.room.Dao
-import androidx.room.Insert
-import androidx.room.OnConflictStrategy.Companion.REPLACE
 import androidx.room.Query
 import androidx.room.Transaction
 import androidx.room.TypeConverters
+import androidx.room.Upsert
 import com.keylesspalace.tusky.db.AppDatabase
 import com.keylesspalace.tusky.db.Converters
+import com.keylesspalace.tusky.db.StatusBlobConverters
 import com.keylesspalace.tusky.db.entity.TimelineAccountEntity
 import com.keylesspalace.tusky.db.entity.TimelineStatusEntity
+import com.keylesspalace.tusky.db.entity.emojiDomain
+import com.keylesspalace.tusky.db.entity.toEntity
+import com.keylesspalace.tusky.db.entity.toFtsMatchQuery
+import com.keylesspalace.tusky.db.entity.toSearchText
 import com.keylesspalace.tusky.entity.Attachment
-import com.keylesspalace.tusky.entity.Emoji
+import com.keylesspalace.tusky.entity.FilterResult
 import com.keylesspalace.tusky.entity.HashTag
 import com.keylesspalace.tusky.entity.Poll
 import com.keylesspalace.tusky.entity.PreviewCard
@@ -37,8 +41,15 @@ abstract class TimelineStatusDao(
     private val db: AppDatabase
 ) {
 
-    @Insert(onConflict = REPLACE)
-    abstract suspend fun insert(timelineStatusEntity: TimelineStatusEntity): Long
+    /**
+     * Inserts new statuses and updates cached ones in place.
+     * Statuses must not be replaced, that would give them a new rowid without updating [com.keylesspalace.tusky.db.entity.StatusSearchEntity].
+     */
+    @Upsert
+    abstract suspend fun upsertAll(timelineStatusEntities: List<TimelineStatusEntity>)
+
+    @Query("SELECT * FROM TimelineStatusEntity WHERE tuskyAccountId = :tuskyAccountId AND serverId IN (:statusIds)")
+    abstract suspend fun getStatuses(tuskyAccountId: Long, statusIds: List<String>): List<TimelineStatusEntity>
 
     @Transaction
     open suspend fun getStatusWithAccount(tuskyAccountId: Long, statusId: String): Pair<TimelineStatusEntity, TimelineAccountEntity>? {
@@ -47,6 +58,41 @@ abstract class TimelineStatusDao(
         return status to account
     }
 
+    /**
+     * Searches the cached statuses of the Tusky account with id [tuskyAccountId] for [query] using
+     * [com.keylesspalace.tusky.db.entity.StatusSearchEntity].
+     * Statuses that are no longer part of the home timeline or notifications, e.g. because their author was blocked, are not found.
+     * @return up to [limit] statuses with their authors, newest first
+     */
+    @Transaction
+    open suspend fun search(tuskyAccountId: Long, query: String, limit: Int): List<Pair<TimelineStatusEntity, TimelineAccountEntity>> {
+        val matchQuery = toFtsMatchQuery(query) ?: return emptyList()
+        val statuses = searchStatuses(tuskyAccountId, matchQuery, limit)
+        if (statuses.isEmpty()) {
+            return emptyList()
+        }
+        val authors = db.timelineAccountDao().getAccounts(
+            tuskyAccountId,
+            statuses.map { status -> status.authorServerId }.distinct()
+        ).associateBy { account -> account.serverId }
+        return statuses.mapNotNull { status ->
+            authors[status.authorServerId]?.let { author -> status to author }
+        }
+    }
+
+    @Query(
+        """SELECT s.* FROM TimelineStatusEntity s
+WHERE s.rowid IN (SELECT docid FROM StatusSearchEntity WHERE StatusSearchEntity MATCH :matchQuery)
+AND s.tuskyAccountId = :tuskyAccountId
+AND (
+EXISTS (SELECT 1 FROM HomeTimelineEntity h WHERE h.statusId = s.serverId AND h.tuskyAccountId = :tuskyAccountId)
+OR EXISTS (SELECT 1 FROM NotificationEntity n WHERE n.statusId = s.serverId AND n.tuskyAccountId = :tuskyAccountId)
+)
+ORDER BY s.createdAt DESC
+LIMIT :limit"""
+    )
+    internal abstract suspend fun searchStatuses(tuskyAccountId: Long, matchQuery: String, limit: Int): List<TimelineStatusEntity>
+
     @Query(
         """
 SELECT * FROM TimelineStatusEntity s
@@ -56,13 +102,16 @@ AND s.tuskyAccountId = :tuskyAccountId"""
     )
     abstract suspend fun getStatus(tuskyAccountId: Long, statusId: String): TimelineStatusEntity?
 
-    suspend fun update(tuskyAccountId: Long, status: Status) {
+    @Transaction
+    open suspend fun update(tuskyAccountId: Long, status: Status) {
+        val emojiDomain = emojiDomain(status.account.username)
+        db.customEmojiDao().upsert(status.emojis.map { emoji -> emoji.toEntity(tuskyAccountId, emojiDomain) })
         update(
             tuskyAccountId = tuskyAccountId,
             statusId = status.id,
             content = status.content,
             editedAt = status.editedAt?.time,
-            emojis = status.emojis,
+            emojis = status.emojis.map { emoji -> emoji.shortcode },
             reblogsCount = status.reblogsCount,
             favouritesCount = status.favouritesCount,
             repliesCount = status.repliesCount,
@@ -79,7 +128,8 @@ AND s.tuskyAccountId = :tuskyAccountId"""
             muted = status.muted,
             pinned = status.pinned,
             card = status.card,
-            language = status.language
+            language = status.language,
+            searchText = status.toSearchText()
         )
     }
 
@@ -104,7 +154,8 @@ AND s.tuskyAccountId = :tuskyAccountId"""
            muted = :muted,
            pinned = :pinned,
            card = :card,
-           language = :language
+           language = :language,
+           searchText = :searchText
            WHERE tuskyAccountId = :tuskyAccountId AND serverId = :statusId"""
     )
     @TypeConverters(Converters::class)
@@ -113,7 +164,7 @@ AND s.tuskyAccountId = :tuskyAccountId"""
         statusId: String,
         content: String?,
         editedAt: Long?,
-        emojis: List<Emoji>?,
+        @TypeConverters(StatusBlobConverters::class) emojis: List<String>?,
         reblogsCount: Int,
         favouritesCount: Int,
         repliesCount: Int,
@@ -123,16 +174,23 @@ AND s.tuskyAccountId = :tuskyAccountId"""
         sensitive: Boolean,
         spoilerText: String,
         visibility: Status.Visibility,
-        attachments: List<Attachment>?,
-        mentions: List<Status.Mention>?,
-        tags: List<HashTag>?,
-        poll: Poll?,
+        @TypeConverters(StatusBlobConverters::class) attachments: List<Attachment>?,
+        @TypeConverters(StatusBlobConverters::class) mentions: List<Status.Mention>?,
+        @TypeConverters(StatusBlobConverters::class) tags: List<HashTag>?,
+        @TypeConverters(StatusBlobConverters::class) poll: Poll?,
         muted: Boolean?,
         pinned: Boolean,
-        card: PreviewCard?,
-        language: String?
+        @TypeConverters(StatusBlobConverters::class) card: PreviewCard?,
+        language: String?,
+        searchText: String
     )
 
+    @Query(
+        """UPDATE TimelineStatusEntity SET favourited = :favourited
+WHERE tuskyAccountId = :tuskyAccountId AND serverId = :statusId"""
+    )
+    abstract suspend fun setFavourited(tuskyAccountId: Long, statusId: String, favourited: Boolean)
+
     @Query(
         """UPDATE TimelineStatusEntity SET bookmarked = :bookmarked
 WHERE tuskyAccountId = :tuskyAccountId AND serverId = :statusId"""
@@ -145,41 +203,61 @@ WHERE tuskyAccountId = :tuskyAccountId AND serverId = :statusId"""
     )
     abstract suspend fun setReblogged(tuskyAccountId: Long, statusId: String, reblogged: Boolean)
 
+    @Query("DELETE FROM TimelineStatusEntity WHERE tuskyAccountId = :tuskyAccountId AND serverId = :statusId")
+    abstract suspend fun delete(tuskyAccountId: Long, statusId: String)
+
     @Query("DELETE FROM TimelineStatusEntity WHERE tuskyAccountId = :tuskyAccountId")
     abstract suspend fun removeAllStatuses(tuskyAccountId: Long)
 
+    /**
+     * Returns the rowid that ends a chunk of [count] statuses with a rowid above [afterRowId], or null when there are no such statuses.
+     * Used to clean the table in small chunks, see [cleanupStatuses].
+     */
     @Query(
-        """DELETE FROM HomeTimelineEntity WHERE tuskyAccountId = :tuskyAccountId AND id = :id"""
+        """SELECT MAX(rowid) FROM
+        (SELECT rowid FROM TimelineStatusEntity WHERE tuskyAccountId = :tuskyAccountId AND rowid > :afterRowId ORDER BY rowid LIMIT :count)"""
     )
-    abstract suspend fun deleteHomeTimelineItem(tuskyAccountId: Long, id: String)
+    internal abstract suspend fun getChunkEnd(tuskyAccountId: Long, afterRowId: Long, count: Int): Long?
 
     /**
-     * Deletes all hometimeline items that reference the status with it [statusId]. They can be regular statuses or reblogs.
+     * Cleans the TimelineStatusEntity table from unreferenced status entries with a rowid in the range ]afterRowId, upToRowId].
+     * The reference checks use the statusId indices of HomeTimelineEntity and NotificationEntity.
+     * @param tuskyAccountId id of the account for which to clean statuses
+     * @return the number of deleted statuses
      */
     @Query(
-        """DELETE FROM HomeTimelineEntity WHERE tuskyAccountId = :tuskyAccountId AND statusId = :statusId"""
+        """DELETE FROM TimelineStatusEntity WHERE rowid IN
+        (SELECT s.rowid FROM TimelineStatusEntity s
+        WHERE s.tuskyAccountId = :tuskyAccountId AND s.rowid > :afterRowId AND s.rowid <= :upToRowId
+        AND NOT EXISTS
+        (SELECT 1 FROM HomeTimelineEntity h WHERE h.statusId = s.serverId AND h.tuskyAccountId = :tuskyAccountId)
+        AND NOT EXISTS
+        (SELECT 1 FROM NotificationEntity n WHERE n.statusId = s.serverId AND n.tuskyAccountId = :tuskyAccountId))"""
     )
-    abstract suspend fun deleteAllWithStatus(tuskyAccountId: Long, statusId: String)
+    internal abstract suspend fun cleanupStatuses(tuskyAccountId: Long, afterRowId: Long, upToRowId: Long): Int
 
     /**
-     * Cleans the TimelineStatusEntity table from unreferenced status entries.
-     * @param tuskyAccountId id of the account for which to clean statuses
+     * Estimates how many bytes the cached statuses of the account with id [tuskyAccountId] take up,
+     * based on the size of their variable length columns.
      */
     @Query(
-        """DELETE FROM TimelineStatusEntity WHERE tuskyAccountId = :tuskyAccountId
-        AND serverId NOT IN
-        (SELECT statusId FROM HomeTimelineEntity WHERE tuskyAccountId = :tuskyAccountId AND statusId IS NOT NULL)
-        AND serverId NOT IN
-        (SELECT statusId FROM NotificationEntity WHERE tuskyAccountId = :tuskyAccountId AND statusId IS NOT NULL)"""
+        """SELECT IFNULL(SUM(LENGTH(content) + LENGTH(spoilerText) + LENGTH(searchText) + LENGTH(emojis) + LENGTH(attachments)
+        + LENGTH(mentions) + LENGTH(tags) + LENGTH(filtered) + IFNULL(LENGTH(url), 0) + IFNULL(LENGTH(application), 0)
+        + IFNULL(LENGTH(poll), 0) + IFNULL(LENGTH(card), 0)), 0)
+        FROM TimelineStatusEntity WHERE tuskyAccountId = :tuskyAccountId"""
     )
-    internal abstract suspend fun cleanupStatuses(tuskyAccountId: Long)
+    abstract suspend fun getCacheSize(tuskyAccountId: Long): Long
 
     @Query(
         """UPDATE TimelineStatusEntity SET poll = :poll
 WHERE tuskyAccountId = :tuskyAccountId AND serverId = :statusId"""
     )
     @TypeConverters(Converters::class)
-    abstract suspend fun setVoted(tuskyAccountId: Long, statusId: String, poll: Poll)
+    abstract suspend fun setVoted(
+        tuskyAccountId: Long,
+        statusId: String,
+        @TypeConverters(StatusBlobConverters::class) poll: Poll
+    )
 
     @Transaction
     open suspend fun setShowResults(tuskyAccountId: Long, statusId: String) {
@@ -190,32 +268,6 @@ WHERE tuskyAccountId = :tuskyAccountId AND serverId = :statusId"""
         }
     }
 
-    @Query(
-        """UPDATE TimelineStatusEntity SET expanded = :expanded
-WHERE tuskyAccountId = :tuskyAccountId AND serverId = :statusId"""
-    )
-    abstract suspend fun setExpanded(tuskyAccountId: Long, statusId: String, expanded: Boolean)
-
-    @Query(
-        """UPDATE TimelineStatusEntity SET contentShowing = :contentShowing
-WHERE tuskyAccountId = :tuskyAccountId AND serverId = :statusId"""
-    )
-    abstract suspend fun setContentShowing(
-        tuskyAccountId: Long,
-        statusId: String,
-        contentShowing: Boolean
-    )
-
-    @Query(
-        """UPDATE TimelineStatusEntity SET contentCollapsed = :contentCollapsed
-WHERE tuskyAccountId = :tuskyAccountId AND serverId = :statusId"""
-    )
-    abstract suspend fun setContentCollapsed(
-        tuskyAccountId: Long,
-        statusId: String,
-        contentCollapsed: Boolean
-    )
-
     @Query(
         """UPDATE TimelineStatusEntity SET pinned = :pinned
 WHERE tuskyAccountId = :tuskyAccountId AND serverId = :statusId"""
@@ -223,64 +275,14 @@ WHERE tuskyAccountId = :tuskyAccountId AND serverId = :statusId"""
     abstract suspend fun setPinned(tuskyAccountId: Long, statusId: String, pinned: Boolean)
 
     @Query(
-        """DELETE FROM HomeTimelineEntity
-WHERE tuskyAccountId = :tuskyAccountId AND statusId IN (
-SELECT serverId FROM TimelineStatusEntity WHERE tuskyAccountId = :tuskyAccountId AND authorServerId in
-( SELECT serverId FROM TimelineAccountEntity WHERE username LIKE '%@' || :instanceDomain
-AND tuskyAccountId = :tuskyAccountId
-))"""
-    )
-    abstract suspend fun deleteAllFromInstance(tuskyAccountId: Long, instanceDomain: String)
-
-    @Query(
-        "UPDATE TimelineStatusEntity SET filtered = '[]' WHERE tuskyAccountId = :tuskyAccountId AND serverId = :statusId"
+        "UPDATE TimelineStatusEntity SET filtered = :filtered WHERE tuskyAccountId = :tuskyAccountId AND serverId = :statusId"
     )
-    abstract suspend fun clearWarning(tuskyAccountId: Long, statusId: String): Int
-
-    @Query(
-        "SELECT id FROM HomeTimelineEntity WHERE tuskyAccountId = :tuskyAccountId ORDER BY LENGTH(id) DESC, id DESC LIMIT 1"
-    )
-    abstract suspend fun getTopId(tuskyAccountId: Long): String?
-
-    @Query(
-        "SELECT id FROM HomeTimelineEntity WHERE tuskyAccountId = :tuskyAccountId AND statusId IS NULL ORDER BY LENGTH(id) DESC, id DESC LIMIT 1"
-    )
-    abstract suspend fun getTopPlaceholderId(tuskyAccountId: Long): String?
-
-    /**
-     * Returns the id directly above [id], or null if [id] is the id of the top item
-     */
-    @Query(
-        "SELECT id FROM HomeTimelineEntity WHERE tuskyAccountId = :tuskyAccountId AND (LENGTH(:id) < LENGTH(id) OR (LENGTH(:id) = LENGTH(id) AND :id < id)) ORDER BY LENGTH(id) ASC, id ASC LIMIT 1"
-    )
-    abstract suspend fun getIdAbove(tuskyAccountId: Long, id: String): String?
-
-    /**
-     * Returns the ID directly below [id], or null if [id] is the ID of the bottom item
-     */
-    @Query(
-        "SELECT id FROM HomeTimelineEntity WHERE tuskyAccountId = :tuskyAccountId AND (LENGTH(:id) > LENGTH(id) OR (LENGTH(:id) = LENGTH(id) AND :id > id)) ORDER BY LENGTH(id) DESC, id DESC LIMIT 1"
-    )
-    abstract suspend fun getIdBelow(tuskyAccountId: Long, id: String): String?
-
-    /**
-     * Returns the id of the next placeholder after [id], or null if there is no placeholder.
-     */
-    @Query(
-        "SELECT id FROM HomeTimelineEntity WHERE tuskyAccountId = :tuskyAccountId AND statusId IS NULL AND (LENGTH(:id) > LENGTH(id) OR (LENGTH(:id) = LENGTH(id) AND :id > id)) ORDER BY LENGTH(id) DESC, id DESC LIMIT 1"
-    )
-    abstract suspend fun getNextPlaceholderIdAfter(tuskyAccountId: Long, id: String): String?
-
-    @Query("SELECT COUNT(*) FROM HomeTimelineEntity WHERE tuskyAccountId = :tuskyAccountId")
-    abstract suspend fun getHomeTimelineItemCount(tuskyAccountId: Long): Int
-
-    /** Developer tools: Find N most recent status IDs */
-    @Query(
-        "SELECT id FROM HomeTimelineEntity WHERE tuskyAccountId = :tuskyAccountId ORDER BY LENGTH(id) DESC, id DESC LIMIT :count"
-    )
-    abstract suspend fun getMostRecentNStatusIds(tuskyAccountId: Long, count: Int): List<String>
+    internal abstract suspend fun setFiltered(
+        tuskyAccountId: Long,
+        statusId: String,
+        @TypeConverters(StatusBlobConverters::class) filtered: List<FilterResult>
+    ): Int
 
-    /** Developer tools: Convert a home timeline item to a placeholder */
-    @Query("UPDATE HomeTimelineEntity SET statusId = NULL, reblogAccountId = NULL WHERE id = :serverId")
-    abstract suspend fun convertStatusToPlaceholder(serverId: String)
+    open suspend fun clearWarning(tuskyAccountId: Long, statusId: String): Int =
+        setFiltered(tuskyAccountId, statusId, emptyList())
 }
@@ -0,0 +1,104 @@
+/* Copyright 2026 Tusky Contributors
+ *
+ * This file is a part of Tusky.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Tusky is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Tusky; if not,
+ * see <http://www.gnu.org/licenses>. */
+
+package com.keylesspalace.tusky.db.entity
+
+import androidx.room.Entity
+import com.keylesspalace.tusky.entity.Emoji
+
+/**
+ * A custom emoji as seen by one Tusky account.
+ * Cached statuses and accounts only store the shortcodes of their emojis and share the entries in this table.
+ * The custom emojis of the instance of the Tusky account are also stored here and shown in the emoji picker.
+ */
+@Entity(
+    primaryKeys = ["tuskyAccountId", "domain", "shortcode"]
+)
+data class CustomEmojiEntity(
+    val tuskyAccountId: Long,
+    /**
+     * The domain the emoji is from, empty for emojis of accounts of the instance of the Tusky account. See [emojiDomain].
+     * [INSTANCE_EMOJI_DOMAIN] for the emojis the instance offers in the emoji picker.
+     */
+    val domain: String,
+    val shortcode: String,
+    val url: String,
+    val staticUrl: String,
+    val visibleInPicker: Boolean,
+    val category: String?
+)
+
+/**
+ * The domain the custom emojis the instance of the Tusky account offers are stored with.
+ * Not a valid domain, so they are kept apart from the emojis of accounts of that instance, which are stored with an empty domain.
+ */
+const val INSTANCE_EMOJI_DOMAIN = "#instance"
+
+/**
+ * Returns the [CustomEmojiEntity.domain] of the custom emojis used by an account with [acct] and its statuses.
+ * Shortcodes are only unique per domain, two instances can have different emojis with the same shortcode.
+ * The same as the [accountDomain] of the account, so both are in lower case.
+ */
+fun emojiDomain(acct: String): String = accountDomain(acct)
+
+val TimelineAccountEntity.emojiDomain: String
+    get() = emojiDomain(username)
+
+fun Emoji.toEntity(tuskyAccountId: Long, domain: String) = CustomEmojiEntity(
+    tuskyAccountId = tuskyAccountId,
+    domain = domain,
+    shortcode = shortcode,
+    url = url,
+    staticUrl = staticUrl,
+    visibleInPicker = visibleInPicker,
+    category = category
+)
+
+fun CustomEmojiEntity.toEmoji() = Emoji(
+    shortcode = shortcode,
+    url = url,
+    staticUrl = staticUrl,
+    visibleInPicker = visibleInPicker,
+    category = category
+)
+
+/**
+ * The custom emojis needed to display some cached statuses and accounts.
+ * Load with [com.keylesspalace.tusky.db.dao.CustomEmojiDao.getCustomEmojis].
+ */
+class CustomEmojis(emojis: List<CustomEmojiEntity>) {
+    private val emojis: Map<String, Map<String, Emoji>> = emojis.groupBy(
+        keySelector = { emoji -> emoji.domain }
+    ).mapValues { (_, emojisOfDomain) ->
+        emojisOfDomain.associate { emoji -> emoji.shortcode to emoji.toEmoji() }
+    }
+
+    fun of(account: TimelineAccountEntity): List<Emoji> = get(account.emojiDomain, account.emojiShortcodes)
+
+    /** @param author the author of [status], the emojis of a status are from the domain of its author */
+    fun of(status: TimelineStatusEntity, author: TimelineAccountEntity): List<Emoji> = get(author.emojiDomain, status.emojiShortcodes)
+
+    private fun get(domain: String, shortcodes: List<String>): List<Emoji> {
+        if (shortcodes.isEmpty()) {
+            return emptyList()
+        }
+        val emojisOfDomain = emojis[domain] ?: return emptyList()
+        return shortcodes.mapNotNull { shortcode -> emojisOfDomain[shortcode] }
+    }
+
+    companion object {
+        val EMPTY = CustomEmojis(emptyList())
+    }
+}
@@ -18,7 +18,9 @@ package com.keylesspalace.tusky.db.entity
 import androidx.room.Embedded
 import androidx.room.Entity
 import androidx.room.ForeignKey
+import androidx.room.Ignore
 import androidx.room.Index
+import com.keylesspalace.tusky.util.toSortKey
 
 /**
  * Entity to store an item on the home timeline. Can be a standalone status, a reblog, or a placeholder.
@@ -42,6 +44,9 @@ import androidx.room.Index
     indices = [
         Index("statusId", "tuskyAccountId"),
         Index("reblogAccountId", "tuskyAccountId"),
+        Index("tuskyAccountId", "sortKey"),
+        Index("tuskyAccountId", "authorId"),
+        Index("tuskyAccountId", "authorDomain"),
     ]
 )
 data class HomeTimelineEntity(
@@ -53,7 +58,14 @@ data class HomeTimelineEntity(
     // the id of the account who reblogged the status, null if no reblog
     val reblogAccountId: String?,
     // only relevant when this is a placeholder
-    val loading: Boolean = false
+    val loading: Boolean = false,
+    // [id] in a form that can be sorted by an index, see toSortKey
+    val sortKey: String = id.toSortKey(),
+    // the id of the author of the status, null when a placeholder.
+    // Copied from TimelineStatusEntity so items of blocked or muted users can be deleted using an index.
+    val authorId: String? = null,
+    // the domain of the author of the status, see accountDomain. null when a placeholder
+    val authorDomain: String? = null
 )
 
 /**
@@ -66,4 +78,8 @@ data class HomeTimelineData(
     @Embedded(prefix = "rb_") val reblogAccount: TimelineAccountEntity?,
     @Embedded(prefix = "replied_") val repliedToAccount: TimelineAccountEntity?,
     val loading: Boolean
-)
+) {
+    /** The custom emojis of this item, loaded for the whole page it is part of. See [com.keylesspalace.tusky.db.dao.TimelineDao.getHomeTimeline] */
+    @Ignore
+    var emojis: CustomEmojis = CustomEmojis.EMPTY
+}
@@ -0,0 +1,51 @@
+/* Copyright 2026 Tusky Contributors
+ *
+ * This file is a part of Tusky.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Tusky is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Tusky; if not,
+ * see <http://www.gnu.org/licenses>. */
+
+package com.keylesspalace.tusky.db.entity
+
+import androidx.room.Embedded
+import androidx.room.Entity
+import androidx.room.Index
+
+/**
+ * An item of the home timeline together with everything needed to display it,
+ * so a page of the home timeline can be read from this table alone instead of joining four tables.
+ *
+ * The table is never written by the app: triggers keep it in sync with [HomeTimelineEntity], [TimelineStatusEntity]
+ * and [TimelineAccountEntity] whenever one of them changes, see [com.keylesspalace.tusky.db.HomeTimelineReadModel].
+ */
+@Entity(
+    primaryKeys = ["tuskyAccountId", "id"],
+    indices = [Index("tuskyAccountId", "sortKey")]
+)
+data class HomeTimelineRowEntity(
+    val tuskyAccountId: Long,
+    val id: String,
+    val sortKey: String,
+    val loading: Boolean,
+    @Embedded(prefix = "s_") val status: TimelineStatusEntity?,
+    @Embedded(prefix = "a_") val account: TimelineAccountEntity?,
+    @Embedded(prefix = "rb_") val reblogAccount: TimelineAccountEntity?,
+    @Embedded(prefix = "replied_") val repliedToAccount: TimelineAccountEntity?
+) {
+    fun toHomeTimelineData() = HomeTimelineData(
+        id = id,
+        status = status,
+        account = account,
+        reblogAccount = reblogAccount,
+        repliedToAccount = repliedToAccount,
+        loading = loading
+    )
+}
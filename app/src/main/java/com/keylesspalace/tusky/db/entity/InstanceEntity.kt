@@ -18,15 +18,10 @@ package com.keylesspalace.tusky.db.entity
 import androidx.room.ColumnInfo
 import androidx.room.Entity
 import androidx.room.PrimaryKey
-import androidx.room.TypeConverters
-import com.keylesspalace.tusky.db.Converters
-import com.keylesspalace.tusky.entity.Emoji
 
 @Entity
-@TypeConverters(Converters::class)
 data class InstanceEntity(
     @PrimaryKey val instance: String,
-    val emojiList: List<Emoji>?,
     val maximumTootCharacters: Int?,
     val maxPollOptions: Int?,
     val maxPollOptionLength: Int?,
@@ -48,12 +43,6 @@ data class InstanceEntity(
     @ColumnInfo(defaultValue = "false") val filterV2Supported: Boolean = false
 )
 
-@TypeConverters(Converters::class)
-data class EmojisEntity(
-    @PrimaryKey val instance: String,
-    val emojiList: List<Emoji>?
-)
-
 data class InstanceInfoEntity(
     @PrimaryKey val instance: String,
     val maximumTootCharacters: Int?,
@@ -18,12 +18,14 @@ package com.keylesspalace.tusky.db.entity
 import androidx.room.Embedded
 import androidx.room.Entity
 import androidx.room.ForeignKey
+import androidx.room.Ignore
 import androidx.room.Index
 import androidx.room.TypeConverters
 import com.keylesspalace.tusky.db.Converters
 import com.keylesspalace.tusky.entity.AccountWarning
 import com.keylesspalace.tusky.entity.Notification
 import com.keylesspalace.tusky.entity.RelationshipSeveranceEvent
+import com.keylesspalace.tusky.util.toSortKey
 import java.util.Date
 
 @TypeConverters(Converters::class)
@@ -41,8 +43,14 @@ data class NotificationDataEntity(
     val event: RelationshipSeveranceEvent?,
     val moderationWarning: AccountWarning?,
     // relevant when it is a placeholder
-    val loading: Boolean = false
-)
+    val loading: Boolean = false,
+    // [id] in a form that can be sorted by an index, see toSortKey
+    val sortKey: String = id.toSortKey()
+) {
+    /** The custom emojis of this notification, loaded for the whole page it is part of. See [com.keylesspalace.tusky.db.dao.NotificationsDao.getNotifications] */
+    @Ignore
+    var emojis: CustomEmojis = CustomEmojis.EMPTY
+}
 
 @Entity(
     primaryKeys = ["id", "tuskyAccountId"],
@@ -69,6 +77,10 @@ data class NotificationDataEntity(
         Index("accountId", "tuskyAccountId"),
         Index("statusId", "tuskyAccountId"),
         Index("reportId", "tuskyAccountId"),
+        Index("tuskyAccountId", "sortKey"),
+        Index("tuskyAccountId", "statusAuthorId"),
+        Index("tuskyAccountId", "accountDomain"),
+        Index("tuskyAccountId", "statusAuthorDomain"),
     ]
 )
 @TypeConverters(Converters::class)
@@ -84,7 +96,14 @@ data class NotificationEntity(
     val event: RelationshipSeveranceEvent?,
     val moderationWarning: AccountWarning?,
     // relevant when it is a placeholder
-    val loading: Boolean = false
+    val loading: Boolean = false,
+    // [id] in a form that can be sorted by an index, see toSortKey
+    val sortKey: String = id.toSortKey(),
+    // The author of the status and the domains of the account and the status author, see accountDomain.
+    // Copied from the referenced entities so notifications of blocked or muted users can be deleted using an index.
+    val statusAuthorId: String? = null,
+    val accountDomain: String? = null,
+    val statusAuthorDomain: String? = null
 )
 
 @Entity(
@@ -0,0 +1,55 @@
+/* Copyright 2026 Tusky Contributors
+ *
+ * This file is a part of Tusky.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Tusky is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Tusky; if not,
+ * see <http://www.gnu.org/licenses>. */
+
+package com.keylesspalace.tusky.db.entity
+
+import androidx.room.Entity
+import androidx.room.TypeConverters
+import com.keylesspalace.tusky.db.Converters
+import com.keylesspalace.tusky.entity.Poll
+import com.keylesspalace.tusky.entity.Status
+
+/**
+ * A favourite, reblog, bookmark or poll vote that could not be sent yet, see [com.keylesspalace.tusky.usecase.StatusActionOutbox].
+ * There is at most one action of each type per status, a newer one replaces the one that is waiting.
+ * @param statusId the id of the actionable status
+ * @param value whether the status should be favourited, reblogged or bookmarked, unused for votes
+ * @param serverValue the state the server is known to have, an action that would set it again is dropped
+ * @param visibility the visibility of a reblog
+ * @param choices the options to vote for
+ * @param previousPoll the poll as the server has it before a vote, shown again if the server rejects the vote
+ * @param createdAt when the action was last changed, so a response can be matched with the version of the action that was sent
+ */
+@Entity(primaryKeys = ["tuskyAccountId", "statusId", "type"])
+@TypeConverters(Converters::class)
+data class OutboxActionEntity(
+    val tuskyAccountId: Long,
+    val statusId: String,
+    val type: Type,
+    val value: Boolean,
+    val serverValue: Boolean,
+    val visibility: Status.Visibility = Status.Visibility.PUBLIC,
+    val pollId: String? = null,
+    val choices: List<Int>? = null,
+    val previousPoll: Poll? = null,
+    val createdAt: Long
+) {
+    enum class Type {
+        FAVOURITE,
+        REBLOG,
+        BOOKMARK,
+        VOTE
+    }
+}
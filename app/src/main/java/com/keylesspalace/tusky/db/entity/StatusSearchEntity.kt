@@ -0,0 +1,71 @@
+/* Copyright 2026 Tusky Contributors
+ *
+ * This file is a part of Tusky.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Tusky is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Tusky; if not,
+ * see <http://www.gnu.org/licenses>. */
+
+package com.keylesspalace.tusky.db.entity
+
+import androidx.room.Entity
+import androidx.room.Fts4
+import androidx.room.FtsOptions
+import com.keylesspalace.tusky.entity.Status
+import com.keylesspalace.tusky.util.parseAsMastodonHtml
+
+/**
+ * Full text index over [TimelineStatusEntity.searchText].
+ * The index has no content of its own, Room keeps it in sync with [TimelineStatusEntity] using triggers,
+ * so statuses that are inserted, updated or deleted are (re)indexed in the same transaction.
+ *
+ * The index refers to statuses by the implicit rowid of [TimelineStatusEntity], which is only stable as long as rows are updated in place.
+ * Statuses are never written with REPLACE, which would delete and insert them without firing the delete trigger,
+ * and the index is rebuilt with [REBUILD_STATUS_SEARCH_INDEX] after anything that can renumber rowids, like VACUUM.
+ */
+@Fts4(
+    contentEntity = TimelineStatusEntity::class,
+    tokenizer = FtsOptions.TOKENIZER_UNICODE61
+)
+@Entity
+data class StatusSearchEntity(
+    val searchText: String
+)
+
+/** Indexes the search text of all rows of [TimelineStatusEntity] again, with the rowids they have now */
+const val REBUILD_STATUS_SEARCH_INDEX = "INSERT INTO `StatusSearchEntity`(`StatusSearchEntity`) VALUES('rebuild')"
+
+/**
+ * The text a status can be found by when searching the cache:
+ * its content warning, its content without html and the display name and username of its author.
+ */
+fun Status.toSearchText(): String = listOf(
+    spoilerText,
+    content.parseAsMastodonHtml(tagHandler = null).toString(),
+    account.displayName.orEmpty(),
+    account.username
+).filter { text -> text.isNotBlank() }
+    .joinToString(separator = "\n")
+
+/**
+ * Converts a search query as entered by the user to a full text search query that matches statuses containing all words of it.
+ * Each word is quoted so characters with special meaning in full text search queries are matched literally,
+ * and matched as a prefix so e.g. "kot" also finds "Kotlin".
+ * @return the query or null when [query] contains nothing that could be found
+ */
+fun toFtsMatchQuery(query: String): String? {
+    val words = query.replace("\"", " ")
+        .split(' ', '\t', '\n')
+        .filter { word -> word.any { char -> char.isLetterOrDigit() } }
+    if (words.isEmpty()) {
+        return null
+    }
+    return words.joinToString(separator = " ") { word -> "\"$word*\"" }
+}
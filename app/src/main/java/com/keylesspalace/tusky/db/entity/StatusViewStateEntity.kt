@@ -0,0 +1,48 @@
+/* Copyright 2026 Tusky Contributors
+ *
+ * This file is a part of Tusky.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Tusky is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Tusky; if not,
+ * see <http://www.gnu.org/licenses>. */
+
+package com.keylesspalace.tusky.db.entity
+
+import androidx.room.Entity
+
+/**
+ * How the user chose to show a cached status: with its content warning expanded, its sensitive media shown, its long text collapsed.
+ *
+ * Kept apart from [TimelineStatusEntity] so that changing it does not invalidate the timelines read from that table,
+ * see [com.keylesspalace.tusky.db.StatusViewStates].
+ */
+@Entity(primaryKeys = ["tuskyAccountId", "serverId"])
+data class StatusViewStateEntity(
+    val tuskyAccountId: Long,
+    val serverId: String,
+    val expanded: Boolean,
+    val contentShowing: Boolean,
+    val contentCollapsed: Boolean
+)
+
+fun StatusViewStateEntity.toLocalState() = StatusLocalState(
+    serverId = serverId,
+    expanded = expanded,
+    contentShowing = contentShowing,
+    contentCollapsed = contentCollapsed
+)
+
+fun StatusLocalState.toViewStateEntity(tuskyAccountId: Long) = StatusViewStateEntity(
+    tuskyAccountId = tuskyAccountId,
+    serverId = serverId,
+    expanded = expanded,
+    contentShowing = contentShowing,
+    contentCollapsed = contentCollapsed
+)
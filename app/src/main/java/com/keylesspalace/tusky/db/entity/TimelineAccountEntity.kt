@@ -19,7 +19,7 @@ import androidx.room.ColumnInfo
 import androidx.room.Entity
 import androidx.room.TypeConverters
 import com.keylesspalace.tusky.db.Converters
-import com.keylesspalace.tusky.entity.Emoji
+import com.keylesspalace.tusky.db.StatusBlobConverters
 
 @Entity(
     primaryKeys = ["serverId", "tuskyAccountId"]
@@ -34,6 +34,13 @@ data class TimelineAccountEntity(
     val url: String,
     val avatar: String,
     @ColumnInfo(defaultValue = "") val note: String,
-    val emojis: List<Emoji>,
+    // shortcodes of the custom emojis used by the account, the emojis are stored in CustomEmojiEntity
+    @ColumnInfo(name = "emojis") @TypeConverters(StatusBlobConverters::class) val emojiShortcodes: List<String>,
     val bot: Boolean
 )
+
+/**
+ * Returns the domain of the account with [acct] in lower case, or an empty string for accounts of the own instance.
+ * Stored with cached home timeline items and notifications so the ones from a muted domain can be found using an index.
+ */
+fun accountDomain(acct: String): String = acct.substringAfter('@', "").lowercase()
@@ -15,13 +15,14 @@
 
 package com.keylesspalace.tusky.db.entity
 
+import androidx.room.ColumnInfo
 import androidx.room.Entity
 import androidx.room.ForeignKey
 import androidx.room.Index
 import androidx.room.TypeConverters
 import com.keylesspalace.tusky.db.Converters
+import com.keylesspalace.tusky.db.StatusBlobConverters
 import com.keylesspalace.tusky.entity.Attachment
-import com.keylesspalace.tusky.entity.Emoji
 import com.keylesspalace.tusky.entity.FilterResult
 import com.keylesspalace.tusky.entity.HashTag
 import com.keylesspalace.tusky.entity.Poll
@@ -31,6 +32,7 @@ import com.keylesspalace.tusky.entity.Status
 /**
  * Entity for caching status data. Used within home timelines and notifications.
  * The information if a status is a reblog is not stored here but in [HomeTimelineEntity].
+ * Columns holding nested objects are stored in the binary format of [StatusBlobConverters].
  */
 @Entity(
     primaryKeys = ["serverId", "tuskyAccountId"],
@@ -44,7 +46,11 @@ import com.keylesspalace.tusky.entity.Status
         ]
         ),
     // Avoiding rescanning status table when accounts table changes. Recommended by Room(c).
-    indices = [Index("authorServerId", "tuskyAccountId")]
+    // The replies to an account are looked up when the account changes, see HomeTimelineReadModel.
+    indices = [
+        Index("authorServerId", "tuskyAccountId"),
+        Index("inReplyToAccountId", "tuskyAccountId")
+    ]
 )
 @TypeConverters(Converters::class)
 data class TimelineStatusEntity(
@@ -59,7 +65,8 @@ data class TimelineStatusEntity(
     val content: String,
     val createdAt: Long,
     val editedAt: Long?,
-    val emojis: List<Emoji>,
+    // shortcodes of the custom emojis used in the status, the emojis are stored in CustomEmojiEntity
+    @ColumnInfo(name = "emojis") @TypeConverters(StatusBlobConverters::class) val emojiShortcodes: List<String>,
     val reblogsCount: Int,
     val favouritesCount: Int,
     val repliesCount: Int,
@@ -69,19 +76,38 @@ data class TimelineStatusEntity(
     val sensitive: Boolean,
     val spoilerText: String,
     val visibility: Status.Visibility,
-    val attachments: List<Attachment>,
-    val mentions: List<Status.Mention>,
-    val tags: List<HashTag>,
-    val application: Status.Application?,
+    @TypeConverters(StatusBlobConverters::class) val attachments: List<Attachment>,
+    @TypeConverters(StatusBlobConverters::class) val mentions: List<Status.Mention>,
+    @TypeConverters(StatusBlobConverters::class) val tags: List<HashTag>,
+    @TypeConverters(StatusBlobConverters::class) val application: Status.Application?,
     // if it has a reblogged status, it's id is stored here
-    val poll: Poll?,
+    @TypeConverters(StatusBlobConverters::class) val poll: Poll?,
     val muted: Boolean,
-    /** Also used as the "loading" attribute when this TimelineStatusEntity is a placeholder */
+    // the state the status is shown with until the user changes it, changes are kept in StatusViewStateEntity
     val expanded: Boolean,
     val contentCollapsed: Boolean,
     val contentShowing: Boolean,
     val pinned: Boolean,
-    val card: PreviewCard?,
+    @TypeConverters(StatusBlobConverters::class) val card: PreviewCard?,
     val language: String?,
-    val filtered: List<FilterResult>
+    @TypeConverters(StatusBlobConverters::class) val filtered: List<FilterResult>,
+    /** Plain text this status can be found by, indexed by [StatusSearchEntity] */
+    @ColumnInfo(defaultValue = "") val searchText: String
+)
+
+/**
+ * The part of a [TimelineStatusEntity] that is only known locally and needs to survive when the status is reloaded.
+ */
+data class StatusLocalState(
+    val serverId: String,
+    val expanded: Boolean,
+    val contentShowing: Boolean,
+    val contentCollapsed: Boolean
+)
+
+fun TimelineStatusEntity.toLocalState() = StatusLocalState(
+    serverId = serverId,
+    expanded = expanded,
+    contentShowing = contentShowing,
+    contentCollapsed = contentCollapsed
 )
@@ -27,9 +27,13 @@ import com.keylesspalace.tusky.entity.Notification
 import com.keylesspalace.tusky.entity.Status
 import com.keylesspalace.tusky.json.GuardedAdapter
 import com.keylesspalace.tusky.json.NotificationTypeAdapter
+import com.keylesspalace.tusky.network.AdaptivePagingPolicy
+import com.keylesspalace.tusky.network.ApiProvider
 import com.keylesspalace.tusky.network.MastodonApi
 import com.keylesspalace.tusky.network.MediaUploadApi
-import com.keylesspalace.tusky.network.apiForAccount
+import com.keylesspalace.tusky.network.NetworkMetrics
+import com.keylesspalace.tusky.network.RevalidationInterceptor
+import com.keylesspalace.tusky.network.SingleFlightInterceptor
 import com.keylesspalace.tusky.settings.PrefKeys.HTTP_PROXY_ENABLED
 import com.keylesspalace.tusky.settings.PrefKeys.HTTP_PROXY_PORT
 import com.keylesspalace.tusky.settings.PrefKeys.HTTP_PROXY_SERVER
@@ -105,7 +109,11 @@ object NetworkModule {
     @Singleton
     fun providesHttpClient(
         @ApplicationContext context: Context,
-        preferences: SharedPreferences
+        preferences: SharedPreferences,
+        singleFlightInterceptor: SingleFlightInterceptor,
+        revalidationInterceptor: RevalidationInterceptor,
+        adaptivePagingPolicy: AdaptivePagingPolicy,
+        networkMetrics: NetworkMetrics
     ): OkHttpClient {
         val httpProxyEnabled = preferences.getBoolean(HTTP_PROXY_ENABLED, false)
         val httpServer = preferences.getNonNullString(HTTP_PROXY_SERVER, "")
@@ -126,6 +134,12 @@ object NetworkModule {
                     .build()
                 chain.proceed(requestWithUserAgent)
             }
+            // identical requests are coalesced first, so they also share the revalidation of a stored response
+            .addInterceptor(singleFlightInterceptor)
+            .addInterceptor(revalidationInterceptor)
+            // measures what comes from the network, not what the interceptors above answered themselves
+            .addInterceptor(adaptivePagingPolicy)
+            .eventListenerFactory(networkMetrics)
             .readTimeout(30, TimeUnit.SECONDS)
             .writeTimeout(30, TimeUnit.SECONDS)
             .cache(Cache(context.cacheDir, cacheSize))
@@ -160,24 +174,17 @@ object NetworkModule {
 
     @Provides
     fun providesMastodonApi(
-        httpClient: OkHttpClient,
-        retrofit: Retrofit,
+        apiProvider: ApiProvider,
         accountManager: AccountManager
     ): MastodonApi {
-        return apiForAccount(accountManager.activeAccount, httpClient, retrofit)
+        return apiProvider.mastodonApi(accountManager.activeAccount)
     }
 
     @Provides
     fun providesMediaUploadApi(
-        retrofit: Retrofit,
-        okHttpClient: OkHttpClient,
+        apiProvider: ApiProvider,
         accountManager: AccountManager
     ): MediaUploadApi {
-        val longTimeOutOkHttpClient = okHttpClient.newBuilder()
-            .readTimeout(100, TimeUnit.SECONDS)
-            .writeTimeout(100, TimeUnit.SECONDS)
-            .build()
-
-        return apiForAccount(accountManager.activeAccount, longTimeOutOkHttpClient, retrofit)
+        return apiProvider.mediaUploadApi(accountManager.activeAccount)
     }
 }
@@ -19,8 +19,17 @@ import android.content.Context
 import android.content.SharedPreferences
 import androidx.preference.PreferenceManager
 import androidx.room.Room
+import androidx.room.RoomDatabase
+import androidx.sqlite.db.framework.FrameworkSQLiteOpenHelperFactory
+import com.keylesspalace.tusky.BuildConfig
 import com.keylesspalace.tusky.db.AppDatabase
+import com.keylesspalace.tusky.db.AutoVacuumOpenHelperFactory
+import com.keylesspalace.tusky.db.CacheDatabases
 import com.keylesspalace.tusky.db.Converters
+import com.keylesspalace.tusky.db.QueryTracer
+import com.keylesspalace.tusky.db.StatusBlobConverters
+import com.keylesspalace.tusky.db.TracingOpenHelperFactory
+import com.keylesspalace.tusky.settings.PrefKeys
 import dagger.Module
 import dagger.Provides
 import dagger.hilt.InstallIn
@@ -43,9 +52,44 @@ object StorageModule {
 
     @Provides
     @Singleton
-    fun providesDatabase(@ApplicationContext appContext: Context, converters: Converters): AppDatabase {
-        return Room.databaseBuilder(appContext, AppDatabase::class.java, "tuskyDB")
+    fun providesDatabase(
+        @ApplicationContext appContext: Context,
+        converters: Converters,
+        statusBlobConverters: StatusBlobConverters,
+        queryTracer: QueryTracer
+    ): AppDatabase {
+        return databaseBuilder(appContext, "tuskyDB", converters, statusBlobConverters, queryTracer).build()
+    }
+
+    @Provides
+    @Singleton
+    fun providesCacheDatabases(
+        @ApplicationContext appContext: Context,
+        db: AppDatabase,
+        converters: Converters,
+        statusBlobConverters: StatusBlobConverters,
+        queryTracer: QueryTracer,
+        preferences: SharedPreferences
+    ): CacheDatabases {
+        return CacheDatabases(
+            context = appContext,
+            mainDatabase = db,
+            perAccount = preferences.getBoolean(PrefKeys.PER_ACCOUNT_DATABASES, false)
+        ) { name ->
+            databaseBuilder(appContext, name, converters, statusBlobConverters, queryTracer)
+        }
+    }
+
+    private fun databaseBuilder(
+        appContext: Context,
+        name: String,
+        converters: Converters,
+        statusBlobConverters: StatusBlobConverters,
+        queryTracer: QueryTracer
+    ): RoomDatabase.Builder<AppDatabase> {
+        val builder = Room.databaseBuilder(appContext, AppDatabase::class.java, name)
             .addTypeConverter(converters)
+            .addTypeConverter(statusBlobConverters)
             .addMigrations(
                 AppDatabase.MIGRATION_2_3, AppDatabase.MIGRATION_3_4, AppDatabase.MIGRATION_4_5,
                 AppDatabase.MIGRATION_5_6, AppDatabase.MIGRATION_6_7, AppDatabase.MIGRATION_7_8,
@@ -64,8 +108,18 @@ object StorageModule {
                 AppDatabase.MIGRATION_41_42, AppDatabase.MIGRATION_42_43, AppDatabase.MIGRATION_43_44,
                 AppDatabase.MIGRATION_44_45, AppDatabase.MIGRATION_45_46, AppDatabase.MIGRATION_46_47,
                 AppDatabase.MIGRATION_47_48, AppDatabase.MIGRATION_52_53, AppDatabase.MIGRATION_54_56,
-                AppDatabase.MIGRATION_58_60, AppDatabase.MIGRATION_60_62
+                AppDatabase.MIGRATION_58_60, AppDatabase.MIGRATION_60_62, AppDatabase.MIGRATION_70_72,
+                AppDatabase.MIGRATION_72_74, AppDatabase.MIGRATION_74_76, AppDatabase.MIGRATION_76_78,
+                AppDatabase.MIGRATION_78_80, AppDatabase.MIGRATION_80_82, AppDatabase.MIGRATION_82_84,
+                AppDatabase.MIGRATION_84_86, AppDatabase.MIGRATION_86_88
             )
-            .build()
+        val openHelperFactory = AutoVacuumOpenHelperFactory(FrameworkSQLiteOpenHelperFactory())
+        if (BuildConfig.DEBUG) {
+            // statements are only traced once enabled in the developer tools
+            builder.openHelperFactory(TracingOpenHelperFactory(openHelperFactory, queryTracer))
+        } else {
+            builder.openHelperFactory(openHelperFactory)
+        }
+        return builder
     }
 }
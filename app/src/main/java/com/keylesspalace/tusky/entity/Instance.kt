@@ -49,7 +49,11 @@ data class Instance(
         val translation: Translation? = null,
     ) {
         @JsonClass(generateAdapter = true)
-        data class Urls(@Json(name = "streaming_api") val streamingApi: String? = null)
+        data class Urls(
+            @Json(name = "streaming_api") val streamingApi: String? = null,
+            // the name of the field in api/v2/instance
+            val streaming: String? = null
+        )
 
         @JsonClass(generateAdapter = true)
         data class Accounts(
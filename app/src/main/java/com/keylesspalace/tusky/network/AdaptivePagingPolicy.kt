@@ -0,0 +1,322 @@
+/* Copyright 2026 Tusky Contributors
+ *
+ * This file is a part of Tusky.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Tusky is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Tusky; if not,
+ * see <http://www.gnu.org/licenses>. */
+
+package com.keylesspalace.tusky.network
+
+import android.util.Log
+import androidx.paging.PagingConfig
+import javax.inject.Inject
+import javax.inject.Singleton
+import kotlin.math.ceil
+import okhttp3.Interceptor
+import okhttp3.MediaType
+import okhttp3.Response
+import okhttp3.ResponseBody
+import okio.Buffer
+import okio.BufferedSource
+import okio.ForwardingSource
+import okio.buffer
+
+/**
+ * Chooses the page size and prefetch distance of the [androidx.paging.Pager]s from how the network behaves.
+ *
+ * As an interceptor it measures the paginated requests, the ones with a limit parameter:
+ * how long the server takes to answer, how fast the body arrives, how many bytes an item takes
+ * and, from how quickly requests for older pages follow each other, how fast the user scrolls.
+ * [config] then picks the biggest page that still arrives within [TARGET_PAGE_MILLIS], within the limits of the server,
+ * and prefetches enough items to not run out of them while the next page loads at the current scroll speed.
+ * Without measurements, the defaults of the caller are used.
+ *
+ * The decisions are logged and can be looked at in the developer tools.
+ */
+@Singleton
+class AdaptivePagingPolicy(private val now: () -> Long) : Interceptor {
+
+    @Inject
+    constructor() : this(System::currentTimeMillis)
+
+    private val lock = Any()
+
+    /** the smoothed measurements, null until the first paginated request completed, guarded by [lock] */
+    private var firstByteMillis: Double? = null
+    private var bytesPerItem: Double? = null
+    private var bytesPerMilli: Double? = null
+    private var itemsPerSecond = 0.0
+    private var scrollMeasuredAt = 0L
+
+    /** when the last request for an older page of a path was sent, guarded by [lock] */
+    private val lastPageRequestedAt = HashMap<String, Long>()
+
+    private val decisions = ArrayDeque<PagingDecision>()
+
+    override fun intercept(chain: Interceptor.Chain): Response {
+        val request = chain.request()
+        val limit = request.url.queryParameter("limit")?.toIntOrNull()
+        if (request.method != "GET" || limit == null || limit <= 0) {
+            return chain.proceed(request)
+        }
+
+        val start = now()
+        if (request.url.queryParameter("max_id") != null) {
+            recordScroll(request.url.encodedPath, limit, start)
+        }
+        val response = chain.proceed(request)
+        val headersAt = now()
+        val body = response.body
+        if (!response.isSuccessful || body == null) {
+            return response
+        }
+
+        return response.newBuilder()
+            .body(
+                MeasuringResponseBody(body) { bytes, items ->
+                    record(firstByte = headersAt - start, transfer = now() - headersAt, bytes = bytes, items = items)
+                }
+            )
+            .build()
+    }
+
+    /**
+     * Returns the config for a pager named [name] (only used in the log), based on what has been measured so far.
+     * @param defaultPageSize the page size to use until something has been measured
+     * @param maxPageSize the biggest page the server returns for the endpoint
+     * @param prefetchPages how many pages to prefetch at least
+     * @param initialLoadPages how many pages to load at first, reduced to one on slow connections
+     */
+    fun config(
+        name: String,
+        defaultPageSize: Int,
+        maxPageSize: Int = MAX_PAGE_SIZE,
+        prefetchPages: Int = 1,
+        initialLoadPages: Int = DEFAULT_INITIAL_LOAD_PAGES
+    ): PagingConfig {
+        val decision = synchronized(lock) {
+            val firstByteMillis = firstByteMillis
+            val bytesPerItem = bytesPerItem
+            val bytesPerMilli = bytesPerMilli
+            if (firstByteMillis == null || bytesPerItem == null || bytesPerMilli == null) {
+                PagingDecision(
+                    name = name,
+                    pageSize = defaultPageSize,
+                    prefetchDistance = defaultPageSize * prefetchPages,
+                    initialLoadSize = defaultPageSize * initialLoadPages,
+                    firstByteMillis = null,
+                    bytesPerItem = null,
+                    bytesPerSecond = null,
+                    itemsPerSecond = null
+                )
+            } else {
+                val fittingItems = (TARGET_PAGE_MILLIS - firstByteMillis) * bytesPerMilli / bytesPerItem
+                val pageSize = fittingItems.toInt().coerceIn(MIN_PAGE_SIZE.coerceAtMost(maxPageSize), maxPageSize)
+                val pageMillis = firstByteMillis + pageSize * bytesPerItem / bytesPerMilli
+                val velocity = if (now() - scrollMeasuredAt < SCROLL_MAX_AGE_MILLIS) itemsPerSecond else 0.0
+                val scrolledWhileLoading = ceil(velocity * pageMillis / 1000 * PREFETCH_SAFETY_FACTOR).toInt()
+                val slow = pageSize < defaultPageSize
+                PagingDecision(
+                    name = name,
+                    pageSize = pageSize,
+                    prefetchDistance = scrolledWhileLoading.coerceIn(pageSize * prefetchPages, pageSize * MAX_PREFETCH_PAGES),
+                    initialLoadSize = if (slow) pageSize else pageSize * initialLoadPages,
+                    firstByteMillis = firstByteMillis.toLong(),
+                    bytesPerItem = bytesPerItem.toLong(),
+                    bytesPerSecond = (bytesPerMilli * 1000).toLong(),
+                    itemsPerSecond = velocity
+                )
+            }.also { decision ->
+                decisions.addFirst(decision)
+                if (decisions.size > MAX_DECISIONS) {
+                    decisions.removeLast()
+                }
+            }
+        }
+        Log.d(TAG, decision.toString())
+        return PagingConfig(
+            pageSize = decision.pageSize,
+            prefetchDistance = decision.prefetchDistance,
+            initialLoadSize = decision.initialLoadSize
+        )
+    }
+
+    /** The most recent decisions, newest first. */
+    fun decisions(): List<PagingDecision> = synchronized(lock) {
+        decisions.toList()
+    }
+
+    private fun recordScroll(path: String, items: Int, requestedAt: Long) {
+        synchronized(lock) {
+            val previous = lastPageRequestedAt.put(path, requestedAt) ?: return
+            val interval = requestedAt - previous
+            if (interval <= 0 || interval > SCROLL_WINDOW_MILLIS) {
+                return
+            }
+            val velocity = items * 1000.0 / interval
+            itemsPerSecond = if (requestedAt - scrollMeasuredAt < SCROLL_MAX_AGE_MILLIS) smooth(itemsPerSecond, velocity) else velocity
+            scrollMeasuredAt = requestedAt
+        }
+    }
+
+    /**
+     * Records a paginated response.
+     * @param items how many items the response contained, null if it was not a JSON array,
+     * then it only counts for the time to the first byte and the throughput
+     */
+    private fun record(firstByte: Long, transfer: Long, bytes: Long, items: Int?) {
+        synchronized(lock) {
+            firstByteMillis = smooth(firstByteMillis, firstByte.toDouble())
+            if (items != null && items > 0) {
+                bytesPerItem = smooth(bytesPerItem, bytes.toDouble() / items)
+            }
+            // small bodies arrive in one go and say nothing about the throughput
+            if (bytes >= MIN_THROUGHPUT_SAMPLE_BYTES || bytesPerMilli == null) {
+                bytesPerMilli = smooth(bytesPerMilli, bytes.toDouble() / transfer.coerceAtLeast(1))
+            }
+        }
+    }
+
+    private fun smooth(average: Double?, sample: Double): Double {
+        return if (average == null) sample else average + SMOOTHING * (sample - average)
+    }
+
+    /**
+     * Passes the body through and calls [onComplete] with its size and the number of items in it once it has been read completely.
+     * The items are counted as the body passes, see [JsonArrayCounter].
+     */
+    private class MeasuringResponseBody(
+        private val delegate: ResponseBody,
+        private val onComplete: (bytes: Long, items: Int?) -> Unit
+    ) : ResponseBody() {
+        private val source: BufferedSource by lazy {
+            object : ForwardingSource(delegate.source()) {
+                private var bytes = 0L
+                private var complete = false
+                private val counter = JsonArrayCounter()
+
+                override fun read(sink: Buffer, byteCount: Long): Long {
+                    val read = super.read(sink, byteCount)
+                    if (read == -1L) {
+                        if (!complete) {
+                            complete = true
+                            onComplete(bytes, counter.items)
+                        }
+                    } else {
+                        for (i in sink.size - read until sink.size) {
+                            counter.next(sink[i])
+                        }
+                        bytes += read
+                    }
+                    return read
+                }
+            }.buffer()
+        }
+
+        override fun contentType(): MediaType? = delegate.contentType()
+
+        override fun contentLength(): Long = delegate.contentLength()
+
+        override fun source(): BufferedSource = source
+    }
+
+    /**
+     * Counts the elements of a JSON array one byte at a time, without parsing them.
+     * Only commas directly in the array separate elements, the ones in nested objects, arrays and strings are skipped.
+     */
+    private class JsonArrayCounter {
+        private var depth = 0
+        private var inString = false
+        private var escaped = false
+        private var isArray: Boolean? = null
+        private var separators = 0
+        private var empty = true
+
+        /** The number of elements, or null if the body was not a JSON array */
+        val items: Int?
+            get() = if (isArray == true) separators + if (empty) 0 else 1 else null
+
+        fun next(byte: Byte) {
+            val char = byte.toInt().toChar()
+            if (inString) {
+                when {
+                    escaped -> escaped = false
+                    char == '\\' -> escaped = true
+                    char == '"' -> inString = false
+                }
+                return
+            }
+            if (char == ' ' || char == '\n' || char == '\r' || char == '\t') {
+                return
+            }
+            if (isArray == null) {
+                isArray = char == '['
+            } else if (depth == 1) {
+                when (char) {
+                    ',' -> separators++
+                    ']' -> {}
+                    else -> empty = false
+                }
+            }
+            when (char) {
+                '"' -> inString = true
+                '[', '{' -> depth++
+                ']', '}' -> depth--
+            }
+        }
+    }
+
+    companion object {
+        private const val TAG = "AdaptivePagingPolicy"
+
+        /** the biggest page most Mastodon endpoints return */
+        const val MAX_PAGE_SIZE = 40
+
+        /** the smallest page that is worth a request */
+        const val MIN_PAGE_SIZE = 10
+
+        /** how long loading a page may take */
+        const val TARGET_PAGE_MILLIS = 1_000
+
+        /** the initial load of [PagingConfig] by default */
+        private const val DEFAULT_INITIAL_LOAD_PAGES = 3
+
+        /** how many times the items that are scrolled past while a page loads are prefetched */
+        private const val PREFETCH_SAFETY_FACTOR = 2
+
+        private const val MAX_PREFETCH_PAGES = 3
+
+        /** requests for older pages further apart than this are not counted as scrolling */
+        private const val SCROLL_WINDOW_MILLIS = 20_000L
+
+        /** how long a measured scroll speed is used */
+        private const val SCROLL_MAX_AGE_MILLIS = 120_000L
+
+        private const val MIN_THROUGHPUT_SAMPLE_BYTES = 8 * 1024
+
+        /** the weight of a new measurement */
+        private const val SMOOTHING = 0.3
+
+        private const val MAX_DECISIONS = 20
+    }
+}
+
+/** A config [AdaptivePagingPolicy] chose and the measurements it was based on, which are null if there were none yet. */
+data class PagingDecision(
+    val name: String,
+    val pageSize: Int,
+    val prefetchDistance: Int,
+    val initialLoadSize: Int,
+    val firstByteMillis: Long?,
+    val bytesPerItem: Long?,
+    val bytesPerSecond: Long?,
+    val itemsPerSecond: Double?
+)
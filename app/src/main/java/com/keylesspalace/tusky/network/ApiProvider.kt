@@ -0,0 +1,94 @@
+/* Copyright 2026 Tusky Contributors
+ *
+ * This file is a part of Tusky.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Tusky is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Tusky; if not,
+ * see <http://www.gnu.org/licenses>. */
+
+package com.keylesspalace.tusky.network
+
+import com.keylesspalace.tusky.db.AccountManager
+import com.keylesspalace.tusky.db.entity.AccountEntity
+import com.keylesspalace.tusky.di.ApplicationScope
+import java.util.concurrent.TimeUnit
+import javax.inject.Inject
+import javax.inject.Singleton
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.launch
+import okhttp3.OkHttpClient
+import retrofit2.Retrofit
+
+/**
+ * Hands out one instance of every Api per account instead of creating a new one for every injection.
+ *
+ * Creating an Api with [apiForAccount] builds a new Retrofit instance, a new proxy and
+ * parses the annotations of every method that is called on it again.
+ * The instances are keyed on the id, domain and access token of the account, so an account that logged in again gets a new instance,
+ * and they are dropped as soon as their account is removed or its access token changes.
+ */
+@Singleton
+class ApiProvider @Inject constructor(
+    private val httpClient: OkHttpClient,
+    private val retrofit: Retrofit,
+    accountManager: AccountManager,
+    @ApplicationScope externalScope: CoroutineScope
+) {
+
+    private val mediaUploadHttpClient: OkHttpClient by lazy {
+        httpClient.newBuilder()
+            .readTimeout(100, TimeUnit.SECONDS)
+            .writeTimeout(100, TimeUnit.SECONDS)
+            .build()
+    }
+
+    private val mastodonApis = ApiCache<MastodonApi> { account -> apiForAccount(account, httpClient, retrofit) }
+    private val mediaUploadApis = ApiCache<MediaUploadApi> { account -> apiForAccount(account, mediaUploadHttpClient, retrofit) }
+
+    init {
+        externalScope.launch {
+            accountManager.accountsFlow.collect { accounts ->
+                val keys = accounts.mapTo(HashSet(), ::ApiKey)
+                mastodonApis.retainAll(keys)
+                mediaUploadApis.retainAll(keys)
+            }
+        }
+    }
+
+    /** @return the [MastodonApi] that makes requests as [account] */
+    fun mastodonApi(account: AccountEntity?): MastodonApi = mastodonApis[account]
+
+    /** @return the [MediaUploadApi] that makes requests as [account], with longer timeouts for big uploads */
+    fun mediaUploadApi(account: AccountEntity?): MediaUploadApi = mediaUploadApis[account]
+
+    private class ApiCache<T : Any>(private val create: (AccountEntity?) -> T) {
+        private val apis = HashMap<ApiKey, T>()
+
+        @Synchronized
+        operator fun get(account: AccountEntity?): T {
+            val key = ApiKey(account)
+            apis[key]?.let { api -> return api }
+            // the account logged in again, the instance with the old token must not be used anymore
+            apis.keys.removeAll { cachedKey -> cachedKey.accountId == key.accountId }
+            return create(account).also { api -> apis[key] = api }
+        }
+
+        /** Drops the instances of accounts that were removed or whose access token changed. */
+        @Synchronized
+        fun retainAll(keys: Set<ApiKey>) {
+            apis.keys.retainAll { key -> key.accountId == null || key in keys }
+        }
+    }
+
+    /** What an Api instance depends on, null for the instance used while no account is logged in. */
+    private data class ApiKey(val accountId: Long?, val domain: String?, val accessToken: String?) {
+        constructor(account: AccountEntity?) : this(account?.id, account?.domain, account?.accessToken)
+    }
+}
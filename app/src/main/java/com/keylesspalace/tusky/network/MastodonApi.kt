@@ -53,6 +53,7 @@ import com.keylesspalace.tusky.entity.Translation
 import com.keylesspalace.tusky.entity.TrendingTag
 import okhttp3.MultipartBody
 import okhttp3.RequestBody
+import okhttp3.ResponseBody
 import retrofit2.Response
 import retrofit2.http.Body
 import retrofit2.http.DELETE
@@ -70,6 +71,7 @@ import retrofit2.http.Part
 import retrofit2.http.PartMap
 import retrofit2.http.Path
 import retrofit2.http.Query
+import retrofit2.http.Streaming
 
 /**
  * for documentation of the Mastodon REST API see https://docs.joinmastodon.org/api/
@@ -115,6 +117,16 @@ interface MastodonApi {
         @Query("limit") limit: Int? = null
     ): Response<List<Status>>
 
+    /** Like [homeTimeline], but leaves the statuses unparsed so they can be read one at a time, see [com.keylesspalace.tusky.db.CacheIngester]. */
+    @Streaming
+    @GET("api/v1/timelines/home")
+    suspend fun homeTimelineBody(
+        @Query("max_id") maxId: String? = null,
+        @Query("min_id") minId: String? = null,
+        @Query("since_id") sinceId: String? = null,
+        @Query("limit") limit: Int? = null
+    ): Response<ResponseBody>
+
     @GET("api/v1/timelines/public")
     suspend fun publicTimeline(
         @Query("local") local: Boolean? = null,
@@ -530,6 +542,7 @@ interface MastodonApi {
     @GET("/api/v1/conversations")
     suspend fun getConversations(
         @Query("max_id") maxId: String? = null,
+        @Query("since_id") sinceId: String? = null,
         @Query("limit") limit: Int? = null
     ): Response<List<Conversation>>
 
@@ -0,0 +1,340 @@
+/* Copyright 2026 Tusky Contributors
+ *
+ * This file is a part of Tusky.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Tusky is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Tusky; if not,
+ * see <http://www.gnu.org/licenses>. */
+
+package com.keylesspalace.tusky.network
+
+import com.squareup.moshi.JsonClass
+import java.io.IOException
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.net.Proxy
+import javax.inject.Inject
+import javax.inject.Singleton
+import okhttp3.Call
+import okhttp3.EventListener
+import okhttp3.Handshake
+import okhttp3.Protocol
+import okhttp3.Request
+import okhttp3.Response
+
+/**
+ * Collects how long the requests of the app take and how many bytes they transfer, per instance and endpoint,
+ * so slow screens can be matched with slow instances or endpoints in the developer tools.
+ *
+ * Every call gets its own [EventListener] that records when DNS lookup, connecting, the TLS handshake,
+ * the first byte of the response and the whole call finished, and whether the response came from the HTTP cache,
+ * or from one of the interceptors without asking the server at all.
+ * Paths are turned into endpoint templates like /api/v1/statuses/{id}/favourite first, see [endpointOf].
+ */
+@Singleton
+class NetworkMetrics(private val nanoTime: () -> Long) : EventListener.Factory {
+
+    @Inject
+    constructor() : this(System::nanoTime)
+
+    private val endpoints = HashMap<Pair<String, String>, MutableEndpointMetrics>()
+
+    override fun create(call: Call): EventListener = CallListener()
+
+    /** Returns a snapshot of the metrics of all endpoints that were called, slowest in total first. */
+    fun stats(): List<EndpointMetrics> = synchronized(endpoints) {
+        endpoints.map { (key, metrics) -> metrics.toMetrics(instance = key.first, endpoint = key.second) }
+    }.sortedByDescending { metrics -> metrics.totalMillis }
+
+    /** Returns the metrics of all endpoints of each instance added up, slowest in total first. */
+    fun instanceStats(): List<InstanceMetrics> = stats()
+        .groupBy { metrics -> metrics.instance }
+        .map { (instance, endpointMetrics) ->
+            InstanceMetrics(
+                instance = instance,
+                calls = endpointMetrics.sumOf { metrics -> metrics.calls },
+                failures = endpointMetrics.sumOf { metrics -> metrics.failures },
+                totalMillis = endpointMetrics.sumOf { metrics -> metrics.totalMillis },
+                bytesSent = endpointMetrics.sumOf { metrics -> metrics.bytesSent },
+                bytesReceived = endpointMetrics.sumOf { metrics -> metrics.bytesReceived },
+                firstByteHistogram = endpointMetrics.map { metrics -> metrics.firstByteHistogram }.reduce(::addHistograms),
+                totalHistogram = endpointMetrics.map { metrics -> metrics.totalHistogram }.reduce(::addHistograms)
+            )
+        }
+        .sortedByDescending { metrics -> metrics.totalMillis }
+
+    fun reset() = synchronized(endpoints) {
+        endpoints.clear()
+    }
+
+    private fun record(request: Request, call: CallListener) {
+        val key = request.url.host to endpointOf(request.url.encodedPath)
+        synchronized(endpoints) {
+            endpoints.getOrPut(key) { MutableEndpointMetrics() }.add(call)
+        }
+    }
+
+    /** Follows a single call, OkHttp calls its methods one after the other. */
+    private inner class CallListener : EventListener() {
+        var start = 0L
+        var dnsStart = 0L
+        var dnsNanos = 0L
+        var connectStart = 0L
+        var connectNanos = 0L
+        var tlsStart = 0L
+        var tlsNanos = 0L
+        var connections = 0
+        var requestSent = false
+        var firstByteNanos: Long? = null
+        var totalNanos = 0L
+        var bytesSent = 0L
+        var bytesReceived = 0L
+        var cacheStatus = CacheStatus.NETWORK
+        var failed = false
+
+        override fun callStart(call: Call) {
+            start = nanoTime()
+        }
+
+        override fun dnsStart(call: Call, domainName: String) {
+            dnsStart = nanoTime()
+        }
+
+        override fun dnsEnd(call: Call, domainName: String, inetAddressList: List<InetAddress>) {
+            dnsNanos += nanoTime() - dnsStart
+        }
+
+        override fun connectStart(call: Call, inetSocketAddress: InetSocketAddress, proxy: Proxy) {
+            connectStart = nanoTime()
+            connections++
+        }
+
+        override fun secureConnectStart(call: Call) {
+            tlsStart = nanoTime()
+        }
+
+        override fun secureConnectEnd(call: Call, handshake: Handshake?) {
+            tlsNanos += nanoTime() - tlsStart
+        }
+
+        override fun connectEnd(call: Call, inetSocketAddress: InetSocketAddress, proxy: Proxy, protocol: Protocol?) {
+            connectNanos += nanoTime() - connectStart
+        }
+
+        override fun connectFailed(call: Call, inetSocketAddress: InetSocketAddress, proxy: Proxy, protocol: Protocol?, ioe: IOException) {
+            connectNanos += nanoTime() - connectStart
+        }
+
+        override fun requestHeadersEnd(call: Call, request: Request) {
+            requestSent = true
+            bytesSent += request.headers.byteCount()
+        }
+
+        override fun requestBodyEnd(call: Call, byteCount: Long) {
+            bytesSent += byteCount
+        }
+
+        override fun responseHeadersStart(call: Call) {
+            // redirects and retries send more than one request, the first response is the one that was waited for
+            if (firstByteNanos == null) {
+                firstByteNanos = nanoTime() - start
+            }
+        }
+
+        override fun responseHeadersEnd(call: Call, response: Response) {
+            bytesReceived += response.headers.byteCount()
+        }
+
+        override fun responseBodyEnd(call: Call, byteCount: Long) {
+            bytesReceived += byteCount
+        }
+
+        override fun cacheHit(call: Call, response: Response) {
+            cacheStatus = CacheStatus.HIT
+        }
+
+        override fun cacheConditionalHit(call: Call, cachedResponse: Response) {
+            cacheStatus = CacheStatus.CONDITIONAL_HIT
+        }
+
+        override fun callEnd(call: Call) {
+            end(call)
+        }
+
+        override fun callFailed(call: Call, ioe: IOException) {
+            failed = true
+            end(call)
+        }
+
+        private fun end(call: Call) {
+            totalNanos = nanoTime() - start
+            if (!requestSent && cacheStatus == CacheStatus.NETWORK && !failed) {
+                cacheStatus = CacheStatus.LOCAL
+            }
+            record(call.request(), this)
+        }
+    }
+
+    private class MutableEndpointMetrics {
+        var calls = 0
+        var failures = 0
+        var cacheHits = 0
+        var conditionalCacheHits = 0
+        var localResponses = 0
+        var connections = 0
+        var dnsNanos = 0L
+        var connectNanos = 0L
+        var tlsNanos = 0L
+        var firstByteNanos = 0L
+        var totalNanos = 0L
+        var maxNanos = 0L
+        var bytesSent = 0L
+        var bytesReceived = 0L
+        val firstByteHistogram = IntArray(LATENCY_BUCKETS_MILLIS.size + 1)
+        val totalHistogram = IntArray(LATENCY_BUCKETS_MILLIS.size + 1)
+
+        fun add(call: CallListener) {
+            calls++
+            if (call.failed) {
+                failures++
+            }
+            when (call.cacheStatus) {
+                CacheStatus.HIT -> cacheHits++
+                CacheStatus.CONDITIONAL_HIT -> conditionalCacheHits++
+                CacheStatus.LOCAL -> localResponses++
+                CacheStatus.NETWORK -> {}
+            }
+            connections += call.connections
+            dnsNanos += call.dnsNanos
+            connectNanos += call.connectNanos
+            tlsNanos += call.tlsNanos
+            call.firstByteNanos?.let { nanos ->
+                firstByteNanos += nanos
+                firstByteHistogram[bucketOf(nanos)]++
+            }
+            totalNanos += call.totalNanos
+            maxNanos = maxOf(maxNanos, call.totalNanos)
+            totalHistogram[bucketOf(call.totalNanos)]++
+            bytesSent += call.bytesSent
+            bytesReceived += call.bytesReceived
+        }
+
+        fun toMetrics(instance: String, endpoint: String) = EndpointMetrics(
+            instance = instance,
+            endpoint = endpoint,
+            calls = calls,
+            failures = failures,
+            cacheHits = cacheHits,
+            conditionalCacheHits = conditionalCacheHits,
+            localResponses = localResponses,
+            connections = connections,
+            dnsMillis = dnsNanos / NANOS_PER_MILLI,
+            connectMillis = connectNanos / NANOS_PER_MILLI,
+            tlsMillis = tlsNanos / NANOS_PER_MILLI,
+            firstByteMillis = firstByteNanos / NANOS_PER_MILLI,
+            totalMillis = totalNanos / NANOS_PER_MILLI,
+            maxMillis = maxNanos / NANOS_PER_MILLI,
+            bytesSent = bytesSent,
+            bytesReceived = bytesReceived,
+            firstByteHistogram = firstByteHistogram.toList(),
+            totalHistogram = totalHistogram.toList()
+        )
+    }
+
+    private enum class CacheStatus {
+        /** the response came from the server */
+        NETWORK,
+
+        /** the response came from the HTTP cache without asking the server */
+        HIT,
+
+        /** the server confirmed that the response in the HTTP cache is still valid */
+        CONDITIONAL_HIT,
+
+        /** an interceptor answered without sending a request, e.g. with a stored or shared response */
+        LOCAL
+    }
+
+    companion object {
+        private const val NANOS_PER_MILLI = 1_000_000L
+
+        /** The upper bounds of the buckets of the histograms, the last bucket holds everything slower. */
+        val LATENCY_BUCKETS_MILLIS = listOf(50L, 100L, 250L, 500L, 1_000L, 2_500L, 5_000L)
+
+        private val API_VERSION = Regex("""v\d+""")
+
+        /** The segments that are followed by the name of a hashtag instead of an id */
+        private val TAG_SEGMENTS = setOf("tag", "tags")
+
+        /**
+         * Turns a path into the template of its endpoint, so e.g. the statuses of all accounts share an entry:
+         * segments with digits become {id}, and hashtags {tag}.
+         */
+        internal fun endpointOf(encodedPath: String): String {
+            val segments = encodedPath.split('/')
+            return segments.mapIndexed { index, segment ->
+                when {
+                    index > 0 && segments[index - 1] in TAG_SEGMENTS && segment.isNotEmpty() -> "{tag}"
+                    segment.any(Char::isDigit) && !segment.matches(API_VERSION) -> "{id}"
+                    else -> segment
+                }
+            }.joinToString("/")
+        }
+
+        private fun bucketOf(nanos: Long): Int {
+            val bucket = LATENCY_BUCKETS_MILLIS.indexOfFirst { bound -> nanos < bound * NANOS_PER_MILLI }
+            return if (bucket == -1) LATENCY_BUCKETS_MILLIS.size else bucket
+        }
+
+        private fun addHistograms(a: List<Int>, b: List<Int>) = a.zip(b, Int::plus)
+    }
+}
+
+/**
+ * Metrics of one endpoint of an instance recorded by [NetworkMetrics], all durations are added up over its calls.
+ * @param localResponses how many calls an interceptor answered without sending a request
+ * @param connections how many new connections were made, the calls without one reused a connection
+ * @param firstByteHistogram how many calls received the first byte of their response within each of [NetworkMetrics.LATENCY_BUCKETS_MILLIS]
+ * @param totalHistogram how many calls took how long in total, in the same buckets
+ */
+@JsonClass(generateAdapter = true)
+data class EndpointMetrics(
+    val instance: String,
+    val endpoint: String,
+    val calls: Int,
+    val failures: Int,
+    val cacheHits: Int,
+    val conditionalCacheHits: Int,
+    val localResponses: Int,
+    val connections: Int,
+    val dnsMillis: Long,
+    val connectMillis: Long,
+    val tlsMillis: Long,
+    val firstByteMillis: Long,
+    val totalMillis: Long,
+    val maxMillis: Long,
+    val bytesSent: Long,
+    val bytesReceived: Long,
+    val firstByteHistogram: List<Int>,
+    val totalHistogram: List<Int>
+)
+
+/** The [EndpointMetrics] of all endpoints of an instance added up. */
+@JsonClass(generateAdapter = true)
+data class InstanceMetrics(
+    val instance: String,
+    val calls: Int,
+    val failures: Int,
+    val totalMillis: Long,
+    val bytesSent: Long,
+    val bytesReceived: Long,
+    val firstByteHistogram: List<Int>,
+    val totalHistogram: List<Int>
+)
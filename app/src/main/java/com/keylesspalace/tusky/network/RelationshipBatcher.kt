@@ -0,0 +1,201 @@
+/* Copyright 2026 Tusky Contributors
+ *
+ * This file is a part of Tusky.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Tusky is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Tusky; if not,
+ * see <http://www.gnu.org/licenses>. */
+
+package com.keylesspalace.tusky.network
+
+import at.connyduck.calladapter.networkresult.NetworkResult
+import at.connyduck.calladapter.networkresult.fold
+import com.keylesspalace.tusky.appstore.BlockEvent
+import com.keylesspalace.tusky.appstore.EventHub
+import com.keylesspalace.tusky.appstore.FollowEvent
+import com.keylesspalace.tusky.appstore.MuteEvent
+import com.keylesspalace.tusky.appstore.UnfollowEvent
+import com.keylesspalace.tusky.db.AccountManager
+import com.keylesspalace.tusky.db.entity.AccountEntity
+import com.keylesspalace.tusky.di.ApplicationScope
+import com.keylesspalace.tusky.entity.Relationship
+import javax.inject.Inject
+import javax.inject.Singleton
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+
+/**
+ * Loads the relationships of the active account to other accounts.
+ *
+ * Ids that are asked for within [BATCH_WINDOW_MILLIS] of each other are loaded with a single call to accounts/relationships,
+ * split into requests of at most [MAX_IDS_PER_REQUEST] ids, and an id that is already being loaded is not requested again.
+ * Loaded relationships are kept for [CACHE_MILLIS], unless a [FollowEvent], [UnfollowEvent], [BlockEvent] or [MuteEvent]
+ * says that the relationship has changed.
+ */
+@Singleton
+class RelationshipBatcher(
+    private val apiProvider: ApiProvider,
+    private val accountManager: AccountManager,
+    eventHub: EventHub,
+    private val externalScope: CoroutineScope,
+    private val now: () -> Long
+) {
+
+    @Inject
+    constructor(
+        apiProvider: ApiProvider,
+        accountManager: AccountManager,
+        eventHub: EventHub,
+        @ApplicationScope externalScope: CoroutineScope
+    ) : this(apiProvider, accountManager, eventHub, externalScope, System::currentTimeMillis)
+
+    private val lock = Any()
+
+    /** loaded relationships, guarded by [lock] */
+    private val cache = HashMap<Key, CachedRelationship>()
+
+    /** ids waiting for the batch window of their account to close, guarded by [lock] */
+    private val pending = HashMap<Long, LinkedHashMap<String, CompletableDeferred<Relationship?>>>()
+
+    /** ids that have been requested from the server but not answered yet, guarded by [lock] */
+    private val inFlight = HashMap<Key, CompletableDeferred<Relationship?>>()
+
+    init {
+        externalScope.launch {
+            eventHub.events.collect { event ->
+                when (event) {
+                    is FollowEvent -> invalidate(event.accountId)
+                    is UnfollowEvent -> invalidate(event.accountId)
+                    is BlockEvent -> invalidate(event.accountId)
+                    is MuteEvent -> invalidate(event.accountId)
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the relationships of the active account to [accountIds], in the same order.
+     * Accounts the server returns no relationship for are left out.
+     * @param refresh true to ignore relationships that have been loaded before
+     */
+    suspend fun relationships(accountIds: List<String>, refresh: Boolean = false): NetworkResult<List<Relationship>> {
+        val account = accountManager.activeAccount
+            ?: return NetworkResult.failure(IllegalStateException("no active account"))
+
+        val requests = synchronized(lock) {
+            val time = now()
+            accountIds.distinct().map { accountId ->
+                val key = Key(account.id, accountId)
+                val cached = cache[key]?.takeIf { cached -> !refresh && time - cached.loadedAt < CACHE_MILLIS }
+                when {
+                    cached != null -> CompletableDeferred(cached.relationship)
+                    !refresh && inFlight[key] != null -> inFlight.getValue(key)
+                    else -> enqueue(account, accountId)
+                }
+            }
+        }
+
+        return try {
+            NetworkResult.success(requests.mapNotNull { request -> request.await() })
+        } catch (e: CancellationException) {
+            throw e
+        } catch (e: Exception) {
+            NetworkResult.failure(e)
+        }
+    }
+
+    /** Stores a relationship the server returned, e.g. after following or muting an account. */
+    fun update(relationship: Relationship) {
+        val account = accountManager.activeAccount ?: return
+        synchronized(lock) {
+            cache[Key(account.id, relationship.id)] = CachedRelationship(relationship, now())
+        }
+    }
+
+    /** Forgets the relationship to [accountId], so it is loaded again the next time it is asked for. */
+    fun invalidate(accountId: String) {
+        synchronized(lock) {
+            cache.keys.removeAll { key -> key.accountId == accountId }
+            // a response that is on its way may have been produced before the change
+            inFlight.keys.removeAll { key -> key.accountId == accountId }
+        }
+    }
+
+    /** Must be called with [lock] held. */
+    private fun enqueue(account: AccountEntity, accountId: String): CompletableDeferred<Relationship?> {
+        val batch = pending.getOrPut(account.id) {
+            externalScope.launch {
+                delay(BATCH_WINDOW_MILLIS)
+                flush(account)
+            }
+            LinkedHashMap()
+        }
+        return batch.getOrPut(accountId) { CompletableDeferred() }
+    }
+
+    private suspend fun flush(account: AccountEntity) {
+        val batch = synchronized(lock) {
+            pending.remove(account.id)?.also { batch ->
+                batch.forEach { (accountId, request) -> inFlight[Key(account.id, accountId)] = request }
+            }
+        } ?: return
+
+        val api = apiProvider.mastodonApi(account)
+        coroutineScope {
+            for (chunk in batch.entries.chunked(MAX_IDS_PER_REQUEST)) {
+                launch {
+                    val result = api.relationships(chunk.map { (accountId, _) -> accountId })
+                    synchronized(lock) {
+                        val time = now()
+                        cache.values.removeAll { cached -> time - cached.loadedAt >= CACHE_MILLIS }
+                        result.fold({ relationships ->
+                            val relationshipsById = relationships.associateBy { relationship -> relationship.id }
+                            for ((accountId, request) in chunk) {
+                                val key = Key(account.id, accountId)
+                                val relationship = relationshipsById[accountId]
+                                if (inFlight[key] === request) {
+                                    inFlight.remove(key)
+                                    if (relationship != null) {
+                                        cache[key] = CachedRelationship(relationship, time)
+                                    }
+                                }
+                                request.complete(relationship)
+                            }
+                        }, { e ->
+                            for ((accountId, request) in chunk) {
+                                inFlight.remove(Key(account.id, accountId), request)
+                                request.completeExceptionally(e)
+                            }
+                        })
+                    }
+                }
+            }
+        }
+    }
+
+    private data class Key(val tuskyAccountId: Long, val accountId: String)
+
+    private class CachedRelationship(val relationship: Relationship, val loadedAt: Long)
+
+    companion object {
+        /** how long ids are collected before they are requested */
+        const val BATCH_WINDOW_MILLIS = 50L
+
+        /** the most ids Mastodon answers accounts/relationships for, more are silently ignored */
+        const val MAX_IDS_PER_REQUEST = 40
+
+        /** how long a relationship is used without asking the server again */
+        const val CACHE_MILLIS = 30_000L
+    }
+}
@@ -0,0 +1,254 @@
+/* Copyright 2026 Tusky Contributors
+ *
+ * This file is a part of Tusky.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Tusky is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Tusky; if not,
+ * see <http://www.gnu.org/licenses>. */
+
+package com.keylesspalace.tusky.network
+
+import android.content.Context
+import android.util.Log
+import dagger.hilt.android.qualifiers.ApplicationContext
+import java.io.File
+import java.io.IOException
+import java.net.HttpURLConnection
+import java.util.concurrent.TimeUnit
+import javax.inject.Inject
+import javax.inject.Singleton
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import okhttp3.Headers
+import okhttp3.Interceptor
+import okhttp3.MediaType.Companion.toMediaTypeOrNull
+import okhttp3.Protocol
+import okhttp3.Request
+import okhttp3.Response
+import okhttp3.ResponseBody.Companion.toResponseBody
+import okio.ByteString.Companion.encodeUtf8
+import okio.buffer
+import okio.sink
+import okio.source
+
+/**
+ * Keeps the responses of endpoints that rarely change, like the custom emojis or the filters, on disk
+ * and only transfers them again when they have changed.
+ *
+ * A response that is younger than the max age of its endpoint is returned without asking the server at all.
+ * An older one is revalidated with If-None-Match and If-Modified-Since if the server sent an ETag or Last-Modified with it,
+ * and returned again when the server answers that it is not modified.
+ * The HTTP cache of OkHttp can't do this for the Mastodon API, because its responses are marked as not cacheable.
+ *
+ * Responses are stored per url and Authorization header, so accounts never see the responses of other accounts.
+ * The responses of an account are kept in a directory of their own, which is deleted when the account logs out.
+ */
+@Singleton
+class RevalidationInterceptor(
+    private val directory: File,
+    private val maxAges: Map<String, Long> = MAX_AGES,
+    private val now: () -> Long = System::currentTimeMillis
+) : Interceptor {
+
+    @Inject
+    constructor(@ApplicationContext context: Context) : this(File(context.cacheDir, DIRECTORY_NAME))
+
+    private val stats = HashMap<String, MutableRevalidationStats>()
+
+    override fun intercept(chain: Interceptor.Chain): Response {
+        val request = chain.request()
+        val path = request.url.encodedPath
+        val maxAge = maxAges[path]
+        if (request.method != "GET" || maxAge == null) {
+            return chain.proceed(request)
+        }
+
+        val file = file(request)
+        val cached = read(file)
+
+        if (cached != null && now() - cached.fetchedAt < maxAge && !request.cacheControl.noCache) {
+            record(path) { hits++; bytesSaved += cached.body.size }
+            return cached.toResponse(request, Protocol.HTTP_1_1)
+        }
+
+        val conditionalRequest = request.newBuilder().apply {
+            cached?.headers?.get("ETag")?.let { etag -> header("If-None-Match", etag) }
+            cached?.headers?.get("Last-Modified")?.let { lastModified -> header("If-Modified-Since", lastModified) }
+        }.build()
+        val response = chain.proceed(conditionalRequest)
+
+        if (response.code == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+            response.close()
+            write(file, cached.copy(fetchedAt = now()))
+            record(path) { notModified++; bytesSaved += cached.body.size }
+            return cached.toResponse(request, response.protocol)
+        }
+        if (!response.isSuccessful) {
+            return response
+        }
+
+        val contentType = response.body?.contentType()
+        val body = response.body?.bytes() ?: ByteArray(0)
+        write(file, CachedResponse(fetchedAt = now(), headers = response.headers, body = body))
+        record(path) { misses++ }
+        return response.newBuilder()
+            .body(body.toResponseBody(contentType))
+            .build()
+    }
+
+    /** Returns a snapshot of how often the stored responses of the endpoints were used, most bytes saved first. */
+    fun stats(): List<RevalidationStats> = synchronized(stats) {
+        stats.map { (path, endpointStats) -> endpointStats.toStats(path) }
+    }.sortedByDescending { endpointStats -> endpointStats.bytesSaved }
+
+    fun resetStats() = synchronized(stats) {
+        stats.clear()
+    }
+
+    private fun record(path: String, update: MutableRevalidationStats.() -> Unit) {
+        synchronized(stats) {
+            stats.getOrPut(path) { MutableRevalidationStats() }.update()
+        }
+    }
+
+    /** Deletes the stored responses of the account with [accessToken], e.g. when it logs out. */
+    suspend fun removeStoredResponses(accessToken: String) {
+        withContext(Dispatchers.IO) {
+            accountDirectory("Bearer $accessToken").deleteRecursively()
+        }
+    }
+
+    private fun file(request: Request): File {
+        return File(accountDirectory(request.header("Authorization").orEmpty()), request.url.toString().encodeUtf8().sha256().hex())
+    }
+
+    /** The directory the responses to requests with the Authorization header [authorization] are stored in */
+    private fun accountDirectory(authorization: String): File = File(directory, authorization.encodeUtf8().sha256().hex())
+
+    private fun read(file: File): CachedResponse? {
+        if (!file.exists()) {
+            return null
+        }
+        return try {
+            file.source().buffer().use { source ->
+                val fetchedAt = source.readUtf8LineStrict().toLong()
+                val headerCount = source.readUtf8LineStrict().toInt()
+                val headers = Headers.Builder()
+                repeat(headerCount) {
+                    headers.addUnsafeNonAscii(source.readUtf8LineStrict(), source.readUtf8LineStrict())
+                }
+                CachedResponse(fetchedAt, headers.build(), source.readByteArray())
+            }
+        } catch (e: Exception) {
+            Log.w(TAG, "Ignoring unreadable stored response ${file.name}", e)
+            file.delete()
+            null
+        }
+    }
+
+    /** Writes into a temporary file that replaces the old one when complete, so a concurrent read never sees half a response. */
+    private fun write(file: File, response: CachedResponse) {
+        try {
+            val accountDirectory = file.parentFile!!
+            accountDirectory.mkdirs()
+            val temporaryFile = File.createTempFile(file.name, null, accountDirectory)
+            temporaryFile.sink().buffer().use { sink ->
+                sink.writeUtf8(response.fetchedAt.toString()).writeByte('\n'.code)
+                sink.writeUtf8(response.headers.size.toString()).writeByte('\n'.code)
+                for ((name, value) in response.headers) {
+                    sink.writeUtf8(name).writeByte('\n'.code)
+                    sink.writeUtf8(value).writeByte('\n'.code)
+                }
+                sink.write(response.body)
+            }
+            if (!temporaryFile.renameTo(file)) {
+                temporaryFile.delete()
+            }
+            trim()
+        } catch (e: IOException) {
+            Log.w(TAG, "Failed to store response ${file.name}", e)
+        }
+    }
+
+    /** Deletes the least recently stored responses of all accounts when there are too many. */
+    private fun trim() {
+        val files = directory.walk().filter(File::isFile).toList()
+        if (files.size > MAX_STORED_RESPONSES) {
+            files.sortedBy(File::lastModified)
+                .take(files.size - MAX_STORED_RESPONSES)
+                .forEach(File::delete)
+        }
+    }
+
+    private data class CachedResponse(
+        val fetchedAt: Long,
+        val headers: Headers,
+        val body: ByteArray
+    ) {
+        fun toResponse(request: Request, protocol: Protocol): Response = Response.Builder()
+            .request(request)
+            .protocol(protocol)
+            .code(HttpURLConnection.HTTP_OK)
+            .message("OK")
+            .headers(headers)
+            .body(body.toResponseBody(headers["Content-Type"]?.toMediaTypeOrNull()))
+            .sentRequestAtMillis(fetchedAt)
+            .receivedResponseAtMillis(fetchedAt)
+            .build()
+    }
+
+    private class MutableRevalidationStats {
+        var hits = 0
+        var notModified = 0
+        var misses = 0
+        var bytesSaved = 0L
+
+        fun toStats(path: String) = RevalidationStats(path, hits, notModified, misses, bytesSaved)
+    }
+
+    companion object {
+        private const val TAG = "RevalidationInterceptor"
+
+        private const val DIRECTORY_NAME = "revalidation"
+
+        private const val MAX_STORED_RESPONSES = 100
+
+        /**
+         * The endpoints whose responses are stored and for how long they are used without revalidating them, in milliseconds.
+         * Filters, lists, followed tags and announcements can be changed by Tusky itself or by a reaction,
+         * so they are always revalidated.
+         */
+        val MAX_AGES = mapOf(
+            "/api/v1/custom_emojis" to TimeUnit.HOURS.toMillis(1),
+            "/api/v1/instance" to TimeUnit.HOURS.toMillis(1),
+            "/api/v2/instance" to TimeUnit.HOURS.toMillis(1),
+            "/api/v1/filters" to 0L,
+            "/api/v2/filters" to 0L,
+            "/api/v1/lists" to 0L,
+            "/api/v1/followed_tags" to 0L,
+            "/api/v1/announcements" to 0L
+        )
+    }
+}
+
+/**
+ * How often the stored responses of an endpoint were used.
+ * @param hits responses that were returned without asking the server
+ * @param notModified responses that were returned after the server answered that they did not change
+ * @param misses responses that had to be transferred, because none was stored or it had changed
+ * @param bytesSaved the size of the bodies that did not have to be transferred, before compression
+ */
+data class RevalidationStats(
+    val path: String,
+    val hits: Int,
+    val notModified: Int,
+    val misses: Int,
+    val bytesSaved: Long
+)
@@ -0,0 +1,130 @@
+/* Copyright 2026 Tusky Contributors
+ *
+ * This file is a part of Tusky.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Tusky is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Tusky; if not,
+ * see <http://www.gnu.org/licenses>. */
+
+package com.keylesspalace.tusky.network
+
+import android.util.Log
+import java.io.IOException
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import javax.inject.Inject
+import javax.inject.Singleton
+import okhttp3.Interceptor
+import okhttp3.MediaType
+import okhttp3.Response
+import okhttp3.ResponseBody.Companion.toResponseBody
+
+/**
+ * Lets concurrent identical GET requests to endpoints that don't have side effects share one network call.
+ *
+ * At startup every timeline, notification and thread view model loads the filters, and the instance info and custom emojis
+ * are requested from several places at the same moment. The first of the identical requests goes to the server,
+ * the others wait for its response and get a copy of it instead of making the same request again.
+ * Requests are identical when they have the same url and Authorization header, so accounts never share responses.
+ *
+ * Only successful responses are shared. When the first request fails, e.g. because its caller cancelled it,
+ * the waiting requests are made on their own as if there was no first request.
+ */
+@Singleton
+class SingleFlightInterceptor(
+    private val paths: Set<String>
+) : Interceptor {
+
+    @Inject
+    constructor() : this(COALESCED_PATHS)
+
+    private val inFlight = HashMap<String, Flight>()
+
+    override fun intercept(chain: Interceptor.Chain): Response {
+        val request = chain.request()
+        if (request.method != "GET" || request.url.encodedPath !in paths) {
+            return chain.proceed(request)
+        }
+
+        val key = "${request.url} ${request.header("Authorization")}"
+        val (flight, leader) = synchronized(inFlight) {
+            val existing = inFlight[key]
+            if (existing != null) {
+                existing to false
+            } else {
+                Flight().also { flight -> inFlight[key] = flight } to true
+            }
+        }
+
+        if (!leader) {
+            while (!flight.done.await(CANCEL_CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (chain.call().isCanceled()) {
+                    throw IOException("Canceled")
+                }
+            }
+            flight.response?.let { shared ->
+                Log.d(TAG, "Sharing the response of ${request.url.encodedPath}")
+                return shared.newBuilder()
+                    .request(request)
+                    .body(flight.body!!.toResponseBody(flight.contentType))
+                    .build()
+            }
+            return chain.proceed(request)
+        }
+
+        try {
+            val response = chain.proceed(request)
+            if (!response.isSuccessful) {
+                return response
+            }
+            val contentType = response.body?.contentType()
+            val body = response.body?.bytes() ?: ByteArray(0)
+            flight.contentType = contentType
+            flight.body = body
+            flight.response = response
+            return response.newBuilder()
+                .body(body.toResponseBody(contentType))
+                .build()
+        } finally {
+            synchronized(inFlight) {
+                inFlight.remove(key)
+            }
+            flight.done.countDown()
+        }
+    }
+
+    /** A request that is being made, the fields are set before [done] is counted down and only read after. */
+    private class Flight {
+        val done = CountDownLatch(1)
+        var response: Response? = null
+        var contentType: MediaType? = null
+        var body: ByteArray? = null
+    }
+
+    companion object {
+        private const val TAG = "SingleFlightInterceptor"
+
+        private const val CANCEL_CHECK_INTERVAL_MILLIS = 100L
+
+        /** Endpoints that are requested from several places at the same time and have no side effects */
+        val COALESCED_PATHS = setOf(
+            "/api/v1/custom_emojis",
+            "/api/v1/instance",
+            "/api/v2/instance",
+            "/api/v1/filters",
+            "/api/v2/filters",
+            "/api/v1/lists",
+            "/api/v1/followed_tags",
+            "/api/v1/announcements",
+            "/api/v1/accounts/relationships",
+            "/api/v1/accounts/verify_credentials"
+        )
+    }
+}
@@ -0,0 +1,236 @@
+/* Copyright 2026 Tusky Contributors
+ *
+ * This file is a part of Tusky.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Tusky is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Tusky; if not,
+ * see <http://www.gnu.org/licenses>. */
+
+package com.keylesspalace.tusky.network
+
+import android.util.Log
+import com.squareup.moshi.JsonClass
+import com.squareup.moshi.Moshi
+import com.squareup.moshi.adapter
+import java.io.IOException
+import java.util.concurrent.TimeUnit
+import javax.inject.Inject
+import javax.inject.Singleton
+import kotlinx.coroutines.channels.awaitClose
+import kotlinx.coroutines.channels.trySendBlocking
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.callbackFlow
+import kotlinx.coroutines.flow.catch
+import kotlinx.coroutines.flow.emitAll
+import kotlinx.coroutines.flow.filter
+import kotlinx.coroutines.flow.merge
+import okhttp3.Call
+import okhttp3.Callback
+import okhttp3.HttpUrl
+import okhttp3.HttpUrl.Companion.toHttpUrlOrNull
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.Response
+import okhttp3.WebSocket
+import okhttp3.WebSocketListener
+
+/**
+ * Client for the streaming API of Mastodon, see https://docs.joinmastodon.org/methods/streaming/.
+ *
+ * All streams are subscribed to over a single WebSocket.
+ * If the server or something in between doesn't accept the WebSocket,
+ * every stream is requested as server-sent events over a plain HTTP connection of its own instead.
+ */
+@Singleton
+class StreamingClient @Inject constructor(
+    httpClient: OkHttpClient,
+    moshi: Moshi
+) {
+
+    private val streamingHttpClient: OkHttpClient = httpClient.newBuilder()
+        // the server sends a heartbeat to idle connections, a stalled one is detected with pings or by the read timeout
+        .pingInterval(30, TimeUnit.SECONDS)
+        .build()
+
+    @OptIn(ExperimentalStdlibApi::class)
+    private val messageAdapter = moshi.adapter<StreamMessage>()
+
+    /**
+     * Connects to the streaming API and emits its events until the flow is cancelled or the connection is lost.
+     * [StreamEvent.Connected] is emitted once as soon as events are received, everything that happened before can be missing.
+     * @param streamingUrl the base url of the streaming API of the server, see [streamingUrl]
+     * @param accessToken the access token of the account to stream as
+     * @param streams the names of the streams to subscribe to, e.g. "user" or "direct"
+     * @throws IOException when the connection can't be established or is lost
+     */
+    fun events(streamingUrl: HttpUrl, accessToken: String, streams: List<String>): Flow<StreamEvent> {
+        return webSocketEvents(streamingUrl, accessToken, streams).catch { e ->
+            if (e !is WebSocketRefusedException) {
+                throw e
+            }
+            Log.i(TAG, "WebSocket not available, falling back to server-sent events", e)
+            emitAll(
+                merge(
+                    *streams.mapIndexed { index, stream ->
+                        serverSentEvents(streamingUrl, accessToken, stream)
+                            .filter { event -> index == 0 || event != StreamEvent.Connected }
+                    }.toTypedArray()
+                )
+            )
+        }
+    }
+
+    private fun webSocketEvents(streamingUrl: HttpUrl, accessToken: String, streams: List<String>) = callbackFlow {
+        val request = Request.Builder()
+            .url(streamingUrl.newBuilder().addPathSegments("api/v1/streaming").build())
+            .header("Authorization", "Bearer $accessToken")
+            .build()
+
+        var open = false
+        val webSocket = streamingHttpClient.newWebSocket(
+            request,
+            object : WebSocketListener() {
+                override fun onOpen(webSocket: WebSocket, response: Response) {
+                    open = true
+                    for (stream in streams) {
+                        webSocket.send("""{"type":"subscribe","stream":"$stream"}""")
+                    }
+                    trySendBlocking(StreamEvent.Connected)
+                }
+
+                override fun onMessage(webSocket: WebSocket, text: String) {
+                    val message = try {
+                        messageAdapter.fromJson(text)
+                    } catch (e: IOException) {
+                        Log.w(TAG, "Ignoring malformed message $text", e)
+                        null
+                    }
+                    // answers to subscriptions and errors have no event
+                    if (message?.event != null) {
+                        trySendBlocking(StreamEvent.Message(message.stream, message.event, message.payload))
+                    }
+                }
+
+                override fun onClosing(webSocket: WebSocket, code: Int, reason: String) {
+                    webSocket.close(NORMAL_CLOSURE, null)
+                    close(IOException("WebSocket closed by the server: $code $reason"))
+                }
+
+                override fun onFailure(webSocket: WebSocket, t: Throwable, response: Response?) {
+                    close(if (open) t else WebSocketRefusedException(response?.code, t))
+                }
+            }
+        )
+        awaitClose { webSocket.close(NORMAL_CLOSURE, null) }
+    }
+
+    private fun serverSentEvents(streamingUrl: HttpUrl, accessToken: String, stream: String) = callbackFlow {
+        val request = Request.Builder()
+            // e.g. user:notification is streamed from api/v1/streaming/user/notification
+            .url(streamingUrl.newBuilder().addPathSegments("api/v1/streaming/${stream.replace(':', '/')}").build())
+            .header("Authorization", "Bearer $accessToken")
+            .header("Accept", "text/event-stream")
+            .build()
+
+        val call = streamingHttpClient.newCall(request)
+        call.enqueue(
+            object : Callback {
+                override fun onFailure(call: Call, e: IOException) {
+                    close(e)
+                }
+
+                override fun onResponse(call: Call, response: Response) {
+                    response.use {
+                        if (!response.isSuccessful) {
+                            close(IOException("Streaming $stream failed: ${response.code}"))
+                            return
+                        }
+                        trySendBlocking(StreamEvent.Connected)
+                        try {
+                            val source = response.body!!.source()
+                            var event: String? = null
+                            val data = StringBuilder()
+                            while (true) {
+                                val line = source.readUtf8Line() ?: break
+                                when {
+                                    line.isEmpty() -> {
+                                        if (event != null) {
+                                            trySendBlocking(StreamEvent.Message(listOf(stream), event, data.toString().ifEmpty { null }))
+                                        }
+                                        event = null
+                                        data.clear()
+                                    }
+                                    // a comment, sent as heartbeat
+                                    line.startsWith(":") -> Unit
+                                    line.startsWith("event:") -> event = line.removePrefix("event:").trim()
+                                    line.startsWith("data:") -> {
+                                        if (data.isNotEmpty()) {
+                                            data.append('\n')
+                                        }
+                                        data.append(line.removePrefix("data:").removePrefix(" "))
+                                    }
+                                }
+                            }
+                            close(IOException("Streaming $stream ended"))
+                        } catch (e: IOException) {
+                            close(e)
+                        }
+                    }
+                }
+            }
+        )
+        awaitClose { call.cancel() }
+    }
+
+    @JsonClass(generateAdapter = true)
+    internal data class StreamMessage(
+        val stream: List<String> = emptyList(),
+        val event: String? = null,
+        val payload: String? = null
+    )
+
+    /** The WebSocket could not be opened at all, as opposed to an open one that was lost */
+    private class WebSocketRefusedException(code: Int?, cause: Throwable) : IOException("WebSocket refused: $code", cause)
+
+    companion object {
+        private const val TAG = "StreamingClient"
+
+        private const val NORMAL_CLOSURE = 1000
+
+        /**
+         * Returns the base url of the streaming API of a server.
+         * @param streamingApi the url the server announces in its instance info, the domain of the server is used when it is null
+         */
+        fun streamingUrl(domain: String, streamingApi: String?): HttpUrl {
+            // OkHttp treats ws and wss like http and https but HttpUrl only accepts the latter
+            return streamingApi
+                ?.replaceFirst(Regex("^ws(s?)://"), "http$1://")
+                ?.toHttpUrlOrNull()
+                ?: "https://$domain".toHttpUrlOrNull()!!
+        }
+    }
+}
+
+/** An event received from the streaming API. */
+sealed interface StreamEvent {
+    /** The connection to the server is established, everything that happens from now on is received. */
+    data object Connected : StreamEvent
+
+    /**
+     * @param stream the stream the event belongs to, e.g. ["user"] or ["hashtag", "tusky"]
+     * @param event the type of the event, e.g. "update" or "delete"
+     * @param payload the json of the entity the event is about, or just its id for "delete"
+     */
+    data class Message(
+        val stream: List<String>,
+        val event: String,
+        val payload: String?
+    ) : StreamEvent
+}
@@ -86,6 +86,10 @@ object PrefKeys {
     const val HTTP_PROXY_SERVER = "httpProxyServer"
     const val HTTP_PROXY_PORT = "httpProxyPort"
 
+    const val PER_ACCOUNT_DATABASES = "perAccountDatabases"
+    const val FILL_TIMELINE_GAPS = "fillTimelineGaps"
+    const val SYNC_TIMELINES = "syncTimelines"
+
     const val DEFAULT_POST_PRIVACY = "defaultPostPrivacy"
     const val DEFAULT_POST_LANGUAGE = "defaultPostLanguage"
     const val DEFAULT_REPLY_PRIVACY = "defaultReplyPrivacy"
@@ -1,20 +1,46 @@
 package com.keylesspalace.tusky.usecase
 
+import android.content.Context
 import android.util.Log
 import androidx.room.withTransaction
-import com.keylesspalace.tusky.db.AppDatabase
-import com.keylesspalace.tusky.db.dao.TimelineDao
+import com.keylesspalace.tusky.db.CacheDatabases
+import com.keylesspalace.tusky.db.QueryStats
+import com.keylesspalace.tusky.db.QueryTracer
+import com.keylesspalace.tusky.network.AdaptivePagingPolicy
+import com.keylesspalace.tusky.network.EndpointMetrics
+import com.keylesspalace.tusky.network.InstanceMetrics
+import com.keylesspalace.tusky.network.NetworkMetrics
+import com.keylesspalace.tusky.network.PagingDecision
+import com.keylesspalace.tusky.network.RevalidationInterceptor
+import com.keylesspalace.tusky.network.RevalidationStats
+import com.squareup.moshi.JsonClass
+import com.squareup.moshi.Moshi
+import dagger.hilt.android.qualifiers.ApplicationContext
+import java.io.File
 import javax.inject.Inject
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
 
 /**
  * Functionality that is only intended to be used by the "Developer Tools" menu when built
  * in debug mode.
  */
 class DeveloperToolsUseCase @Inject constructor(
-    private val db: AppDatabase
+    @ApplicationContext private val context: Context,
+    private val cacheDatabases: CacheDatabases,
+    private val queryTracer: QueryTracer,
+    private val revalidationInterceptor: RevalidationInterceptor,
+    private val adaptivePagingPolicy: AdaptivePagingPolicy,
+    private val networkMetrics: NetworkMetrics,
+    private val moshi: Moshi
 ) {
 
-    private var timelineDao: TimelineDao = db.timelineDao()
+    /** Whether the statements that run against the databases are traced, see [QueryTracer]. */
+    var queryTracingEnabled: Boolean
+        get() = queryTracer.enabled
+        set(enabled) {
+            queryTracer.enabled = enabled
+        }
 
     /**
      * Create a gap in the home timeline to make it easier to interactively experiment with
@@ -24,6 +50,8 @@ class DeveloperToolsUseCase @Inject constructor(
      * and replacing the last one with a placeholder.
      */
     suspend fun createLoadMoreGap(accountId: Long) {
+        val db = cacheDatabases.forAccount(accountId)
+        val timelineDao = db.timelineDao()
         db.withTransaction {
             val ids = timelineDao.getMostRecentNHomeTimelineIds(accountId, 10)
             val maxId = ids[2]
@@ -40,7 +68,74 @@ class DeveloperToolsUseCase @Inject constructor(
         }
     }
 
+    /** The statistics of the traced statements, slowest in total first. */
+    fun queryStats(): List<QueryStats> = queryTracer.stats()
+
+    fun resetQueryStats() = queryTracer.reset()
+
+    /** How often stored responses were used instead of transferring them again, see [RevalidationInterceptor]. */
+    fun revalidationStats(): List<RevalidationStats> = revalidationInterceptor.stats()
+
+    fun resetRevalidationStats() = revalidationInterceptor.resetStats()
+
+    /** The page sizes and prefetch distances the lists were created with recently, see [AdaptivePagingPolicy]. */
+    fun pagingDecisions(): List<PagingDecision> = adaptivePagingPolicy.decisions()
+
+    /** How long the requests to the endpoints of each instance took, see [NetworkMetrics]. */
+    fun instanceMetrics(): List<InstanceMetrics> = networkMetrics.instanceStats()
+
+    fun endpointMetrics(): List<EndpointMetrics> = networkMetrics.stats()
+
+    fun resetNetworkMetrics() = networkMetrics.reset()
+
+    /**
+     * Writes the statistics of the traced statements as json into the cache directory, so they can be shared.
+     * @return the written file
+     */
+    suspend fun exportQueryStats(): File = withContext(Dispatchers.IO) {
+        val report = QueryStatsReport(
+            latencyBucketsMillis = QueryTracer.LATENCY_BUCKETS_MILLIS,
+            hotPathExecutions = QueryTracer.HOT_PATH_EXECUTIONS,
+            queries = queryTracer.stats()
+        )
+        val file = File(context.cacheDir, QUERY_STATS_FILE_NAME)
+        file.writeText(moshi.adapter(QueryStatsReport::class.java).indent("  ").toJson(report))
+        file
+    }
+
+    /**
+     * Writes the network metrics of all instances and endpoints as json into the cache directory, so they can be shared.
+     * @return the written file
+     */
+    suspend fun exportNetworkMetrics(): File = withContext(Dispatchers.IO) {
+        val report = NetworkMetricsReport(
+            latencyBucketsMillis = NetworkMetrics.LATENCY_BUCKETS_MILLIS,
+            instances = networkMetrics.instanceStats(),
+            endpoints = networkMetrics.stats()
+        )
+        val file = File(context.cacheDir, NETWORK_METRICS_FILE_NAME)
+        file.writeText(moshi.adapter(NetworkMetricsReport::class.java).indent("  ").toJson(report))
+        file
+    }
+
+    @JsonClass(generateAdapter = true)
+    data class QueryStatsReport(
+        val latencyBucketsMillis: List<Long>,
+        val hotPathExecutions: Int,
+        val queries: List<QueryStats>
+    )
+
+    @JsonClass(generateAdapter = true)
+    data class NetworkMetricsReport(
+        val latencyBucketsMillis: List<Long>,
+        val instances: List<InstanceMetrics>,
+        val endpoints: List<EndpointMetrics>
+    )
+
     companion object {
         const val TAG = "DeveloperToolsUseCase"
+
+        private const val QUERY_STATS_FILE_NAME = "query_stats.json"
+        private const val NETWORK_METRICS_FILE_NAME = "network_metrics.json"
     }
 }
@@ -4,18 +4,22 @@ import com.keylesspalace.tusky.components.drafts.DraftHelper
 import com.keylesspalace.tusky.components.systemnotifications.NotificationService
 import com.keylesspalace.tusky.db.AccountManager
 import com.keylesspalace.tusky.db.DatabaseCleaner
+import com.keylesspalace.tusky.db.StatusViewStates
 import com.keylesspalace.tusky.db.entity.AccountEntity
 import com.keylesspalace.tusky.network.MastodonApi
+import com.keylesspalace.tusky.network.RevalidationInterceptor
 import com.keylesspalace.tusky.util.ShareShortcutHelper
 import javax.inject.Inject
 
 class LogoutUsecase @Inject constructor(
     private val api: MastodonApi,
     private val databaseCleaner: DatabaseCleaner,
+    private val statusViewStates: StatusViewStates,
     private val accountManager: AccountManager,
     private val draftHelper: DraftHelper,
     private val shareShortcutHelper: ShareShortcutHelper,
     private val notificationService: NotificationService,
+    private val revalidationInterceptor: RevalidationInterceptor,
 ) {
 
     /**
@@ -41,8 +45,10 @@ class LogoutUsecase @Inject constructor(
         val otherAccountAvailable = accountManager.remove(account) != null
 
         // clear the database - this could trigger network calls so do it last when all tokens are gone
+        statusViewStates.remove(account.id)
         databaseCleaner.cleanupEverything(account.id)
         draftHelper.deleteAllDraftsAndAttachmentsForAccount(account.id)
+        revalidationInterceptor.removeStoredResponses(account.accessToken)
 
         // remove shortcut associated with the account
         shareShortcutHelper.removeShortcut(account)
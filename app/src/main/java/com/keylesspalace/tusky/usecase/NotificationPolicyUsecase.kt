@@ -4,7 +4,7 @@ import at.connyduck.calladapter.networkresult.NetworkResult
 import at.connyduck.calladapter.networkresult.fold
 import at.connyduck.calladapter.networkresult.onSuccess
 import com.keylesspalace.tusky.db.AccountManager
-import com.keylesspalace.tusky.db.AppDatabase
+import com.keylesspalace.tusky.db.CacheDatabases
 import com.keylesspalace.tusky.db.entity.NotificationPolicyEntity
 import com.keylesspalace.tusky.entity.NotificationPolicy
 import com.keylesspalace.tusky.network.MastodonApi
@@ -17,12 +17,14 @@ import retrofit2.HttpException
 
 class NotificationPolicyUsecase @Inject constructor(
     private val api: MastodonApi,
-    private val db: AppDatabase,
+    cacheDatabases: CacheDatabases,
     accountManager: AccountManager
 ) {
 
     private val accountId = accountManager.activeAccount!!.id
 
+    private val db = cacheDatabases.forAccount(accountId)
+
     private val _state: MutableStateFlow<NotificationPolicyState> = MutableStateFlow(NotificationPolicyState.Loading)
     val state: StateFlow<NotificationPolicyState> = _state.asStateFlow()
 
@@ -0,0 +1,349 @@
+/* Copyright 2026 Tusky Contributors
+ *
+ * This file is a part of Tusky.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Tusky is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Tusky; if not,
+ * see <http://www.gnu.org/licenses>. */
+
+package com.keylesspalace.tusky.usecase
+
+import android.content.Context
+import android.util.Log
+import androidx.work.BackoffPolicy
+import androidx.work.Constraints
+import androidx.work.ExistingWorkPolicy
+import androidx.work.NetworkType
+import androidx.work.OneTimeWorkRequestBuilder
+import androidx.work.WorkManager
+import at.connyduck.calladapter.networkresult.NetworkResult
+import at.connyduck.calladapter.networkresult.fold
+import com.keylesspalace.tusky.appstore.EventHub
+import com.keylesspalace.tusky.appstore.PollVoteEvent
+import com.keylesspalace.tusky.appstore.StatusChangedEvent
+import com.keylesspalace.tusky.db.AccountManager
+import com.keylesspalace.tusky.db.CacheDatabases
+import com.keylesspalace.tusky.db.entity.AccountEntity
+import com.keylesspalace.tusky.db.entity.OutboxActionEntity
+import com.keylesspalace.tusky.entity.Poll
+import com.keylesspalace.tusky.entity.Status
+import com.keylesspalace.tusky.network.ApiProvider
+import com.keylesspalace.tusky.network.MastodonApi
+import com.keylesspalace.tusky.worker.OutboxWorker
+import dagger.hilt.android.qualifiers.ApplicationContext
+import java.io.IOException
+import java.util.concurrent.TimeUnit
+import javax.inject.Inject
+import javax.inject.Singleton
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.sync.withPermit
+
+/**
+ * Sends favourites, reblogs, bookmarks and poll votes so that they survive a slow or missing network connection.
+ *
+ * An action is written to the cache right away and then sent. If it can't be sent because of a network error,
+ * it is stored in [OutboxActionEntity] and sent by [OutboxWorker] once there is a connection again.
+ * Toggling a status back while the first toggle still waits in the outbox removes the entry, so fav and unfav send nothing.
+ * An action the server rejects is taken back from the cache.
+ */
+@Singleton
+class StatusActionOutbox(
+    private val cacheDatabases: CacheDatabases,
+    private val accountManager: AccountManager,
+    private val apiProvider: ApiProvider,
+    private val eventHub: EventHub,
+    private val scheduleFlush: () -> Unit
+) {
+
+    @Inject
+    constructor(
+        @ApplicationContext context: Context,
+        cacheDatabases: CacheDatabases,
+        accountManager: AccountManager,
+        apiProvider: ApiProvider,
+        eventHub: EventHub
+    ) : this(cacheDatabases, accountManager, apiProvider, eventHub, { scheduleFlush(context) })
+
+    private val outboxDao = cacheDatabases.mainDatabase.outboxDao()
+
+    /** guards [inFlight] and the read-modify-write cycles of the outbox */
+    private val mutex = Mutex()
+
+    /** actions that are being sent right now, guarded by [mutex] */
+    private val inFlight = HashSet<Key>()
+
+    /**
+     * Applies the action of the active account of [type] on [statusId] to the cache and sends it with [request].
+     * @param value true to favourite, reblog or bookmark, false to take that back; true for votes
+     * @return the result of [request], or [ActionQueuedException] if the action has been left in the outbox to be sent later
+     */
+    suspend fun <T> submit(
+        type: OutboxActionEntity.Type,
+        statusId: String,
+        value: Boolean,
+        visibility: Status.Visibility = Status.Visibility.PUBLIC,
+        pollId: String? = null,
+        choices: List<Int>? = null,
+        request: suspend () -> NetworkResult<T>
+    ): NetworkResult<T> {
+        val account = accountManager.activeAccount ?: return request()
+        val action = OutboxActionEntity(
+            tuskyAccountId = account.id,
+            statusId = statusId,
+            type = type,
+            value = value,
+            serverValue = !value,
+            visibility = visibility,
+            pollId = pollId,
+            choices = choices,
+            createdAt = System.currentTimeMillis()
+        )
+        val key = action.key()
+
+        val queuedAction = action.copy(previousPoll = applyToCache(action, action.value))
+
+        val queued = mutex.withLock {
+            val pending = outboxDao.get(key.tuskyAccountId, key.statusId, key.type)
+            when {
+                pending == null && key !in inFlight -> {
+                    inFlight.add(key)
+                    false
+                }
+                pending != null && key !in inFlight && pending.serverValue == queuedAction.value &&
+                    queuedAction.type != OutboxActionEntity.Type.VOTE -> {
+                    // the action undoes one that has not been sent yet
+                    outboxDao.delete(key.tuskyAccountId, key.statusId, key.type)
+                    true
+                }
+                else -> {
+                    // the server still has the state from before the action that is waiting
+                    outboxDao.upsert(
+                        queuedAction.copy(
+                            serverValue = pending?.serverValue ?: queuedAction.serverValue,
+                            previousPoll = pending?.previousPoll ?: queuedAction.previousPoll
+                        )
+                    )
+                    true
+                }
+            }
+        }
+        if (queued) {
+            scheduleFlush()
+            return NetworkResult.failure(ActionQueuedException(null))
+        }
+
+        val result = try {
+            request()
+        } catch (e: Exception) {
+            mutex.withLock { inFlight.remove(key) }
+            throw e
+        }
+
+        return result.fold({
+            reconcile(queuedAction)
+            result
+        }, { error ->
+            if (error is IOException) {
+                mutex.withLock {
+                    inFlight.remove(key)
+                    if (outboxDao.get(key.tuskyAccountId, key.statusId, key.type) == null) {
+                        outboxDao.upsert(queuedAction)
+                    }
+                }
+                scheduleFlush()
+                NetworkResult.failure(ActionQueuedException(error))
+            } else {
+                val pending = mutex.withLock {
+                    inFlight.remove(key)
+                    outboxDao.get(key.tuskyAccountId, key.statusId, key.type)
+                }
+                if (pending == null) {
+                    undo(queuedAction)
+                }
+                result
+            }
+        })
+    }
+
+    /**
+     * Sends the actions in the outbox, at most [MAX_PARALLEL_REQUESTS] at a time.
+     * Actions of accounts that have been logged out are dropped.
+     * @return true if the outbox is empty now, false if some actions are left and sending them should be tried again later
+     */
+    suspend fun flush(): Boolean {
+        val semaphore = Semaphore(MAX_PARALLEL_REQUESTS)
+        while (true) {
+            val accounts = accountManager.accounts.associateBy { account -> account.id }
+            val dropped = outboxDao.deleteAllExcept(accounts.keys.toList())
+            if (dropped > 0) {
+                Log.d(TAG, "Dropped $dropped actions of accounts that have been removed")
+            }
+
+            val actions = outboxDao.getAll()
+            if (actions.isEmpty()) {
+                return true
+            }
+
+            val done = coroutineScope {
+                actions.map { action ->
+                    async {
+                        val account = accounts[action.tuskyAccountId] ?: return@async true
+                        semaphore.withPermit { send(account, action) }
+                    }
+                }.awaitAll()
+            }
+            if (!done.all { sent -> sent }) {
+                return false
+            }
+        }
+    }
+
+    /** @return true if [action] is not in the outbox anymore */
+    private suspend fun send(account: AccountEntity, action: OutboxActionEntity): Boolean {
+        val key = action.key()
+        val started = mutex.withLock {
+            outboxDao.get(key.tuskyAccountId, key.statusId, key.type) == action && inFlight.add(key)
+        }
+        if (!started) {
+            // changed or sent by someone else in the meantime
+            return false
+        }
+
+        val result = try {
+            request(apiProvider.mastodonApi(account), action)
+        } catch (e: Exception) {
+            mutex.withLock { inFlight.remove(key) }
+            throw e
+        }
+
+        return result.fold({ changed ->
+            reconcile(action)
+            when (changed) {
+                is Poll -> eventHub.dispatch(PollVoteEvent(action.statusId, changed))
+                is Status -> eventHub.dispatch(StatusChangedEvent(changed.reblog ?: changed))
+            }
+            true
+        }, { error ->
+            if (error is IOException) {
+                mutex.withLock { inFlight.remove(key) }
+                Log.d(TAG, "Failed to send ${action.type} of ${action.statusId}, will try again", error)
+                false
+            } else {
+                Log.w(TAG, "The server rejected ${action.type} of ${action.statusId}", error)
+                val unchanged = mutex.withLock {
+                    inFlight.remove(key)
+                    val pending = outboxDao.get(key.tuskyAccountId, key.statusId, key.type)
+                    if (pending == action) {
+                        outboxDao.delete(key.tuskyAccountId, key.statusId, key.type)
+                    }
+                    pending == action
+                }
+                if (unchanged) {
+                    undo(action)
+                }
+                true
+            }
+        })
+    }
+
+    /** Removes [sent] from the outbox and updates an entry that was added while it was in flight, now that the server has it. */
+    private suspend fun reconcile(sent: OutboxActionEntity) {
+        val key = sent.key()
+        mutex.withLock {
+            inFlight.remove(key)
+            val pending = outboxDao.get(key.tuskyAccountId, key.statusId, key.type) ?: return
+            when {
+                pending == sent -> outboxDao.delete(key.tuskyAccountId, key.statusId, key.type)
+                // a newer vote replaces this one and still has to be sent
+                key.type == OutboxActionEntity.Type.VOTE -> {}
+                pending.value == sent.value -> outboxDao.delete(key.tuskyAccountId, key.statusId, key.type)
+                pending.serverValue != sent.value -> outboxDao.upsert(pending.copy(serverValue = sent.value))
+            }
+        }
+    }
+
+    private suspend fun request(api: MastodonApi, action: OutboxActionEntity): NetworkResult<Any> {
+        val statusId = action.statusId
+        return when (action.type) {
+            OutboxActionEntity.Type.FAVOURITE ->
+                if (action.value) api.favouriteStatus(statusId) else api.unfavouriteStatus(statusId)
+            OutboxActionEntity.Type.REBLOG ->
+                if (action.value) api.reblogStatus(statusId, action.visibility.stringValue) else api.unreblogStatus(statusId)
+            OutboxActionEntity.Type.BOOKMARK ->
+                if (action.value) api.bookmarkStatus(statusId) else api.unbookmarkStatus(statusId)
+            OutboxActionEntity.Type.VOTE ->
+                api.voteInPoll(action.pollId.orEmpty(), action.choices.orEmpty())
+        }
+    }
+
+    /**
+     * Writes [value] of [action] into the cache of its account.
+     * @return the poll before the vote for votes, to be able to undo them
+     */
+    private suspend fun applyToCache(action: OutboxActionEntity, value: Boolean): Poll? {
+        val db = cacheDatabases.forAccount(action.tuskyAccountId)
+        val tuskyAccountId = action.tuskyAccountId
+        val statusId = action.statusId
+        when (action.type) {
+            OutboxActionEntity.Type.FAVOURITE -> {
+                db.timelineStatusDao().setFavourited(tuskyAccountId, statusId, value)
+                db.conversationDao().setFavourited(tuskyAccountId, statusId, value)
+            }
+            OutboxActionEntity.Type.REBLOG -> db.timelineStatusDao().setReblogged(tuskyAccountId, statusId, value)
+            OutboxActionEntity.Type.BOOKMARK -> {
+                db.timelineStatusDao().setBookmarked(tuskyAccountId, statusId, value)
+                db.conversationDao().setBookmarked(tuskyAccountId, statusId, value)
+            }
+            OutboxActionEntity.Type.VOTE -> {
+                val poll = db.timelineStatusDao().getStatus(tuskyAccountId, statusId)?.poll ?: return null
+                db.timelineStatusDao().setVoted(tuskyAccountId, statusId, poll.votedCopy(action.choices.orEmpty()))
+                return poll
+            }
+        }
+        return null
+    }
+
+    private suspend fun undo(action: OutboxActionEntity) {
+        if (action.type == OutboxActionEntity.Type.VOTE) {
+            action.previousPoll?.let { poll ->
+                cacheDatabases.forAccount(action.tuskyAccountId).timelineStatusDao().setVoted(action.tuskyAccountId, action.statusId, poll)
+            }
+        } else {
+            applyToCache(action, !action.value)
+        }
+    }
+
+    private fun OutboxActionEntity.key() = Key(tuskyAccountId, statusId, type)
+
+    private data class Key(val tuskyAccountId: Long, val statusId: String, val type: OutboxActionEntity.Type)
+
+    companion object {
+        private const val TAG = "StatusActionOutbox"
+
+        /** how many actions are sent at the same time when the outbox is flushed */
+        const val MAX_PARALLEL_REQUESTS = 4
+
+        private fun scheduleFlush(context: Context) {
+            val request = OneTimeWorkRequestBuilder<OutboxWorker>()
+                .setConstraints(Constraints.Builder().setRequiredNetworkType(NetworkType.CONNECTED).build())
+                .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, 30, TimeUnit.SECONDS)
+                .build()
+            WorkManager.getInstance(context).enqueueUniqueWork(OutboxWorker.WORK_NAME, ExistingWorkPolicy.KEEP, request)
+        }
+    }
+}
+
+/** The action could not be sent right now and will be sent once there is a connection again. */
+class ActionQueuedException(cause: IOException?) : IOException("queued in the outbox", cause)
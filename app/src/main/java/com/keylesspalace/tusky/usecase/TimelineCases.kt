@@ -27,6 +27,7 @@ import com.keylesspalace.tusky.appstore.PollShowResultsEvent
 import com.keylesspalace.tusky.appstore.PollVoteEvent
 import com.keylesspalace.tusky.appstore.StatusChangedEvent
 import com.keylesspalace.tusky.appstore.StatusDeletedEvent
+import com.keylesspalace.tusky.db.entity.OutboxActionEntity
 import com.keylesspalace.tusky.entity.DeletedStatus
 import com.keylesspalace.tusky.entity.Poll
 import com.keylesspalace.tusky.entity.Status
@@ -42,14 +43,17 @@ import javax.inject.Inject
 
 class TimelineCases @Inject constructor(
     private val mastodonApi: MastodonApi,
-    private val eventHub: EventHub
+    private val eventHub: EventHub,
+    private val statusActionOutbox: StatusActionOutbox
 ) {
 
     suspend fun reblog(statusId: String, reblog: Boolean, visibility: Status.Visibility = Status.Visibility.PUBLIC): NetworkResult<Status> {
-        return if (reblog) {
-            mastodonApi.reblogStatus(statusId, visibility.stringValue)
-        } else {
-            mastodonApi.unreblogStatus(statusId)
+        return statusActionOutbox.submit(OutboxActionEntity.Type.REBLOG, statusId, reblog, visibility) {
+            if (reblog) {
+                mastodonApi.reblogStatus(statusId, visibility.stringValue)
+            } else {
+                mastodonApi.unreblogStatus(statusId)
+            }
         }.onSuccess { status ->
             if (status.reblog != null) {
                 // when reblogging, the Mastodon Api does not return the reblogged status directly
@@ -62,20 +66,24 @@ class TimelineCases @Inject constructor(
     }
 
     suspend fun favourite(statusId: String, favourite: Boolean): NetworkResult<Status> {
-        return if (favourite) {
-            mastodonApi.favouriteStatus(statusId)
-        } else {
-            mastodonApi.unfavouriteStatus(statusId)
+        return statusActionOutbox.submit(OutboxActionEntity.Type.FAVOURITE, statusId, favourite) {
+            if (favourite) {
+                mastodonApi.favouriteStatus(statusId)
+            } else {
+                mastodonApi.unfavouriteStatus(statusId)
+            }
         }.onSuccess { status ->
             eventHub.dispatch(StatusChangedEvent(status))
         }
     }
 
     suspend fun bookmark(statusId: String, bookmark: Boolean): NetworkResult<Status> {
-        return if (bookmark) {
-            mastodonApi.bookmarkStatus(statusId)
-        } else {
-            mastodonApi.unbookmarkStatus(statusId)
+        return statusActionOutbox.submit(OutboxActionEntity.Type.BOOKMARK, statusId, bookmark) {
+            if (bookmark) {
+                mastodonApi.bookmarkStatus(statusId)
+            } else {
+                mastodonApi.unbookmarkStatus(statusId)
+            }
         }.onSuccess { status ->
             eventHub.dispatch(StatusChangedEvent(status))
         }
@@ -138,7 +146,9 @@ class TimelineCases @Inject constructor(
             return NetworkResult.failure(IllegalStateException())
         }
 
-        return mastodonApi.voteInPoll(pollId, choices).onSuccess { poll ->
+        return statusActionOutbox.submit(OutboxActionEntity.Type.VOTE, statusId, true, pollId = pollId, choices = choices) {
+            mastodonApi.voteInPoll(pollId, choices)
+        }.onSuccess { poll ->
             eventHub.dispatch(PollVoteEvent(statusId, poll))
         }
     }
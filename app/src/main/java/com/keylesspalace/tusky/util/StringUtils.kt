@@ -49,6 +49,18 @@ fun String.isLessThanOrEqual(other: String): Boolean {
     return this == other || isLessThan(other)
 }
 
+/** The length all ids are padded to by [toSortKey]. Must match the padding in AppDatabase.MIGRATION_70_72. */
+const val SORT_KEY_LENGTH = 32
+
+/**
+ * Converts an id into a key that sorts the same way as [isLessThan] when compared lexicographically,
+ * by left padding it with zeros. This allows the database to use an index for ordering.
+ * Examples:
+ * "abc" -> "00000000000000000000000000000abc"
+ * "9"   -> "00000000000000000000000000000009"
+ */
+fun String.toSortKey(): String = padStart(SORT_KEY_LENGTH, '0')
+
 fun Spanned.trimTrailingWhitespace(): Spanned {
     var i = length
     do {
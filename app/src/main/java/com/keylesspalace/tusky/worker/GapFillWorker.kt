@@ -0,0 +1,69 @@
+/* Copyright 2026 Tusky Contributors
+ *
+ * This file is a part of Tusky.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Tusky is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Tusky; if not,
+ * see <http://www.gnu.org/licenses>. */
+
+package com.keylesspalace.tusky.worker
+
+import android.content.Context
+import androidx.hilt.work.HiltWorker
+import androidx.work.BackoffPolicy
+import androidx.work.Constraints
+import androidx.work.CoroutineWorker
+import androidx.work.ExistingWorkPolicy
+import androidx.work.NetworkType
+import androidx.work.OneTimeWorkRequestBuilder
+import androidx.work.WorkManager
+import androidx.work.WorkerParameters
+import androidx.work.workDataOf
+import com.keylesspalace.tusky.components.timeline.HomeTimelineGapFiller
+import com.keylesspalace.tusky.db.AccountManager
+import dagger.assisted.Assisted
+import dagger.assisted.AssistedInject
+import java.util.concurrent.TimeUnit
+
+/** Fills the gaps in the cached home timeline of an account while connected to an unmetered network, see [HomeTimelineGapFiller]. */
+@HiltWorker
+class GapFillWorker @AssistedInject constructor(
+    @Assisted appContext: Context,
+    @Assisted workerParams: WorkerParameters,
+    private val gapFiller: HomeTimelineGapFiller,
+    private val accountManager: AccountManager
+) : CoroutineWorker(appContext, workerParams) {
+
+    override suspend fun doWork(): Result {
+        val accountId = inputData.getLong(KEY_ACCOUNT_ID, -1)
+        val account = accountManager.accounts.find { account -> account.id == accountId }
+        if (account == null || !gapFiller.enabled) {
+            return Result.success()
+        }
+        return if (gapFiller.fill(account)) {
+            Result.success()
+        } else {
+            Result.retry()
+        }
+    }
+
+    companion object {
+        private const val KEY_ACCOUNT_ID = "accountId"
+
+        fun schedule(context: Context, accountId: Long) {
+            val request = OneTimeWorkRequestBuilder<GapFillWorker>()
+                .setConstraints(Constraints.Builder().setRequiredNetworkType(NetworkType.UNMETERED).build())
+                .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, 1, TimeUnit.MINUTES)
+                .setInputData(workDataOf(KEY_ACCOUNT_ID to accountId))
+                .build()
+            WorkManager.getInstance(context).enqueueUniqueWork("GapFillWorker_$accountId", ExistingWorkPolicy.KEEP, request)
+        }
+    }
+}
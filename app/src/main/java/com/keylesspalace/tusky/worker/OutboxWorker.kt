@@ -0,0 +1,45 @@
+/* Copyright 2026 Tusky Contributors
+ *
+ * This file is a part of Tusky.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Tusky is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Tusky; if not,
+ * see <http://www.gnu.org/licenses>. */
+
+package com.keylesspalace.tusky.worker
+
+import android.content.Context
+import androidx.hilt.work.HiltWorker
+import androidx.work.CoroutineWorker
+import androidx.work.WorkerParameters
+import com.keylesspalace.tusky.usecase.StatusActionOutbox
+import dagger.assisted.Assisted
+import dagger.assisted.AssistedInject
+
+/** Sends the actions that are waiting in the [StatusActionOutbox] once there is a network connection. */
+@HiltWorker
+class OutboxWorker @AssistedInject constructor(
+    @Assisted appContext: Context,
+    @Assisted workerParams: WorkerParameters,
+    private val outbox: StatusActionOutbox
+) : CoroutineWorker(appContext, workerParams) {
+
+    override suspend fun doWork(): Result {
+        return if (outbox.flush()) {
+            Result.success()
+        } else {
+            Result.retry()
+        }
+    }
+
+    companion object {
+        const val WORK_NAME = "OutboxWorker"
+    }
+}
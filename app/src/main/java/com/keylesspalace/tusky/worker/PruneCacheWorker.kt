@@ -27,7 +27,9 @@ import androidx.work.WorkerParameters
 import com.keylesspalace.tusky.R
 import com.keylesspalace.tusky.components.systemnotifications.NotificationService
 import com.keylesspalace.tusky.db.AccountManager
+import com.keylesspalace.tusky.db.CacheDatabases
 import com.keylesspalace.tusky.db.DatabaseCleaner
+import com.keylesspalace.tusky.db.StatusViewStates
 import com.keylesspalace.tusky.util.deleteStaleCachedMedia
 import dagger.assisted.Assisted
 import dagger.assisted.AssistedInject
@@ -38,7 +40,9 @@ class PruneCacheWorker @AssistedInject constructor(
     @Assisted private val appContext: Context,
     @Assisted workerParams: WorkerParameters,
     private val databaseCleaner: DatabaseCleaner,
+    private val cacheDatabases: CacheDatabases,
     private val accountManager: AccountManager,
+    private val statusViewStates: StatusViewStates,
     val notificationService: NotificationService,
 ) : CoroutineWorker(appContext, workerParams) {
     val notification: Notification = notificationService.createWorkerNotification(
@@ -48,9 +52,20 @@ class PruneCacheWorker @AssistedInject constructor(
     override suspend fun doWork(): Result {
         for (account in accountManager.accounts) {
             Log.d(TAG, "Pruning database using account ID: ${account.id}")
-            databaseCleaner.cleanupOldData(account.id, MAX_HOMETIMELINE_ITEMS_IN_CACHE, MAX_NOTIFICATIONS_IN_CACHE)
+            val report = databaseCleaner.cleanupOldData(account.id, MAX_CACHE_BYTES_PER_ACCOUNT)
+            Log.d(TAG, "Pruned ${report.rowsDeleted} rows and ${report.bytesFreed} bytes: $report")
+            // the states of pruned statuses have been deleted, they shouldn't be kept in memory either
+            statusViewStates.reload(account.id)
         }
 
+        val deletedFiles = cacheDatabases.deleteUnused(accountManager.accounts.map { account -> account.id })
+        if (deletedFiles > 0) {
+            Log.d(TAG, "Deleted $deletedFiles unused database files")
+        }
+
+        val reclaimedBytes = databaseCleaner.reclaimSpace()
+        Log.d(TAG, "Reclaimed $reclaimedBytes bytes of the database files")
+
         deleteStaleCachedMedia(appContext.getExternalFilesDir("Tusky"))
 
         return Result.success()
@@ -63,8 +78,7 @@ class PruneCacheWorker @AssistedInject constructor(
 
     companion object {
         private const val TAG = "PruneCacheWorker"
-        private const val MAX_HOMETIMELINE_ITEMS_IN_CACHE = 1000
-        private const val MAX_NOTIFICATIONS_IN_CACHE = 1000
+        private const val MAX_CACHE_BYTES_PER_ACCOUNT = 8L * 1024 * 1024
         const val PERIODIC_WORK_TAG = "PruneCacheWorker_periodic"
     }
 }
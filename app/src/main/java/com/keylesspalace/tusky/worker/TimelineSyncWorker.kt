@@ -0,0 +1,72 @@
+/* Copyright 2026 Tusky Contributors
+ *
+ * This file is a part of Tusky.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Tusky is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Tusky; if not,
+ * see <http://www.gnu.org/licenses>. */
+
+package com.keylesspalace.tusky.worker
+
+import android.content.Context
+import androidx.hilt.work.HiltWorker
+import androidx.work.Constraints
+import androidx.work.CoroutineWorker
+import androidx.work.ExistingPeriodicWorkPolicy
+import androidx.work.NetworkType
+import androidx.work.PeriodicWorkRequestBuilder
+import androidx.work.WorkManager
+import androidx.work.WorkerParameters
+import com.keylesspalace.tusky.components.timeline.TimelineSync
+import com.keylesspalace.tusky.db.AccountManager
+import dagger.assisted.Assisted
+import dagger.assisted.AssistedInject
+import java.util.concurrent.TimeUnit
+
+/** Refreshes the cached timelines of all accounts and downloads the images of their newest items, see [TimelineSync]. */
+@HiltWorker
+class TimelineSyncWorker @AssistedInject constructor(
+    @Assisted appContext: Context,
+    @Assisted workerParams: WorkerParameters,
+    private val timelineSync: TimelineSync,
+    private val accountManager: AccountManager
+) : CoroutineWorker(appContext, workerParams) {
+
+    override suspend fun doWork(): Result {
+        for (account in accountManager.accounts) {
+            timelineSync.sync(account)
+        }
+        return Result.success()
+    }
+
+    companion object {
+        const val PERIODIC_WORK_TAG = "TimelineSyncWorker_periodic"
+
+        /**
+         * Refreshes the cached timelines every ~ 2 hours while charging on an unmetered network, so they are up to date when the app is opened.
+         * @param enabled false to cancel the periodic sync instead
+         */
+        fun schedule(workManager: WorkManager, enabled: Boolean) {
+            if (!enabled) {
+                workManager.cancelUniqueWork(PERIODIC_WORK_TAG)
+                return
+            }
+            val request = PeriodicWorkRequestBuilder<TimelineSyncWorker>(2, TimeUnit.HOURS)
+                .setConstraints(
+                    Constraints.Builder()
+                        .setRequiredNetworkType(NetworkType.UNMETERED)
+                        .setRequiresCharging(true)
+                        .build()
+                )
+                .build()
+            workManager.enqueueUniquePeriodicWork(PERIODIC_WORK_TAG, ExistingPeriodicWorkPolicy.KEEP, request)
+        }
+    }
+}
@@ -150,6 +150,7 @@ class MainActivityTest {
         }
         activity.accountManager = accountManager
         activity.draftsAlert = mock { }
+        activity.streamingCacheUpdater = mock()
         val api: MastodonApi = mock {
             onBlocking { accountVerifyCredentials() } doReturn NetworkResult.success(account)
             onBlocking { announcements() } doReturn NetworkResult.success(emptyList())
@@ -2,6 +2,7 @@ package com.keylesspalace.tusky
 
 import com.keylesspalace.tusky.util.isLessThan
 import com.keylesspalace.tusky.util.isLessThanOrEqual
+import com.keylesspalace.tusky.util.toSortKey
 import org.junit.Assert.assertFalse
 import org.junit.Assert.assertTrue
 import org.junit.Test
@@ -35,4 +36,18 @@ class StringUtilsTest {
         val notLessList = lessList.filterNot { (l, r) -> l == r }.map { (l, r) -> r to l }
         notLessList.forEach { (l, r) -> assertFalse("not $l < $r", l.isLessThanOrEqual(r)) }
     }
+
+    @Test
+    fun toSortKey() {
+        val lessList = listOf(
+            "abc" to "bcd",
+            "ab" to "abc",
+            "cb" to "abc",
+            "1" to "2",
+            "9" to "10",
+            "109876543210987654" to "110000000000000000"
+        )
+        lessList.forEach { (l, r) -> assertTrue("$l < $r", l.toSortKey() < r.toSortKey()) }
+        lessList.forEach { (l, r) -> assertFalse("not $r < $l", r.toSortKey() < l.toSortKey()) }
+    }
 }
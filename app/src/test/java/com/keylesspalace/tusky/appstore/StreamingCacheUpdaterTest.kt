@@ -0,0 +1,186 @@
+package com.keylesspalace.tusky.appstore
+
+import androidx.paging.PagingSource
+import androidx.room.Room
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.keylesspalace.tusky.components.notifications.fakeNotification
+import com.keylesspalace.tusky.components.systemnotifications.NotificationChannelData
+import com.keylesspalace.tusky.components.timeline.fakeAccount
+import com.keylesspalace.tusky.components.timeline.fakeHomeTimelineData
+import com.keylesspalace.tusky.components.timeline.fakeStatus
+import com.keylesspalace.tusky.components.timeline.insert
+import com.keylesspalace.tusky.db.AccountManager
+import com.keylesspalace.tusky.db.AppDatabase
+import com.keylesspalace.tusky.db.CacheIngester
+import com.keylesspalace.tusky.db.Converters
+import com.keylesspalace.tusky.db.StatusBlobConverters
+import com.keylesspalace.tusky.db.entity.AccountEntity
+import com.keylesspalace.tusky.db.entity.HomeTimelineData
+import com.keylesspalace.tusky.db.entity.NotificationDataEntity
+import com.keylesspalace.tusky.db.sharedCache
+import com.keylesspalace.tusky.di.NetworkModule
+import com.keylesspalace.tusky.entity.Conversation
+import com.keylesspalace.tusky.entity.Notification
+import com.keylesspalace.tusky.entity.Status
+import com.keylesspalace.tusky.network.MastodonApi
+import com.keylesspalace.tusky.network.StreamEvent
+import com.squareup.moshi.adapter
+import kotlinx.coroutines.test.runTest
+import okhttp3.ResponseBody.Companion.toResponseBody
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.kotlin.doReturn
+import org.mockito.kotlin.mock
+import org.robolectric.annotation.Config
+import retrofit2.Response
+
+@Config(sdk = [34])
+@RunWith(AndroidJUnit4::class)
+@OptIn(ExperimentalStdlibApi::class)
+class StreamingCacheUpdaterTest {
+    private lateinit var db: AppDatabase
+
+    private val moshi = NetworkModule.providesMoshi()
+
+    private var account = AccountEntity(
+        id = 1,
+        domain = "mastodon.example",
+        accessToken = "token",
+        clientId = "id",
+        clientSecret = "secret",
+        isActive = true
+    )
+
+    @Before
+    fun createDb() {
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        db = Room.inMemoryDatabaseBuilder(context, AppDatabase::class.java)
+            .addTypeConverter(Converters(moshi))
+            .addTypeConverter(StatusBlobConverters(moshi))
+            .allowMainThreadQueries()
+            .build()
+    }
+
+    @After
+    fun closeDb() {
+        db.close()
+    }
+
+    @Test
+    fun `should write the events of the streaming API into the cache`() = runTest {
+        db.insert(listOf(fakeHomeTimelineData(id = "2"), fakeHomeTimelineData(id = "1")))
+        val updater = updater()
+
+        updater.handle(event("user", "update", moshi.adapter<Status>().toJson(fakeStatus(id = "3"))))
+        updater.handle(event("user", "status.update", moshi.adapter<Status>().toJson(fakeStatus(id = "2").copy(content = "Edited"))))
+        updater.handle(event("user", "notification", moshi.adapter<Notification>().toJson(fakeNotification(id = "4"))))
+        updater.handle(event("direct", "conversation", moshi.adapter<Conversation>().toJson(fakeConversation(id = "5"))))
+        updater.handle(event("user", "delete", "1"))
+        // events the cache doesn't know about and broken ones are skipped
+        updater.handle(event("user", "announcement", "{}"))
+        updater.handle(event("user", "update", "{"))
+
+        val homeTimeline = loadHomeTimeline()
+        assertEquals(listOf("3", "2"), homeTimeline.map { item -> item.id })
+        assertEquals("Edited", homeTimeline[1].status?.content)
+        assertEquals(listOf("4"), loadNotifications().map { notification -> notification.id })
+        val conversation = db.conversationDao().getConversations(account.id, listOf("5")).single()
+        assertEquals("5", conversation.lastStatus.id)
+    }
+
+    @Test
+    fun `should skip notifications the notifications tab filters out`() = runTest {
+        account = account.copy(notificationsFilter = setOf(NotificationChannelData.FAVOURITE))
+        val updater = updater()
+
+        updater.handle(event("user", "notification", moshi.adapter<Notification>().toJson(fakeNotification(id = "1"))))
+        updater.handle(
+            event("user", "notification", moshi.adapter<Notification>().toJson(fakeNotification(type = Notification.Type.Mention, id = "2")))
+        )
+
+        assertEquals(listOf("2"), loadNotifications().map { notification -> notification.id })
+    }
+
+    @Test
+    fun `should load what was missed while disconnected and insert a placeholder if there is more`() = runTest {
+        db.insert(listOf(fakeHomeTimelineData(id = "100")))
+        val missedStatuses = (130 downTo 101).map { id -> fakeStatus(id = id.toString()) }
+        val api: MastodonApi = mock {
+            onBlocking { homeTimelineBody(sinceId = "100", limit = 30) } doReturn Response.success(
+                moshi.adapter<List<Status>>().toJson(missedStatuses).toResponseBody()
+            )
+        }
+
+        updater().catchUp(account, api, db, CacheIngester(db))
+
+        val homeTimeline = loadHomeTimeline()
+        assertEquals(31, homeTimeline.size)
+        assertEquals("130", homeTimeline.first().id)
+        // the oldest of the missed statuses is replaced with a placeholder, more can be missing between it and the cached ones
+        assertNull(homeTimeline[29].status)
+        assertEquals("101", homeTimeline[29].id)
+        assertEquals("100", homeTimeline.last().id)
+    }
+
+    @Test
+    fun `should load several pages of what was missed if asked to`() = runTest {
+        db.insert(listOf(fakeHomeTimelineData(id = "100")))
+        val api: MastodonApi = mock {
+            onBlocking { homeTimelineBody(sinceId = "100", limit = 30) } doReturn Response.success(
+                moshi.adapter<List<Status>>().toJson((160 downTo 131).map { id -> fakeStatus(id = id.toString()) }).toResponseBody()
+            )
+            // the second page starts with the status the placeholder of the first one replaced
+            onBlocking { homeTimelineBody(maxId = "132", sinceId = "100", limit = 30) } doReturn Response.success(
+                moshi.adapter<List<Status>>().toJson((131 downTo 102).map { id -> fakeStatus(id = id.toString()) }).toResponseBody()
+            )
+        }
+
+        val succeeded = updater().catchUp(account, api, db, CacheIngester(db), maxPages = 2)
+
+        assertTrue(succeeded)
+        val homeTimeline = loadHomeTimeline()
+        assertEquals(60, homeTimeline.size)
+        assertEquals("131", homeTimeline[29].id)
+        assertNotNull(homeTimeline[29].status)
+        // more can still be missing below the second page
+        assertNull(homeTimeline[58].status)
+        assertEquals("102", homeTimeline[58].id)
+        assertEquals("100", homeTimeline.last().id)
+    }
+
+    private fun updater() = StreamingCacheUpdater(
+        streamingClient = mock(),
+        apiProvider = mock(),
+        accountManager = mock<AccountManager> { on { accounts } doReturn listOf(account) },
+        cacheDatabases = db.sharedCache(),
+        moshi = moshi
+    )
+
+    private suspend fun StreamingCacheUpdater.handle(event: StreamEvent.Message) = handle(account, db, CacheIngester(db), event)
+
+    private fun event(stream: String, event: String, payload: String) = StreamEvent.Message(listOf(stream), event, payload)
+
+    private fun fakeConversation(id: String) = Conversation(
+        id = id,
+        accounts = listOf(fakeAccount(id = "account$id")),
+        lastStatus = fakeStatus(id = id),
+        unread = true
+    )
+
+    private suspend fun loadHomeTimeline(): List<HomeTimelineData> {
+        val page = db.timelineDao().getHomeTimeline(1).load(PagingSource.LoadParams.Refresh(null, 100, false))
+        return (page as PagingSource.LoadResult.Page).data
+    }
+
+    private suspend fun loadNotifications(): List<NotificationDataEntity> {
+        val page = db.notificationsDao().getNotifications(1).load(PagingSource.LoadParams.Refresh(null, 100, false))
+        return (page as PagingSource.LoadResult.Page).data
+    }
+}
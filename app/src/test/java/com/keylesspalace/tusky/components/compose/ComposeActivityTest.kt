@@ -28,9 +28,10 @@ import com.keylesspalace.tusky.R
 import com.keylesspalace.tusky.components.instanceinfo.InstanceInfoRepository
 import com.keylesspalace.tusky.db.AccountManager
 import com.keylesspalace.tusky.db.AppDatabase
+import com.keylesspalace.tusky.db.CacheDatabases
+import com.keylesspalace.tusky.db.dao.CustomEmojiDao
 import com.keylesspalace.tusky.db.dao.InstanceDao
 import com.keylesspalace.tusky.db.entity.AccountEntity
-import com.keylesspalace.tusky.db.entity.EmojisEntity
 import com.keylesspalace.tusky.db.entity.InstanceInfoEntity
 import com.keylesspalace.tusky.di.NetworkModule
 import com.keylesspalace.tusky.entity.Instance
@@ -138,15 +139,22 @@ class ComposeActivityTest {
         val instanceDaoMock: InstanceDao = mock {
             onBlocking { getInstanceInfo(any()) } doReturn
                 InstanceInfoEntity(instanceDomain, null, null, null, null, null, null, null, null, null, null, null, null, null, null, null, null)
-            onBlocking { getEmojiInfo(any()) } doReturn
-                EmojisEntity(instanceDomain, emptyList())
+        }
+
+        val customEmojiDaoMock: CustomEmojiDao = mock {
+            onBlocking { getInstanceEmojis(any()) } doReturn emptyList()
         }
 
         val dbMock: AppDatabase = mock {
             on { instanceDao() } doReturn instanceDaoMock
+            on { customEmojiDao() } doReturn customEmojiDaoMock
+        }
+
+        val cacheDatabasesMock: CacheDatabases = mock {
+            on { forAccount(any()) } doReturn dbMock
         }
 
-        val instanceInfoRepo = InstanceInfoRepository(apiMock, dbMock, accountManagerMock, CoroutineScope(SupervisorJob()))
+        val instanceInfoRepo = InstanceInfoRepository(apiMock, dbMock, cacheDatabasesMock, accountManagerMock, CoroutineScope(SupervisorJob()))
 
         val viewModel = ComposeViewModel(
             apiMock,
@@ -0,0 +1,217 @@
+package com.keylesspalace.tusky.components.conversation
+
+import android.os.Looper.getMainLooper
+import androidx.paging.ExperimentalPagingApi
+import androidx.paging.LoadType
+import androidx.paging.PagingConfig
+import androidx.paging.PagingSource
+import androidx.paging.PagingState
+import androidx.paging.RemoteMediator
+import androidx.room.Room
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.keylesspalace.tusky.components.timeline.fakeAccount
+import com.keylesspalace.tusky.components.timeline.fakeStatus
+import com.keylesspalace.tusky.db.AppDatabase
+import com.keylesspalace.tusky.db.Converters
+import com.keylesspalace.tusky.db.StatusBlobConverters
+import com.keylesspalace.tusky.db.entity.AccountEntity
+import com.keylesspalace.tusky.di.NetworkModule
+import com.keylesspalace.tusky.entity.Conversation
+import com.keylesspalace.tusky.network.MastodonApi
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.test.runTest
+import okhttp3.Headers
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.kotlin.anyOrNull
+import org.mockito.kotlin.doReturn
+import org.mockito.kotlin.eq
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.never
+import org.mockito.kotlin.verify
+import org.robolectric.Shadows.shadowOf
+import org.robolectric.annotation.Config
+import retrofit2.Response
+
+@Config(sdk = [34])
+@RunWith(AndroidJUnit4::class)
+@OptIn(ExperimentalPagingApi::class)
+class ConversationsRemoteMediatorTest {
+
+    private lateinit var db: AppDatabase
+
+    private val moshi = NetworkModule.providesMoshi()
+
+    private val account = AccountEntity(
+        id = 1,
+        domain = "mastodon.example",
+        accessToken = "token",
+        clientId = "id",
+        clientSecret = "secret",
+        isActive = true
+    )
+
+    @Before
+    fun setup() {
+        shadowOf(getMainLooper()).idle()
+
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        db = Room.inMemoryDatabaseBuilder(context, AppDatabase::class.java)
+            .addTypeConverter(Converters(moshi))
+            .addTypeConverter(StatusBlobConverters(moshi))
+            .build()
+    }
+
+    @After
+    fun tearDown() {
+        db.close()
+    }
+
+    @Test
+    fun `should load the first page when nothing is cached`() = runTest {
+        val api: MastodonApi = mock {
+            onBlocking { getConversations(maxId = null, sinceId = null, limit = 20) } doReturn Response.success(
+                listOf(fakeConversation(id = "a", lastStatusId = "10"), fakeConversation(id = "b", lastStatusId = "8"))
+            )
+        }
+
+        val result = ConversationsRemoteMediator(api, db, mockViewModel()).load(LoadType.REFRESH, state())
+
+        assertTrue((result as RemoteMediator.MediatorResult.Success).endOfPaginationReached)
+        assertEquals(listOf("a", "b"), loadConversations().map { conversation -> conversation.id })
+    }
+
+    @Test
+    fun `should load conversations with new messages beyond the first page on refresh and merge them into the cache`() = runTest {
+        insert(
+            fakeConversation(id = "a", lastStatusId = "10"),
+            fakeConversation(id = "b", lastStatusId = "8"),
+            fakeConversation(id = "c", lastStatusId = "5")
+        )
+        val expanded = loadConversations().first { conversation -> conversation.id == "a" }
+        db.conversationDao().insert(expanded.copy(lastStatus = expanded.lastStatus.copy(expanded = true)))
+        val api: MastodonApi = mock {
+            onBlocking { getConversations(maxId = null, sinceId = null, limit = 2) } doReturn Response.success(
+                listOf(fakeConversation(id = "b", lastStatusId = "13", unread = true), fakeConversation(id = "d", lastStatusId = "12")),
+                Headers.headersOf("Link", "<https://mastodon.example/api/v1/conversations?max_id=12>; rel=\"next\"")
+            )
+            onBlocking { getConversations(maxId = "12", sinceId = "10", limit = 2) } doReturn Response.success(
+                listOf(fakeConversation(id = "e", lastStatusId = "11"))
+            )
+        }
+
+        val result = ConversationsRemoteMediator(api, db, mockViewModel()).load(LoadType.REFRESH, state(pageSize = 2))
+
+        assertFalse((result as RemoteMediator.MediatorResult.Success).endOfPaginationReached)
+        val conversations = loadConversations()
+        assertEquals(listOf("b", "d", "e", "a", "c"), conversations.map { conversation -> conversation.id })
+        assertEquals("13", conversations.first().lastStatus.id)
+        assertTrue(conversations.first().unread)
+        // conversations without new messages are not touched
+        assertTrue(conversations.first { conversation -> conversation.id == "a" }.lastStatus.expanded)
+    }
+
+    @Test
+    fun `should delete conversations in the range of the first page that are gone from the server on refresh`() = runTest {
+        insert(
+            fakeConversation(id = "a", lastStatusId = "10"),
+            fakeConversation(id = "x", lastStatusId = "9"),
+            fakeConversation(id = "b", lastStatusId = "8"),
+            fakeConversation(id = "c", lastStatusId = "5")
+        )
+        val api: MastodonApi = mock {
+            onBlocking { getConversations(maxId = null, sinceId = null, limit = 2) } doReturn Response.success(
+                listOf(fakeConversation(id = "a", lastStatusId = "10"), fakeConversation(id = "b", lastStatusId = "8")),
+                Headers.headersOf("Link", "<https://mastodon.example/api/v1/conversations?max_id=8>; rel=\"next\"")
+            )
+        }
+
+        val result = ConversationsRemoteMediator(api, db, mockViewModel()).load(LoadType.REFRESH, state(pageSize = 2))
+
+        assertFalse((result as RemoteMediator.MediatorResult.Success).endOfPaginationReached)
+        // c is below the first page and could still exist on the server
+        assertEquals(listOf("a", "b", "c"), loadConversations().map { conversation -> conversation.id })
+        verify(api, never()).getConversations(eq("8"), anyOrNull(), anyOrNull())
+    }
+
+    @Test
+    fun `should delete all conversations gone from the server when the first page is the last one`() = runTest {
+        insert(
+            fakeConversation(id = "a", lastStatusId = "10"),
+            fakeConversation(id = "b", lastStatusId = "8"),
+            fakeConversation(id = "c", lastStatusId = "5")
+        )
+        val api: MastodonApi = mock {
+            onBlocking { getConversations(maxId = null, sinceId = null, limit = 20) } doReturn Response.success(
+                listOf(fakeConversation(id = "a", lastStatusId = "10"))
+            )
+        }
+
+        val result = ConversationsRemoteMediator(api, db, mockViewModel()).load(LoadType.REFRESH, state())
+
+        assertTrue((result as RemoteMediator.MediatorResult.Success).endOfPaginationReached)
+        assertEquals(listOf("a"), loadConversations().map { conversation -> conversation.id })
+    }
+
+    @Test
+    fun `should append conversations below the oldest cached one`() = runTest {
+        insert(fakeConversation(id = "a", lastStatusId = "10"), fakeConversation(id = "b", lastStatusId = "8"))
+        val api: MastodonApi = mock {
+            onBlocking { getConversations(maxId = "8", sinceId = null, limit = 20) } doReturn Response.success(
+                listOf(fakeConversation(id = "c", lastStatusId = "5"))
+            )
+        }
+
+        val result = ConversationsRemoteMediator(api, db, mockViewModel()).load(LoadType.APPEND, state())
+
+        assertTrue((result as RemoteMediator.MediatorResult.Success).endOfPaginationReached)
+        assertEquals(listOf("a", "b", "c"), loadConversations().map { conversation -> conversation.id })
+    }
+
+    @Test
+    fun `should not prepend conversations`() = runTest {
+        val api: MastodonApi = mock()
+
+        val result = ConversationsRemoteMediator(api, db, mockViewModel()).load(LoadType.PREPEND, state())
+
+        assertTrue((result as RemoteMediator.MediatorResult.Success).endOfPaginationReached)
+        verify(api, never()).getConversations(anyOrNull(), anyOrNull(), anyOrNull())
+    }
+
+    private fun fakeConversation(id: String, lastStatusId: String, unread: Boolean = false) = Conversation(
+        id = id,
+        accounts = listOf(fakeAccount(id = "account$id")),
+        lastStatus = fakeStatus(id = lastStatusId),
+        unread = unread
+    )
+
+    private suspend fun insert(vararg conversations: Conversation) {
+        for (conversation in conversations) {
+            db.conversationDao().insert(
+                conversation.toEntity(accountId = 1, expanded = false, contentShowing = true, contentCollapsed = true)
+            )
+        }
+    }
+
+    private suspend fun loadConversations(): List<ConversationEntity> {
+        val page = db.conversationDao().conversationsForAccount(1).load(PagingSource.LoadParams.Refresh(null, 100, false))
+        return (page as PagingSource.LoadResult.Page).data
+    }
+
+    private fun state(pageSize: Int = 20) = PagingState<Int, ConversationEntity>(
+        pages = emptyList(),
+        anchorPosition = null,
+        config = PagingConfig(pageSize = pageSize),
+        leadingPlaceholderCount = 0
+    )
+
+    private fun mockViewModel(): ConversationsViewModel = mock {
+        on { activeAccountFlow } doReturn MutableStateFlow(account)
+    }
+}
@@ -9,6 +9,7 @@ import com.keylesspalace.tusky.components.timeline.toEntity
 import com.keylesspalace.tusky.db.AppDatabase
 import com.keylesspalace.tusky.db.entity.NotificationDataEntity
 import com.keylesspalace.tusky.db.entity.NotificationEntity
+import com.keylesspalace.tusky.db.entity.accountDomain
 import com.keylesspalace.tusky.entity.Notification
 import com.keylesspalace.tusky.entity.Report
 import com.keylesspalace.tusky.entity.Status
@@ -84,12 +85,12 @@ fun LoadMorePlaceholder.toNotificationDataEntity(
 suspend fun AppDatabase.insert(notifications: List<Notification>, tuskyAccountId: Long = 1) = withTransaction {
     notifications.forEach { notification ->
 
-        timelineAccountDao().insert(
+        timelineAccountDao().upsert(
             notification.account.toEntity(tuskyAccountId)
         )
 
         notification.report?.let { report ->
-            timelineAccountDao().insert(
+            timelineAccountDao().upsert(
                 report.targetAccount.toEntity(
                     tuskyAccountId = tuskyAccountId,
                 )
@@ -97,17 +98,19 @@ suspend fun AppDatabase.insert(notifications: List<Notification>, tuskyAccountId
             notificationsDao().insertReport(report.toEntity(tuskyAccountId))
         }
         notification.status?.let { status ->
-            timelineAccountDao().insert(
+            timelineAccountDao().upsert(
                 status.account.toEntity(
                     tuskyAccountId = tuskyAccountId,
                 )
             )
-            timelineStatusDao().insert(
-                status.toEntity(
-                    tuskyAccountId = tuskyAccountId,
-                    expanded = false,
-                    contentShowing = false,
-                    contentCollapsed = true
+            timelineStatusDao().upsertAll(
+                listOf(
+                    status.toEntity(
+                        tuskyAccountId = tuskyAccountId,
+                        expanded = false,
+                        contentShowing = false,
+                        contentCollapsed = true
+                    )
                 )
             )
         }
@@ -121,7 +124,10 @@ suspend fun AppDatabase.insert(notifications: List<Notification>, tuskyAccountId
                 reportId = notification.report?.id,
                 event = null,
                 moderationWarning = null,
-                loading = false
+                loading = false,
+                statusAuthorId = notification.status?.account?.id,
+                accountDomain = accountDomain(notification.account.username),
+                statusAuthorDomain = notification.status?.account?.username?.let(::accountDomain)
             )
         )
     }
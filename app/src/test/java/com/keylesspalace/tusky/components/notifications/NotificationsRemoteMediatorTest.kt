@@ -15,9 +15,11 @@ import com.keylesspalace.tusky.components.timeline.fakeStatus
 import com.keylesspalace.tusky.db.AccountManager
 import com.keylesspalace.tusky.db.AppDatabase
 import com.keylesspalace.tusky.db.Converters
+import com.keylesspalace.tusky.db.StatusBlobConverters
 import com.keylesspalace.tusky.db.entity.AccountEntity
 import com.keylesspalace.tusky.db.entity.NotificationDataEntity
 import com.keylesspalace.tusky.di.NetworkModule
+import com.keylesspalace.tusky.util.toSortKey
 import java.io.IOException
 import kotlinx.coroutines.ExperimentalCoroutinesApi
 import kotlinx.coroutines.flow.MutableStateFlow
@@ -69,6 +71,7 @@ class NotificationsRemoteMediatorTest {
         val context = InstrumentationRegistry.getInstrumentation().targetContext
         db = Room.inMemoryDatabaseBuilder(context, AppDatabase::class.java)
             .addTypeConverter(Converters(moshi))
+            .addTypeConverter(StatusBlobConverters(moshi))
             .build()
     }
 
@@ -132,7 +135,7 @@ class NotificationsRemoteMediatorTest {
                         fakeNotification(id = "3").toNotificationDataEntity(1)
                     ),
                     prevKey = null,
-                    nextKey = 1
+                    nextKey = "3".toSortKey()
                 )
             )
         )
@@ -181,7 +184,7 @@ class NotificationsRemoteMediatorTest {
                 PagingSource.LoadResult.Page(
                     data = notificationsAlreadyInDb.map { it.toNotificationDataEntity(1) },
                     prevKey = null,
-                    nextKey = 0
+                    nextKey = notificationsAlreadyInDb.last().id.toSortKey()
                 )
             ),
             pageSize = 3
@@ -252,7 +255,7 @@ class NotificationsRemoteMediatorTest {
                 PagingSource.LoadResult.Page(
                     data = notificationsAlreadyInDb.map { it.toNotificationDataEntity(1) },
                     prevKey = null,
-                    nextKey = 0
+                    nextKey = notificationsAlreadyInDb.last().id.toSortKey()
                 )
             )
         )
@@ -318,7 +321,7 @@ class NotificationsRemoteMediatorTest {
                 PagingSource.LoadResult.Page(
                     data = notificationsAlreadyInDb.map { it.toNotificationDataEntity(1) },
                     prevKey = null,
-                    nextKey = 0
+                    nextKey = notificationsAlreadyInDb.last().id.toSortKey()
                 )
             ),
             pageSize = 3
@@ -363,7 +366,7 @@ class NotificationsRemoteMediatorTest {
                 PagingSource.LoadResult.Page(
                     data = emptyList(),
                     prevKey = null,
-                    nextKey = 0
+                    nextKey = null
                 )
             )
         )
@@ -392,10 +395,6 @@ class NotificationsRemoteMediatorTest {
         )
         db.insert(notificationsAlreadyInDb)
 
-        db.timelineStatusDao().setExpanded(1, "3", true)
-        db.timelineStatusDao().setExpanded(1, "2", true)
-        db.timelineStatusDao().setContentCollapsed(1, "1", false)
-
         val remoteMediator = NotificationsRemoteMediator(
             viewModel = mockViewModel(),
             accountManager = accountManager,
@@ -421,7 +420,7 @@ class NotificationsRemoteMediatorTest {
                         fakeNotification(id = "1").toNotificationDataEntity(1, isStatusContentShowing = true)
                     ),
                     prevKey = null,
-                    nextKey = 0
+                    nextKey = "1".toSortKey()
                 )
             )
         )
@@ -478,7 +477,7 @@ class NotificationsRemoteMediatorTest {
                 PagingSource.LoadResult.Page(
                     data = notificationsAlreadyInDb.map { it.toNotificationDataEntity(1) },
                     prevKey = null,
-                    nextKey = 0
+                    nextKey = notificationsAlreadyInDb.last().id.toSortKey()
                 )
             )
         )
@@ -530,7 +529,7 @@ class NotificationsRemoteMediatorTest {
                 PagingSource.LoadResult.Page(
                     data = notificationsAlreadyInDb.map { it.toNotificationDataEntity(1) },
                     prevKey = null,
-                    nextKey = 0
+                    nextKey = notificationsAlreadyInDb.last().id.toSortKey()
                 )
             )
         )
@@ -552,7 +551,7 @@ class NotificationsRemoteMediatorTest {
     }
 
     private fun state(
-        pages: List<PagingSource.LoadResult.Page<Int, NotificationDataEntity>> = emptyList(),
+        pages: List<PagingSource.LoadResult.Page<String, NotificationDataEntity>> = emptyList(),
         pageSize: Int = 20
     ) = PagingState(
         pages = pages,
@@ -0,0 +1,186 @@
+package com.keylesspalace.tusky.components.search.adapter
+
+import androidx.paging.PagingSource
+import androidx.room.Room
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import at.connyduck.calladapter.networkresult.NetworkResult
+import com.keylesspalace.tusky.components.search.SearchType
+import com.keylesspalace.tusky.components.timeline.copyStatus
+import com.keylesspalace.tusky.components.timeline.fakeStatus
+import com.keylesspalace.tusky.components.timeline.toStatus
+import com.keylesspalace.tusky.db.AppDatabase
+import com.keylesspalace.tusky.db.CacheIngester
+import com.keylesspalace.tusky.db.Converters
+import com.keylesspalace.tusky.db.StatusBlobConverters
+import com.keylesspalace.tusky.db.entity.AccountEntity
+import com.keylesspalace.tusky.di.NetworkModule
+import com.keylesspalace.tusky.entity.Filter
+import com.keylesspalace.tusky.entity.SearchResult
+import com.keylesspalace.tusky.entity.Status
+import com.keylesspalace.tusky.network.MastodonApi
+import java.io.IOException
+import kotlinx.coroutines.test.runTest
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.kotlin.anyOrNull
+import org.mockito.kotlin.doAnswer
+import org.mockito.kotlin.doReturn
+import org.mockito.kotlin.mock
+import org.robolectric.annotation.Config
+
+@Config(sdk = [34])
+@RunWith(AndroidJUnit4::class)
+class SearchPagingSourceTest {
+    private lateinit var db: AppDatabase
+    private lateinit var ingester: CacheIngester
+
+    private val moshi = NetworkModule.providesMoshi()
+
+    private val account = AccountEntity(
+        id = 1,
+        domain = "mastodon.example",
+        accessToken = "token",
+        clientId = "id",
+        clientSecret = "secret",
+        isActive = true
+    )
+
+    /** the statuses loaded so far, like the ones SearchViewModel keeps */
+    private val loadedStatuses = mutableListOf<Status>()
+
+    @Before
+    fun createDb() {
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        db = Room.inMemoryDatabaseBuilder(context, AppDatabase::class.java)
+            .addTypeConverter(Converters(moshi))
+            .addTypeConverter(StatusBlobConverters(moshi))
+            .allowMainThreadQueries()
+            .build()
+        ingester = CacheIngester(db)
+    }
+
+    @After
+    fun closeDb() {
+        db.close()
+    }
+
+    @Test
+    fun `should show cached statuses first and append server results without duplicates`() = runTest {
+        ingester.replaceHomeTimelineRange(
+            account = account,
+            statuses = listOf(fakeStatus(id = "3"), fakeStatus(id = "1")),
+            filterKind = Filter.Kind.HOME
+        )
+        val api = serverApi(listOf(fakeStatus(id = "4"), fakeStatus(id = "3"), fakeStatus(id = "2")))
+        val pagingSource = pagingSource(api)
+
+        val cachedPage = pagingSource.load(refresh()) as PagingSource.LoadResult.Page
+        // all fake statuses were created at the same time, so the order of the cached ones is not defined
+        assertEquals(setOf("3", "1"), cachedPage.data.mapTo(HashSet()) { status -> status.id })
+        assertEquals(0, cachedPage.nextKey)
+
+        val serverPage = pagingSource.load(append(cachedPage.nextKey!!)) as PagingSource.LoadResult.Page
+        assertEquals(listOf("4", "2"), serverPage.data.map { status -> status.id })
+        // the offset counts the duplicate the server returned as well
+        assertEquals(3, serverPage.nextKey)
+    }
+
+    @Test
+    fun `should show cached statuses offline`() = runTest {
+        ingester.replaceHomeTimelineRange(
+            account = account,
+            statuses = listOf(fakeStatus(id = "1")),
+            filterKind = Filter.Kind.HOME
+        )
+        val api: MastodonApi = mock {
+            onBlocking { search(anyOrNull(), anyOrNull(), anyOrNull(), anyOrNull(), anyOrNull(), anyOrNull()) } doReturn NetworkResult.failure(IOException())
+        }
+        val pagingSource = pagingSource(api)
+
+        val cachedPage = pagingSource.load(refresh()) as PagingSource.LoadResult.Page
+        assertEquals(listOf("1"), cachedPage.data.map { status -> status.id })
+
+        assertTrue(pagingSource.load(append(cachedPage.nextKey!!)) is PagingSource.LoadResult.Error)
+    }
+
+    @Test
+    fun `should load from the server when nothing is cached`() = runTest {
+        val api = serverApi(listOf(fakeStatus(id = "2")))
+
+        val page = pagingSource(api).load(refresh()) as PagingSource.LoadResult.Page
+
+        assertEquals(listOf("2"), page.data.map { status -> status.id })
+        assertNull(page.prevKey)
+    }
+
+    @Test
+    fun `benchmark the cached results of a search on a 50k status cache`() = runTest {
+        ingester.replaceHomeTimelineRange(
+            account = account,
+            statuses = listOf(fakeStatus(id = "1")),
+            filterKind = Filter.Kind.HOME
+        )
+        db.copyStatus(count = 50_000)
+        val api = serverApi(emptyList())
+
+        val queries = listOf("rare", "common", "rar", "copy 1000", "missing")
+        // the first queries of a database are slower while SQLite loads its pages
+        queries.forEach { query -> pagingSource(api, query).load(refresh()) }
+
+        val latenciesMillis = (1..10).flatMap {
+            queries.map { query ->
+                loadedStatuses.clear()
+                val start = System.nanoTime()
+                pagingSource(api, query).load(refresh())
+                (System.nanoTime() - start) / 1_000_000.0
+            }
+        }.sorted()
+
+        val median = latenciesMillis[latenciesMillis.size / 2]
+        val max = latenciesMillis.last()
+        println("search on 50k cached statuses: median $median ms, max $max ms")
+        // generous, the median is a few milliseconds on a real device
+        assertTrue("median search latency $median ms", median < 200)
+        assertTrue("max search latency $max ms", max < 2_000)
+    }
+
+    private fun pagingSource(api: MastodonApi, query: String = "test") = SearchPagingSource(
+        mastodonApi = api,
+        searchType = SearchType.Status,
+        searchRequest = query,
+        initialItems = null,
+        initialKey = 0,
+        cachedItems = { request ->
+            val results = db.timelineStatusDao().search(account.id, request, 20)
+            val emojis = db.customEmojiDao().getCustomEmojis(
+                tuskyAccountId = account.id,
+                accounts = results.map { (_, author) -> author },
+                statuses = results.map { (status, _) -> status }
+            )
+            results.map { (status, author) ->
+                status.toStatus(author, emojis)
+            }.also { statuses -> loadedStatuses.addAll(statuses) }
+        }
+    ) { result ->
+        val loadedIds = loadedStatuses.mapTo(HashSet()) { status -> status.id }
+        result.statuses.filterNot { status -> status.id in loadedIds }.also { statuses -> loadedStatuses.addAll(statuses) }
+    }
+
+    private fun serverApi(statuses: List<Status>): MastodonApi = mock {
+        onBlocking { search(anyOrNull(), anyOrNull(), anyOrNull(), anyOrNull(), anyOrNull(), anyOrNull()) } doAnswer { invocation ->
+            val limit = invocation.getArgument<Int?>(3) ?: 20
+            val offset = invocation.getArgument<Int?>(4) ?: 0
+            NetworkResult.success(SearchResult(emptyList(), statuses.drop(offset).take(limit), emptyList()))
+        }
+    }
+
+    private fun refresh() = PagingSource.LoadParams.Refresh<Int>(null, 20, false)
+
+    private fun append(key: Int) = PagingSource.LoadParams.Append(key, 20, false)
+}
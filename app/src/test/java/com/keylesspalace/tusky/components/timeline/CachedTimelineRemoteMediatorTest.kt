@@ -16,13 +16,18 @@ import com.keylesspalace.tusky.components.timeline.viewmodel.TimelineViewModel
 import com.keylesspalace.tusky.db.AccountManager
 import com.keylesspalace.tusky.db.AppDatabase
 import com.keylesspalace.tusky.db.Converters
+import com.keylesspalace.tusky.db.StatusBlobConverters
 import com.keylesspalace.tusky.db.entity.AccountEntity
 import com.keylesspalace.tusky.db.entity.HomeTimelineData
 import com.keylesspalace.tusky.di.NetworkModule
+import com.keylesspalace.tusky.entity.Status
+import com.keylesspalace.tusky.util.toSortKey
+import com.squareup.moshi.adapter
 import java.io.IOException
 import kotlinx.coroutines.ExperimentalCoroutinesApi
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.test.runTest
+import okhttp3.ResponseBody
 import okhttp3.ResponseBody.Companion.toResponseBody
 import org.junit.After
 import org.junit.Assert.assertEquals
@@ -42,11 +47,13 @@ import retrofit2.Response
 
 @Config(sdk = [34])
 @RunWith(AndroidJUnit4::class)
+@OptIn(ExperimentalStdlibApi::class)
 class CachedTimelineRemoteMediatorTest {
 
     private lateinit var db: AppDatabase
 
     private val moshi = NetworkModule.providesMoshi()
+    private val statusAdapter = moshi.adapter<Status>()
 
     @Before
     @ExperimentalCoroutinesApi
@@ -56,6 +63,7 @@ class CachedTimelineRemoteMediatorTest {
         val context = InstrumentationRegistry.getInstrumentation().targetContext
         db = Room.inMemoryDatabaseBuilder(context, AppDatabase::class.java)
             .addTypeConverter(Converters(moshi))
+            .addTypeConverter(StatusBlobConverters(moshi))
             .build()
     }
 
@@ -71,9 +79,10 @@ class CachedTimelineRemoteMediatorTest {
         val remoteMediator = CachedTimelineRemoteMediator(
             viewModel = mockViewModel(),
             api = mock {
-                onBlocking { homeTimeline(anyOrNull(), anyOrNull(), anyOrNull(), anyOrNull()) } doReturn Response.error(500, "".toResponseBody())
+                onBlocking { homeTimelineBody(anyOrNull(), anyOrNull(), anyOrNull(), anyOrNull()) } doReturn Response.error(500, "".toResponseBody())
             },
             db = db,
+            statusAdapter = statusAdapter,
         )
 
         val result = remoteMediator.load(LoadType.REFRESH, state())
@@ -83,15 +92,33 @@ class CachedTimelineRemoteMediatorTest {
         assertEquals(500, (result.throwable as HttpException).code())
     }
 
+    @Test
+    @ExperimentalPagingApi
+    fun `should only skip the initial refresh when the home timeline was synced in the background a moment ago`() = runTest {
+        val syncedAccounts = mutableSetOf<Long>()
+        val remoteMediator = CachedTimelineRemoteMediator(
+            viewModel = mockViewModel(),
+            api = mock(),
+            db = db,
+            statusAdapter = statusAdapter,
+            syncedRecently = { accountId -> accountId in syncedAccounts }
+        )
+
+        assertEquals(RemoteMediator.InitializeAction.LAUNCH_INITIAL_REFRESH, remoteMediator.initialize())
+        syncedAccounts.add(1)
+        assertEquals(RemoteMediator.InitializeAction.SKIP_INITIAL_REFRESH, remoteMediator.initialize())
+    }
+
     @Test
     @ExperimentalPagingApi
     fun `should return error when network call fails`() = runTest {
         val remoteMediator = CachedTimelineRemoteMediator(
             viewModel = mockViewModel(),
             api = mock {
-                onBlocking { homeTimeline(anyOrNull(), anyOrNull(), anyOrNull(), anyOrNull()) } doThrow IOException()
+                onBlocking { homeTimelineBody(anyOrNull(), anyOrNull(), anyOrNull(), anyOrNull()) } doThrow IOException()
             },
             db = db,
+            statusAdapter = statusAdapter,
         )
 
         val result = remoteMediator.load(LoadType.REFRESH, state())
@@ -107,6 +134,7 @@ class CachedTimelineRemoteMediatorTest {
             viewModel = mockViewModel(),
             api = mock(),
             db = db,
+            statusAdapter = statusAdapter,
         )
 
         val state = state(
@@ -116,7 +144,7 @@ class CachedTimelineRemoteMediatorTest {
                         fakeHomeTimelineData("3")
                     ),
                     prevKey = null,
-                    nextKey = 1
+                    nextKey = "3".toSortKey()
                 )
             )
         )
@@ -141,14 +169,14 @@ class CachedTimelineRemoteMediatorTest {
         val remoteMediator = CachedTimelineRemoteMediator(
             viewModel = mockViewModel(),
             api = mock {
-                onBlocking { homeTimeline(limit = 3) } doReturn Response.success(
+                onBlocking { homeTimelineBody(limit = 3) } doReturn statusesResponse(
                     listOf(
                         fakeStatus("8"),
                         fakeStatus("7"),
                         fakeStatus("5")
                     )
                 )
-                onBlocking { homeTimeline(maxId = "3", limit = 3) } doReturn Response.success(
+                onBlocking { homeTimelineBody(maxId = "3", limit = 3) } doReturn statusesResponse(
                     listOf(
                         fakeStatus("3"),
                         fakeStatus("2"),
@@ -157,6 +185,7 @@ class CachedTimelineRemoteMediatorTest {
                 )
             },
             db = db,
+            statusAdapter = statusAdapter,
         )
 
         val state = state(
@@ -164,7 +193,7 @@ class CachedTimelineRemoteMediatorTest {
                 PagingSource.LoadResult.Page(
                     data = statusesAlreadyInDb,
                     prevKey = null,
-                    nextKey = 0
+                    nextKey = statusesAlreadyInDb.last().id.toSortKey()
                 )
             ),
             pageSize = 3
@@ -201,14 +230,14 @@ class CachedTimelineRemoteMediatorTest {
         val remoteMediator = CachedTimelineRemoteMediator(
             viewModel = mockViewModel(),
             api = mock {
-                onBlocking { homeTimeline(limit = 20) } doReturn Response.success(
+                onBlocking { homeTimelineBody(limit = 20) } doReturn statusesResponse(
                     listOf(
                         fakeStatus("8"),
                         fakeStatus("7"),
                         fakeStatus("5")
                     )
                 )
-                onBlocking { homeTimeline(maxId = "3", limit = 20) } doReturn Response.success(
+                onBlocking { homeTimelineBody(maxId = "3", limit = 20) } doReturn statusesResponse(
                     listOf(
                         fakeStatus("3"),
                         fakeStatus("2"),
@@ -217,6 +246,7 @@ class CachedTimelineRemoteMediatorTest {
                 )
             },
             db = db,
+            statusAdapter = statusAdapter,
         )
 
         val state = state(
@@ -224,7 +254,7 @@ class CachedTimelineRemoteMediatorTest {
                 PagingSource.LoadResult.Page(
                     data = statusesAlreadyInDb,
                     prevKey = null,
-                    nextKey = 0
+                    nextKey = statusesAlreadyInDb.last().id.toSortKey()
                 )
             )
         )
@@ -260,14 +290,14 @@ class CachedTimelineRemoteMediatorTest {
         val remoteMediator = CachedTimelineRemoteMediator(
             viewModel = mockViewModel(),
             api = mock {
-                onBlocking { homeTimeline(limit = 3) } doReturn Response.success(
+                onBlocking { homeTimelineBody(limit = 3) } doReturn statusesResponse(
                     listOf(
                         fakeStatus("6"),
                         fakeStatus("4"),
                         fakeStatus("3")
                     )
                 )
-                onBlocking { homeTimeline(maxId = "3", limit = 3) } doReturn Response.success(
+                onBlocking { homeTimelineBody(maxId = "3", limit = 3) } doReturn statusesResponse(
                     listOf(
                         fakeStatus("3"),
                         fakeStatus("2"),
@@ -276,6 +306,7 @@ class CachedTimelineRemoteMediatorTest {
                 )
             },
             db = db,
+            statusAdapter = statusAdapter,
         )
 
         val state = state(
@@ -283,7 +314,7 @@ class CachedTimelineRemoteMediatorTest {
                 PagingSource.LoadResult.Page(
                     data = statusesAlreadyInDb,
                     prevKey = null,
-                    nextKey = 0
+                    nextKey = statusesAlreadyInDb.last().id.toSortKey()
                 )
             ),
             pageSize = 3
@@ -311,7 +342,7 @@ class CachedTimelineRemoteMediatorTest {
         val remoteMediator = CachedTimelineRemoteMediator(
             viewModel = mockViewModel(),
             api = mock {
-                onBlocking { homeTimeline(limit = 20) } doReturn Response.success(
+                onBlocking { homeTimelineBody(limit = 20) } doReturn statusesResponse(
                     listOf(
                         fakeStatus("5"),
                         fakeStatus("4"),
@@ -320,6 +351,7 @@ class CachedTimelineRemoteMediatorTest {
                 )
             },
             db = db,
+            statusAdapter = statusAdapter,
         )
 
         val state = state(
@@ -327,7 +359,7 @@ class CachedTimelineRemoteMediatorTest {
                 PagingSource.LoadResult.Page(
                     data = emptyList(),
                     prevKey = null,
-                    nextKey = 0
+                    nextKey = null
                 )
             )
         )
@@ -360,9 +392,9 @@ class CachedTimelineRemoteMediatorTest {
         val remoteMediator = CachedTimelineRemoteMediator(
             viewModel = mockViewModel(),
             api = mock {
-                onBlocking { homeTimeline(limit = 20) } doReturn Response.success(emptyList())
+                onBlocking { homeTimelineBody(limit = 20) } doReturn statusesResponse(emptyList())
 
-                onBlocking { homeTimeline(maxId = "3", limit = 20) } doReturn Response.success(
+                onBlocking { homeTimelineBody(maxId = "3", limit = 20) } doReturn statusesResponse(
                     listOf(
                         fakeStatus("3"),
                         fakeStatus("1")
@@ -370,6 +402,7 @@ class CachedTimelineRemoteMediatorTest {
                 )
             },
             db = db,
+            statusAdapter = statusAdapter,
         )
 
         val state = state(
@@ -377,7 +410,7 @@ class CachedTimelineRemoteMediatorTest {
                 PagingSource.LoadResult.Page(
                     data = statusesAlreadyInDb,
                     prevKey = null,
-                    nextKey = 0
+                    nextKey = statusesAlreadyInDb.last().id.toSortKey()
                 )
             )
         )
@@ -410,14 +443,14 @@ class CachedTimelineRemoteMediatorTest {
         val remoteMediator = CachedTimelineRemoteMediator(
             viewModel = mockViewModel(),
             api = mock {
-                onBlocking { homeTimeline(sinceId = "6", limit = 20) } doReturn Response.success(
+                onBlocking { homeTimelineBody(sinceId = "6", limit = 20) } doReturn statusesResponse(
                     listOf(
                         fakeStatus("9"),
                         fakeStatus("8"),
                         fakeStatus("7")
                     )
                 )
-                onBlocking { homeTimeline(maxId = "8", sinceId = "6", limit = 20) } doReturn Response.success(
+                onBlocking { homeTimelineBody(maxId = "8", sinceId = "6", limit = 20) } doReturn statusesResponse(
                     listOf(
                         fakeStatus("8"),
                         fakeStatus("7")
@@ -425,6 +458,7 @@ class CachedTimelineRemoteMediatorTest {
                 )
             },
             db = db,
+            statusAdapter = statusAdapter,
         )
 
         val state = state(
@@ -432,7 +466,7 @@ class CachedTimelineRemoteMediatorTest {
                 PagingSource.LoadResult.Page(
                     data = statusesAlreadyInDb,
                     prevKey = null,
-                    nextKey = 0
+                    nextKey = statusesAlreadyInDb.last().id.toSortKey()
                 )
             )
         )
@@ -467,7 +501,7 @@ class CachedTimelineRemoteMediatorTest {
         val remoteMediator = CachedTimelineRemoteMediator(
             viewModel = mockViewModel(),
             api = mock {
-                onBlocking { homeTimeline(maxId = "5", limit = 20) } doReturn Response.success(
+                onBlocking { homeTimelineBody(maxId = "5", limit = 20) } doReturn statusesResponse(
                     listOf(
                         fakeStatus("3"),
                         fakeStatus("2"),
@@ -476,6 +510,7 @@ class CachedTimelineRemoteMediatorTest {
                 )
             },
             db = db,
+            statusAdapter = statusAdapter,
         )
 
         val state = state(
@@ -483,7 +518,7 @@ class CachedTimelineRemoteMediatorTest {
                 PagingSource.LoadResult.Page(
                     data = statusesAlreadyInDb,
                     prevKey = null,
-                    nextKey = 0
+                    nextKey = statusesAlreadyInDb.last().id.toSortKey()
                 )
             )
         )
@@ -504,8 +539,12 @@ class CachedTimelineRemoteMediatorTest {
         )
     }
 
+    private fun statusesResponse(statuses: List<Status>): Response<ResponseBody> {
+        return Response.success(moshi.adapter<List<Status>>().toJson(statuses).toResponseBody())
+    }
+
     private fun state(
-        pages: List<PagingSource.LoadResult.Page<Int, HomeTimelineData>> = emptyList(),
+        pages: List<PagingSource.LoadResult.Page<String, HomeTimelineData>> = emptyList(),
         pageSize: Int = 20
     ) = PagingState(
         pages = pages,
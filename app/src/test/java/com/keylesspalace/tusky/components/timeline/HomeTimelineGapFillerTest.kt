@@ -0,0 +1,172 @@
+package com.keylesspalace.tusky.components.timeline
+
+import androidx.paging.PagingSource
+import androidx.room.Room
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.keylesspalace.tusky.db.AppDatabase
+import com.keylesspalace.tusky.db.Converters
+import com.keylesspalace.tusky.db.StalePlaceholders
+import com.keylesspalace.tusky.db.StatusBlobConverters
+import com.keylesspalace.tusky.db.entity.AccountEntity
+import com.keylesspalace.tusky.db.entity.HomeTimelineData
+import com.keylesspalace.tusky.db.sharedCache
+import com.keylesspalace.tusky.di.NetworkModule
+import com.keylesspalace.tusky.entity.Status
+import com.keylesspalace.tusky.network.ApiProvider
+import com.keylesspalace.tusky.network.MastodonApi
+import com.squareup.moshi.adapter
+import kotlinx.coroutines.test.runTest
+import okhttp3.ResponseBody
+import okhttp3.ResponseBody.Companion.toResponseBody
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.kotlin.anyOrNull
+import org.mockito.kotlin.doAnswer
+import org.mockito.kotlin.doReturn
+import org.mockito.kotlin.mock
+import org.robolectric.annotation.Config
+import retrofit2.Response
+
+@Config(sdk = [34])
+@RunWith(AndroidJUnit4::class)
+@OptIn(ExperimentalStdlibApi::class)
+class HomeTimelineGapFillerTest {
+    private lateinit var db: AppDatabase
+
+    private val context = InstrumentationRegistry.getInstrumentation().targetContext
+    private val moshi = NetworkModule.providesMoshi()
+
+    private val account = AccountEntity(
+        id = 1,
+        domain = "mastodon.example",
+        accessToken = "token",
+        clientId = "id",
+        clientSecret = "secret",
+        isActive = true
+    )
+
+    /** the home timeline on the server */
+    private val serverTimeline = (200 downTo 100).map { id -> fakeStatus(id = id.toString()) }
+
+    @Before
+    fun createDb() {
+        db = Room.inMemoryDatabaseBuilder(context, AppDatabase::class.java)
+            .addTypeConverter(Converters(moshi))
+            .addTypeConverter(StatusBlobConverters(moshi))
+            .allowMainThreadQueries()
+            .build()
+    }
+
+    @After
+    fun closeDb() {
+        db.close()
+    }
+
+    @Test
+    fun `should fill a small gap with one page`() = runTest {
+        db.insert(listOf(fakeHomeTimelineData(id = "200"), fakePlaceholderHomeTimelineData(id = "190"), fakeHomeTimelineData(id = "185")))
+        val api = serverApi()
+
+        assertTrue(gapFiller(api).fill(account))
+
+        assertEquals((200 downTo 185).map(Int::toString), loadHomeTimeline().map { item -> item.id })
+        assertTrue(loadHomeTimeline().all { item -> item.status != null })
+    }
+
+    @Test
+    fun `should fill a gap that is bigger than a page page by page`() = runTest {
+        db.insert(listOf(fakeHomeTimelineData(id = "200"), fakePlaceholderHomeTimelineData(id = "199"), fakeHomeTimelineData(id = "100")))
+        val api = serverApi()
+
+        assertTrue(gapFiller(api).fill(account))
+
+        val homeTimeline = loadHomeTimeline()
+        assertEquals((200 downTo 100).map(Int::toString), homeTimeline.map { item -> item.id })
+        assertTrue(homeTimeline.all { item -> item.status != null })
+    }
+
+    @Test
+    fun `should fill several gaps and leave placeholders that are being loaded alone`() = runTest {
+        db.insert(
+            listOf(
+                fakeHomeTimelineData(id = "200"),
+                fakePlaceholderHomeTimelineData(id = "195"),
+                fakeHomeTimelineData(id = "190"),
+                fakePlaceholderHomeTimelineData(id = "180"),
+                fakeHomeTimelineData(id = "170"),
+                fakePlaceholderHomeTimelineData(id = "160"),
+                fakeHomeTimelineData(id = "150")
+            )
+        )
+        db.timelineDao().claimPlaceholder(1, "160")
+        val api = serverApi()
+
+        assertTrue(gapFiller(api).fill(account))
+
+        val homeTimeline = loadHomeTimeline()
+        assertEquals((200 downTo 170).map(Int::toString) + listOf("160", "150"), homeTimeline.map { item -> item.id })
+        assertNull(homeTimeline.single { item -> item.id == "160" }.status)
+    }
+
+    @Test
+    fun `should keep the placeholder when loading fails`() = runTest {
+        db.insert(listOf(fakeHomeTimelineData(id = "200"), fakePlaceholderHomeTimelineData(id = "190"), fakeHomeTimelineData(id = "185")))
+        val api: MastodonApi = mock {
+            onBlocking { homeTimelineBody(anyOrNull(), anyOrNull(), anyOrNull(), anyOrNull()) } doReturn Response.error(
+                503,
+                "".toResponseBody()
+            )
+        }
+
+        assertFalse(gapFiller(api).fill(account))
+
+        val placeholder = loadHomeTimeline().single { item -> item.id == "190" }
+        assertNull(placeholder.status)
+        assertFalse(placeholder.loading)
+        assertEquals(listOf("190"), db.timelineDao().getIdlePlaceholderIds(1))
+    }
+
+    @Test
+    fun `should fill gaps whose loading was interrupted when the database is opened again`() = runTest {
+        db.insert(listOf(fakeHomeTimelineData(id = "200"), fakePlaceholderHomeTimelineData(id = "190"), fakeHomeTimelineData(id = "185")))
+        // the process died while the placeholder was loading
+        db.timelineDao().claimPlaceholder(1, "190")
+        assertEquals(emptyList<String>(), db.timelineDao().getIdlePlaceholderIds(1))
+
+        StalePlaceholders.onOpen(db.openHelper.writableDatabase)
+
+        assertEquals(listOf("190"), db.timelineDao().getIdlePlaceholderIds(1))
+        assertTrue(gapFiller(serverApi()).fill(account))
+        assertEquals((200 downTo 185).map(Int::toString), loadHomeTimeline().map { item -> item.id })
+    }
+
+    /** Answers requests for the home timeline from [serverTimeline] like a Mastodon server. */
+    private fun serverApi(): MastodonApi = mock {
+        onBlocking { homeTimelineBody(anyOrNull(), anyOrNull(), anyOrNull(), anyOrNull()) } doAnswer { invocation ->
+            val maxId = invocation.getArgument<String?>(0)?.toInt() ?: Int.MAX_VALUE
+            val sinceId = invocation.getArgument<String?>(2)?.toInt() ?: 0
+            val limit = invocation.getArgument<Int?>(3) ?: 20
+            val page = serverTimeline.filter { status -> status.id.toInt() in (sinceId + 1) until maxId }.take(limit)
+            Response.success<ResponseBody>(moshi.adapter<List<Status>>().toJson(page).toResponseBody())
+        }
+    }
+
+    private fun gapFiller(api: MastodonApi): HomeTimelineGapFiller {
+        val apiProvider: ApiProvider = mock {
+            on { mastodonApi(anyOrNull()) } doReturn api
+        }
+        return HomeTimelineGapFiller(context, apiProvider, db.sharedCache(), preferences = mock(), moshi = moshi)
+    }
+
+    private suspend fun loadHomeTimeline(): List<HomeTimelineData> {
+        val page = db.timelineDao().getHomeTimeline(1).load(PagingSource.LoadParams.Refresh(null, 200, false))
+        return (page as PagingSource.LoadResult.Page).data
+    }
+}
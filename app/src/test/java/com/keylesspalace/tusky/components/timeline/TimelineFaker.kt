@@ -5,6 +5,7 @@ import androidx.room.withTransaction
 import com.keylesspalace.tusky.db.AppDatabase
 import com.keylesspalace.tusky.db.entity.HomeTimelineData
 import com.keylesspalace.tusky.db.entity.HomeTimelineEntity
+import com.keylesspalace.tusky.db.entity.accountDomain
 import com.keylesspalace.tusky.entity.Status
 import com.keylesspalace.tusky.entity.TimelineAccount
 import com.keylesspalace.tusky.viewdata.StatusViewData
@@ -152,21 +153,23 @@ fun fakePlaceholderHomeTimelineData(
 suspend fun AppDatabase.insert(timelineItems: List<HomeTimelineData>, tuskyAccountId: Long = 1) = withTransaction {
     timelineItems.forEach { timelineItem ->
         timelineItem.account?.let { account ->
-            timelineAccountDao().insert(account)
+            timelineAccountDao().upsert(account)
         }
         timelineItem.reblogAccount?.let { account ->
-            timelineAccountDao().insert(account)
+            timelineAccountDao().upsert(account)
         }
         timelineItem.status?.let { status ->
-            timelineStatusDao().insert(status)
+            timelineStatusDao().upsertAll(listOf(status))
         }
-        timelineDao().insertHomeTimelineItem(
+        timelineDao().upsertHomeTimelineItem(
             HomeTimelineEntity(
                 tuskyAccountId = tuskyAccountId,
                 id = timelineItem.id,
                 statusId = timelineItem.status?.serverId,
                 reblogAccountId = timelineItem.reblogAccount?.serverId,
-                loading = timelineItem.loading
+                loading = timelineItem.loading,
+                authorId = timelineItem.account?.serverId,
+                authorDomain = timelineItem.account?.username?.let(::accountDomain)
             )
         )
     }
@@ -190,3 +193,34 @@ suspend fun AppDatabase.assertTimeline(
         assertEquals(exp.reblogAccount, prov.reblogAccount)
     }
 }
+
+/**
+ * Fills the cache with [count] copies of the status with id "1", each in the home timeline.
+ * Every thousandth copy contains the word "rare", all others the word "common".
+ */
+fun AppDatabase.copyStatus(count: Int) {
+    val database = openHelper.writableDatabase
+    database.beginTransaction()
+    try {
+        database.execSQL("CREATE TEMP TABLE copies AS SELECT * FROM TimelineStatusEntity WHERE serverId = '1'")
+        var rows = 1
+        while (rows < count) {
+            database.execSQL("INSERT INTO copies SELECT * FROM copies")
+            rows *= 2
+        }
+        database.execSQL("DELETE FROM copies WHERE rowid > $count")
+        database.execSQL(
+            """UPDATE copies SET serverId = CAST(rowid + 1 AS TEXT),
+            searchText = 'copy ' || rowid || CASE WHEN (rowid + 1) % 1000 = 0 THEN ' rare' ELSE ' common' END"""
+        )
+        database.execSQL("INSERT INTO TimelineStatusEntity SELECT * FROM copies")
+        database.execSQL(
+            """INSERT INTO HomeTimelineEntity (tuskyAccountId, id, statusId, loading, sortKey)
+            SELECT tuskyAccountId, serverId, serverId, 0, printf('%032d', rowid + 1) FROM copies"""
+        )
+        database.execSQL("DROP TABLE copies")
+        database.setTransactionSuccessful()
+    } finally {
+        database.endTransaction()
+    }
+}
@@ -0,0 +1,149 @@
+package com.keylesspalace.tusky.components.timeline
+
+import android.content.Context
+import android.content.SharedPreferences
+import androidx.room.Room
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.keylesspalace.tusky.appstore.StreamingCacheUpdater
+import com.keylesspalace.tusky.db.AppDatabase
+import com.keylesspalace.tusky.db.Converters
+import com.keylesspalace.tusky.db.StatusBlobConverters
+import com.keylesspalace.tusky.db.entity.AccountEntity
+import com.keylesspalace.tusky.db.entity.HomeTimelineData
+import com.keylesspalace.tusky.db.sharedCache
+import com.keylesspalace.tusky.di.NetworkModule
+import com.keylesspalace.tusky.entity.Attachment
+import java.util.concurrent.ExecutionException
+import kotlinx.coroutines.test.runTest
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.kotlin.any
+import org.mockito.kotlin.doAnswer
+import org.mockito.kotlin.doReturn
+import org.mockito.kotlin.eq
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.verify
+import org.robolectric.annotation.Config
+
+@Config(sdk = [34])
+@RunWith(AndroidJUnit4::class)
+class TimelineSyncTest {
+    private lateinit var db: AppDatabase
+    private lateinit var preferences: SharedPreferences
+
+    private val moshi = NetworkModule.providesMoshi()
+
+    private val account = AccountEntity(
+        id = 1,
+        domain = "mastodon.example",
+        accessToken = "token",
+        clientId = "id",
+        clientSecret = "secret",
+        isActive = true
+    )
+
+    @Before
+    fun createDb() {
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        db = Room.inMemoryDatabaseBuilder(context, AppDatabase::class.java)
+            .addTypeConverter(Converters(moshi))
+            .addTypeConverter(StatusBlobConverters(moshi))
+            .allowMainThreadQueries()
+            .build()
+        preferences = context.getSharedPreferences("TimelineSyncTest", Context.MODE_PRIVATE)
+    }
+
+    @After
+    fun closeDb() {
+        db.close()
+    }
+
+    @Test
+    fun `should collect the avatars and the previews the timeline shows right away`() = runTest {
+        db.insert(
+            listOf(
+                itemWithAttachment(id = "4", domain = "a.example", sensitive = false),
+                itemWithAttachment(id = "3", domain = "b.example", sensitive = true),
+                fakePlaceholderHomeTimelineData(id = "2"),
+                itemWithAttachment(id = "1", domain = "a.example", sensitive = false)
+            )
+        )
+        val sync = TimelineSync(mock(), db.sharedCache(), preferences) { }
+
+        assertEquals(
+            listOf(avatar("a.example"), preview("4"), avatar("b.example"), preview("1")),
+            sync.imageUrls(account)
+        )
+        assertEquals(
+            listOf(avatar("a.example"), preview("4"), avatar("b.example"), preview("3"), preview("1")),
+            sync.imageUrls(account.copy(alwaysShowSensitiveMedia = true))
+        )
+        assertEquals(
+            listOf(avatar("a.example"), avatar("b.example")),
+            sync.imageUrls(account.copy(mediaPreviewEnabled = false))
+        )
+    }
+
+    @Test
+    fun `should catch up and download every image even if some fail`() = runTest {
+        db.insert(listOf(itemWithAttachment(id = "2", domain = "a.example", sensitive = false)))
+        val streamingCacheUpdater: StreamingCacheUpdater = mock {
+            onBlocking { catchUp(eq(account), any()) } doReturn true
+        }
+        val downloaded = mutableListOf<String>()
+        val sync = TimelineSync(streamingCacheUpdater, db.sharedCache(), preferences) { url ->
+            downloaded.add(url)
+            if (url == avatar("a.example")) {
+                throw ExecutionException(RuntimeException("not found"))
+            }
+        }
+
+        sync.sync(account)
+
+        verify(streamingCacheUpdater).catchUp(eq(account), any())
+        assertEquals(listOf(avatar("a.example"), preview("2")), downloaded)
+    }
+
+    @Test
+    fun `should only skip refreshing the home timeline for a while after a successful sync`() = runTest {
+        var now = 1_000_000L
+        var succeeds = false
+        val streamingCacheUpdater: StreamingCacheUpdater = mock {
+            onBlocking { catchUp(eq(account), any()) } doAnswer { succeeds }
+        }
+        val sync = TimelineSync(streamingCacheUpdater, db.sharedCache(), preferences, clock = { now }) { }
+
+        sync.sync(account)
+        assertFalse(sync.syncedRecently(account.id))
+
+        succeeds = true
+        sync.sync(account)
+        now += 60_000
+        assertTrue(sync.syncedRecently(account.id))
+        assertFalse(sync.syncedRecently(2))
+
+        now += 60 * 60_000
+        assertFalse(sync.syncedRecently(account.id))
+    }
+
+    private fun itemWithAttachment(id: String, domain: String, sensitive: Boolean): HomeTimelineData {
+        val status = fakeStatus(id = id, authorServerId = domain, domain = domain).copy(
+            sensitive = sensitive,
+            attachments = listOf(Attachment(id = id, url = "https://$domain/$id.png", previewUrl = preview(id), type = Attachment.Type.IMAGE))
+        )
+        return fakeHomeTimelineData(id = id).copy(
+            status = status.toEntity(tuskyAccountId = 1, expanded = false, contentShowing = false, contentCollapsed = true),
+            account = status.account.toEntity(tuskyAccountId = 1)
+        )
+    }
+
+    private fun avatar(domain: String) = "https://$domain/system/accounts/avatars/000/150/486/original/ab27d7ddd18a10ea.jpg"
+
+    private fun preview(id: String) = "https://files.example/$id-small.png"
+}
@@ -0,0 +1,50 @@
+package com.keylesspalace.tusky.components.timeline
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.keylesspalace.tusky.components.timeline.util.ViewDataCache
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.annotation.Config
+
+@Config(sdk = [34])
+@RunWith(AndroidJUnit4::class)
+class ViewDataCacheTest {
+
+    @Test
+    fun `only items whose inputs changed are mapped again`() {
+        val cache = ViewDataCache<String>()
+        val items = listOf(fakeHomeTimelineData(id = "2"), fakeHomeTimelineData(id = "1"))
+        var mapped = 0
+        fun map(viewStates: Map<String, Boolean>) = items.map { item ->
+            val viewState = viewStates[item.id]
+            cache.getOrPut(item.id, item, viewState) {
+                mapped++
+                "${item.id}:$viewState"
+            }
+        }
+
+        val first = map(emptyMap())
+        val second = map(mapOf("1" to true))
+
+        assertEquals(listOf("2:null", "1:true"), second)
+        assertSame(first[0], second[0])
+        assertEquals(3, mapped)
+    }
+
+    @Test
+    fun `items that were loaded again are mapped again`() {
+        val cache = ViewDataCache<String>()
+        var mapped = 0
+
+        for (item in listOf(fakeHomeTimelineData(id = "1"), fakeHomeTimelineData(id = "1"))) {
+            cache.getOrPut(item.id, item) {
+                mapped++
+                item.id
+            }
+        }
+
+        assertEquals(2, mapped)
+    }
+}
@@ -14,7 +14,9 @@ import com.keylesspalace.tusky.components.timeline.fakeStatusViewData
 import com.keylesspalace.tusky.db.AccountManager
 import com.keylesspalace.tusky.db.AppDatabase
 import com.keylesspalace.tusky.db.Converters
+import com.keylesspalace.tusky.db.StatusBlobConverters
 import com.keylesspalace.tusky.db.entity.AccountEntity
+import com.keylesspalace.tusky.db.sharedCache
 import com.keylesspalace.tusky.di.NetworkModule
 import com.keylesspalace.tusky.entity.StatusContext
 import com.keylesspalace.tusky.network.FilterModel
@@ -87,7 +89,7 @@ class ViewThreadViewModelTest {
         }
         eventHub = EventHub()
         val filterModel = FilterModel(instanceInfoRepo, api)
-        val timelineCases = TimelineCases(api, eventHub)
+        val timelineCases = TimelineCases(api, eventHub, mock())
         val accountManager: AccountManager = mock {
             on { activeAccount } doReturn AccountEntity(
                 id = 1,
@@ -101,10 +103,11 @@ class ViewThreadViewModelTest {
         val context = InstrumentationRegistry.getInstrumentation().targetContext
         db = Room.inMemoryDatabaseBuilder(context, AppDatabase::class.java)
             .addTypeConverter(Converters(moshi))
+            .addTypeConverter(StatusBlobConverters(moshi))
             .allowMainThreadQueries()
             .build()
 
-        viewModel = ViewThreadViewModel(api, filterModel, timelineCases, db, eventHub, accountManager)
+        viewModel = ViewThreadViewModel(api, filterModel, timelineCases, db.sharedCache(), eventHub, accountManager)
     }
 
     @After
@@ -0,0 +1,121 @@
+package com.keylesspalace.tusky.db
+
+import androidx.room.Room
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.keylesspalace.tusky.components.notifications.fakeNotification
+import com.keylesspalace.tusky.components.notifications.insert
+import com.keylesspalace.tusky.components.timeline.assertTimeline
+import com.keylesspalace.tusky.components.timeline.fakeHomeTimelineData
+import com.keylesspalace.tusky.components.timeline.insert
+import com.keylesspalace.tusky.db.entity.NotificationPolicyEntity
+import com.keylesspalace.tusky.di.NetworkModule
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.test.runTest
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.annotation.Config
+
+@Config(sdk = [34])
+@RunWith(AndroidJUnit4::class)
+class CacheDatabasesTest {
+    private lateinit var db: AppDatabase
+    private lateinit var cacheDatabases: CacheDatabases
+
+    private val context = InstrumentationRegistry.getInstrumentation().targetContext
+    private val moshi = NetworkModule.providesMoshi()
+
+    @Before
+    fun createDb() {
+        db = Room.inMemoryDatabaseBuilder(context, AppDatabase::class.java)
+            .addTypeConverter(Converters(moshi))
+            .addTypeConverter(StatusBlobConverters(moshi))
+            .allowMainThreadQueries()
+            .build()
+        cacheDatabases = CacheDatabases(context, db, perAccount = true) { name ->
+            Room.databaseBuilder(context, AppDatabase::class.java, name)
+                .addTypeConverter(Converters(moshi))
+                .addTypeConverter(StatusBlobConverters(moshi))
+                .allowMainThreadQueries()
+        }
+    }
+
+    @After
+    fun closeDb() {
+        cacheDatabases.delete(1)
+        cacheDatabases.delete(2)
+        db.close()
+    }
+
+    @Test
+    fun `should move the cache of an account into its own database file`() = runTest {
+        db.insert(listOf(fakeHomeTimelineData(id = "2"), fakeHomeTimelineData(id = "1")), tuskyAccountId = 1)
+        db.insert(listOf(fakeHomeTimelineData(id = "3", tuskyAccountId = 2)), tuskyAccountId = 2)
+        db.insert(listOf(fakeNotification(id = "5")), tuskyAccountId = 1)
+        db.notificationPolicyDao().update(NotificationPolicyEntity(tuskyAccountId = 1, pendingRequestsCount = 1, pendingNotificationsCount = 2))
+
+        val accountDb = cacheDatabases.forAccount(1)
+        assertNotSame(db, accountDb)
+        assertSame(accountDb, cacheDatabases.forAccount(1))
+
+        accountDb.assertTimeline(listOf(fakeHomeTimelineData(id = "2"), fakeHomeTimelineData(id = "1")))
+        assertEquals(1, accountDb.notificationsDao().getNotificationCount(1))
+        assertEquals(2, accountDb.notificationPolicyDao().notificationPolicyForAccount(1).first()?.pendingNotificationsCount)
+        // the search index of the new file is filled as well
+        assertEquals(2, accountDb.timelineStatusDao().search(1, "test", 10).size)
+
+        // moved rows are gone from the main database, the cache of other accounts stays
+        db.assertTimeline(emptyList())
+        assertEquals(0, db.notificationsDao().getNotificationCount(1))
+        assertNull(db.notificationPolicyDao().notificationPolicyForAccount(1).first())
+        db.assertTimeline(listOf(fakeHomeTimelineData(id = "3", tuskyAccountId = 2)), tuskyAccountId = 2)
+    }
+
+    @Test
+    fun `logging out should delete the database file of the account`() = runTest {
+        db.insert(listOf(fakeHomeTimelineData(id = "1")), tuskyAccountId = 1)
+        val accountDb = cacheDatabases.forAccount(1)
+        accountDb.assertTimeline(listOf(fakeHomeTimelineData(id = "1")))
+        assertTrue(context.getDatabasePath("tuskyDB_account_1").exists())
+
+        DatabaseCleaner(cacheDatabases).cleanupEverything(tuskyAccountId = 1)
+
+        // the database is closed before its file is deleted
+        assertFalse(accountDb.isOpen)
+        assertFalse(context.getDatabasePath("tuskyDB_account_1").exists())
+        // logging in again starts with an empty cache
+        assertNotSame(accountDb, cacheDatabases.forAccount(1))
+        cacheDatabases.forAccount(1).assertTimeline(emptyList())
+    }
+
+    @Test
+    fun `should delete database files that are not used anymore`() = runTest {
+        cacheDatabases.forAccount(1).assertTimeline(emptyList())
+        cacheDatabases.forAccount(2).assertTimeline(emptyList())
+
+        assertEquals(1, cacheDatabases.deleteUnused(listOf(1L)))
+        assertTrue(context.getDatabasePath("tuskyDB_account_1").exists())
+        assertFalse(context.getDatabasePath("tuskyDB_account_2").exists())
+
+        // all files are unused once the setting has been turned off
+        assertEquals(1, db.sharedCache().deleteUnused(listOf(1L)))
+        assertFalse(context.getDatabasePath("tuskyDB_account_1").exists())
+    }
+}
+
+/** [CacheDatabases] that store the cache of all accounts in this database, the default. */
+fun AppDatabase.sharedCache() = CacheDatabases(
+    context = InstrumentationRegistry.getInstrumentation().targetContext,
+    mainDatabase = this,
+    perAccount = false
+) { name ->
+    throw IllegalStateException("the cache is shared, $name should not be opened")
+}
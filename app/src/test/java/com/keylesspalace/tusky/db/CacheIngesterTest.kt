@@ -0,0 +1,412 @@
+package com.keylesspalace.tusky.db
+
+import androidx.paging.PagingSource
+import androidx.room.Room
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.keylesspalace.tusky.components.notifications.assertNotifications
+import com.keylesspalace.tusky.components.notifications.fakeNotification
+import com.keylesspalace.tusky.components.notifications.toNotificationDataEntity
+import com.keylesspalace.tusky.components.timeline.assertTimeline
+import com.keylesspalace.tusky.components.timeline.fakeAccount
+import com.keylesspalace.tusky.components.timeline.fakeHomeTimelineData
+import com.keylesspalace.tusky.components.timeline.fakeStatus
+import com.keylesspalace.tusky.components.timeline.insert
+import com.keylesspalace.tusky.components.timeline.toViewData
+import com.keylesspalace.tusky.db.entity.AccountEntity
+import com.keylesspalace.tusky.db.entity.HomeTimelineData
+import com.keylesspalace.tusky.db.entity.StatusLocalState
+import com.keylesspalace.tusky.db.entity.toEmoji
+import com.keylesspalace.tusky.di.NetworkModule
+import com.keylesspalace.tusky.entity.Emoji
+import com.keylesspalace.tusky.entity.Filter
+import com.keylesspalace.tusky.entity.Status
+import com.keylesspalace.tusky.viewdata.StatusViewData
+import com.squareup.moshi.JsonAdapter
+import com.squareup.moshi.JsonReader
+import com.squareup.moshi.JsonWriter
+import com.squareup.moshi.adapter
+import java.io.IOException
+import kotlinx.coroutines.test.runTest
+import okio.Buffer
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.annotation.Config
+
+@Config(sdk = [34])
+@RunWith(AndroidJUnit4::class)
+@OptIn(ExperimentalStdlibApi::class)
+class CacheIngesterTest {
+    private lateinit var db: AppDatabase
+    private lateinit var ingester: CacheIngester
+
+    private val moshi = NetworkModule.providesMoshi()
+    private val statusAdapter = moshi.adapter<Status>()
+
+    private val account = AccountEntity(
+        id = 1,
+        domain = "mastodon.example",
+        accessToken = "token",
+        clientId = "id",
+        clientSecret = "secret",
+        isActive = true
+    )
+
+    @Before
+    fun createDb() {
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        db = Room.inMemoryDatabaseBuilder(context, AppDatabase::class.java)
+            .addTypeConverter(Converters(moshi))
+            .addTypeConverter(StatusBlobConverters(moshi))
+            .allowMainThreadQueries()
+            .build()
+        ingester = CacheIngester(db)
+    }
+
+    @After
+    fun closeDb() {
+        db.close()
+    }
+
+    @Test
+    fun `should write a page with accounts that occur multiple times`() = runTest {
+        val overlapped = ingester.replaceHomeTimelineRange(
+            account = account,
+            statuses = listOf(
+                fakeStatus(id = "5", authorServerId = "1"),
+                fakeStatus(id = "4", authorServerId = "1"),
+                fakeStatus(id = "3", authorServerId = "2", reblog = fakeStatus(id = "2", authorServerId = "1"))
+            ),
+            filterKind = Filter.Kind.HOME
+        ).overlapped
+
+        assertEquals(0, overlapped)
+        db.assertTimeline(
+            listOf(
+                fakeHomeTimelineData(id = "5", authorServerId = "1"),
+                fakeHomeTimelineData(id = "4", authorServerId = "1"),
+                fakeHomeTimelineData(id = "3", statusId = "2", authorServerId = "1", reblogAuthorServerId = "2")
+            )
+        )
+    }
+
+    @Test
+    fun `should keep local state of cached statuses`() = runTest {
+        db.insert(
+            listOf(
+                fakeHomeTimelineData(id = "3", expanded = true),
+                fakeHomeTimelineData(id = "2"),
+                fakeHomeTimelineData(id = "1")
+            )
+        )
+
+        val overlapped = ingester.replaceHomeTimelineRange(
+            account = account,
+            statuses = listOf(fakeStatus(id = "3"), fakeStatus(id = "1")),
+            filterKind = Filter.Kind.HOME,
+            localState = mapOf(
+                "1" to StatusLocalState(serverId = "1", expanded = true, contentShowing = false, contentCollapsed = true)
+            )
+        ).overlapped
+
+        assertEquals(3, overlapped)
+        db.assertTimeline(
+            listOf(
+                fakeHomeTimelineData(id = "3", expanded = true),
+                fakeHomeTimelineData(id = "1", expanded = true)
+            )
+        )
+    }
+
+    @Test
+    fun `should write a page of notifications`() = runTest {
+        val overlapped = ingester.replaceNotificationRange(
+            account = account,
+            notifications = listOf(
+                fakeNotification(id = "3"),
+                fakeNotification(id = "2"),
+                fakeNotification(id = "1")
+            )
+        ).overlapped
+
+        assertEquals(0, overlapped)
+        db.assertNotifications(
+            listOf(
+                fakeNotification(id = "3").toNotificationDataEntity(1),
+                fakeNotification(id = "2").toNotificationDataEntity(1),
+                fakeNotification(id = "1").toNotificationDataEntity(1)
+            )
+        )
+    }
+
+    @Test
+    fun `should store custom emojis once per domain`() = runTest {
+        val localEmoji = Emoji(
+            shortcode = "blobcat",
+            url = "https://mastodon.example/emojis/blobcat.png",
+            staticUrl = "https://mastodon.example/emojis/blobcat_static.png",
+            category = null
+        )
+        // same shortcode, but a different emoji from another instance
+        val remoteEmoji = Emoji(
+            shortcode = "blobcat",
+            url = "https://mastodon.example/cache/remote_blobcat.png",
+            staticUrl = "https://mastodon.example/cache/remote_blobcat_static.png",
+            category = null
+        )
+        val localAuthor = fakeAccount(id = "1").copy(username = "local", emojis = listOf(localEmoji))
+        val remoteAuthor = fakeAccount(id = "2").copy(username = "remote@remote.example", emojis = listOf(remoteEmoji))
+
+        ingester.replaceHomeTimelineRange(
+            account = account,
+            statuses = listOf(
+                fakeStatus(id = "3").copy(account = localAuthor, emojis = listOf(localEmoji)),
+                fakeStatus(id = "2").copy(account = remoteAuthor, emojis = listOf(remoteEmoji)),
+                fakeStatus(id = "1").copy(account = localAuthor, emojis = listOf(localEmoji))
+            ),
+            filterKind = Filter.Kind.HOME
+        )
+
+        assertEquals(1, db.customEmojiDao().getEmojisOfDomain(1, "", listOf("blobcat")).size)
+        assertEquals(1, db.customEmojiDao().getEmojisOfDomain(1, "remote.example", listOf("blobcat")).size)
+
+        val loadResult = db.timelineDao().getHomeTimeline(1).load(PagingSource.LoadParams.Refresh(null, 10, false))
+        val timeline = (loadResult as PagingSource.LoadResult.Page).data.map { timelineData ->
+            timelineData.toViewData(timelineData.emojis) as StatusViewData.Concrete
+        }
+
+        assertEquals(listOf(localEmoji), timeline[0].status.emojis)
+        assertEquals(listOf(localEmoji), timeline[0].status.account.emojis)
+        assertEquals(listOf(remoteEmoji), timeline[1].status.emojis)
+        assertEquals(listOf(remoteEmoji), timeline[1].status.account.emojis)
+    }
+
+    @Test
+    fun `should keep the emojis of the instance apart from the emojis of its accounts`() = runTest {
+        val authorEmoji = Emoji(shortcode = "blobcat", url = "https://mastodon.example/blobcat.png", staticUrl = "https://mastodon.example/blobcat.png", category = null)
+        val pickerEmoji = Emoji(shortcode = "blobfox", url = "https://mastodon.example/blobfox.png", staticUrl = "https://mastodon.example/blobfox.png", category = null)
+        val localAuthor = fakeAccount(id = "1").copy(username = "local", emojis = listOf(authorEmoji))
+        ingester.replaceHomeTimelineRange(account, listOf(fakeStatus(id = "1").copy(account = localAuthor)), Filter.Kind.HOME)
+
+        db.customEmojiDao().replaceInstanceEmojis(1, listOf(pickerEmoji))
+
+        assertEquals(listOf(pickerEmoji), db.customEmojiDao().getInstanceEmojis(1).map { emoji -> emoji.toEmoji() })
+        val item = loadHomeTimeline().single()
+        assertEquals(listOf(authorEmoji), item.emojis.of(item.account!!))
+
+        db.customEmojiDao().cleanupEmojis(1)
+        assertEquals(1, db.customEmojiDao().getInstanceEmojis(1).size)
+        assertEquals(1, db.customEmojiDao().getEmojisOfDomain(1, "", listOf("blobcat")).size)
+    }
+
+    @Test
+    fun `should store the emojis of a domain once however it is capitalized`() = runTest {
+        val emoji = Emoji(shortcode = "blobcat", url = "https://remote.example/blobcat.png", staticUrl = "https://remote.example/blobcat.png", category = null)
+        val author = fakeAccount(id = "1").copy(username = "user@Remote.Example", emojis = listOf(emoji))
+        val otherAuthor = fakeAccount(id = "2").copy(username = "other@remote.example", emojis = listOf(emoji))
+        ingester.replaceHomeTimelineRange(
+            account = account,
+            statuses = listOf(fakeStatus(id = "2").copy(account = author), fakeStatus(id = "1").copy(account = otherAuthor)),
+            filterKind = Filter.Kind.HOME
+        )
+
+        assertEquals(1, db.customEmojiDao().getEmojisOfDomain(1, "remote.example", listOf("blobcat")).size)
+        val item = loadHomeTimeline().first()
+        assertEquals(listOf(emoji), item.emojis.of(item.account!!))
+
+        // the domain of the author matches the one the emojis are stored with
+        assertEquals(0, db.customEmojiDao().cleanupEmojis(1))
+    }
+
+    @Test
+    fun `should store the emojis of a page with authors from many domains`() = runTest {
+        // one distinct domain and shortcode per author, more than SQLite allows to bind in one statement when combined
+        val statuses = (1..600).map { i ->
+            val emoji = Emoji(shortcode = "emoji$i", url = "https://remote$i.example/$i.png", staticUrl = "https://remote$i.example/$i.png", category = null)
+            val author = fakeAccount(id = i.toString()).copy(username = "user@remote$i.example", emojis = listOf(emoji))
+            fakeStatus(id = (1000 - i).toString()).copy(account = author)
+        }
+
+        ingester.replaceHomeTimelineRange(account, statuses, Filter.Kind.HOME)
+        // the second time every emoji is looked up and found unchanged
+        assertEquals(IngestResult(overlapped = 600, rowsWritten = 0), ingester.replaceHomeTimelineRange(account, statuses, Filter.Kind.HOME))
+
+        assertEquals(1, db.customEmojiDao().getEmojisOfDomain(1, "remote42.example", listOf("emoji42", "emoji43")).size)
+    }
+
+    @Test
+    fun `should not write anything when refreshing a page that has not changed`() = runTest {
+        val statuses = listOf(
+            fakeStatus(id = "5", authorServerId = "1"),
+            fakeStatus(id = "4", authorServerId = "1"),
+            fakeStatus(id = "3", authorServerId = "2", reblog = fakeStatus(id = "2", authorServerId = "1"))
+        )
+
+        val first = ingester.replaceHomeTimelineRange(account, statuses, Filter.Kind.HOME)
+        // 2 accounts, 3 statuses and 3 home timeline items
+        assertEquals(IngestResult(overlapped = 0, rowsWritten = 8), first)
+
+        val refresh = ingester.replaceHomeTimelineRange(account, statuses, Filter.Kind.HOME)
+        assertEquals(IngestResult(overlapped = 3, rowsWritten = 0), refresh)
+
+        val notifications = listOf(fakeNotification(id = "3"), fakeNotification(id = "2"), fakeNotification(id = "1"))
+        ingester.replaceNotificationRange(account, notifications)
+        assertEquals(IngestResult(overlapped = 3, rowsWritten = 0), ingester.replaceNotificationRange(account, notifications))
+    }
+
+    @Test
+    fun `should only write changed rows and delete items that are gone`() = runTest {
+        ingester.replaceHomeTimelineRange(
+            account = account,
+            statuses = listOf(fakeStatus(id = "5"), fakeStatus(id = "4"), fakeStatus(id = "3")),
+            filterKind = Filter.Kind.HOME
+        )
+        val rowIdBefore = statusRowId("5")
+
+        // status 5 was edited and status 4 deleted in the meantime
+        val result = ingester.replaceHomeTimelineRange(
+            account = account,
+            statuses = listOf(fakeStatus(id = "5").copy(content = "Edited"), fakeStatus(id = "3")),
+            filterKind = Filter.Kind.HOME
+        )
+
+        assertEquals(IngestResult(overlapped = 3, rowsWritten = 2), result)
+        // updated in place instead of being deleted and inserted again
+        assertEquals(rowIdBefore, statusRowId("5"))
+
+        val loadResult = db.timelineDao().getHomeTimeline(1).load(PagingSource.LoadParams.Refresh(null, 10, false))
+        val timeline = (loadResult as PagingSource.LoadResult.Page).data
+        assertEquals(listOf("5", "3"), timeline.map { item -> item.id })
+        assertEquals("Edited", timeline.first().status?.content)
+    }
+
+    @Test
+    fun `should write a streamed page in batches and delete items that are gone`() = runTest {
+        db.insert((6 downTo 1).map { id -> fakeHomeTimelineData(id = id.toString()) })
+
+        val result = ingester.replaceHomeTimelineRange(
+            account = account,
+            body = statusesJson(listOf("6", "5", "3", "2").map { id -> fakeStatus(id = id) }),
+            statusAdapter = statusAdapter,
+            filterKind = Filter.Kind.HOME,
+            batchSize = 2
+        )
+
+        assertEquals(4, result.statusCount)
+        assertEquals("2", result.oldestId)
+        // the second batch covers the range below the first one, so status 4 between them is deleted as well
+        assertEquals(5, result.overlapped)
+        assertEquals(listOf("6", "5", "3", "2", "1"), loadHomeTimeline().map { item -> item.id })
+    }
+
+    @Test
+    fun `should write the placeholder below a streamed page in the transaction of its last batch`() = runTest {
+        var placeholderDecision: Pair<Int, Int>? = null
+        var inTransaction = false
+
+        ingester.replaceHomeTimelineRange(
+            account = account,
+            body = statusesJson((9 downTo 5).map { id -> fakeStatus(id = id.toString()) }),
+            statusAdapter = statusAdapter,
+            filterKind = Filter.Kind.HOME,
+            batchSize = 2
+        ) { statusCount, overlapped ->
+            placeholderDecision = statusCount to overlapped
+            inTransaction = db.inTransaction()
+            true
+        }
+
+        // decided once for the whole page
+        assertEquals(5 to 0, placeholderDecision)
+        assertTrue(inTransaction)
+        val timeline = loadHomeTimeline()
+        assertEquals(listOf("9", "8", "7", "6", "5"), timeline.map { item -> item.id })
+        assertNull(timeline.last().status)
+    }
+
+    @Test
+    fun `should keep what was read before a streamed page broke off and mark the gap with a placeholder`() = runTest {
+        db.insert(listOf(fakeHomeTimelineData(id = "1")))
+        val statuses = (6 downTo 4).map { id -> fakeStatus(id = id.toString()) }
+        val brokenBody = Buffer().writeUtf8(moshi.adapter<List<Status>>().toJson(statuses).dropLast(40))
+
+        val error = runCatching {
+            ingester.replaceHomeTimelineRange(account, brokenBody, statusAdapter, Filter.Kind.HOME, batchSize = 2)
+        }.exceptionOrNull()
+
+        assertTrue(error is IOException)
+
+        val timeline = loadHomeTimeline()
+        assertEquals(listOf("6", "5", "1"), timeline.map { item -> item.id })
+        assertNull(timeline[1].status)
+    }
+
+    @Test
+    fun `should read a streamed page on the IO dispatcher`() = runTest {
+        val callingThread = Thread.currentThread()
+        val readingThreads = mutableSetOf<Thread>()
+        val recordingAdapter = object : JsonAdapter<Status>() {
+            override fun fromJson(reader: JsonReader): Status? {
+                readingThreads.add(Thread.currentThread())
+                return statusAdapter.fromJson(reader)
+            }
+
+            override fun toJson(writer: JsonWriter, value: Status?) = statusAdapter.toJson(writer, value)
+        }
+
+        ingester.replaceHomeTimelineRange(account, statusesJson(listOf(fakeStatus(id = "1"))), recordingAdapter, Filter.Kind.HOME)
+
+        assertEquals(1, readingThreads.size)
+        assertFalse(callingThread in readingThreads)
+    }
+
+    @Test
+    fun `streaming a big page keeps at most a batch of statuses in memory`() = runTest {
+        val statuses = (1..500).map { i -> fakeStatus(id = (100_000_000L + i).toString()) }.reversed()
+
+        var read = 0
+        var mostPending = 0
+        val countingAdapter = object : JsonAdapter<Status>() {
+            override fun fromJson(reader: JsonReader): Status? {
+                read++
+                // statuses that have been read but are not in the cache yet
+                mostPending = maxOf(mostPending, read - homeTimelineItemCount())
+                return statusAdapter.fromJson(reader)
+            }
+
+            override fun toJson(writer: JsonWriter, value: Status?) = statusAdapter.toJson(writer, value)
+        }
+        val result = ingester.replaceHomeTimelineRange(account, statusesJson(statuses), countingAdapter, Filter.Kind.HOME, batchSize = 40)
+
+        assertEquals(500, result.statusCount)
+        assertEquals(500, homeTimelineItemCount())
+        assertEquals(40, mostPending)
+    }
+
+    private fun statusesJson(statuses: List<Status>) = Buffer().writeUtf8(moshi.adapter<List<Status>>().toJson(statuses))
+
+    private suspend fun loadHomeTimeline(): List<HomeTimelineData> {
+        val page = db.timelineDao().getHomeTimeline(1).load(PagingSource.LoadParams.Refresh(null, 100, false))
+        return (page as PagingSource.LoadResult.Page).data
+    }
+
+    private fun homeTimelineItemCount(): Int {
+        return db.query("SELECT COUNT(*) FROM HomeTimelineEntity", null).use { cursor ->
+            cursor.moveToFirst()
+            cursor.getInt(0)
+        }
+    }
+
+    private fun statusRowId(statusId: String): Long {
+        return db.query("SELECT rowid FROM TimelineStatusEntity WHERE serverId = ?", arrayOf(statusId)).use { cursor ->
+            cursor.moveToFirst()
+            cursor.getLong(0)
+        }
+    }
+}
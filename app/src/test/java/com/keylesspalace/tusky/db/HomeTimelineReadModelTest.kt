@@ -0,0 +1,239 @@
+package com.keylesspalace.tusky.db
+
+import android.database.Cursor
+import androidx.paging.PagingSource
+import androidx.room.Room
+import androidx.room.withTransaction
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.keylesspalace.tusky.components.timeline.fakeAccount
+import com.keylesspalace.tusky.components.timeline.fakeHomeTimelineData
+import com.keylesspalace.tusky.components.timeline.fakePlaceholderHomeTimelineData
+import com.keylesspalace.tusky.components.timeline.fakeStatus
+import com.keylesspalace.tusky.components.timeline.insert
+import com.keylesspalace.tusky.components.timeline.toEntity
+import com.keylesspalace.tusky.db.dao.queryPlan
+import com.keylesspalace.tusky.db.entity.HomeTimelineData
+import com.keylesspalace.tusky.db.entity.HomeTimelineEntity
+import com.keylesspalace.tusky.di.NetworkModule
+import com.keylesspalace.tusky.util.toSortKey
+import kotlinx.coroutines.test.runTest
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.annotation.Config
+
+@Config(sdk = [34])
+@RunWith(AndroidJUnit4::class)
+class HomeTimelineReadModelTest {
+    private lateinit var db: AppDatabase
+
+    private val context = InstrumentationRegistry.getInstrumentation().targetContext
+    private val moshi = NetworkModule.providesMoshi()
+
+    @Before
+    fun createDb() {
+        db = Room.inMemoryDatabaseBuilder(context, AppDatabase::class.java)
+            .addTypeConverter(Converters(moshi))
+            .addTypeConverter(StatusBlobConverters(moshi))
+            .allowMainThreadQueries()
+            .build()
+    }
+
+    @After
+    fun closeDb() {
+        db.close()
+    }
+
+    @Test
+    fun `rows follow updates of statuses`() = runTest {
+        db.insert(listOf(fakeHomeTimelineData(id = "2"), fakeHomeTimelineData(id = "1")))
+
+        db.timelineStatusDao().update(1, fakeStatus(id = "2", bookmarked = false).copy(content = "Edited", favouritesCount = 10))
+        db.timelineStatusDao().setPinned(1, "1", true)
+        db.timelineStatusDao().setReblogged(1, "1", true)
+
+        val (second, first) = loadHomeTimeline()
+        assertEquals("Edited", second.status?.content)
+        assertEquals(10, second.status?.favouritesCount)
+        assertFalse(second.status!!.bookmarked)
+        assertTrue(first.status!!.pinned)
+        assertTrue(first.status!!.reblogged)
+        assertInSync()
+
+        db.timelineStatusDao().delete(1, "1")
+        assertNull(loadHomeTimeline().last().status)
+        assertInSync()
+    }
+
+    @Test
+    fun `rows follow accounts that are inserted, changed or deleted`() = runTest {
+        // the status and the item are written before the accounts they reference
+        val status = fakeStatus(id = "1", authorServerId = "author", inReplyToId = "0", inReplyToAccountId = "replied")
+        db.timelineStatusDao().upsertAll(listOf(status.toEntity(1, expanded = false, contentShowing = false, contentCollapsed = true)))
+        db.timelineDao().upsertHomeTimelineItem(
+            HomeTimelineEntity(tuskyAccountId = 1, id = "1", statusId = "1", reblogAccountId = "reblogger")
+        )
+        assertNull(loadHomeTimeline().single().account)
+
+        for (id in listOf("author", "reblogger", "replied")) {
+            db.timelineAccountDao().upsert(fakeAccount(id = id).toEntity(1))
+        }
+        loadHomeTimeline().single().let { item ->
+            assertEquals("author", item.account?.serverId)
+            assertEquals("reblogger", item.reblogAccount?.serverId)
+            assertEquals("replied", item.repliedToAccount?.serverId)
+        }
+
+        db.timelineAccountDao().upsert(fakeAccount(id = "author").copy(displayName = "Renamed").toEntity(1))
+        db.openHelper.writableDatabase.execSQL("DELETE FROM TimelineAccountEntity WHERE serverId = 'replied'")
+        loadHomeTimeline().single().let { item ->
+            assertEquals("Renamed", item.account?.displayName)
+            assertNull(item.repliedToAccount)
+        }
+        assertInSync()
+    }
+
+    @Test
+    fun `rows follow the items of the home timeline`() = runTest {
+        db.insert(
+            listOf(
+                fakeHomeTimelineData(id = "4"),
+                fakeHomeTimelineData(id = "3"),
+                fakePlaceholderHomeTimelineData(id = "2"),
+                fakeHomeTimelineData(id = "1")
+            )
+        )
+        db.insert(listOf(fakeHomeTimelineData(id = "5", tuskyAccountId = 2)), tuskyAccountId = 2)
+
+        db.timelineDao().convertHomeTimelineItemToPlaceholder("4")
+        db.timelineDao().deleteRange(1, "1", "2")
+        val items = loadHomeTimeline()
+        assertEquals(listOf("4", "3"), items.map { item -> item.id })
+        assertNull(items.first().status)
+        assertInSync()
+
+        db.timelineDao().removeAllHomeTimelineItems(1)
+        assertEquals(emptyList<HomeTimelineData>(), loadHomeTimeline())
+        assertInSync()
+    }
+
+    @Test
+    fun `rows are only rebuilt when a column they are built from changes`() = runTest {
+        db.insert(listOf(fakeHomeTimelineData(id = "1")))
+        val database = db.openHelper.writableDatabase
+        fun rowId() = database.query("SELECT rowid FROM HomeTimelineRowEntity WHERE id = '1'").use { cursor ->
+            cursor.moveToFirst()
+            cursor.getLong(0)
+        }
+        val rowId = rowId()
+
+        database.execSQL("UPDATE HomeTimelineEntity SET authorDomain = 'other.example' WHERE id = '1'")
+        assertEquals(rowId, rowId())
+
+        database.execSQL("UPDATE HomeTimelineEntity SET loading = 1 WHERE id = '1'")
+        assertTrue(loadHomeTimeline().single().loading)
+        assertInSync()
+    }
+
+    @Test
+    fun `rebuilding produces the rows the triggers maintain`() = runTest {
+        db.insert(
+            listOf(
+                fakeHomeTimelineData(id = "3", reblogAuthorServerId = "R1"),
+                fakePlaceholderHomeTimelineData(id = "2"),
+                fakeHomeTimelineData(id = "1")
+            )
+        )
+        val maintained = readModel()
+
+        HomeTimelineReadModel.rebuild(db.openHelper.writableDatabase)
+
+        assertEquals(maintained, readModel())
+        assertEquals(3, maintained.size)
+    }
+
+    @Test
+    fun `paging the read model returns what the join returns using its index`() = runTest {
+        val itemCount = 500
+        db.withTransaction {
+            for (account in 0 until 50) {
+                db.timelineAccountDao().upsert(fakeAccount(id = account.toString()).toEntity(1))
+            }
+            for (i in 1..itemCount) {
+                val id = (100_000_000_000_000_000L + i).toString()
+                val status = fakeStatus(id = id, authorServerId = (i % 50).toString(), inReplyToAccountId = ((i + 1) % 50).toString())
+                db.timelineStatusDao().upsertAll(listOf(status.toEntity(1, expanded = false, contentShowing = false, contentCollapsed = true)))
+                db.timelineDao().upsertHomeTimelineItem(
+                    HomeTimelineEntity(tuskyAccountId = 1, id = id, statusId = id, reblogAccountId = ((i + 2) % 50).toString())
+                )
+            }
+        }
+
+        val joinSql = "${HomeTimelineReadModel.HOME_TIMELINE_JOIN} WHERE h.tuskyAccountId = ? AND h.sortKey < ? ORDER BY h.sortKey DESC LIMIT ?"
+        val readModelSql = "SELECT * FROM HomeTimelineRowEntity WHERE tuskyAccountId = ? AND sortKey < ? ORDER BY sortKey DESC LIMIT ?"
+
+        val readModelRows = page(readModelSql)
+        assertEquals(itemCount, readModelRows.size)
+        assertEquals(page(joinSql), readModelRows)
+        assertEquals(
+            "SEARCH HomeTimelineRowEntity USING INDEX index_HomeTimelineRowEntity_tuskyAccountId_sortKey (tuskyAccountId=? AND sortKey<?)",
+            db.queryPlan(readModelSql, 1, "2".toSortKey(), 40)
+        )
+    }
+
+    /** Pages through all items of the home timeline with [sql] and returns what was read. */
+    private fun page(sql: String): List<List<Any?>> {
+        val database = db.openHelper.readableDatabase
+        val rows = mutableListOf<List<Any?>>()
+        var sortKey = "9".repeat(40)
+        do {
+            val page = database.query(sql, arrayOf(1, sortKey, PAGE_SIZE)).use(::readRows)
+            rows.addAll(page)
+            sortKey = page.lastOrNull()?.get(SORT_KEY_COLUMN) as String? ?: break
+        } while (page.size == PAGE_SIZE)
+        return rows
+    }
+
+    private suspend fun loadHomeTimeline(): List<HomeTimelineData> {
+        val page = db.timelineDao().getHomeTimeline(1).load(PagingSource.LoadParams.Refresh(null, 100, false))
+        return (page as PagingSource.LoadResult.Page).data
+    }
+
+    private fun readModel(): List<List<Any?>> {
+        return db.query("SELECT * FROM HomeTimelineRowEntity ORDER BY tuskyAccountId, sortKey", emptyArray()).use(::readRows)
+    }
+
+    /** Asserts that the read model holds exactly what the join it replaces returns. */
+    private fun assertInSync() {
+        val joined = db.query("${HomeTimelineReadModel.HOME_TIMELINE_JOIN} ORDER BY h.tuskyAccountId, h.sortKey", emptyArray()).use(::readRows)
+        assertEquals(joined, readModel())
+    }
+
+    private fun readRows(cursor: Cursor): List<List<Any?>> = buildList {
+        while (cursor.moveToNext()) {
+            add(
+                (0 until cursor.columnCount).map { column ->
+                    when (cursor.getType(column)) {
+                        Cursor.FIELD_TYPE_NULL -> null
+                        Cursor.FIELD_TYPE_INTEGER -> cursor.getLong(column)
+                        Cursor.FIELD_TYPE_BLOB -> cursor.getBlob(column).toList()
+                        else -> cursor.getString(column)
+                    }
+                }
+            )
+        }
+    }
+
+    companion object {
+        private const val PAGE_SIZE = 40
+
+        /** the position of the sort key in the rows of both the join and the read model */
+        private const val SORT_KEY_COLUMN = 2
+    }
+}
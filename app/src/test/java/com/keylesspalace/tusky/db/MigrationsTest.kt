@@ -72,7 +72,9 @@ class MigrationsTest {
         // Room will run all migrations and validate the scheme afterwards
         val roomDb = StorageModule.providesDatabase(
             InstrumentationRegistry.getInstrumentation().context,
-            Converters(moshi)
+            Converters(moshi),
+            StatusBlobConverters(moshi),
+            QueryTracer()
         )
 
         val account = roomDb.accountDao().allAccounts().first().first()
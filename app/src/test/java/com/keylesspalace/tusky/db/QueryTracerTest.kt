@@ -0,0 +1,97 @@
+package com.keylesspalace.tusky.db
+
+import androidx.room.Room
+import androidx.sqlite.db.framework.FrameworkSQLiteOpenHelperFactory
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.keylesspalace.tusky.components.timeline.fakeHomeTimelineData
+import com.keylesspalace.tusky.components.timeline.insert
+import com.keylesspalace.tusky.di.NetworkModule
+import kotlinx.coroutines.test.runTest
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.annotation.Config
+
+@Config(sdk = [34])
+@RunWith(AndroidJUnit4::class)
+class QueryTracerTest {
+    private lateinit var db: AppDatabase
+    private lateinit var tracer: QueryTracer
+
+    private val moshi = NetworkModule.providesMoshi()
+
+    @Before
+    fun createDb() {
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        tracer = QueryTracer()
+        db = Room.inMemoryDatabaseBuilder(context, AppDatabase::class.java)
+            .addTypeConverter(Converters(moshi))
+            .addTypeConverter(StatusBlobConverters(moshi))
+            .openHelperFactory(TracingOpenHelperFactory(FrameworkSQLiteOpenHelperFactory(), tracer))
+            .allowMainThreadQueries()
+            .build()
+    }
+
+    @After
+    fun closeDb() {
+        db.close()
+    }
+
+    @Test
+    fun `should record executions, rows, write locks and query plans of statements`() = runTest {
+        tracer.enabled = true
+        db.insert(listOf(fakeHomeTimelineData(id = "3"), fakeHomeTimelineData(id = "2"), fakeHomeTimelineData(id = "1")))
+
+        assertEquals(listOf("3", "2"), db.timelineDao().getMostRecentNHomeTimelineIds(1, 2))
+        assertEquals(listOf("3", "2", "1"), db.timelineDao().getMostRecentNHomeTimelineIds(1, 10))
+
+        val stats = tracer.stats()
+        val select = stats.single { query -> query.sql.startsWith("SELECT id FROM HomeTimelineEntity") }
+        assertEquals(2, select.executions)
+        assertEquals(5L, select.rows)
+        assertEquals(2, select.latencyHistogram.sum())
+        assertEquals(0L, select.writeLockMillis)
+        val queryPlan = select.queryPlan.orEmpty()
+        assertTrue(queryPlan.toString(), queryPlan.any { line -> line.contains("USING") })
+        assertFalse(select.fullTableScan)
+
+        val insert = stats.single { query -> query.sql.contains("INTO `HomeTimelineEntity`") }
+        assertEquals(3, insert.executions)
+        assertEquals(3L, insert.rows)
+        assertNotNull(insert.queryPlan)
+    }
+
+    @Test
+    fun `should flag full table scans in hot paths`() {
+        tracer.enabled = true
+        repeat(QueryTracer.HOT_PATH_EXECUTIONS - 1) {
+            db.query("SELECT * FROM TimelineStatusEntity WHERE content LIKE ?", arrayOf("%tusky%")).close()
+        }
+        val scan = tracer.stats().single { query -> query.sql.startsWith("SELECT * FROM TimelineStatusEntity") }
+        assertTrue(scan.fullTableScan)
+        assertFalse(scan.hotPathFullTableScan)
+
+        db.query("SELECT * FROM TimelineStatusEntity WHERE content LIKE ?", arrayOf("%kotlin%")).close()
+        assertTrue(tracer.stats().single { query -> query.sql.startsWith("SELECT * FROM TimelineStatusEntity") }.hotPathFullTableScan)
+    }
+
+    @Test
+    fun `should only trace while enabled and share entries between lists of parameters`() {
+        db.query("SELECT * FROM AccountEntity WHERE id IN (?, ?)", arrayOf(1, 2)).close()
+        assertEquals(emptyList<QueryStats>(), tracer.stats())
+
+        tracer.enabled = true
+        db.query("SELECT * FROM AccountEntity WHERE id IN (?, ?)", arrayOf(1, 2)).close()
+        db.query("SELECT * FROM AccountEntity WHERE id IN (?,?,?)", arrayOf(1, 2, 3)).close()
+        assertEquals(2, tracer.stats().single().executions)
+
+        tracer.reset()
+        assertEquals(emptyList<QueryStats>(), tracer.stats())
+    }
+}
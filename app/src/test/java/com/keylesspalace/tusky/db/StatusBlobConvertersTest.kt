@@ -0,0 +1,142 @@
+package com.keylesspalace.tusky.db
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.keylesspalace.tusky.components.timeline.fakeAccount
+import com.keylesspalace.tusky.di.NetworkModule
+import com.keylesspalace.tusky.entity.Attachment
+import com.keylesspalace.tusky.entity.Filter
+import com.keylesspalace.tusky.entity.FilterKeyword
+import com.keylesspalace.tusky.entity.FilterResult
+import com.keylesspalace.tusky.entity.HashTag
+import com.keylesspalace.tusky.entity.Poll
+import com.keylesspalace.tusky.entity.PollOption
+import com.keylesspalace.tusky.entity.PreviewCard
+import com.keylesspalace.tusky.entity.PreviewCardAuthor
+import com.keylesspalace.tusky.entity.Status
+import java.util.Date
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.annotation.Config
+
+@Config(sdk = [34])
+@RunWith(AndroidJUnit4::class)
+class StatusBlobConvertersTest {
+
+    private val moshi = NetworkModule.providesMoshi()
+    private val converters = Converters(moshi)
+    private val blobConverters = StatusBlobConverters(moshi)
+
+    private val shortcodes = listOf("blobcat", "ü", "")
+
+    private val attachments = listOf(
+        Attachment(
+            id = "1",
+            url = "https://example.org/1.png",
+            previewUrl = "https://example.org/1_small.png",
+            meta = Attachment.MetaData(
+                focus = Attachment.Focus(x = -0.5f, y = null),
+                duration = 12.5f,
+                original = Attachment.Size(width = 1920, height = 1080, aspect = 1.7777777777777777),
+                small = null
+            ),
+            type = Attachment.Type.IMAGE,
+            description = "a ".repeat(1000),
+            blurhash = "LEHV6nWB2yk8pyo0adR*.7kCMdnj"
+        ),
+        Attachment(
+            id = "2",
+            url = "https://example.org/2.mp3",
+            type = Attachment.Type.AUDIO
+        )
+    )
+
+    private val poll = Poll(
+        id = "1",
+        expiresAt = Date(1712509983273),
+        expired = false,
+        multiple = true,
+        votesCount = 300,
+        votersCount = null,
+        options = listOf(PollOption("yes", 299), PollOption("no", null)),
+        voted = true,
+        ownVotes = listOf(0)
+    )
+
+    private val card = PreviewCard(
+        url = "https://example.org/article",
+        title = "Article",
+        description = "Description",
+        authors = listOf(
+            PreviewCardAuthor(name = "Author", url = "https://example.org/author", account = fakeAccount()),
+            PreviewCardAuthor(name = "Other Author", url = "https://example.org/other", account = null)
+        ),
+        authorName = "Author",
+        providerName = null,
+        publishedAt = Date(0),
+        image = "https://example.org/article.png",
+        type = "link",
+        width = 400,
+        height = 300,
+        blurhash = null,
+        embedUrl = null
+    )
+
+    private val filtered = listOf(
+        FilterResult(
+            Filter(
+                id = "1",
+                title = "Spoilers",
+                context = listOf(Filter.Kind.HOME, Filter.Kind.NOTIFICATIONS),
+                expiresAt = null,
+                action = Filter.Action.BLUR,
+                keywords = listOf(FilterKeyword(id = "2", keyword = "spoiler", wholeWord = true))
+            )
+        )
+    )
+
+    @Test
+    fun `should read back what was written`() {
+        assertEquals(shortcodes, blobConverters.blobToShortcodeList(blobConverters.shortcodeListToBlob(shortcodes)))
+        assertEquals(attachments, blobConverters.blobToAttachmentList(blobConverters.attachmentListToBlob(attachments)))
+        val mentions = listOf(Status.Mention(id = "1", url = "https://example.org/@user", username = "user@example.org", localUsername = "user"))
+        assertEquals(mentions, blobConverters.blobToMentionList(blobConverters.mentionListToBlob(mentions)))
+        val tags = listOf(HashTag(name = "tusky", url = "https://example.org/tags/tusky", following = true), HashTag(name = "kotlin", url = "https://example.org/tags/kotlin"))
+        assertEquals(tags, blobConverters.blobToTagList(blobConverters.tagListToBlob(tags)))
+        val application = Status.Application("Tusky", "https://tusky.app")
+        assertEquals(application, blobConverters.blobToApplication(blobConverters.applicationToBlob(application)))
+        assertEquals(poll, blobConverters.blobToPoll(blobConverters.pollToBlob(poll)))
+        // PreviewCard.equals only compares the url
+        assertEquals(card.toString(), blobConverters.blobToCard(blobConverters.cardToBlob(card)).toString())
+        assertEquals(filtered, blobConverters.blobToFilterResultList(blobConverters.filterResultListToBlob(filtered)))
+    }
+
+    @Test
+    fun `should write null for missing objects`() {
+        assertNull(blobConverters.applicationToBlob(null))
+        assertNull(blobConverters.pollToBlob(null))
+        assertNull(blobConverters.cardToBlob(null))
+        assertNull(blobConverters.blobToPoll(null))
+        assertEquals(emptyList<String>(), blobConverters.blobToShortcodeList(null))
+    }
+
+    @Test
+    fun `should read rows written as json`() {
+        assertEquals(shortcodes, blobConverters.blobToShortcodeList(converters.stringListToJson(shortcodes)!!.encodeToByteArray()))
+        assertEquals(attachments, blobConverters.blobToAttachmentList(converters.attachmentListToJson(attachments).encodeToByteArray()))
+        assertEquals(poll, blobConverters.blobToPoll(converters.pollToJson(poll).encodeToByteArray()))
+        assertEquals(card.toString(), blobConverters.blobToCard(converters.cardToJson(card).encodeToByteArray()).toString())
+        assertEquals(filtered, blobConverters.blobToFilterResultList(converters.filterResultListToJson(filtered).encodeToByteArray()))
+        assertNull(blobConverters.blobToApplication(converters.applicationToJson(null).encodeToByteArray()))
+        assertEquals(emptyList<HashTag>(), blobConverters.blobToTagList(converters.tagListToJson(null).encodeToByteArray()))
+    }
+
+    @Test
+    fun `binary format should be smaller than json`() {
+        assertTrue(blobConverters.attachmentListToBlob(attachments).size < converters.attachmentListToJson(attachments).encodeToByteArray().size)
+        assertTrue(blobConverters.shortcodeListToBlob(shortcodes).size < converters.stringListToJson(shortcodes)!!.encodeToByteArray().size)
+        assertTrue(blobConverters.pollToBlob(poll)!!.size < converters.pollToJson(poll).encodeToByteArray().size)
+    }
+}
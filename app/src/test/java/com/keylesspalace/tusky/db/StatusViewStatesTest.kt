@@ -0,0 +1,157 @@
+package com.keylesspalace.tusky.db
+
+import androidx.paging.PagingSource
+import androidx.room.Room
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.keylesspalace.tusky.components.notifications.fakeNotification
+import com.keylesspalace.tusky.components.notifications.insert
+import com.keylesspalace.tusky.components.timeline.fakeHomeTimelineData
+import com.keylesspalace.tusky.components.timeline.insert
+import com.keylesspalace.tusky.components.timeline.toViewData
+import com.keylesspalace.tusky.db.entity.CustomEmojis
+import com.keylesspalace.tusky.db.entity.StatusLocalState
+import com.keylesspalace.tusky.db.entity.StatusViewStateEntity
+import com.keylesspalace.tusky.db.entity.toViewStateEntity
+import com.keylesspalace.tusky.di.NetworkModule
+import com.keylesspalace.tusky.viewdata.StatusViewData
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.test.runTest
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.annotation.Config
+
+@Config(sdk = [34])
+@RunWith(AndroidJUnit4::class)
+class StatusViewStatesTest {
+    private lateinit var db: AppDatabase
+
+    private val moshi = NetworkModule.providesMoshi()
+
+    @Before
+    fun createDb() {
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        db = Room.inMemoryDatabaseBuilder(context, AppDatabase::class.java)
+            .addTypeConverter(Converters(moshi))
+            .addTypeConverter(StatusBlobConverters(moshi))
+            .allowMainThreadQueries()
+            .build()
+    }
+
+    @After
+    fun closeDb() {
+        db.close()
+    }
+
+    @Test
+    fun `changing the view state of a status does not invalidate the timelines`() = runTest {
+        db.insert(listOf(fakeHomeTimelineData(id = "2"), fakeHomeTimelineData(id = "1")))
+        db.insert(listOf(fakeNotification(id = "3")))
+        val homeTimeline = db.timelineDao().getHomeTimeline(1)
+        val notifications = db.notificationsDao().getNotifications(1)
+        homeTimeline.load(PagingSource.LoadParams.Refresh(null, 10, false))
+        notifications.load(PagingSource.LoadParams.Refresh(null, 10, false))
+
+        val scope = CoroutineScope(Job())
+        val viewStates = StatusViewStates(db.sharedCache(), scope)
+        viewStates.set(1, StatusLocalState(serverId = "1", expanded = true, contentShowing = true, contentCollapsed = false))
+        viewStates.awaitWrites(1)
+        // a write to a table a paging source observes invalidates it right away
+        db.invalidationTracker.refreshVersionsSync()
+
+        assertFalse(homeTimeline.invalid)
+        assertFalse(notifications.invalid)
+        assertEquals(
+            listOf(StatusViewStateEntity(1, "1", expanded = true, contentShowing = true, contentCollapsed = false)),
+            db.statusViewStateDao().getViewStates(1)
+        )
+    }
+
+    @Test
+    fun `view states are merged into the statuses and survive a restart`() = runTest {
+        db.insert(listOf(fakeHomeTimelineData(id = "2"), fakeHomeTimelineData(id = "1")))
+
+        val scope = CoroutineScope(Job())
+        val viewStates = StatusViewStates(db.sharedCache(), scope)
+        val timelineData = fakeHomeTimelineData(id = "1")
+        val shown = timelineData.toViewData(CustomEmojis(emptyList())) as StatusViewData.Concrete
+        assertFalse(shown.isExpanded)
+
+        viewStates.set(1, shown.toViewState("1").copy(expanded = true))
+        val expanded = timelineData.toViewData(CustomEmojis(emptyList()), viewState = viewStates.states(1).first()["1"]) as StatusViewData.Concrete
+        assertTrue(expanded.isExpanded)
+        assertEquals(shown.isShowingContent, expanded.isShowingContent)
+        assertEquals(shown.isCollapsed, expanded.isCollapsed)
+        viewStates.awaitWrites(1)
+
+        // the process is killed and started again
+        val restartedScope = CoroutineScope(Job())
+        val restarted = StatusViewStates(db.sharedCache(), restartedScope)
+        assertEquals(
+            mapOf("1" to StatusLocalState(serverId = "1", expanded = true, contentShowing = shown.isShowingContent, contentCollapsed = shown.isCollapsed)),
+            restarted.states(1).first()
+        )
+        assertEquals(emptyMap<String, StatusLocalState>(), restarted.states(2).first())
+    }
+
+    @Test
+    fun `changes are written in the order they were made`() = runTest {
+        val viewStates = StatusViewStates(db.sharedCache(), CoroutineScope(Job()))
+        val collapsed = StatusLocalState(serverId = "1", expanded = false, contentShowing = true, contentCollapsed = true)
+        repeat(50) { i ->
+            viewStates.set(1, collapsed.copy(expanded = i % 2 == 0))
+        }
+        viewStates.set(1, collapsed)
+        viewStates.awaitWrites(1)
+
+        assertEquals(listOf(collapsed.toViewStateEntity(1)), db.statusViewStateDao().getViewStates(1))
+        assertEquals(mapOf("1" to collapsed), viewStates.states(1).first())
+    }
+
+    @Test
+    fun `states of statuses removed from the cache are dropped on reload and all states on removal`() = runTest {
+        db.insert(listOf(fakeHomeTimelineData(id = "2")))
+        val viewStates = StatusViewStates(db.sharedCache(), CoroutineScope(Job()))
+        val state = StatusLocalState(serverId = "1", expanded = true, contentShowing = true, contentCollapsed = false)
+        viewStates.set(1, state)
+        viewStates.set(1, state.copy(serverId = "2"))
+        viewStates.awaitWrites(1)
+        // status 1 is not cached
+        db.statusViewStateDao().cleanupViewStates(1)
+        viewStates.set(1, state.copy(serverId = "3"))
+
+        viewStates.reload(1)
+        // the change made after the cleanup is kept
+        assertEquals(setOf("2", "3"), viewStates.states(1).first().keys)
+
+        viewStates.remove(1)
+        db.statusViewStateDao().removeAllViewStates(1)
+        assertEquals(emptyMap<String, StatusLocalState>(), viewStates.states(1).first())
+    }
+
+    @Test
+    fun `a failed write does not stop the writes after it`() = runTest {
+        db.openHelper.writableDatabase.execSQL(
+            """CREATE TEMP TRIGGER failingWrite BEFORE INSERT ON StatusViewStateEntity WHEN NEW.serverId = 'broken'
+            BEGIN SELECT RAISE(ABORT, 'broken'); END"""
+        )
+        val viewStates = StatusViewStates(db.sharedCache(), CoroutineScope(Job()))
+        val state = StatusLocalState(serverId = "broken", expanded = true, contentShowing = true, contentCollapsed = false)
+        viewStates.set(1, state)
+        viewStates.set(1, state.copy(serverId = "1"))
+
+        // returns although the first write failed
+        viewStates.reload(1)
+
+        assertEquals(listOf(state.copy(serverId = "1").toViewStateEntity(1)), db.statusViewStateDao().getViewStates(1))
+        // the change that could not be written is still shown
+        assertEquals(setOf("broken", "1"), viewStates.states(1).first().keys)
+    }
+}
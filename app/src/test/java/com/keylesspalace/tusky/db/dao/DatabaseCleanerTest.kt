@@ -1,6 +1,7 @@
 package com.keylesspalace.tusky.db.dao
 
 import androidx.room.Room
+import androidx.sqlite.db.framework.FrameworkSQLiteOpenHelperFactory
 import androidx.test.ext.junit.runners.AndroidJUnit4
 import androidx.test.platform.app.InstrumentationRegistry
 import com.keylesspalace.tusky.components.notifications.fakeNotification
@@ -11,18 +12,24 @@ import com.keylesspalace.tusky.components.timeline.fakeHomeTimelineData
 import com.keylesspalace.tusky.components.timeline.fakeStatus
 import com.keylesspalace.tusky.components.timeline.insert
 import com.keylesspalace.tusky.db.AppDatabase
+import com.keylesspalace.tusky.db.AutoVacuumOpenHelperFactory
 import com.keylesspalace.tusky.db.Converters
 import com.keylesspalace.tusky.db.DatabaseCleaner
+import com.keylesspalace.tusky.db.StatusBlobConverters
 import com.keylesspalace.tusky.db.entity.HomeTimelineEntity
 import com.keylesspalace.tusky.db.entity.NotificationEntity
 import com.keylesspalace.tusky.db.entity.NotificationReportEntity
+import com.keylesspalace.tusky.db.entity.StatusViewStateEntity
 import com.keylesspalace.tusky.db.entity.TimelineAccountEntity
 import com.keylesspalace.tusky.db.entity.TimelineStatusEntity
+import com.keylesspalace.tusky.db.sharedCache
 import com.keylesspalace.tusky.di.NetworkModule
 import kotlin.reflect.KClass
 import kotlinx.coroutines.test.runTest
 import org.junit.After
 import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
 import org.junit.Before
 import org.junit.Test
 import org.junit.runner.RunWith
@@ -42,10 +49,11 @@ class DatabaseCleanerTest {
         val context = InstrumentationRegistry.getInstrumentation().targetContext
         db = Room.inMemoryDatabaseBuilder(context, AppDatabase::class.java)
             .addTypeConverter(Converters(moshi))
+            .addTypeConverter(StatusBlobConverters(moshi))
             .allowMainThreadQueries()
             .build()
         timelineDao = db.timelineDao()
-        dbCleaner = DatabaseCleaner(db)
+        dbCleaner = DatabaseCleaner(db.sharedCache())
     }
 
     @After
@@ -154,6 +162,189 @@ class DatabaseCleanerTest {
         )
     }
 
+    @Test
+    fun `cleanupOldData with a byte budget of 0 deletes the whole cache of the account`() = runTest {
+        fillDatabase()
+        db.statusViewStateDao().upsert(StatusViewStateEntity(1, "10", expanded = true, contentShowing = true, contentCollapsed = false))
+        db.statusViewStateDao().upsert(StatusViewStateEntity(2, "2", expanded = true, contentShowing = true, contentCollapsed = false))
+
+        val report = dbCleaner.cleanupOldData(tuskyAccountId = 1, byteBudget = 0)
+
+        expect(
+            hometimelineItems = listOf(
+                2L to "2"
+            ),
+            statuses = listOf(
+                2L to "2",
+                2L to "n1",
+                2L to "n2",
+                2L to "n3",
+                2L to "n4"
+            ),
+            notifications = listOf(
+                2L to "1",
+                2L to "2",
+                2L to "3",
+                2L to "4",
+            ),
+            accounts = listOf(
+                2L to "100",
+                2L to "5",
+                2L to "n1",
+                2L to "n2",
+                2L to "n3",
+                2L to "n4",
+                2L to "r1"
+            ),
+            reports = listOf(
+                2L to "1"
+            ),
+        )
+        assertEquals(
+            listOf(
+                "HomeTimelineEntity" to 6,
+                "NotificationEntity" to 5,
+                "NotificationReportEntity" to 2,
+                "TimelineStatusEntity" to 11,
+                "StatusViewStateEntity" to 1,
+                "TimelineAccountEntity" to 13,
+                "CustomEmojiEntity" to 0
+            ),
+            report.phases.map { phase -> phase.table to phase.rowsDeleted }
+        )
+        assertEquals(listOf("2"), db.statusViewStateDao().getViewStates(2).map { viewState -> viewState.serverId })
+        assertTrue(report.bytesBefore > 0)
+        assertEquals(0L, report.bytesAfter)
+        assertEquals(report.bytesBefore, report.bytesFreed)
+    }
+
+    @Test
+    fun `cleanupOldData keeps a cache within the byte budget`() = runTest {
+        fillDatabase()
+
+        val report = dbCleaner.cleanupOldData(tuskyAccountId = 1, byteBudget = Long.MAX_VALUE)
+
+        assertEquals(0, report.rowsDeleted)
+        assertEquals(report.bytesBefore, report.bytesAfter)
+        assertEquals(6, timelineDao.getHomeTimelineItemCount(1))
+        assertEquals(5, db.notificationsDao().getNotificationCount(1))
+    }
+
+    @Test
+    fun `cleanupOldData deletes big tables in chunks`() = runTest {
+        db.insertPlaceholders("HomeTimelineEntity", 1234)
+        db.insertPlaceholders("NotificationEntity", 1234)
+
+        val report = dbCleaner.cleanupOldData(tuskyAccountId = 1, timelineLimit = 100, notificationLimit = 0)
+
+        assertEquals(1134, report.phases.first { phase -> phase.table == "HomeTimelineEntity" }.rowsDeleted)
+        assertEquals(1234, report.phases.first { phase -> phase.table == "NotificationEntity" }.rowsDeleted)
+        assertEquals(100, timelineDao.getHomeTimelineItemCount(1))
+        assertEquals("100000000000001234", timelineDao.getTopId(1))
+        assertEquals("100000000000001135", timelineDao.getIdBelow(1, "100000000000001136"))
+        assertNull(timelineDao.getIdBelow(1, "100000000000001135"))
+        assertEquals(0, db.notificationsDao().getNotificationCount(1))
+    }
+
+    @Test
+    fun `reference checks use indices`() {
+        val statusPlan = db.queryPlan(
+            """SELECT s.rowid FROM TimelineStatusEntity s
+        WHERE s.tuskyAccountId = ? AND s.rowid > ? AND s.rowid <= ?
+        AND NOT EXISTS
+        (SELECT 1 FROM HomeTimelineEntity h WHERE h.statusId = s.serverId AND h.tuskyAccountId = ?)
+        AND NOT EXISTS
+        (SELECT 1 FROM NotificationEntity n WHERE n.statusId = s.serverId AND n.tuskyAccountId = ?)""",
+            1,
+            0,
+            500,
+            1,
+            1
+        )
+        assertTrue(statusPlan, statusPlan.contains("INTEGER PRIMARY KEY (rowid>? AND rowid<?)"))
+        assertTrue(statusPlan, statusPlan.contains("index_HomeTimelineEntity_statusId_tuskyAccountId"))
+        assertTrue(statusPlan, statusPlan.contains("index_NotificationEntity_statusId_tuskyAccountId"))
+
+        val accountPlan = db.queryPlan(
+            """SELECT a.rowid FROM TimelineAccountEntity a
+        WHERE a.tuskyAccountId = ? AND a.rowid > ? AND a.rowid <= ?
+        AND NOT EXISTS
+        (SELECT 1 FROM TimelineStatusEntity s WHERE s.authorServerId = a.serverId AND s.tuskyAccountId = ?)
+        AND NOT EXISTS
+        (SELECT 1 FROM HomeTimelineEntity h WHERE h.reblogAccountId = a.serverId AND h.tuskyAccountId = ?)
+        AND NOT EXISTS
+        (SELECT 1 FROM NotificationEntity n WHERE n.accountId = a.serverId AND n.tuskyAccountId = ?)
+        AND NOT EXISTS
+        (SELECT 1 FROM NotificationReportEntity r WHERE r.targetAccountId = a.serverId AND r.tuskyAccountId = ?)""",
+            1,
+            0,
+            500,
+            1,
+            1,
+            1,
+            1
+        )
+        assertTrue(accountPlan, accountPlan.contains("index_TimelineStatusEntity_authorServerId_tuskyAccountId"))
+        assertTrue(accountPlan, accountPlan.contains("index_HomeTimelineEntity_reblogAccountId_tuskyAccountId"))
+        assertTrue(accountPlan, accountPlan.contains("index_NotificationEntity_accountId_tuskyAccountId"))
+        assertTrue(accountPlan, accountPlan.contains("index_NotificationReportEntity_targetAccountId_tuskyAccountId"))
+    }
+
+    @Test
+    fun `reclaimSpace switches the database to incremental vacuum`() = runTest {
+        // an in-memory database can't be vacuumed
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        val fileDb = Room.databaseBuilder(context, AppDatabase::class.java, "cleaner-test.db")
+            .addTypeConverter(Converters(moshi))
+            .addTypeConverter(StatusBlobConverters(moshi))
+            .allowMainThreadQueries()
+            .build()
+        try {
+            val cleaner = DatabaseCleaner(fileDb.sharedCache())
+            fileDb.insert(listOf(fakeHomeTimelineData(id = "1", tuskyAccountId = 2)), tuskyAccountId = 2)
+            fileDb.insertPlaceholders("HomeTimelineEntity", 5000)
+            cleaner.cleanupEverything(tuskyAccountId = 1)
+
+            assertTrue(cleaner.reclaimSpace() > 0)
+            // the VACUUM may renumber the statuses, the search index has to follow
+            assertEquals(listOf("1"), fileDb.timelineStatusDao().search(2, "Test", 10).map { (status, _) -> status.serverId })
+
+            val autoVacuum = fileDb.query("PRAGMA auto_vacuum", null).use { cursor ->
+                cursor.moveToFirst()
+                cursor.getInt(0)
+            }
+            assertEquals(2, autoVacuum)
+
+            fileDb.insertPlaceholders("HomeTimelineEntity", 5000)
+            cleaner.cleanupEverything(tuskyAccountId = 1)
+            assertTrue(cleaner.reclaimSpace() > 0)
+        } finally {
+            fileDb.close()
+            context.deleteDatabase("cleaner-test.db")
+        }
+    }
+
+    @Test
+    fun `databases are created with incremental auto vacuum`() {
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        val fileDb = Room.databaseBuilder(context, AppDatabase::class.java, "auto-vacuum-test.db")
+            .addTypeConverter(Converters(moshi))
+            .addTypeConverter(StatusBlobConverters(moshi))
+            .openHelperFactory(AutoVacuumOpenHelperFactory(FrameworkSQLiteOpenHelperFactory()))
+            .allowMainThreadQueries()
+            .build()
+        try {
+            val autoVacuum = fileDb.query("PRAGMA auto_vacuum", null).use { cursor ->
+                cursor.moveToFirst()
+                cursor.getInt(0)
+            }
+            assertEquals(2, autoVacuum)
+        } finally {
+            fileDb.close()
+            context.deleteDatabase("auto-vacuum-test.db")
+        }
+    }
+
     private suspend fun fillDatabase() {
         db.insert(
             listOf(
@@ -14,12 +14,16 @@ import com.keylesspalace.tusky.components.timeline.fakeAccount
 import com.keylesspalace.tusky.components.timeline.fakeStatus
 import com.keylesspalace.tusky.db.AppDatabase
 import com.keylesspalace.tusky.db.Converters
+import com.keylesspalace.tusky.db.StatusBlobConverters
 import com.keylesspalace.tusky.di.NetworkModule
 import com.keylesspalace.tusky.entity.Notification
+import com.keylesspalace.tusky.util.toSortKey
 import kotlinx.coroutines.test.runTest
 import org.junit.After
 import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
 import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
 import org.junit.Before
 import org.junit.Test
 import org.junit.runner.RunWith
@@ -38,6 +42,7 @@ class NotificationsDaoTest {
         val context = InstrumentationRegistry.getInstrumentation().targetContext
         db = Room.inMemoryDatabaseBuilder(context, AppDatabase::class.java)
             .addTypeConverter(Converters(moshi))
+            .addTypeConverter(StatusBlobConverters(moshi))
             .allowMainThreadQueries()
             .build()
         notificationsDao = db.notificationsDao()
@@ -232,4 +237,88 @@ class NotificationsDaoTest {
 
         assertEquals(expectedNotifications, loadedNotifications)
     }
+
+    @Test
+    fun `ordering and range queries use the sortKey index`() = runTest {
+        db.insertPlaceholders("NotificationEntity", 100_000)
+
+        val index = "index_NotificationEntity_tuskyAccountId_sortKey"
+
+        val pagingPlan = db.queryPlan(
+            """SELECT n.id FROM NotificationEntity n
+LEFT JOIN TimelineAccountEntity a ON (n.tuskyAccountId = a.tuskyAccountId AND n.accountId = a.serverId)
+LEFT JOIN TimelineStatusEntity s ON (n.tuskyAccountId = s.tuskyAccountId AND n.statusId = s.serverId)
+WHERE n.tuskyAccountId = ? ORDER BY n.sortKey DESC LIMIT 40 OFFSET 1000""",
+            1
+        )
+        assertTrue(pagingPlan, pagingPlan.contains(index))
+        assertFalse(pagingPlan, pagingPlan.contains("TEMP B-TREE"))
+
+        val deletePlan = db.queryPlan(
+            "DELETE FROM NotificationEntity WHERE tuskyAccountId = ? AND sortKey BETWEEN ? AND ?",
+            1,
+            "100000000000050000".toSortKey(),
+            "100000000000050039".toSortKey()
+        )
+        assertTrue(deletePlan, deletePlan.contains("$index (tuskyAccountId=? AND sortKey>"))
+
+        assertEquals(40, notificationsDao.deleteRange(1, "100000000000050000", "100000000000050039"))
+        assertEquals("100000000000049999", notificationsDao.getIdBelow(1, "100000000000050000"))
+        assertEquals("100000000000050040", notificationsDao.getIdAbove(1, "100000000000050000"))
+
+        notificationsDao.cleanupNotifications(1, 1000)
+        assertEquals("100000000000100000", notificationsDao.getTopId(1))
+        assertEquals("100000000000099001", notificationsDao.getIdBelow(1, "100000000000099002"))
+        assertNull(notificationsDao.getIdBelow(1, "100000000000099001"))
+    }
+
+    @Test
+    fun `blocks and domain mutes use indices on a big cache`() = runTest {
+        db.insertPlaceholders("NotificationEntity", 20_000)
+        db.openHelper.writableDatabase.execSQL(
+            """UPDATE NotificationEntity SET type = 'favourite', accountId = CAST(rowid % 1000 AS TEXT),
+            accountDomain = 'instance' || (rowid % 100) || '.example',
+            statusAuthorId = CAST(rowid % 999 AS TEXT), statusAuthorDomain = 'instance' || (rowid % 99) || '.example'"""
+        )
+
+        for (column in listOf("accountDomain", "statusAuthorDomain", "statusAuthorId")) {
+            val plan = db.queryPlan("DELETE FROM NotificationEntity WHERE tuskyAccountId = ? AND $column = ?", 1, "1")
+            assertTrue(plan, plan.contains("index_NotificationEntity_tuskyAccountId_$column (tuskyAccountId=? AND $column=?)"))
+        }
+        val accountPlan = db.queryPlan("DELETE FROM NotificationEntity WHERE accountId = ? AND tuskyAccountId = ?", "1", 1)
+        assertTrue(accountPlan, accountPlan.contains("index_NotificationEntity_accountId_tuskyAccountId (accountId=? AND tuskyAccountId=?)"))
+
+        val start = System.nanoTime()
+        notificationsDao.deleteAllFromInstance(1, "instance1.example")
+        val elapsedMillis = (System.nanoTime() - start) / 1_000_000
+
+        // 200 from accounts of the domain, 203 about statuses by authors of the domain, 3 of them both
+        assertEquals(20_000 - 200 - 203 + 3, notificationsDao.getNotificationCount(1))
+        // generous, this takes a few milliseconds on a real device
+        assertTrue("muting the domain took $elapsedMillis ms", elapsedMillis < 1_000)
+    }
+
+    @Test
+    fun `paging seeks the sort key index on a big cache`() = runTest {
+        db.insertPlaceholders("NotificationEntity", 20_000)
+
+        val plan = db.queryPlan(
+            "$NOTIFICATIONS_QUERY AND n.sortKey < ? ORDER BY n.sortKey DESC LIMIT ?",
+            1,
+            "100000000000010000".toSortKey(),
+            20
+        )
+        assertTrue(plan, plan.contains("index_NotificationEntity_tuskyAccountId_sortKey (tuskyAccountId=? AND sortKey<?)"))
+        assertFalse(plan, plan.contains("TEMP B-TREE"))
+
+        val pagingSource = notificationsDao.getNotifications(1)
+        val start = System.nanoTime()
+        val deep = pagingSource.load(PagingSource.LoadParams.Append("100000000000000021".toSortKey(), 20, false)) as PagingSource.LoadResult.Page
+        val elapsedMillis = (System.nanoTime() - start) / 1_000_000
+
+        assertEquals("100000000000000020", deep.data.first().id)
+        assertEquals(20, deep.data.size)
+        // generous, with LIMIT/OFFSET this page had to skip 19980 rows, with the index it takes a millisecond
+        assertTrue("loading the page took $elapsedMillis ms", elapsedMillis < 1_000)
+    }
 }
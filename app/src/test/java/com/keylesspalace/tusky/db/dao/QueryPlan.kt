@@ -0,0 +1,42 @@
+package com.keylesspalace.tusky.db.dao
+
+import com.keylesspalace.tusky.db.AppDatabase
+import com.keylesspalace.tusky.util.toSortKey
+
+/**
+ * Returns the details of all steps of the plan SQLite chooses for [sql], one step per line.
+ */
+fun AppDatabase.queryPlan(sql: String, vararg args: Any?): String {
+    val steps = mutableListOf<String>()
+    query("EXPLAIN QUERY PLAN $sql", args).use { cursor ->
+        val detailColumn = cursor.getColumnIndexOrThrow("detail")
+        while (cursor.moveToNext()) {
+            steps.add(cursor.getString(detailColumn))
+        }
+    }
+    return steps.joinToString("\n")
+}
+
+/**
+ * Fills [table] (HomeTimelineEntity or NotificationEntity) with [count] placeholders for Tusky account [tuskyAccountId].
+ * Placeholders don't reference any other table, which makes it cheap to create a big cache.
+ */
+fun AppDatabase.insertPlaceholders(table: String, count: Int, tuskyAccountId: Long = 1) {
+    val database = openHelper.writableDatabase
+    database.beginTransaction()
+    try {
+        val statement = database.compileStatement(
+            "INSERT INTO $table (tuskyAccountId, id, loading, sortKey) VALUES (?, ?, 0, ?)"
+        )
+        for (i in 1..count) {
+            val id = (100_000_000_000_000_000L + i).toString()
+            statement.bindLong(1, tuskyAccountId)
+            statement.bindString(2, id)
+            statement.bindString(3, id.toSortKey())
+            statement.executeInsert()
+        }
+        database.setTransactionSuccessful()
+    } finally {
+        database.endTransaction()
+    }
+}
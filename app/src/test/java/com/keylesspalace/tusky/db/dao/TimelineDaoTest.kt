@@ -1,6 +1,8 @@
 package com.keylesspalace.tusky.db.dao
 
+import androidx.paging.PagingConfig
 import androidx.paging.PagingSource
+import androidx.paging.PagingState
 import androidx.room.Room
 import androidx.test.ext.junit.runners.AndroidJUnit4
 import androidx.test.platform.app.InstrumentationRegistry
@@ -9,11 +11,15 @@ import com.keylesspalace.tusky.components.timeline.fakePlaceholderHomeTimelineDa
 import com.keylesspalace.tusky.components.timeline.insert
 import com.keylesspalace.tusky.db.AppDatabase
 import com.keylesspalace.tusky.db.Converters
+import com.keylesspalace.tusky.db.StatusBlobConverters
 import com.keylesspalace.tusky.di.NetworkModule
+import com.keylesspalace.tusky.util.toSortKey
 import kotlinx.coroutines.test.runTest
 import org.junit.After
 import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
 import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
 import org.junit.Before
 import org.junit.Test
 import org.junit.runner.RunWith
@@ -32,6 +38,7 @@ class TimelineDaoTest {
         val context = InstrumentationRegistry.getInstrumentation().targetContext
         db = Room.inMemoryDatabaseBuilder(context, AppDatabase::class.java)
             .addTypeConverter(Converters(moshi))
+            .addTypeConverter(StatusBlobConverters(moshi))
             .allowMainThreadQueries()
             .build()
         timelineDao = db.timelineDao()
@@ -337,4 +344,154 @@ class TimelineDaoTest {
 
         assertEquals(expectedHomeTimelineItems, loadedHomeTimelineItems)
     }
+
+    @Test
+    fun `ordering and range queries use the sortKey index`() = runTest {
+        db.insertPlaceholders("HomeTimelineEntity", 100_000)
+
+        val index = "index_HomeTimelineEntity_tuskyAccountId_sortKey"
+        val minKey = "100000000000050000".toSortKey()
+        val maxKey = "100000000000050039".toSortKey()
+
+        val pagingPlan = db.queryPlan(
+            """SELECT h.id FROM HomeTimelineEntity h
+LEFT JOIN TimelineStatusEntity s ON (h.statusId = s.serverId AND s.tuskyAccountId = ?)
+LEFT JOIN TimelineAccountEntity a ON (s.authorServerId = a.serverId AND a.tuskyAccountId = ?)
+WHERE h.tuskyAccountId = ? ORDER BY h.sortKey DESC LIMIT 40 OFFSET 1000""",
+            1,
+            1,
+            1
+        )
+        assertTrue(pagingPlan, pagingPlan.contains(index))
+        assertFalse(pagingPlan, pagingPlan.contains("TEMP B-TREE"))
+
+        val deletePlan = db.queryPlan(
+            "DELETE FROM HomeTimelineEntity WHERE tuskyAccountId = ? AND sortKey BETWEEN ? AND ?",
+            1,
+            minKey,
+            maxKey
+        )
+        assertTrue(deletePlan, deletePlan.contains("$index (tuskyAccountId=? AND sortKey>"))
+
+        val idBelowPlan = db.queryPlan(
+            "SELECT id FROM HomeTimelineEntity WHERE tuskyAccountId = ? AND sortKey < ? ORDER BY sortKey DESC LIMIT 1",
+            1,
+            maxKey
+        )
+        assertTrue(idBelowPlan, idBelowPlan.contains("$index (tuskyAccountId=? AND sortKey<"))
+        assertFalse(idBelowPlan, idBelowPlan.contains("TEMP B-TREE"))
+
+        assertEquals(40, timelineDao.deleteRange(1, "100000000000050000", "100000000000050039"))
+        assertEquals("100000000000049999", timelineDao.getIdBelow(1, "100000000000050000"))
+        assertEquals("100000000000050040", timelineDao.getIdAbove(1, "100000000000050000"))
+        assertEquals("100000000000100000", timelineDao.getTopId(1))
+
+        timelineDao.cleanupHomeTimeline(1, 1000)
+        assertEquals(1000, timelineDao.getHomeTimelineItemCount(1))
+        assertEquals("100000000000100000", timelineDao.getTopId(1))
+    }
+
+    @Test
+    fun `blocks and domain mutes use indices on a big cache`() = runTest {
+        db.insertPlaceholders("HomeTimelineEntity", 20_000)
+        // 1000 different authors from 100 different domains
+        db.openHelper.writableDatabase.execSQL(
+            """UPDATE HomeTimelineEntity SET statusId = id, authorId = CAST(rowid % 1000 AS TEXT),
+            authorDomain = 'instance' || (rowid % 100) || '.example'"""
+        )
+
+        val domainPlan = db.queryPlan(
+            "DELETE FROM HomeTimelineEntity WHERE tuskyAccountId = ? AND authorDomain = ?",
+            1,
+            "instance1.example"
+        )
+        assertTrue(domainPlan, domainPlan.contains("index_HomeTimelineEntity_tuskyAccountId_authorDomain (tuskyAccountId=? AND authorDomain=?)"))
+        val authorPlan = db.queryPlan(
+            "DELETE FROM HomeTimelineEntity WHERE tuskyAccountId = ? AND authorId = ?",
+            1,
+            "1"
+        )
+        assertTrue(authorPlan, authorPlan.contains("index_HomeTimelineEntity_tuskyAccountId_authorId (tuskyAccountId=? AND authorId=?)"))
+
+        val start = System.nanoTime()
+        val deleted = timelineDao.deleteAllFromInstance(1, "Instance1.example")
+        val elapsedMillis = (System.nanoTime() - start) / 1_000_000
+
+        assertEquals(200, deleted)
+        assertEquals(19_800, timelineDao.getHomeTimelineItemCount(1))
+        // generous, this takes a few milliseconds on a real device
+        assertTrue("muting the domain took $elapsedMillis ms", elapsedMillis < 1_000)
+
+        timelineDao.removeAllByUser(1, "2")
+        assertEquals(19_780, timelineDao.getHomeTimelineItemCount(1))
+    }
+
+    @Test
+    fun `should page by sort key and keep the position when refreshing`() = runTest {
+        db.insert((10 downTo 1).map { id -> fakeHomeTimelineData(id = id.toString()) })
+
+        val pagingSource = timelineDao.getHomeTimeline(1)
+        val top = pagingSource.load(PagingSource.LoadParams.Refresh(null, 4, false)) as PagingSource.LoadResult.Page
+        assertEquals(listOf("10", "9", "8", "7"), top.data.map { it.id })
+        assertNull(top.prevKey)
+        assertEquals("7".toSortKey(), top.nextKey)
+
+        val next = pagingSource.load(PagingSource.LoadParams.Append(top.nextKey!!, 4, false)) as PagingSource.LoadResult.Page
+        assertEquals(listOf("6", "5", "4", "3"), next.data.map { it.id })
+        val last = pagingSource.load(PagingSource.LoadParams.Append(next.nextKey!!, 4, false)) as PagingSource.LoadResult.Page
+        assertEquals(listOf("2", "1"), last.data.map { it.id })
+        assertNull(last.nextKey)
+
+        // the user looks at status 5, the refreshed page is loaded around it
+        val refreshKey = pagingSource.getRefreshKey(
+            PagingState(
+                pages = listOf(top, next, last),
+                anchorPosition = 5,
+                config = PagingConfig(pageSize = 4),
+                leadingPlaceholderCount = 0
+            )
+        )
+        assertEquals("5".toSortKey(), refreshKey)
+        val refreshed = timelineDao.getHomeTimeline(1).load(PagingSource.LoadParams.Refresh(refreshKey, 4, false)) as PagingSource.LoadResult.Page
+        assertEquals(listOf("7", "6", "5", "4"), refreshed.data.map { it.id })
+        assertEquals("7".toSortKey(), refreshed.prevKey)
+        assertEquals("4".toSortKey(), refreshed.nextKey)
+
+        val previous = pagingSource.load(PagingSource.LoadParams.Prepend(refreshed.prevKey!!, 4, false)) as PagingSource.LoadResult.Page
+        assertEquals(listOf("10", "9", "8"), previous.data.map { it.id })
+        assertNull(previous.prevKey)
+    }
+
+    @Test
+    fun `paging seeks the sort key index on a big cache`() = runTest {
+        db.insertPlaceholders("HomeTimelineEntity", 20_000)
+
+        // SQLite shows <= as < in query plans
+        for ((condition, order, shownAs) in listOf(Triple("<", "DESC", "<"), Triple("<=", "DESC", "<"), Triple(">", "ASC", ">"))) {
+            val plan = db.queryPlan(
+                "SELECT * FROM HomeTimelineRowEntity WHERE tuskyAccountId = ? AND sortKey $condition ? ORDER BY sortKey $order LIMIT ?",
+                1,
+                "100000000000010000".toSortKey(),
+                20
+            )
+            // a single step, no other table is joined
+            assertEquals(
+                "SEARCH HomeTimelineRowEntity USING INDEX index_HomeTimelineRowEntity_tuskyAccountId_sortKey (tuskyAccountId=? AND sortKey$shownAs?)",
+                plan
+            )
+        }
+
+        val pagingSource = timelineDao.getHomeTimeline(1)
+        val top = pagingSource.load(PagingSource.LoadParams.Refresh(null, 20, false)) as PagingSource.LoadResult.Page
+        assertEquals("100000000000020000", top.data.first().id)
+
+        val start = System.nanoTime()
+        val deep = pagingSource.load(PagingSource.LoadParams.Append("100000000000000021".toSortKey(), 20, false)) as PagingSource.LoadResult.Page
+        val elapsedMillis = (System.nanoTime() - start) / 1_000_000
+
+        assertEquals("100000000000000020", deep.data.first().id)
+        assertEquals("100000000000000001", deep.data.last().id)
+        // generous, with LIMIT/OFFSET this page had to skip 19980 rows, with the index it takes a millisecond
+        assertTrue("loading the page took $elapsedMillis ms", elapsedMillis < 1_000)
+    }
 }
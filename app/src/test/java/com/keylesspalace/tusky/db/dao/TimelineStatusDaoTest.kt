@@ -0,0 +1,181 @@
+package com.keylesspalace.tusky.db.dao
+
+import androidx.room.Room
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.keylesspalace.tusky.components.timeline.copyStatus
+import com.keylesspalace.tusky.components.timeline.fakeAccount
+import com.keylesspalace.tusky.components.timeline.fakeStatus
+import com.keylesspalace.tusky.db.AppDatabase
+import com.keylesspalace.tusky.db.CacheIngester
+import com.keylesspalace.tusky.db.Converters
+import com.keylesspalace.tusky.db.DatabaseCleaner
+import com.keylesspalace.tusky.db.StatusBlobConverters
+import com.keylesspalace.tusky.db.entity.AccountEntity
+import com.keylesspalace.tusky.db.sharedCache
+import com.keylesspalace.tusky.di.NetworkModule
+import com.keylesspalace.tusky.entity.Filter
+import com.keylesspalace.tusky.entity.FilterResult
+import kotlinx.coroutines.test.runTest
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.annotation.Config
+
+@Config(sdk = [34])
+@RunWith(AndroidJUnit4::class)
+class TimelineStatusDaoTest {
+    private lateinit var statusDao: TimelineStatusDao
+    private lateinit var db: AppDatabase
+    private lateinit var ingester: CacheIngester
+
+    private val moshi = NetworkModule.providesMoshi()
+
+    private val account = AccountEntity(
+        id = 1,
+        domain = "mastodon.example",
+        accessToken = "token",
+        clientId = "id",
+        clientSecret = "secret",
+        isActive = true
+    )
+
+    @Before
+    fun createDb() {
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        db = Room.inMemoryDatabaseBuilder(context, AppDatabase::class.java)
+            .addTypeConverter(Converters(moshi))
+            .addTypeConverter(StatusBlobConverters(moshi))
+            .allowMainThreadQueries()
+            .build()
+        statusDao = db.timelineStatusDao()
+        ingester = CacheIngester(db)
+    }
+
+    @After
+    fun closeDb() {
+        db.close()
+    }
+
+    @Test
+    fun `should find cached statuses by content, content warning and author`() = runTest {
+        ingester.replaceHomeTimelineRange(
+            account = account,
+            statuses = listOf(
+                fakeStatus(id = "4").copy(content = "<p>Tusky is written in <a href=\"https://kotlinlang.org\">Kotlin</a></p>"),
+                fakeStatus(id = "3", spoilerText = "Über Spoiler"),
+                fakeStatus(id = "2").copy(account = fakeAccount(id = "2").copy(username = "fan@remote.example", displayName = "Mastodon Fan")),
+                fakeStatus(id = "1").copy(content = "<p>nothing to see here</p>")
+            ),
+            filterKind = Filter.Kind.HOME
+        )
+
+        assertEquals(listOf("4"), search("kotlin"))
+        assertEquals(listOf("4"), search("tusky kot"))
+        // markup is not indexed
+        assertEquals(emptyList<String>(), search("href"))
+        assertEquals(listOf("3"), search("uber"))
+        assertEquals(listOf("2"), search("fan"))
+        assertEquals(listOf("2"), search("remote.example"))
+        // characters with a special meaning in full text queries are matched literally
+        assertEquals(emptyList<String>(), search("\"kotlin OR -tusky"))
+        assertEquals(emptyList<String>(), search(" * "))
+        // statuses of other Tusky accounts are not found
+        assertEquals(emptyList<String>(), statusDao.search(2, "kotlin", 10).map { (status, _) -> status.serverId })
+    }
+
+    @Test
+    fun `should keep the search index in sync with the cache`() = runTest {
+        ingester.replaceHomeTimelineRange(
+            account = account,
+            statuses = listOf(
+                fakeStatus(id = "3").copy(content = "<p>first draft</p>"),
+                fakeStatus(id = "2").copy(content = "<p>to be deleted</p>"),
+                fakeStatus(id = "1").copy(content = "<p>old news</p>")
+            ),
+            filterKind = Filter.Kind.HOME
+        )
+
+        statusDao.update(1, fakeStatus(id = "3").copy(content = "<p>edited version</p>"))
+        assertEquals(emptyList<String>(), search("draft"))
+        assertEquals(listOf("3"), search("edited"))
+
+        statusDao.delete(1, "2")
+        assertEquals(emptyList<String>(), search("deleted"))
+
+        DatabaseCleaner(db.sharedCache()).cleanupOldData(tuskyAccountId = 1, timelineLimit = 1, notificationLimit = 0)
+        assertEquals(emptyList<String>(), search("news"))
+        assertEquals(listOf("3"), search("version"))
+
+        DatabaseCleaner(db.sharedCache()).cleanupEverything(tuskyAccountId = 1)
+        assertEquals(emptyList<String>(), search("version"))
+        assertEquals(0L, db.count("SELECT COUNT(*) FROM StatusSearchEntity WHERE StatusSearchEntity MATCH 'version'"))
+    }
+
+    @Test
+    fun `search uses the full text index on a big cache`() = runTest {
+        ingester.replaceHomeTimelineRange(
+            account = account,
+            statuses = listOf(fakeStatus(id = "1")),
+            filterKind = Filter.Kind.HOME
+        )
+        db.copyStatus(count = 50_000)
+
+        val plan = db.queryPlan(
+            """SELECT s.* FROM TimelineStatusEntity s
+WHERE s.rowid IN (SELECT docid FROM StatusSearchEntity WHERE StatusSearchEntity MATCH ?)
+AND s.tuskyAccountId = ?
+AND (
+EXISTS (SELECT 1 FROM HomeTimelineEntity h WHERE h.statusId = s.serverId AND h.tuskyAccountId = ?)
+OR EXISTS (SELECT 1 FROM NotificationEntity n WHERE n.statusId = s.serverId AND n.tuskyAccountId = ?)
+)
+ORDER BY s.createdAt DESC
+LIMIT 20""",
+            "\"rare*\"",
+            1,
+            1,
+            1
+        )
+        assertTrue(plan, plan.contains("VIRTUAL TABLE INDEX"))
+        assertTrue(plan, plan.contains("USING INTEGER PRIMARY KEY (rowid=?)"))
+
+        val start = System.nanoTime()
+        val rare = statusDao.search(1, "rare", 20)
+        val common = statusDao.search(1, "common", 20)
+        val elapsedMillis = (System.nanoTime() - start) / 1_000_000
+
+        assertEquals(20, rare.size)
+        assertTrue(rare.all { (status, _) -> status.serverId.toLong() % 1000 == 0L })
+        assertEquals(20, common.size)
+        assertEquals(50, db.count("SELECT COUNT(*) FROM StatusSearchEntity WHERE StatusSearchEntity MATCH 'rare'"))
+        // generous, searching the 50k statuses takes a few milliseconds on a real device
+        assertTrue("searching took $elapsedMillis ms", elapsedMillis < 2_000)
+    }
+
+    @Test
+    fun `clearing the warning stores an empty filter list in the binary format`() = runTest {
+        val filter = Filter(title = "spoilers", context = listOf(Filter.Kind.HOME), action = Filter.Action.WARN)
+        ingester.replaceHomeTimelineRange(
+            account = account,
+            statuses = listOf(fakeStatus(id = "1").copy(filtered = listOf(FilterResult(filter)))),
+            filterKind = Filter.Kind.HOME
+        )
+        assertEquals(listOf(FilterResult(filter)), statusDao.getStatus(1, "1")!!.filtered)
+
+        assertEquals(1, statusDao.clearWarning(1, "1"))
+
+        assertEquals(emptyList<FilterResult>(), statusDao.getStatus(1, "1")!!.filtered)
+        assertEquals(1L, db.count("SELECT COUNT(*) FROM TimelineStatusEntity WHERE typeof(filtered) = 'blob'"))
+    }
+
+    private suspend fun search(query: String): List<String> =
+        statusDao.search(1, query, 10).map { (status, _) -> status.serverId }
+
+    private fun AppDatabase.count(sql: String): Long = query(sql, null).use { cursor ->
+        cursor.moveToFirst()
+        cursor.getLong(0)
+    }
+}
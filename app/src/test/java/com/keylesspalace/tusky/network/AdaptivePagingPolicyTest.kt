@@ -0,0 +1,139 @@
+package com.keylesspalace.tusky.network
+
+import okhttp3.Interceptor
+import okhttp3.Protocol
+import okhttp3.Request
+import okhttp3.Response
+import okhttp3.ResponseBody.Companion.toResponseBody
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.mockito.kotlin.any
+import org.mockito.kotlin.doAnswer
+import org.mockito.kotlin.mock
+
+class AdaptivePagingPolicyTest {
+
+    private var now = 1_000_000L
+
+    private val policy = AdaptivePagingPolicy { now }
+
+    @Test
+    fun `should use the defaults before anything has been measured`() {
+        val config = policy.config("home timeline", defaultPageSize = 30, prefetchPages = 2)
+
+        assertEquals(30, config.pageSize)
+        assertEquals(60, config.prefetchDistance)
+        assertEquals(90, config.initialLoadSize)
+        assertEquals(null, policy.decisions().single().firstByteMillis)
+    }
+
+    @Test
+    fun `should load the biggest pages the server allows on a fast connection`() {
+        loadPage(items = 40, bytesPerItem = 2_000, firstByteMillis = 50, transferMillis = 40)
+
+        val config = policy.config("home timeline", defaultPageSize = 30)
+
+        assertEquals(AdaptivePagingPolicy.MAX_PAGE_SIZE, config.pageSize)
+        assertEquals(40, config.prefetchDistance)
+        assertEquals(120, config.initialLoadSize)
+        policy.decisions().single().let { decision ->
+            assertEquals(50L, decision.firstByteMillis)
+            assertEquals(2_000L, decision.bytesPerItem)
+            assertEquals(2_000_000L, decision.bytesPerSecond)
+        }
+    }
+
+    @Test
+    fun `should load small pages on a slow connection so the first one arrives quickly`() {
+        loadPage(items = 20, bytesPerItem = 2_000, firstByteMillis = 800, transferMillis = 4_000)
+
+        val config = policy.config("notifications", defaultPageSize = 30)
+
+        assertEquals(AdaptivePagingPolicy.MIN_PAGE_SIZE, config.pageSize)
+        assertEquals(10, config.prefetchDistance)
+        assertEquals(10, config.initialLoadSize)
+    }
+
+    @Test
+    fun `should measure the size of an item from the items a page that is not full contains`() {
+        loadPage(items = 10, bytesPerItem = 2_000, firstByteMillis = 50, transferMillis = 40, limit = 40)
+
+        policy.config("home timeline", defaultPageSize = 30)
+
+        assertEquals(2_000L, policy.decisions().single().bytesPerItem)
+    }
+
+    @Test
+    fun `should prefetch further while the user scrolls quickly`() {
+        loadPage(items = 40, bytesPerItem = 2_000, firstByteMillis = 300, transferMillis = 400)
+        repeat(3) { page ->
+            now += 100
+            loadPage(items = 40, bytesPerItem = 2_000, firstByteMillis = 300, transferMillis = 400, maxId = page.toString())
+        }
+
+        // 40 items every 800 ms and 700 ms for a page, twice the 35 items that are scrolled past while it loads
+        val scrolling = policy.config("home timeline", defaultPageSize = 30)
+        assertEquals(40, scrolling.pageSize)
+        assertEquals(70, scrolling.prefetchDistance)
+
+        now += 200_000
+        assertEquals(40, policy.config("home timeline", defaultPageSize = 30).prefetchDistance)
+    }
+
+    @Test
+    fun `should not measure requests without a limit`() {
+        val request = Request.Builder().url("https://mastodon.example/api/v1/accounts/1").build()
+        val chain: Interceptor.Chain = mock {
+            on { request() } doAnswer { request }
+            on { proceed(any()) } doAnswer { response(request, "{}".toByteArray()) }
+        }
+
+        policy.intercept(chain).body?.string()
+
+        assertEquals(30, policy.config("account", defaultPageSize = 30).pageSize)
+        assertEquals(null, policy.decisions().single().firstByteMillis)
+    }
+
+    /**
+     * Lets the policy intercept a request for a page that takes [firstByteMillis] until the server answers and [transferMillis] to arrive.
+     * @param limit the page size that was requested, the server returns [items]
+     */
+    private fun loadPage(
+        items: Int,
+        bytesPerItem: Int,
+        firstByteMillis: Long,
+        transferMillis: Long,
+        maxId: String? = null,
+        limit: Int = items
+    ) {
+        val url = "https://mastodon.example/api/v1/timelines/home?limit=$limit" + maxId?.let { "&max_id=$it" }.orEmpty()
+        val request = Request.Builder().url(url).build()
+        val chain: Interceptor.Chain = mock {
+            on { request() } doAnswer { request }
+            on { proceed(any()) } doAnswer {
+                now += firstByteMillis
+                response(request, jsonArray(items, bytesPerItem).toByteArray())
+            }
+        }
+
+        val response = policy.intercept(chain)
+        now += transferMillis
+        response.body!!.source().readByteArray()
+    }
+
+    /** A JSON array of [items] objects that takes exactly [bytesPerItem] bytes per item, brackets and commas included. */
+    private fun jsonArray(items: Int, bytesPerItem: Int): String {
+        // strings with commas and brackets in them, which are not separators
+        fun item(length: Int) = "{\"a\":\"" + "x,]".repeat(length).take(length - 8) + "\"}"
+        return List(items) { index -> item(if (index == 0) bytesPerItem - 2 else bytesPerItem - 1) }
+            .joinToString(separator = ",", prefix = "[", postfix = "]")
+    }
+
+    private fun response(request: Request, body: ByteArray) = Response.Builder()
+        .request(request)
+        .protocol(Protocol.HTTP_1_1)
+        .code(200)
+        .message("OK")
+        .body(body.toResponseBody())
+        .build()
+}
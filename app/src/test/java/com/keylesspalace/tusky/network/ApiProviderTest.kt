@@ -0,0 +1,119 @@
+package com.keylesspalace.tusky.network
+
+import at.connyduck.calladapter.networkresult.NetworkResultCallAdapterFactory
+import com.keylesspalace.tusky.db.AccountManager
+import com.keylesspalace.tusky.db.entity.AccountEntity
+import com.squareup.moshi.Moshi
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.flow.MutableStateFlow
+import okhttp3.OkHttpClient
+import org.junit.After
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertSame
+import org.junit.Test
+import org.mockito.kotlin.doReturn
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.spy
+import org.mockito.kotlin.times
+import org.mockito.kotlin.verify
+import retrofit2.Retrofit
+import retrofit2.converter.moshi.MoshiConverterFactory
+
+class ApiProviderTest {
+
+    private val okHttpClient = OkHttpClient.Builder().build()
+    // a spy, so the tests can count how many Api instances are created
+    private val retrofit = spy(
+        Retrofit.Builder()
+            .baseUrl("https://${MastodonApi.PLACEHOLDER_DOMAIN}")
+            .client(okHttpClient)
+            .addConverterFactory(MoshiConverterFactory.create(Moshi.Builder().build()))
+            .addCallAdapterFactory(NetworkResultCallAdapterFactory.create())
+            .build()
+    )
+
+    private val account = AccountEntity(
+        id = 1,
+        domain = "mastodon.example",
+        accessToken = "token",
+        clientId = "id",
+        clientSecret = "secret",
+        isActive = true
+    )
+    private val otherAccount = account.copy(id = 2, domain = "other.example", isActive = false)
+
+    private val accounts = MutableStateFlow(listOf(account, otherAccount))
+    private val scope = CoroutineScope(Dispatchers.Unconfined)
+    private val apiProvider = ApiProvider(
+        okHttpClient,
+        retrofit,
+        mock<AccountManager> { on { accountsFlow } doReturn accounts },
+        scope
+    )
+
+    @After
+    fun tearDown() {
+        scope.cancel()
+    }
+
+    @Test
+    fun `should return the same instance for the same account`() {
+        val api = apiProvider.mastodonApi(account)
+
+        assertSame(api, apiProvider.mastodonApi(account))
+        assertSame(apiProvider.mastodonApi(null), apiProvider.mastodonApi(null))
+        assertSame(apiProvider.mediaUploadApi(account), apiProvider.mediaUploadApi(account))
+        assertNotSame(api, apiProvider.mastodonApi(otherAccount))
+    }
+
+    @Test
+    fun `should create a new instance when the access token changed`() {
+        val api = apiProvider.mastodonApi(account)
+        val otherApi = apiProvider.mastodonApi(otherAccount)
+
+        val reloggedIn = account.copy(accessToken = "new token")
+        accounts.value = listOf(reloggedIn, otherAccount)
+
+        val newApi = apiProvider.mastodonApi(reloggedIn)
+        assertNotSame(api, newApi)
+        assertSame(newApi, apiProvider.mastodonApi(reloggedIn))
+        assertSame(otherApi, apiProvider.mastodonApi(otherAccount))
+    }
+
+    @Test
+    fun `should drop the instances of accounts that logged out`() {
+        val api = apiProvider.mastodonApi(otherAccount)
+        val mediaUploadApi = apiProvider.mediaUploadApi(otherAccount)
+        val activeApi = apiProvider.mastodonApi(account)
+
+        accounts.value = listOf(account)
+
+        // a screen that still holds the removed account gets a new instance, the cached one is gone
+        assertNotSame(api, apiProvider.mastodonApi(otherAccount))
+        assertNotSame(mediaUploadApi, apiProvider.mediaUploadApi(otherAccount))
+        assertSame(activeApi, apiProvider.mastodonApi(account))
+    }
+
+    @Test
+    fun `switching between accounts creates every instance only once`() {
+        repeat(50) {
+            for (activeAccount in listOf(account, otherAccount)) {
+                // what every screen of the active account injects
+                apiProvider.mastodonApi(activeAccount)
+                apiProvider.mediaUploadApi(activeAccount)
+            }
+        }
+
+        // one MastodonApi and one MediaUploadApi per account
+        verify(retrofit, times(4)).newBuilder()
+
+        accounts.value = listOf(account.copy(accessToken = "new token"), otherAccount)
+        repeat(50) {
+            apiProvider.mastodonApi(account.copy(accessToken = "new token"))
+        }
+
+        verify(retrofit, times(5)).newBuilder()
+    }
+}
@@ -0,0 +1,115 @@
+package com.keylesspalace.tusky.network
+
+import java.io.IOException
+import okhttp3.OkHttpClient
+import okhttp3.Protocol
+import okhttp3.Request
+import okhttp3.Response
+import okhttp3.ResponseBody.Companion.toResponseBody
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.SocketPolicy
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertThrows
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+
+class NetworkMetricsTest {
+
+    private val mockWebServer = MockWebServer()
+
+    private val metrics = NetworkMetrics()
+
+    @Before
+    fun setup() {
+        mockWebServer.start()
+    }
+
+    @After
+    fun teardown() {
+        mockWebServer.shutdown()
+    }
+
+    @Test
+    fun `should turn paths into endpoint templates`() {
+        assertEquals("/api/v1/timelines/home", NetworkMetrics.endpointOf("/api/v1/timelines/home"))
+        assertEquals("/api/v1/statuses/{id}/favourite", NetworkMetrics.endpointOf("/api/v1/statuses/109876543210/favourite"))
+        assertEquals("/api/v1/accounts/{id}/statuses", NetworkMetrics.endpointOf("/api/v1/accounts/AbC9xYz/statuses"))
+        assertEquals("/api/v1/timelines/tag/{tag}", NetworkMetrics.endpointOf("/api/v1/timelines/tag/kotlin"))
+        assertEquals("/api/v2/search", NetworkMetrics.endpointOf("/api/v2/search"))
+    }
+
+    @Test
+    fun `should add up the calls of an endpoint`() {
+        mockWebServer.enqueue(MockResponse().setBody("[1]"))
+        mockWebServer.enqueue(MockResponse().setBody("[22]"))
+        val client = OkHttpClient.Builder().eventListenerFactory(metrics).build()
+
+        get(client, "/api/v1/accounts/1/statuses?limit=20")
+        get(client, "/api/v1/accounts/2/statuses")
+
+        val endpoint = metrics.stats().single()
+        assertEquals(mockWebServer.hostName, endpoint.instance)
+        assertEquals("/api/v1/accounts/{id}/statuses", endpoint.endpoint)
+        assertEquals(2, endpoint.calls)
+        assertEquals(0, endpoint.failures)
+        // the second call reuses the connection of the first
+        assertEquals(1, endpoint.connections)
+        assertEquals(2, endpoint.firstByteHistogram.sum())
+        assertEquals(2, endpoint.totalHistogram.sum())
+        assertTrue(endpoint.bytesSent > 0)
+        assertTrue(endpoint.bytesReceived > 7)
+
+        val instance = metrics.instanceStats().single()
+        assertEquals(2, instance.calls)
+        assertEquals(endpoint.totalHistogram, instance.totalHistogram)
+
+        metrics.reset()
+        assertEquals(emptyList<EndpointMetrics>(), metrics.stats())
+    }
+
+    @Test
+    fun `should count responses of interceptors and failed calls`() {
+        mockWebServer.enqueue(MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AT_START))
+        val client = OkHttpClient.Builder()
+            .eventListenerFactory(metrics)
+            .retryOnConnectionFailure(false)
+            .addInterceptor { chain ->
+                if (chain.request().url.encodedPath == "/api/v1/custom_emojis") {
+                    Response.Builder()
+                        .request(chain.request())
+                        .protocol(Protocol.HTTP_1_1)
+                        .code(200)
+                        .message("OK")
+                        .body("[]".toResponseBody())
+                        .build()
+                } else {
+                    chain.proceed(chain.request())
+                }
+            }
+            .build()
+
+        get(client, "/api/v1/custom_emojis")
+        assertThrows(IOException::class.java) {
+            get(client, "/api/v1/instance")
+        }
+
+        val stats = metrics.stats().associateBy { endpoint -> endpoint.endpoint }
+        stats.getValue("/api/v1/custom_emojis").let { endpoint ->
+            assertEquals(1, endpoint.localResponses)
+            assertEquals(0L, endpoint.bytesSent)
+            assertEquals(0, endpoint.firstByteHistogram.sum())
+        }
+        stats.getValue("/api/v1/instance").let { endpoint ->
+            assertEquals(1, endpoint.failures)
+            assertEquals(0, endpoint.localResponses)
+        }
+    }
+
+    private fun get(client: OkHttpClient, path: String): String {
+        val request = Request.Builder().url(mockWebServer.url(path)).build()
+        return client.newCall(request).execute().use { response -> response.body!!.string() }
+    }
+}
@@ -0,0 +1,137 @@
+package com.keylesspalace.tusky.network
+
+import at.connyduck.calladapter.networkresult.NetworkResult
+import com.keylesspalace.tusky.appstore.EventHub
+import com.keylesspalace.tusky.appstore.MuteEvent
+import com.keylesspalace.tusky.db.AccountManager
+import com.keylesspalace.tusky.db.entity.AccountEntity
+import com.keylesspalace.tusky.entity.Relationship
+import java.io.IOException
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.test.TestScope
+import kotlinx.coroutines.test.runCurrent
+import kotlinx.coroutines.test.runTest
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.mockito.kotlin.any
+import org.mockito.kotlin.doAnswer
+import org.mockito.kotlin.doReturn
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.times
+import org.mockito.kotlin.verify
+import org.mockito.kotlin.verifyNoMoreInteractions
+
+class RelationshipBatcherTest {
+
+    private val account = AccountEntity(
+        id = 1,
+        domain = "mastodon.example",
+        accessToken = "token",
+        clientId = "id",
+        clientSecret = "secret",
+        isActive = true
+    )
+
+    private val accountManager: AccountManager = mock {
+        on { activeAccount } doReturn account
+    }
+    private val eventHub = EventHub()
+    private var time = 0L
+
+    private val api: MastodonApi = mock {
+        onBlocking { relationships(any()) } doAnswer { invocation ->
+            NetworkResult.success(invocation.getArgument<List<String>>(0).map(::relationship))
+        }
+    }
+
+    @Test
+    fun `should load ids that are asked for at the same time with one request`() = runTest {
+        val batcher = batcher()
+
+        val results = listOf(listOf("1"), listOf("2", "3"), listOf("3", "1")).map { ids ->
+            async { batcher.relationships(ids).getOrNull().orEmpty().map { relationship -> relationship.id } }
+        }.awaitAll()
+
+        assertEquals(listOf(listOf("1"), listOf("2", "3"), listOf("3", "1")), results)
+        verify(api).relationships(listOf("1", "2", "3"))
+        verifyNoMoreInteractions(api)
+    }
+
+    @Test
+    fun `should split big batches into requests the server accepts`() = runTest {
+        val ids = (1..45).map(Int::toString)
+
+        val relationships = batcher().relationships(ids).getOrNull().orEmpty()
+
+        assertEquals(ids, relationships.map { relationship -> relationship.id })
+        verify(api).relationships(ids.take(RelationshipBatcher.MAX_IDS_PER_REQUEST))
+        verify(api).relationships(ids.drop(RelationshipBatcher.MAX_IDS_PER_REQUEST))
+        verifyNoMoreInteractions(api)
+    }
+
+    @Test
+    fun `should reuse loaded relationships until they expire or a refresh is asked for`() = runTest {
+        val batcher = batcher()
+
+        batcher.relationships(listOf("1"))
+        batcher.relationships(listOf("1"))
+        verify(api, times(1)).relationships(listOf("1"))
+
+        batcher.relationships(listOf("1"), refresh = true)
+        verify(api, times(2)).relationships(listOf("1"))
+
+        time += RelationshipBatcher.CACHE_MILLIS
+        batcher.relationships(listOf("1"))
+        verify(api, times(3)).relationships(listOf("1"))
+    }
+
+    @Test
+    fun `should forget a relationship when an event says it changed`() = runTest {
+        val batcher = batcher()
+        batcher.relationships(listOf("1", "2"))
+
+        eventHub.dispatch(MuteEvent("1"))
+        runCurrent()
+        batcher.relationships(listOf("1", "2"))
+
+        verify(api).relationships(listOf("1", "2"))
+        verify(api).relationships(listOf("1"))
+        verifyNoMoreInteractions(api)
+    }
+
+    @Test
+    fun `should fail every caller of a failed batch and not cache anything`() = runTest {
+        val failingApi: MastodonApi = mock {
+            onBlocking { relationships(any()) } doReturn NetworkResult.failure(IOException())
+        }
+        val batcher = batcher(failingApi)
+
+        val results = listOf(listOf("1"), listOf("2")).map { ids -> async { batcher.relationships(ids) } }.awaitAll()
+        assertTrue(results.all { result -> result.isFailure })
+
+        batcher.relationships(listOf("1"))
+        verify(failingApi, times(2)).relationships(any())
+    }
+
+    /** Creates the batcher and lets it start listening to the [eventHub]. */
+    private fun TestScope.batcher(api: MastodonApi = this@RelationshipBatcherTest.api): RelationshipBatcher {
+        val apiProvider: ApiProvider = mock {
+            on { mastodonApi(account) } doReturn api
+        }
+        return RelationshipBatcher(apiProvider, accountManager, eventHub, backgroundScope) { time }.also { runCurrent() }
+    }
+
+    private fun relationship(id: String) = Relationship(
+        id = id,
+        following = false,
+        followedBy = false,
+        blocking = false,
+        muting = false,
+        mutingNotifications = false,
+        requested = false,
+        showingReblogs = false,
+        blockingDomain = false
+    )
+}
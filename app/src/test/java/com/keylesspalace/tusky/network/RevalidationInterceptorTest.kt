@@ -0,0 +1,137 @@
+package com.keylesspalace.tusky.network
+
+import kotlinx.coroutines.test.runTest
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+class RevalidationInterceptorTest {
+
+    @get:Rule
+    val temporaryFolder = TemporaryFolder()
+
+    private val mockWebServer = MockWebServer()
+
+    private var now = 1_000_000L
+
+    private lateinit var interceptor: RevalidationInterceptor
+    private lateinit var client: OkHttpClient
+
+    @Before
+    fun setup() {
+        mockWebServer.start()
+        interceptor = RevalidationInterceptor(
+            directory = temporaryFolder.newFolder(),
+            maxAges = mapOf("/api/v1/custom_emojis" to 60_000L, "/api/v2/filters" to 0L),
+            now = { now }
+        )
+        client = OkHttpClient.Builder().addInterceptor(interceptor).build()
+    }
+
+    @After
+    fun teardown() {
+        mockWebServer.shutdown()
+    }
+
+    @Test
+    fun `should return a stored response without asking the server while it is younger than the max age`() {
+        mockWebServer.enqueue(MockResponse().setHeader("ETag", "\"1\"").setBody("[\"blobcat\"]"))
+
+        assertEquals("[\"blobcat\"]", get("/api/v1/custom_emojis"))
+        now += 59_000
+        assertEquals("[\"blobcat\"]", get("/api/v1/custom_emojis"))
+
+        assertEquals(1, mockWebServer.requestCount)
+        assertEquals(listOf(RevalidationStats("/api/v1/custom_emojis", hits = 1, notModified = 0, misses = 1, bytesSaved = 11)), interceptor.stats())
+    }
+
+    @Test
+    fun `should revalidate an older response and keep it when it is not modified`() {
+        mockWebServer.enqueue(
+            MockResponse()
+                .setHeader("ETag", "W/\"1\"")
+                .setHeader("Last-Modified", "Sat, 17 Oct 2026 10:00:00 GMT")
+                .setHeader("Link", "<https://mastodon.example/api/v2/filters?max_id=1>; rel=\"next\"")
+                .setBody("[]")
+        )
+        mockWebServer.enqueue(MockResponse().setResponseCode(304))
+        mockWebServer.enqueue(MockResponse().setHeader("ETag", "W/\"2\"").setBody("[{}]"))
+
+        assertEquals("[]", get("/api/v2/filters"))
+        assertNull(mockWebServer.takeRequest().getHeader("If-None-Match"))
+
+        val response = client.newCall(request("/api/v2/filters")).execute()
+        assertEquals(200, response.code)
+        assertEquals("[]", response.body?.string())
+        // headers like the pagination links are restored with the body
+        assertEquals("<https://mastodon.example/api/v2/filters?max_id=1>; rel=\"next\"", response.header("Link"))
+        val revalidation = mockWebServer.takeRequest()
+        assertEquals("W/\"1\"", revalidation.getHeader("If-None-Match"))
+        assertEquals("Sat, 17 Oct 2026 10:00:00 GMT", revalidation.getHeader("If-Modified-Since"))
+
+        assertEquals("[{}]", get("/api/v2/filters"))
+        assertEquals("W/\"1\"", mockWebServer.takeRequest().getHeader("If-None-Match"))
+        assertEquals(listOf(RevalidationStats("/api/v2/filters", hits = 0, notModified = 1, misses = 2, bytesSaved = 2)), interceptor.stats())
+    }
+
+    @Test
+    fun `should not share stored responses between accounts`() {
+        mockWebServer.enqueue(MockResponse().setBody("account 1"))
+        mockWebServer.enqueue(MockResponse().setBody("account 2"))
+
+        assertEquals("account 1", get("/api/v1/custom_emojis", token = "1"))
+        assertEquals("account 2", get("/api/v1/custom_emojis", token = "2"))
+        assertEquals("account 1", get("/api/v1/custom_emojis", token = "1"))
+
+        assertEquals(2, mockWebServer.requestCount)
+    }
+
+    @Test
+    fun `should remove the stored responses of an account that logs out`() = runTest {
+        mockWebServer.enqueue(MockResponse().setBody("account 1"))
+        mockWebServer.enqueue(MockResponse().setBody("account 2"))
+        mockWebServer.enqueue(MockResponse().setBody("account 1 again"))
+
+        get("/api/v1/custom_emojis", token = "1")
+        get("/api/v1/custom_emojis", token = "2")
+        interceptor.removeStoredResponses(accessToken = "1")
+
+        assertEquals("account 1 again", get("/api/v1/custom_emojis", token = "1"))
+        assertEquals("account 2", get("/api/v1/custom_emojis", token = "2"))
+        assertEquals(3, mockWebServer.requestCount)
+    }
+
+    @Test
+    fun `should leave other endpoints and failed responses alone`() {
+        mockWebServer.enqueue(MockResponse().setHeader("ETag", "\"1\"").setBody("[]"))
+        mockWebServer.enqueue(MockResponse().setHeader("ETag", "\"1\"").setBody("[]"))
+        mockWebServer.enqueue(MockResponse().setResponseCode(500))
+        mockWebServer.enqueue(MockResponse().setBody("[]"))
+
+        get("/api/v1/timelines/home")
+        get("/api/v1/timelines/home")
+        assertNull(mockWebServer.takeRequest().getHeader("If-None-Match"))
+        assertNull(mockWebServer.takeRequest().getHeader("If-None-Match"))
+
+        assertEquals(500, client.newCall(request("/api/v1/custom_emojis")).execute().use { response -> response.code })
+        get("/api/v1/custom_emojis")
+        assertEquals(4, mockWebServer.requestCount)
+    }
+
+    private fun request(path: String, token: String = "token") = Request.Builder()
+        .url(mockWebServer.url(path))
+        .header("Authorization", "Bearer $token")
+        .build()
+
+    private fun get(path: String, token: String = "token"): String? {
+        return client.newCall(request(path, token)).execute().use { response -> response.body?.string() }
+    }
+}
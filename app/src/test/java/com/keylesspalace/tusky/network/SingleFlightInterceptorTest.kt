@@ -0,0 +1,85 @@
+package com.keylesspalace.tusky.network
+
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+
+class SingleFlightInterceptorTest {
+
+    private val mockWebServer = MockWebServer()
+    private val client = OkHttpClient.Builder()
+        .addInterceptor(SingleFlightInterceptor(setOf("/api/v2/filters")))
+        .build()
+    private val executor = Executors.newFixedThreadPool(TABS)
+
+    @Before
+    fun setup() {
+        mockWebServer.start()
+    }
+
+    @After
+    fun teardown() {
+        executor.shutdownNow()
+        mockWebServer.shutdown()
+    }
+
+    @Test
+    fun `concurrent identical requests should share one network call`() {
+        // the response takes long enough for all tabs to ask for the filters while it is in flight
+        mockWebServer.enqueue(MockResponse().setBody("[]").setHeadersDelay(500, TimeUnit.MILLISECONDS))
+
+        val bodies = requestConcurrently { get("/api/v2/filters") }
+
+        assertEquals(List(TABS) { "[]" }, bodies)
+        assertEquals(1, mockWebServer.requestCount)
+    }
+
+    @Test
+    fun `requests of different accounts or to other endpoints should not be shared`() {
+        repeat(4) {
+            mockWebServer.enqueue(MockResponse().setBody("[]").setHeadersDelay(200, TimeUnit.MILLISECONDS))
+        }
+
+        requestConcurrently(tasks = 2) { index -> get("/api/v2/filters", token = index.toString()) }
+        requestConcurrently(tasks = 2) { get("/api/v1/timelines/home") }
+
+        assertEquals(4, mockWebServer.requestCount)
+    }
+
+    @Test
+    fun `waiting requests should be made on their own when the first one fails`() {
+        mockWebServer.enqueue(MockResponse().setResponseCode(500).setHeadersDelay(500, TimeUnit.MILLISECONDS))
+        repeat(TABS - 1) {
+            mockWebServer.enqueue(MockResponse().setBody("[]"))
+        }
+
+        val bodies = requestConcurrently { get("/api/v2/filters") }
+
+        assertEquals(1, bodies.count { body -> body != "[]" })
+        assertEquals(TABS, mockWebServer.requestCount)
+    }
+
+    private fun requestConcurrently(tasks: Int = TABS, request: (Int) -> String?): List<String?> {
+        return executor.invokeAll(List(tasks) { index -> Callable { request(index) } }).map { future -> future.get() }
+    }
+
+    private fun get(path: String, token: String = "token"): String? {
+        val request = Request.Builder()
+            .url(mockWebServer.url(path))
+            .header("Authorization", "Bearer $token")
+            .build()
+        return client.newCall(request).execute().use { response -> response.body?.string() }
+    }
+
+    companion object {
+        private const val TABS = 6
+    }
+}
@@ -0,0 +1,108 @@
+package com.keylesspalace.tusky.network
+
+import com.keylesspalace.tusky.di.NetworkModule
+import java.util.concurrent.TimeUnit
+import kotlinx.coroutines.flow.take
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.test.runTest
+import okhttp3.OkHttpClient
+import okhttp3.WebSocket
+import okhttp3.WebSocketListener
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+
+class StreamingClientTest {
+
+    private val mockWebServer = MockWebServer()
+    private val streamingClient = StreamingClient(OkHttpClient.Builder().build(), NetworkModule.providesMoshi())
+
+    @Before
+    fun setup() {
+        mockWebServer.start()
+    }
+
+    @After
+    fun teardown() {
+        mockWebServer.shutdown()
+    }
+
+    @Test
+    fun `should subscribe to all streams over one WebSocket and emit their events`() = runTest {
+        val subscriptions = mutableListOf<String>()
+        mockWebServer.enqueue(
+            MockResponse().withWebSocketUpgrade(
+                object : WebSocketListener() {
+                    override fun onMessage(webSocket: WebSocket, text: String) {
+                        subscriptions.add(text)
+                        if (subscriptions.size == 2) {
+                            webSocket.send("""{"stream":["user"],"event":"delete","payload":"103"}""")
+                            webSocket.send("""{"error":"Missing access token","status":401}""")
+                            webSocket.send("""{"stream":["direct"],"event":"conversation","payload":"{\"id\":\"5\"}"}""")
+                        }
+                    }
+                }
+            )
+        )
+
+        val events = streamingClient.events(mockWebServer.url("/"), "token", listOf("user", "direct")).take(3).toList()
+
+        assertEquals(
+            listOf(
+                StreamEvent.Connected,
+                StreamEvent.Message(listOf("user"), "delete", "103"),
+                StreamEvent.Message(listOf("direct"), "conversation", """{"id":"5"}""")
+            ),
+            events
+        )
+        assertEquals(
+            listOf("""{"type":"subscribe","stream":"user"}""", """{"type":"subscribe","stream":"direct"}"""),
+            subscriptions
+        )
+        val upgrade = mockWebServer.takeRequest()
+        assertEquals("/api/v1/streaming", upgrade.path)
+        assertEquals("Bearer token", upgrade.getHeader("Authorization"))
+    }
+
+    @Test
+    fun `should fall back to server-sent events when the WebSocket is refused`() = runTest {
+        mockWebServer.dispatcher = object : Dispatcher() {
+            override fun dispatch(request: RecordedRequest) = when (request.path) {
+                "/api/v1/streaming/user" -> MockResponse()
+                    .setHeader("Content-Type", "text/event-stream")
+                    .setBody(":thump\n\nevent: update\ndata: {\"id\":\"1\",\ndata: \"content\":\"\"}\n\nevent: delete\ndata: 2\n\n")
+                // an idle stream
+                "/api/v1/streaming/direct" -> MockResponse()
+                    .setHeader("Content-Type", "text/event-stream")
+                    .setBody(":thump\n\n")
+                    .setBodyDelay(10, TimeUnit.SECONDS)
+                else -> MockResponse().setResponseCode(404)
+            }
+        }
+
+        val events = streamingClient.events(mockWebServer.url("/"), "token", listOf("user", "direct")).take(3).toList()
+
+        assertEquals(
+            listOf(
+                StreamEvent.Connected,
+                StreamEvent.Message(listOf("user"), "update", "{\"id\":\"1\",\n\"content\":\"\"}"),
+                StreamEvent.Message(listOf("user"), "delete", "2")
+            ),
+            events
+        )
+        val requests = List(3) { mockWebServer.takeRequest() }
+        assertEquals(listOf("/api/v1/streaming", "/api/v1/streaming/direct", "/api/v1/streaming/user"), requests.map { request -> request.path }.sorted())
+        requests.forEach { request -> assertEquals("Bearer token", request.getHeader("Authorization")) }
+    }
+
+    @Test
+    fun `should use the streaming url the server announces`() {
+        assertEquals("https://streaming.mastodon.example/", StreamingClient.streamingUrl("mastodon.example", "wss://streaming.mastodon.example").toString())
+        assertEquals("https://mastodon.example/", StreamingClient.streamingUrl("mastodon.example", null).toString())
+    }
+}
@@ -0,0 +1,204 @@
+package com.keylesspalace.tusky.usecase
+
+import androidx.room.Room
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import at.connyduck.calladapter.networkresult.NetworkResult
+import com.keylesspalace.tusky.appstore.EventHub
+import com.keylesspalace.tusky.components.timeline.fakeHomeTimelineData
+import com.keylesspalace.tusky.components.timeline.fakeStatus
+import com.keylesspalace.tusky.components.timeline.insert
+import com.keylesspalace.tusky.db.AccountManager
+import com.keylesspalace.tusky.db.AppDatabase
+import com.keylesspalace.tusky.db.Converters
+import com.keylesspalace.tusky.db.StatusBlobConverters
+import com.keylesspalace.tusky.db.entity.AccountEntity
+import com.keylesspalace.tusky.db.entity.OutboxActionEntity
+import com.keylesspalace.tusky.db.sharedCache
+import com.keylesspalace.tusky.di.NetworkModule
+import com.keylesspalace.tusky.entity.Poll
+import com.keylesspalace.tusky.entity.PollOption
+import com.keylesspalace.tusky.entity.Status
+import com.keylesspalace.tusky.network.ApiProvider
+import com.keylesspalace.tusky.network.MastodonApi
+import java.io.IOException
+import kotlinx.coroutines.test.runTest
+import okhttp3.ResponseBody.Companion.toResponseBody
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.kotlin.any
+import org.mockito.kotlin.anyOrNull
+import org.mockito.kotlin.doReturn
+import org.mockito.kotlin.doReturnConsecutively
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.never
+import org.mockito.kotlin.times
+import org.mockito.kotlin.verify
+import org.robolectric.annotation.Config
+import retrofit2.HttpException
+import retrofit2.Response
+
+@Config(sdk = [34])
+@RunWith(AndroidJUnit4::class)
+class StatusActionOutboxTest {
+    private lateinit var db: AppDatabase
+
+    private val moshi = NetworkModule.providesMoshi()
+
+    private val account = AccountEntity(
+        id = 1,
+        domain = "mastodon.example",
+        accessToken = "token",
+        clientId = "id",
+        clientSecret = "secret",
+        isActive = true
+    )
+
+    private val accountManager: AccountManager = mock {
+        on { activeAccount } doReturn account
+        on { accounts } doReturn listOf(account)
+    }
+
+    private var scheduledFlushes = 0
+
+    @Before
+    fun createDb() {
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        db = Room.inMemoryDatabaseBuilder(context, AppDatabase::class.java)
+            .addTypeConverter(Converters(moshi))
+            .addTypeConverter(StatusBlobConverters(moshi))
+            .allowMainThreadQueries()
+            .build()
+    }
+
+    @After
+    fun closeDb() {
+        db.close()
+    }
+
+    @Test
+    fun `toggling a status back while offline sends nothing`() = runTest {
+        db.insert(listOf(fakeHomeTimelineData(id = "1")))
+        val api: MastodonApi = mock {
+            onBlocking { unbookmarkStatus("1") } doReturn NetworkResult.failure(IOException("offline"))
+        }
+        val outbox = outbox(api)
+
+        val unbookmarked = outbox.submit(OutboxActionEntity.Type.BOOKMARK, "1", false) { api.unbookmarkStatus("1") }
+        assertTrue(unbookmarked.exceptionOrNull() is ActionQueuedException)
+        assertFalse(db.timelineStatusDao().getStatus(1, "1")!!.bookmarked)
+        assertEquals(1, db.outboxDao().getAll().size)
+
+        val bookmarked = outbox.submit(OutboxActionEntity.Type.BOOKMARK, "1", true) { api.bookmarkStatus("1") }
+        assertTrue(bookmarked.exceptionOrNull() is ActionQueuedException)
+        assertTrue(db.timelineStatusDao().getStatus(1, "1")!!.bookmarked)
+        assertEquals(emptyList<OutboxActionEntity>(), db.outboxDao().getAll())
+
+        assertTrue(outbox.flush())
+        verify(api, times(1)).unbookmarkStatus("1")
+        verify(api, never()).bookmarkStatus(any())
+    }
+
+    @Test
+    fun `actions that could not be sent are sent when the outbox is flushed`() = runTest {
+        db.insert(listOf(fakeHomeTimelineData(id = "1")))
+        val api: MastodonApi = mock {
+            onBlocking { reblogStatus("1", "public") } doReturnConsecutively listOf(
+                NetworkResult.failure(IOException("offline")),
+                NetworkResult.success(fakeStatus(id = "2", reblog = fakeStatus(id = "1", reblogged = true)))
+            )
+        }
+        val outbox = outbox(api)
+
+        val result = outbox.submit(OutboxActionEntity.Type.REBLOG, "1", true, Status.Visibility.PUBLIC) {
+            api.reblogStatus("1", "public")
+        }
+
+        assertTrue(result.exceptionOrNull() is ActionQueuedException)
+        assertTrue(db.timelineStatusDao().getStatus(1, "1")!!.reblogged)
+        assertEquals(1, scheduledFlushes)
+
+        assertTrue(outbox.flush())
+        verify(api, times(2)).reblogStatus("1", "public")
+        assertEquals(emptyList<OutboxActionEntity>(), db.outboxDao().getAll())
+        assertTrue(db.timelineStatusDao().getStatus(1, "1")!!.reblogged)
+    }
+
+    @Test
+    fun `flushing keeps actions that still can't be sent and drops those of removed accounts`() = runTest {
+        val api: MastodonApi = mock {
+            onBlocking { favouriteStatus("1") } doReturn NetworkResult.failure(IOException("offline"))
+        }
+        val outbox = outbox(api)
+        db.outboxDao().upsert(
+            OutboxActionEntity(tuskyAccountId = 2, statusId = "1", type = OutboxActionEntity.Type.FAVOURITE, value = true, serverValue = false, createdAt = 1)
+        )
+
+        outbox.submit(OutboxActionEntity.Type.FAVOURITE, "1", true) { api.favouriteStatus("1") }
+
+        assertFalse(outbox.flush())
+        assertEquals(listOf(1L), db.outboxDao().getAll().map { action -> action.tuskyAccountId })
+    }
+
+    @Test
+    fun `actions the server rejects are taken back from the cache`() = runTest {
+        db.insert(listOf(fakeHomeTimelineData(id = "1")))
+        val api: MastodonApi = mock {
+            onBlocking { reblogStatus("1", "private") } doReturn NetworkResult.failure(
+                HttpException(Response.error<Status>(422, "{\"error\":\"Validation failed\"}".toResponseBody()))
+            )
+        }
+        val outbox = outbox(api)
+
+        val result = outbox.submit(OutboxActionEntity.Type.REBLOG, "1", true, Status.Visibility.PRIVATE) {
+            api.reblogStatus("1", "private")
+        }
+
+        assertTrue(result.exceptionOrNull() is HttpException)
+        assertFalse(db.timelineStatusDao().getStatus(1, "1")!!.reblogged)
+        assertEquals(emptyList<OutboxActionEntity>(), db.outboxDao().getAll())
+        assertEquals(0, scheduledFlushes)
+    }
+
+    @Test
+    fun `a vote the server rejects after it waited in the outbox is taken back from the cache`() = runTest {
+        val poll = Poll(
+            id = "poll1",
+            expired = false,
+            multiple = false,
+            votesCount = 3,
+            options = listOf(PollOption("yes", 2), PollOption("no", 1))
+        )
+        val item = fakeHomeTimelineData(id = "1")
+        db.insert(listOf(item.copy(status = item.status!!.copy(poll = poll))))
+        val api: MastodonApi = mock {
+            onBlocking { voteInPoll("poll1", listOf(1)) } doReturnConsecutively listOf(
+                NetworkResult.failure(IOException("offline")),
+                NetworkResult.failure(HttpException(Response.error<Poll>(422, "{\"error\":\"Poll has expired\"}".toResponseBody())))
+            )
+        }
+        val outbox = outbox(api)
+
+        val result = outbox.submit(OutboxActionEntity.Type.VOTE, "1", true, pollId = "poll1", choices = listOf(1)) {
+            api.voteInPoll("poll1", listOf(1))
+        }
+        assertTrue(result.exceptionOrNull() is ActionQueuedException)
+        assertEquals(poll.votedCopy(listOf(1)), db.timelineStatusDao().getStatus(1, "1")!!.poll)
+
+        assertTrue(outbox.flush())
+        assertEquals(poll, db.timelineStatusDao().getStatus(1, "1")!!.poll)
+        assertEquals(emptyList<OutboxActionEntity>(), db.outboxDao().getAll())
+    }
+
+    private fun outbox(api: MastodonApi): StatusActionOutbox {
+        val apiProvider: ApiProvider = mock {
+            on { mastodonApi(anyOrNull()) } doReturn api
+        }
+        return StatusActionOutbox(db.sharedCache(), accountManager, apiProvider, EventHub()) { scheduledFlushes++ }
+    }
+}
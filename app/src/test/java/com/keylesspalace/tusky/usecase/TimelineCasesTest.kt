@@ -35,7 +35,7 @@ class TimelineCasesTest {
     fun setup() {
         api = mock()
         eventHub = EventHub()
-        timelineCases = TimelineCases(api, eventHub)
+        timelineCases = TimelineCases(api, eventHub, mock())
     }
 
     @Test